@@ -0,0 +1,156 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import wrapper.ArenaAllocator;
+
+/**
+ * @author Andrei
+ * Checks ArenaAllocator against a plain array of who owns every unit, through a long run of random allocations
+ * and frees: ranges never overlap, freed space is merged so it can be allocated again in one piece, and
+ * compacting moves every range forward without overlapping the ones not copied yet and leaves the free space in
+ * one piece. Then times allocating and freeing the way the VertexArena does when meshes are streamed in and out.
+ */
+public class ArenaAllocatorBenchmark {
+
+	private static final int CAPACITY = 1 << 16;
+
+	public static void main(String[] args) {
+		Random random = new Random(44);
+		ArenaAllocator allocator = new ArenaAllocator(CAPACITY);
+		int[] owner = new int[CAPACITY]; //0 for free, otherwise the start + 1 of the range that has it
+		List<int[]> live = new ArrayList<int[]>(); //start, size
+		int failed = 0;
+		for (int step = 0; step < 200000; step++) {
+			if (live.isEmpty() || random.nextInt(100) < 55) {
+				int size = 1 + random.nextInt(random.nextInt(10) == 0 ? 4000 : 200);
+				int start = allocator.allocate(size);
+				if (start < 0) {
+					//only allowed to fail if there really is no free run that long
+					require(longestFreeRun(owner) < size, "failed with room left");
+					failed++;
+					continue;
+				}
+				for (int i = start; i < start + size; i++) {
+					require(owner[i] == 0, "allocated over another range");
+					owner[i] = start + 1;
+				}
+				live.add(new int[] { start, size });
+			} else {
+				int[] range = live.remove(random.nextInt(live.size()));
+				allocator.free(range[0]);
+				for (int i = range[0]; i < range[0] + range[1]; i++) {
+					owner[i] = 0;
+				}
+			}
+			if (step % 1000 == 0) {
+				check(allocator, owner);
+			}
+		}
+		check(allocator, owner);
+		System.out.printf("churn: %d ranges, %d failed allocations, fragmentation %.2f, %d free blocks: ok%n",
+				live.size(), failed, allocator.getFragmentation(), allocator.getFreeBlockCount());
+
+		//compacting, replaying the moves on the owner array in the order they come
+		final int[] moved = { 0 };
+		final int[] lastEnd = { 0 };
+		allocator.compact((from, to, size) -> {
+			require(to == lastEnd[0] && to <= from, "moved out of order or backwards");
+			for (int i = 0; i < size; i++) {
+				require(owner[from + i] == from + 1, "moved something that wasn't a range");
+				owner[from + i] = 0;
+				owner[to + i] = to + 1;
+			}
+			lastEnd[0] = to + size;
+			moved[0]++;
+		});
+		require(moved[0] == live.size(), "not every range was handed to the mover");
+		require(allocator.getFragmentation() == 0 && allocator.getFreeBlockCount() <= 1, "still fragmented");
+		check(allocator, owner);
+		for (int[] range : new ArrayList<int[]>(live)) { //everything can still be freed where it is now
+			allocator.free(firstStart(owner, range));
+		}
+		require(allocator.getUsed() == 0 && allocator.getLargestFree() == CAPACITY, "freeing didn't merge back");
+		System.out.println("compaction: ok");
+
+		try {
+			allocator.free(123);
+			throw new AssertionError("freed a range that wasn't allocated");
+		} catch (IllegalArgumentException expected) {
+		}
+
+		//the cost of an allocation and a free with a few hundred meshes in it
+		for (int run = 0; run < 5; run++) {
+			ArenaAllocator timed = new ArenaAllocator(1 << 20);
+			int[] starts = new int[400];
+			for (int i = 0; i < starts.length; i++) {
+				starts[i] = timed.allocate(100 + random.nextInt(2000));
+			}
+			long start = System.nanoTime();
+			int operations = 0;
+			for (int i = 0; i < 200000; i++) {
+				int slot = random.nextInt(starts.length);
+				if (starts[slot] >= 0) {
+					timed.free(starts[slot]);
+				}
+				starts[slot] = timed.allocate(100 + random.nextInt(2000));
+				operations++;
+			}
+			long nanos = System.nanoTime() - start;
+			System.out.printf("free + allocate: %.0f ns, fragmentation %.2f over %d free blocks%n",
+					nanos / (double) operations, timed.getFragmentation(), timed.getFreeBlockCount());
+		}
+	}
+
+	//the allocator's numbers have to match the owner array
+	private static void check(ArenaAllocator allocator, int[] owner) {
+		int used = 0;
+		for (int unit : owner) {
+			if (unit != 0) {
+				used++;
+			}
+		}
+		require(allocator.getUsed() == used, "used units don't match");
+		require(allocator.getLargestFree() == longestFreeRun(owner), "free ranges weren't merged");
+	}
+
+	private static int longestFreeRun(int[] owner) {
+		int longest = 0, run = 0;
+		for (int unit : owner) {
+			run = unit == 0 ? run + 1 : 0;
+			longest = Math.max(longest, run);
+		}
+		return longest;
+	}
+
+	//where a range is after compacting, found by its size among the ones still in the owner array
+	private static int firstStart(int[] owner, int[] range) {
+		for (int i = 0; i < owner.length; i++) {
+			if (owner[i] == i + 1 && runLength(owner, i) == range[1]) {
+				int start = i;
+				for (int j = start; j < start + range[1]; j++) {
+					owner[j] = 0;
+				}
+				return start;
+			}
+		}
+		throw new AssertionError("lost a range of " + range[1]);
+	}
+
+	private static int runLength(int[] owner, int start) {
+		int length = 0;
+		while (start + length < owner.length && owner[start + length] == start + 1) {
+			length++;
+		}
+		return length;
+	}
+
+	private static void require(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+}
@@ -0,0 +1,97 @@
+package benchmark;
+
+import java.util.Random;
+
+import wrapper.FramePacer;
+import wrapper.FrameStats;
+
+/**
+ * @author Andrei
+ * Measures how evenly frames are spaced when pacing with FramePacer, compared to what DisplayManager used to do
+ * (a millisecond clock and sleeping the rest of the frame away), at 60 and 144 fps (or the rates given as arguments).
+ * Every frame does 2 to 6 ms of made up work first. No display is needed.
+ *
+ * Usage: FramePacingBenchmark [fps...]
+ */
+public class FramePacingBenchmark {
+
+	private static final int FRAMES = 300;
+
+	public static void main(String[] args) {
+		int[] rates = { 60, 144 };
+		if (args.length > 0) {
+			rates = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				rates[i] = Integer.parseInt(args[i]);
+			}
+		}
+		System.out.printf("%-5s %-14s %9s %9s %9s %9s %10s %8s%n", "fps", "pacing", "mean ms", "p50 ms", "p99 ms",
+				"max ms", "stddev us", "hitches");
+		for (int fps : rates) {
+			run(fps, "sleep, ms clock", new MillisecondSleep(fps));
+			FramePacer pacer = new FramePacer(fps);
+			run(fps, "FramePacer", pacer::sync);
+		}
+	}
+
+	private static void run(int fps, String name, Runnable pacing) {
+		Random random = new Random(fps);
+		FrameStats stats = new FrameStats(FRAMES);
+		long period = 1000000000L / fps;
+		long last = System.nanoTime();
+		double sum = 0, sumSquares = 0;
+		for (int frame = 0; frame < FRAMES + 30; frame++) {
+			work(Math.min(period / 2, 2000000 + random.nextInt(4000000)));
+			pacing.run();
+			long now = System.nanoTime();
+			long frameNanos = now - last;
+			last = now;
+			if (frame >= 30) { //the first few frames are the warm up
+				stats.record(frameNanos);
+				sum += frameNanos;
+				sumSquares += (double) frameNanos * frameNanos;
+			}
+		}
+		double mean = sum / FRAMES;
+		double deviation = Math.sqrt(Math.max(0, sumSquares / FRAMES - mean * mean));
+		System.out.printf("%-5d %-14s %9.3f %9.3f %9.3f %9.3f %10.1f %8d%n", fps, name, mean / 1e6,
+				stats.getPercentile(0.5) / 1e6, stats.getPercentile(0.99) / 1e6, stats.getMax() / 1e6, deviation / 1e3,
+				stats.getHitches());
+	}
+
+	//busy work standing in for updating and drawing a frame
+	private static void work(long nanos) {
+		long end = System.nanoTime() + nanos;
+		while (System.nanoTime() < end) {
+			Thread.onSpinWait();
+		}
+	}
+
+	//roughly what Display.sync did with the millisecond clock from Sys.getTime
+	private static class MillisecondSleep implements Runnable {
+
+		private final long period;
+		private long nextFrame = -1;
+
+		private MillisecondSleep(int fps) {
+			period = 1000 / fps;
+		}
+
+		@Override
+		public void run() {
+			long now = System.nanoTime() / 1000000;
+			if (nextFrame < 0) {
+				nextFrame = now;
+			}
+			if (nextFrame > now) {
+				try {
+					Thread.sleep(nextFrame - now);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			nextFrame = Math.max(nextFrame + period, now);
+		}
+	}
+
+}
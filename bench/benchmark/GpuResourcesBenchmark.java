@@ -0,0 +1,138 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import wrapper.GpuResource;
+import wrapper.GpuResources;
+
+/**
+ * @author Andrei
+ * Checks GpuResources without a GPU, with resources that only write down that they were deleted: the memory adds
+ * up by category, a released resource is deleted exactly DELETE_DELAY frames later and not before its last
+ * reference is gone, and over the budget the least recently used evictable resources go first and nothing that
+ * was drawn in the last few frames does. Then times touching a resource and ending a frame.
+ */
+public class GpuResourcesBenchmark {
+
+	private static final long MB = 1024 * 1024;
+
+	private static final List<String> deleted = new ArrayList<String>();
+	private static final List<String> evicted = new ArrayList<String>();
+
+	public static void main(String[] args) {
+		GpuResources resources = new GpuResources();
+		Fake mesh = new Fake("mesh", GpuResource.Category.VERTEX, 3000);
+		mesh.addIndexBytes(1000);
+		resources.add(mesh);
+		Fake texture = resources.add(new Fake("texture", GpuResource.Category.TEXTURE, 4 * MB));
+		require(resources.getBytes(GpuResource.Category.VERTEX) == 3000
+				&& resources.getBytes(GpuResource.Category.INDEX) == 1000
+				&& resources.getBytes(GpuResource.Category.TEXTURE) == 4 * MB, "the bytes don't add up");
+
+		//two references, the first release keeps it
+		mesh.retain();
+		mesh.release();
+		resources.endFrame();
+		require(resources.getPendingCount() == 0 && deleted.isEmpty(), "deleted with a reference left");
+
+		//the last one deletes it DELETE_DELAY frames later
+		mesh.release();
+		for (int frame = 0; frame < GpuResources.DELETE_DELAY; frame++) {
+			require(deleted.isEmpty() && resources.getCount() == 2, "deleted too early");
+			resources.endFrame();
+		}
+		require(deleted.size() == 1 && deleted.get(0).equals("mesh"), "not deleted after the delay");
+		require(resources.getBytes(GpuResource.Category.VERTEX) == 0 && resources.getCount() == 1, "the bytes stayed");
+		try {
+			mesh.release();
+			throw new AssertionError("released twice without complaining");
+		} catch (IllegalStateException expected) {
+		}
+		System.out.println("references and deferred deletion: ok");
+
+		//ten evictable textures of a MB each, used in different frames, and the 4 MB one that can't be evicted
+		List<Fake> streamed = new ArrayList<Fake>();
+		for (int i = 0; i < 10; i++) {
+			Fake resource = resources.add(new Fake("streamed " + i, GpuResource.Category.TEXTURE, MB));
+			resource.setEvictable(() -> evicted.add(resource.getName()));
+			streamed.add(resource);
+		}
+		int[] lastUsed = { 5, 1, 8, 0, 9, 3, 7, 2, 6, 4 }; //the order they were last used in
+		for (int frame = 0; frame < 10; frame++) {
+			for (int i = 0; i < 10; i++) {
+				if (lastUsed[i] == frame) {
+					streamed.get(i).touch();
+				}
+			}
+			texture.touch();
+			resources.endFrame();
+		}
+		//14 MB, 10 MB budget: the four least recently used go, if they weren't used in the last few frames
+		resources.setBudget(10 * MB);
+		resources.endFrame();
+		System.out.println("evicted " + evicted + ", " + resources.getTotalBytes() / MB + " MB left");
+		require(evicted.equals(List.of("streamed 3", "streamed 1", "streamed 7", "streamed 5")),
+				"didn't evict the least recently used ones");
+		require(resources.getTotalBytes() == 10 * MB && !texture.isReleased(), "evicted the wrong amount");
+		streamed.get(3).release(); //the owner letting go after the eviction is fine
+
+		//over budget with everything used just now, nothing may go
+		resources.setBudget(MB);
+		for (Fake resource : streamed) {
+			if (!resource.isEvicted()) {
+				resource.touch();
+			}
+		}
+		resources.endFrame();
+		require(evicted.size() == 4, "evicted something that was still being drawn");
+		for (int frame = 0; frame <= GpuResources.DELETE_DELAY; frame++) {
+			resources.endFrame();
+		}
+		require(evicted.size() == 10 && resources.getTotalBytes() == 4 * MB, "didn't evict down to the budget");
+		System.out.println("budget and eviction: ok");
+
+		//the cost of touching what is drawn and of a frame with nothing to do, with a lot of resources
+		GpuResources many = new GpuResources();
+		Fake[] all = new Fake[10000];
+		for (int i = 0; i < all.length; i++) {
+			all[i] = many.add(new Fake("r" + i, GpuResource.Category.VERTEX, 1000));
+		}
+		for (int run = 0; run < 5; run++) {
+			long start = System.nanoTime();
+			for (int frame = 0; frame < 1000; frame++) {
+				for (Fake resource : all) {
+					resource.touch();
+				}
+				many.endFrame();
+			}
+			long nanos = System.nanoTime() - start;
+			System.out.printf("touch: %.2f ns, frame with %d resources: %.1f us%n", nanos / 1e7, all.length, nanos / 1e6);
+		}
+	}
+
+	private static void require(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+	//a resource without anything on the GPU
+	private static class Fake extends GpuResource {
+
+		private Fake(String name, Category category, long bytes) {
+			super(name);
+			addBytes(category, bytes);
+		}
+
+		private void addIndexBytes(long bytes) {
+			addBytes(Category.INDEX, bytes);
+		}
+
+		@Override
+		protected void delete() {
+			deleted.add(getName());
+		}
+	}
+
+}
@@ -0,0 +1,362 @@
+package benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import entities.Entity;
+import entities.EntityStore;
+import entities.Light;
+import entities.Terrain;
+import models.RawModel;
+import models.TexturedModel;
+import shaders.LightUniforms;
+import shaders.ShaderProgram;
+import shaders.StaticShader;
+import shaders.UniformSink;
+import tools.MeshGenerator;
+import tools.ModelData;
+import tools.OBJFileLoader;
+import wrapper.EntityBatcher;
+import wrapper.ModelTexture;
+
+/**
+ * @author Andrei
+ * The CPU side hot paths that don't need a display, as JMH benchmarks, to compare builds with.
+ * The score is the average time per operation: per height or per matrix where a call does a whole array of them,
+ * per frame of entities for the batching, per entity for the shader loads. bench/run.sh runs these through the Gradle build and keeps the JSON.
+ * The matrices are in MathsBenchmark, next to the way they used to be built.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 300, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 300, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+public class HotPathBenchmark {
+
+	private static final int POINTS = 1024;
+
+	//OBJ parsing, the bundled lamp and a generated mesh about 20 times its size
+	@State(Scope.Benchmark)
+	public static class Meshes {
+
+		@Param({ "lamp", "blob 96x96" })
+		public String mesh;
+
+		private File file;
+
+		@Setup
+		public void setUp() throws IOException {
+			if (!mesh.equals("lamp")) {
+				file = writeObj(MeshGenerator.createBlob(96, 96, 2, 0.1f));
+			}
+		}
+
+		@TearDown
+		public void tearDown() {
+			if (file != null) {
+				file.delete();
+			}
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Heights {
+
+		private final Terrain terrain = new Terrain(-1, -1, "heightmap");
+		private final float[] points = new float[POINTS * 2];
+
+		@Setup
+		public void setUp() {
+			Random random = new Random(7);
+			for (int i = 0; i < points.length; i++) {
+				points[i] = -800 + random.nextFloat() * 800;
+			}
+		}
+	}
+
+	//the visible entities of a frame, spread evenly over 16 made up models
+	@State(Scope.Benchmark)
+	public static class Frame {
+
+		@Param({ "10000", "100000" })
+		public int entities;
+
+		private List<Entity> visible;
+		private final Map<TexturedModel, List<Entity>> legacy = new HashMap<TexturedModel, List<Entity>>();
+		private final EntityBatcher batcher = new EntityBatcher();
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			visible = createEntities(entities, 16);
+		}
+	}
+
+	//the lights of a frame, packed for the shader: 3 uniform calls where it used to be 3 per light
+	@State(Scope.Benchmark)
+	public static class Lights {
+
+		@Param({ "64", "7" })
+		public int capacity;
+
+		private final List<Light> lights = new ArrayList<Light>();
+		private LightUniforms uniforms;
+
+		@Setup
+		public void setUp() {
+			for (int i = 0; i < 64; i++) {
+				lights.add(new Light(new Vector3f(i, 10, -i), new Vector3f(1, 0.5f, 0.2f),
+						new Vector3f(1, 0.01f, 0.002f)));
+			}
+			uniforms = new LightUniforms(capacity);
+		}
+	}
+
+	//a StaticShader with every feature, made and loaded against a sink that does nothing with the uniforms, so what is
+	//timed is the compare with what each uniform last got and, for the ones that changed, filling the buffer and the call
+	//every entity has its own matrix (all of them go up) or they all have the same one (all but the first are skipped)
+	@State(Scope.Benchmark)
+	public static class Shader {
+
+		@Param({ "distinct", "identical" })
+		public String matrices;
+
+		private final NoGL sink = new NoGL();
+		private StaticShader shader;
+		private final float[] transformations = new float[POINTS * 16];
+		private final int[][] lightIndices = new int[StaticShader.MAX_LIGHTS][];
+		private final List<Light> lights = new ArrayList<Light>();
+		private final Matrix4f projection = new Matrix4f();
+		private final float[] shadowMatrices = new float[StaticShader.SHADOW_CASCADES * 16];
+		private final float[] cascadeEnds = { 20, 80, 300 };
+
+		@Setup
+		public void setUp() {
+			ShaderProgram.setUniformSink(sink);
+			shader = new StaticShader(StaticShader.ALL_FEATURES | StaticShader.SHADOWS);
+			Matrix4f matrix = new Matrix4f();
+			for (int i = 0; i < POINTS; i++) {
+				if (matrices.equals("distinct")) {
+					matrix.setIdentity();
+					matrix.translate(new Vector3f(i, 0, -i));
+				}
+				matrix.store(FloatBuffer.wrap(transformations, i * 16, 16));
+			}
+			//the entities near each other share their lights, 1 to MAX_LIGHTS of them
+			for (int i = 0; i < lightIndices.length; i++) {
+				lightIndices[i] = new int[i + 1];
+				for (int j = 0; j <= i; j++) {
+					lightIndices[i][j] = i + j;
+				}
+			}
+			for (int i = 0; i < StaticShader.FRAME_LIGHTS; i++) {
+				lights.add(new Light(new Vector3f(i, 10, -i), new Vector3f(1, 0.5f, 0.2f),
+						new Vector3f(1, 0.01f, 0.002f)));
+			}
+		}
+
+		@TearDown
+		public void tearDown() {
+			ShaderProgram.setUniformSink(UniformSink.GL);
+		}
+	}
+
+	@Benchmark
+	public ModelData loadOBJ(Meshes meshes) {
+		return meshes.file == null ? OBJFileLoader.loadOBJ(meshes.mesh) : OBJFileLoader.loadOBJ(meshes.file);
+	}
+
+	@Benchmark
+	public Terrain createTerrain() {
+		return new Terrain(-1, -1, "heightmap");
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public float getHeightOfTerrain(Heights heights) {
+		float sum = 0;
+		float[] points = heights.points;
+		for (int i = 0; i < points.length; i += 2) {
+			sum += heights.terrain.getHeightOfTerrain(points[i], points[i + 1]);
+		}
+		return sum;
+	}
+
+	//the way MasterRenderer batched before EntityBatcher, new lists every frame
+	@Benchmark
+	public Map<TexturedModel, List<Entity>> batchIntoNewLists(Frame frame) {
+		frame.legacy.clear();
+		for (Entity entity : frame.visible) {
+			List<Entity> batch = frame.legacy.get(entity.getModel());
+			if (batch == null) {
+				batch = new ArrayList<Entity>();
+				frame.legacy.put(entity.getModel(), batch);
+			}
+			batch.add(entity);
+		}
+		return frame.legacy;
+	}
+
+	@Benchmark
+	public EntityBatcher batchWithEntityBatcher(Frame frame) {
+		frame.batcher.clear();
+		for (Entity entity : frame.visible) {
+			frame.batcher.add(entity);
+		}
+		return frame.batcher;
+	}
+
+	//the terrain shader only has room for a few and fills the rest with nothing
+	@Benchmark
+	public int packLights(Lights lights) {
+		return lights.uniforms.pack(lights.lights, lights.capacity < lights.lights.size());
+	}
+
+	//what EntityRenderer loads for every entity it draws
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public long loadEntityUniforms(Shader shader) {
+		StaticShader program = shader.shader;
+		for (int i = 0; i < POINTS; i++) {
+			int[] indices = shader.lightIndices[i / 32 % StaticShader.MAX_LIGHTS];
+			program.loadTransformationMatrix(shader.transformations, i * 16);
+			program.loadLightIndices(indices, indices.length);
+		}
+		return program.getUploads() + shader.sink.calls;
+	}
+
+	//what the renderer loads once a frame, one of the lights moved so only the positions go up again
+	@Benchmark
+	public long loadFrameUniforms(Shader shader) {
+		StaticShader program = shader.shader;
+		Vector3f position = shader.lights.get(0).getPosition();
+		position.x = -position.x;
+		program.loadProjectionMatrix(shader.projection);
+		program.loadLights(shader.lights);
+		program.loadShadows(shader.shadowMatrices, shader.cascadeEnds, 0);
+		return program.getUploads() + shader.sink.calls;
+	}
+
+	//entities spread evenly over a number of made up models, none of them uploaded
+	private static List<Entity> createEntities(int count, int modelCount) {
+		TexturedModel[] models = new TexturedModel[modelCount];
+		for (int i = 0; i < modelCount; i++) {
+			models[i] = new TexturedModel(new RawModel(i + 1, 36, 1), new ModelTexture(i + 1));
+		}
+		EntityStore store = new EntityStore(count);
+		Random random = new Random(count);
+		List<Entity> entities = new ArrayList<Entity>(count);
+		for (int i = 0; i < count; i++) {
+			entities.add(new Entity(store, models[random.nextInt(modelCount)], new Vector3f(i, 0, 0), 0, 0, 0, 1));
+		}
+		return entities;
+	}
+
+	//OpenGL that does nothing, it hands out a new location for every uniform asked for and counts the uploads
+	private static class NoGL implements UniformSink {
+
+		private int locations = 0;
+		private long calls = 0;
+
+		@Override
+		public int getLocation(int programID, String name) {
+			return locations++;
+		}
+
+		@Override
+		public void uniform1i(int location, int value) {
+			calls++;
+		}
+
+		@Override
+		public void uniform1f(int location, float value) {
+			calls++;
+		}
+
+		@Override
+		public void uniform2f(int location, float x, float y) {
+			calls++;
+		}
+
+		@Override
+		public void uniform3f(int location, float x, float y, float z) {
+			calls++;
+		}
+
+		@Override
+		public void uniform4f(int location, float x, float y, float z, float w) {
+			calls++;
+		}
+
+		@Override
+		public void uniform1(int location, IntBuffer values) {
+			calls++;
+		}
+
+		@Override
+		public void uniform1(int location, FloatBuffer values) {
+			calls++;
+		}
+
+		@Override
+		public void uniform3(int location, FloatBuffer values) {
+			calls++;
+		}
+
+		@Override
+		public void uniformMatrix4(int location, FloatBuffer matrices) {
+			calls++;
+		}
+	}
+
+	//writes a mesh as an OBJ file that OBJFileLoader can read, every vertex with its own texture coordinate and normal
+	private static File writeObj(ModelData mesh) throws IOException {
+		File file = File.createTempFile("mesh", ".obj");
+		try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+			float[] positions = mesh.getVertices(), textures = mesh.getTextureCoords(), normals = mesh.getNormals();
+			for (int i = 0; i < positions.length; i += 3) {
+				out.printf(Locale.ROOT, "v %f %f %f%n", positions[i], positions[i + 1], positions[i + 2]);
+			}
+			for (int i = 0; i < textures.length; i += 2) {
+				out.printf(Locale.ROOT, "vt %f %f%n", textures[i], textures[i + 1]);
+			}
+			for (int i = 0; i < normals.length; i += 3) {
+				out.printf(Locale.ROOT, "vn %f %f %f%n", normals[i], normals[i + 1], normals[i + 2]);
+			}
+			int[] indices = mesh.getIndices();
+			for (int i = 0; i < indices.length; i += 3) {
+				int a = indices[i] + 1, b = indices[i + 1] + 1, c = indices[i + 2] + 1;
+				out.printf("f %d/%d/%d %d/%d/%d %d/%d/%d%n", a, a, a, b, b, b, c, c, c);
+			}
+		}
+		return file;
+	}
+
+}
@@ -0,0 +1,144 @@
+package benchmark;
+
+import java.util.Random;
+
+import org.lwjgl.util.vector.Vector3f;
+
+import tools.Octahedral;
+
+/**
+ * @author Andrei
+ * Checks the maths of the impostors the way ImpostorBaker and the impostor shaders use it: a direction goes to the
+ * square and back unchanged, the frames sit exactly on the grid points, the four frames blended for any direction
+ * include one close to it, their weights add up to 1, and the picture's axes are at right angles. Then times
+ * picking the frames, which the vertex shader does for every corner of every impostor.
+ */
+public class ImpostorBenchmark {
+
+	//the same as ImpostorBaker
+	private static final int FRAMES = 8;
+
+	public static void main(String[] args) {
+		Random random = new Random(50);
+		float[] square = new float[2];
+		Vector3f direction = new Vector3f(), decoded = new Vector3f();
+
+		//there and back
+		float worst = 0;
+		for (int i = 0; i < 1000000; i++) {
+			randomDirection(random, direction);
+			Octahedral.encode(direction.x, direction.y, direction.z, square);
+			require(Math.abs(square[0]) <= 1.0001f && Math.abs(square[1]) <= 1.0001f, "a direction is off the square");
+			Octahedral.decode(square[0], square[1], decoded);
+			worst = Math.max(worst, angle(direction, decoded));
+		}
+		System.out.printf("there and back: %.5f degrees at most%n", worst);
+		require(worst < 0.01f, "decoding doesn't give the direction back");
+
+		//the frames are where gridPosition puts their directions, the middle one looks down on the model and the
+		//corners are on the horizon
+		Vector3f frame = new Vector3f();
+		for (int y = 0; y < FRAMES; y++) {
+			for (int x = 0; x < FRAMES; x++) {
+				Octahedral.frameDirection(x, y, FRAMES, frame);
+				require(frame.y >= -1e-6f, "frame " + x + ", " + y + " looks from below");
+				Octahedral.gridPosition(frame.x, frame.y, frame.z, FRAMES, square);
+				require(Math.abs(square[0] - x) < 1e-3f && Math.abs(square[1] - y) < 1e-3f,
+						"frame " + x + ", " + y + " is at " + square[0] + ", " + square[1]);
+			}
+		}
+		Octahedral.frameDirection(0, 0, FRAMES, frame);
+		require(Math.abs(frame.y) < 1e-6f, "the corner frame isn't on the horizon");
+		Octahedral.decode(0, 0, frame);
+		require(frame.y > 0.9999f, "the middle of the square isn't straight up");
+		System.out.println("frames on the grid: ok");
+
+		//the four frames that are blended, with the weights of the vertex shader
+		float furthest = 0, weightError = 0;
+		for (int i = 0; i < 200000; i++) {
+			randomDirection(random, direction);
+			Octahedral.gridPosition(direction.x, direction.y, direction.z, FRAMES, square);
+			int firstX = Math.min((int) Math.floor(square[0]), FRAMES - 2);
+			int firstY = Math.min((int) Math.floor(square[1]), FRAMES - 2);
+			float blendX = square[0] - firstX, blendY = square[1] - firstY;
+			require(blendX >= 0 && blendX <= 1 && blendY >= 0 && blendY <= 1, "a blend is outside of its square");
+			float[] weights = { (1 - blendX) * (1 - blendY), blendX * (1 - blendY), (1 - blendX) * blendY,
+					blendX * blendY };
+			float sum = 0, closest = 180;
+			for (int f = 0; f < 4; f++) {
+				sum += weights[f];
+				Octahedral.frameDirection(firstX + f % 2, firstY + f / 2, FRAMES, frame);
+				closest = Math.min(closest, angle(direction, frame));
+			}
+			weightError = Math.max(weightError, Math.abs(sum - 1));
+			furthest = Math.max(furthest, closest);
+		}
+		System.out.printf("%d x %d frames: the closest blended frame is %.1f degrees away at most, weights off by %.1e%n",
+				FRAMES, FRAMES, furthest, weightError);
+		require(weightError < 1e-5f, "the weights don't add up to 1");
+		require(furthest < 180f / FRAMES, "the blended frames are too far from the direction");
+
+		//the axes of the pictures, straight up as well
+		Vector3f right = new Vector3f(), up = new Vector3f();
+		for (int i = 0; i < 100000; i++) {
+			if (i == 0) {
+				direction.set(0, 1, 0);
+			} else {
+				randomDirection(random, direction);
+			}
+			Octahedral.basis(direction, right, up);
+			require(Math.abs(right.length() - 1) < 1e-4f && Math.abs(up.length() - 1) < 1e-4f, "an axis isn't 1 long");
+			require(Math.abs(Vector3f.dot(right, up)) < 1e-4f && Math.abs(Vector3f.dot(right, direction)) < 1e-4f
+					&& Math.abs(Vector3f.dot(up, direction)) < 1e-4f, "the axes aren't at right angles");
+			//right-handed like a camera looking back along the direction, so the pictures aren't mirrored
+			Vector3f cross = Vector3f.cross(right, up, null);
+			require(Vector3f.dot(cross, direction) > 0.999f, "the picture is mirrored");
+			require(direction.y > 0.999f || up.y >= -1e-4f, "the picture is upside down");
+		}
+		System.out.println("picture axes: ok");
+
+		//picking the frames, once per corner of every impostor on the GPU, here for comparison
+		float[] directions = new float[3 * 4096];
+		for (int i = 0; i < 4096; i++) {
+			randomDirection(random, direction);
+			directions[i * 3] = direction.x;
+			directions[i * 3 + 1] = direction.y;
+			directions[i * 3 + 2] = direction.z;
+		}
+		float sink = 0;
+		for (int run = 0; run < 5; run++) {
+			long start = System.nanoTime();
+			int picks = 0;
+			for (int repeat = 0; repeat < 500; repeat++) {
+				for (int i = 0; i < 4096; i++, picks++) {
+					Octahedral.gridPosition(directions[i * 3], directions[i * 3 + 1], directions[i * 3 + 2], FRAMES,
+							square);
+					sink += square[0] + square[1];
+				}
+			}
+			long nanos = System.nanoTime() - start;
+			System.out.printf("gridPosition: %.1f ns%n", nanos / (double) picks);
+		}
+		require(sink != 0, "nothing was picked");
+	}
+
+	//a unit direction on the upper half of the sphere, where impostors are seen from
+	private static void randomDirection(Random random, Vector3f dest) {
+		do {
+			dest.set(random.nextFloat() * 2 - 1, random.nextFloat(), random.nextFloat() * 2 - 1);
+		} while (dest.lengthSquared() > 1 || dest.lengthSquared() < 1e-4f);
+		dest.normalise();
+	}
+
+	//from the cross product as well as the dot product, acos alone can't tell small angles apart in floats
+	private static float angle(Vector3f a, Vector3f b) {
+		return (float) Math.toDegrees(Math.atan2(Vector3f.cross(a, b, null).length(), Vector3f.dot(a, b)));
+	}
+
+	private static void require(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+}
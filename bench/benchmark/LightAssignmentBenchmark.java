@@ -0,0 +1,154 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Light;
+import tools.Frustum;
+import wrapper.LightAssigner;
+
+/**
+ * @author Andrei
+ * Measures the CPU cost per frame of picking lights for every entity, with 1k, 5k and 20k lamps
+ * (or the counts given as arguments) spread over a field at a constant density, and 20k entities.
+ * The lights picked for a few entities are checked against ranking every light in the frame table.
+ *
+ * Usage: LightAssignmentBenchmark [lights...]
+ */
+public class LightAssignmentBenchmark {
+
+	private static final int ENTITIES = 20000;
+	private static final int FRAMES = 50;
+	private static final int FRAME_LIGHTS = 64;
+	private static final int LIGHTS_PER_ENTITY = 7;
+
+	public static void main(String[] args) {
+		int[] counts = { 1000, 5000, 20000 };
+		if (args.length > 0) {
+			counts = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				counts[i] = Integer.parseInt(args[i]);
+			}
+		}
+		System.out.printf("%-8s %12s %12s %14s %14s%n", "lights", "frame ms", "table ms", "ns per entity",
+				"lights tested");
+		for (int count : counts) {
+			run(count);
+		}
+	}
+
+	private static void run(int count) {
+		Random random = new Random(count);
+		float extent = (float) Math.sqrt(count) * 60; //a lamp every 60 units or so
+		List<Light> lights = new ArrayList<Light>();
+		lights.add(new Light(new Vector3f(0, 10000, -7000), new Vector3f(0.4f, 0.4f, 0.4f))); //the sun
+		for (int i = 0; i < count; i++) {
+			lights.add(new Light(new Vector3f(random.nextFloat() * extent, 40, random.nextFloat() * extent),
+					new Vector3f(random.nextFloat() * 2, random.nextFloat() * 2, random.nextFloat() * 2),
+					new Vector3f(1, 0.01f, 0.002f)));
+		}
+		//the entities are around the camera, like the ones that survive frustum culling
+		float cameraX = extent / 2, cameraZ = extent / 2;
+		float[] entities = new float[ENTITIES * 4];
+		for (int i = 0; i < ENTITIES; i++) {
+			entities[i * 4] = cameraX + random.nextFloat() * 600 - 300;
+			entities[i * 4 + 1] = random.nextFloat() * 20;
+			entities[i * 4 + 2] = cameraZ - random.nextFloat() * 600;
+			entities[i * 4 + 3] = 1 + random.nextFloat() * 10;
+		}
+		Frustum frustum = new Frustum();
+		frustum.update(createProjection(), createView(cameraX, 20, cameraZ));
+		Vector3f camera = new Vector3f(cameraX, 20, cameraZ);
+
+		LightAssigner assigner = new LightAssigner(FRAME_LIGHTS, LIGHTS_PER_ENTITY);
+		int[] indices = new int[LIGHTS_PER_ENTITY];
+		long total = 0, table = 0, tested = 0;
+		for (int frame = 0; frame < FRAMES * 2; frame++) {
+			List<Light> frameLights = assigner.beginFrame(lights, frustum, camera);
+			long tableNanos = assigner.getFrameNanos();
+			for (int i = 0; i < ENTITIES; i++) {
+				assigner.assign(entities[i * 4], entities[i * 4 + 1], entities[i * 4 + 2], entities[i * 4 + 3], indices);
+			}
+			if (frame == 0) {
+				verify(assigner, frameLights, entities, indices);
+			}
+			if (frame >= FRAMES) { //the first half is the warm up
+				total += assigner.getFrameNanos();
+				table += tableNanos;
+				tested += assigner.getTestedLights();
+			}
+		}
+		System.out.printf("%-8d %12.3f %12.3f %14.1f %14d%n", count, total / 1e6 / FRAMES, table / 1e6 / FRAMES,
+				(total - table) / (double) FRAMES / ENTITIES, tested / FRAMES);
+	}
+
+	//the lights picked for an entity have to be the brightest ones in the frame table that reach it
+	private static void verify(LightAssigner assigner, List<Light> frameLights, float[] entities, int[] indices) {
+		for (int e = 0; e < 100; e++) {
+			float x = entities[e * 4], y = entities[e * 4 + 1], z = entities[e * 4 + 2], r = entities[e * 4 + 3];
+			int count = assigner.assign(x, y, z, r, indices);
+			float weakestPicked = Float.POSITIVE_INFINITY;
+			for (int i = 0; i < count; i++) {
+				Light light = frameLights.get(indices[i]);
+				if (!Float.isInfinite(LightAssigner.getInfluenceRadius(light))) {
+					weakestPicked = Math.min(weakestPicked, brightness(light, x, y, z, r));
+				}
+			}
+			int better = 0, reaching = 0;
+			for (Light light : frameLights) {
+				float reach = LightAssigner.getInfluenceRadius(light);
+				if (Float.isInfinite(reach) || distance(light, x, y, z) > reach + r) {
+					continue;
+				}
+				reaching++;
+				if (brightness(light, x, y, z, r) > weakestPicked) {
+					better++;
+				}
+			}
+			int positional = count - assigner.getGlobalSlots().size();
+			if (positional != Math.min(reaching, LIGHTS_PER_ENTITY - assigner.getGlobalSlots().size())
+					|| better > positional) {
+				throw new IllegalStateException("entity " + e + " got " + positional + " lights, " + reaching
+						+ " reach it and " + better + " are brighter than the weakest one picked");
+			}
+		}
+	}
+
+	private static float distance(Light light, float x, float y, float z) {
+		Vector3f p = light.getPosition();
+		return (float) Math.sqrt((p.x - x) * (p.x - x) + (p.y - y) * (p.y - y) + (p.z - z) * (p.z - z));
+	}
+
+	private static float brightness(Light light, float x, float y, float z, float r) {
+		float d = Math.max(distance(light, x, y, z) - r, 0);
+		Vector3f a = light.getAttenuation(), c = light.getColour();
+		return Math.max(c.x, Math.max(c.y, c.z)) / (a.x + a.y * d + a.z * d * d);
+	}
+
+	//same projection as MasterRenderer, for a 16:9 window
+	private static Matrix4f createProjection() {
+		float aspectRatio = 16f / 9f, near = 0.1f, far = 1000;
+		float yScale = (float) ((1f / Math.tan(Math.toRadians(35))) * aspectRatio);
+		Matrix4f projection = new Matrix4f();
+		projection.m00 = yScale / aspectRatio;
+		projection.m11 = yScale;
+		projection.m22 = -((far + near) / (far - near));
+		projection.m23 = -1;
+		projection.m32 = -((2 * near * far) / (far - near));
+		projection.m33 = 0;
+		return projection;
+	}
+
+	//looking down -z, slightly tilted towards the ground
+	private static Matrix4f createView(float x, float y, float z) {
+		Matrix4f view = new Matrix4f();
+		Matrix4f.rotate((float) Math.toRadians(10), new Vector3f(1, 0, 0), view, view);
+		Matrix4f.translate(new Vector3f(-x, -y, -z), view, view);
+		return view;
+	}
+
+}
@@ -0,0 +1,203 @@
+package benchmark;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import entities.Camera;
+import entities.EntityStore;
+import entities.Player;
+import tools.Maths;
+
+/**
+ * @author Andrei
+ * Compares the fused transform math in Maths against the way the matrices used to be built
+ * (three Matrix4f.rotate calls and a scale, with new vectors every time), as JMH benchmarks.
+ * Before anything is timed every version is checked to give the same matrices as the old one, then each is timed
+ * on the same 1024 transforms, the score is per matrix. bench/run.sh runs these with the other JMH benchmarks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 300, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 300, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MathsBenchmark {
+
+	private static final float TOLERANCE = 1e-5f;
+	private static final int COUNT = 1024;
+
+	private final float[] x = new float[COUNT], y = new float[COUNT], z = new float[COUNT];
+	private final float[] rx = new float[COUNT], ry = new float[COUNT], rz = new float[COUNT];
+	private final float[] scale = new float[COUNT];
+	private final float[] packed = new float[COUNT * 16];
+	private final FloatBuffer buffer = BufferUtils.createFloatBuffer(COUNT * 16);
+	private final Matrix4f reused = new Matrix4f();
+	private Camera camera;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(33);
+		for (int i = 0; i < COUNT; i++) {
+			x[i] = random.nextFloat() * 2000 - 1000;
+			y[i] = random.nextFloat() * 100;
+			z[i] = random.nextFloat() * 2000 - 1000;
+			rx[i] = random.nextFloat() * 720 - 360;
+			ry[i] = random.nextFloat() * 720 - 360;
+			rz[i] = random.nextFloat() * 720 - 360;
+			scale[i] = 0.1f + random.nextFloat() * 10;
+		}
+		verify(x, y, z, rx, ry, rz, scale);
+		camera = new Camera(new Player(new EntityStore(1), null, new Vector3f(-400, 0, -750), 0, 0, 0, 1));
+		camera.updatePosition();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public float oldTransformation() {
+		float sum = 0;
+		for (int i = 0; i < COUNT; i++) {
+			sum += legacyTransformation(new Vector3f(x[i], y[i], z[i]), rx[i], ry[i], rz[i], scale[i]).m30;
+		}
+		return sum;
+	}
+
+	//what the renderer did with them, stored into the buffer it uploads
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public FloatBuffer oldTransformationStored() {
+		buffer.clear();
+		for (int i = 0; i < COUNT; i++) {
+			legacyTransformation(new Vector3f(x[i], y[i], z[i]), rx[i], ry[i], rz[i], scale[i]).store(buffer);
+		}
+		return buffer;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public float fusedIntoMatrix() {
+		float sum = 0;
+		for (int i = 0; i < COUNT; i++) {
+			Maths.createTransformationMatrix(x[i], y[i], z[i], rx[i], ry[i], rz[i], scale[i], reused);
+			sum += reused.m30;
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public float[] fusedIntoArray() {
+		for (int i = 0; i < COUNT; i++) {
+			Maths.writeTransformationMatrix(x[i], y[i], z[i], rx[i], ry[i], rz[i], scale[i], packed, i * 16);
+		}
+		return packed;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public FloatBuffer fusedBatch() {
+		buffer.clear();
+		Maths.writeTransformationMatrices(x, y, z, rx, ry, rz, scale, 0, COUNT, buffer);
+		return buffer;
+	}
+
+	@Benchmark
+	public Matrix4f oldViewMatrix() {
+		return legacyView(camera);
+	}
+
+	@Benchmark
+	public Matrix4f viewMatrix() {
+		return Maths.createViewMatrix(camera, reused);
+	}
+
+	//the fused versions have to give the same matrices as the old ones, up to rounding
+	private static void verify(float[] x, float[] y, float[] z, float[] rx, float[] ry, float[] rz, float[] scale) {
+		float[] expected = new float[16], actual = new float[16];
+		Matrix4f matrix = new Matrix4f();
+		FloatBuffer buffer = BufferUtils.createFloatBuffer(16);
+		for (int i = 0; i < Math.min(x.length, 10000); i++) {
+			Maths.storeMatrix(legacyTransformation(new Vector3f(x[i], y[i], z[i]), rx[i], ry[i], rz[i], scale[i]),
+					expected, 0);
+			Maths.writeTransformationMatrix(x[i], y[i], z[i], rx[i], ry[i], rz[i], scale[i], actual, 0);
+			compare(expected, actual, "writeTransformationMatrix", i);
+			Maths.storeMatrix(Maths.createTransformationMatrix(x[i], y[i], z[i], rx[i], ry[i], rz[i], scale[i], matrix),
+					actual, 0);
+			compare(expected, actual, "createTransformationMatrix", i);
+			buffer.clear();
+			Maths.writeTransformationMatrices(x, y, z, rx, ry, rz, scale, i, 1, buffer);
+			buffer.flip();
+			buffer.get(actual);
+			compare(expected, actual, "writeTransformationMatrices", i);
+		}
+
+		//the view matrix, for a camera following a player around
+		EntityStore store = new EntityStore();
+		Player player = new Player(store, null, new Vector3f(), 0, 0, 0, 1);
+		Camera camera = new Camera(player);
+		Random random = new Random(1);
+		for (int i = 0; i < 1000; i++) {
+			player.setPosition(random.nextFloat() * 2000 - 1000, random.nextFloat() * 50, random.nextFloat() * 2000 - 1000);
+			player.setRotY(random.nextFloat() * 720 - 360);
+			camera.updatePosition();
+			Maths.storeMatrix(legacyView(camera), expected, 0);
+			Maths.storeMatrix(Maths.createViewMatrix(camera, matrix), actual, 0);
+			//the translation is a sum of terms as big as the position, so it is only as exact as those
+			Vector3f position = camera.getPosition();
+			compare(expected, actual, "createViewMatrix", i,
+					Math.max(Math.abs(position.x), Math.max(Math.abs(position.y), Math.abs(position.z))));
+		}
+	}
+
+	private static void compare(float[] expected, float[] actual, String name, int i) {
+		compare(expected, actual, name, i, 1);
+	}
+
+	private static void compare(float[] expected, float[] actual, String name, int i, float magnitude) {
+		for (int j = 0; j < 16; j++) {
+			if (Math.abs(expected[j] - actual[j]) > TOLERANCE * Math.max(magnitude, Math.abs(expected[j]))) {
+				throw new IllegalStateException(name + " differs at " + i + ", element " + j + ": " + actual[j]
+						+ " instead of " + expected[j]);
+			}
+		}
+	}
+
+	//how Maths.createTransformationMatrix used to work
+	private static Matrix4f legacyTransformation(Vector3f translation, float rx, float ry, float rz, float scale) {
+		Matrix4f matrix = new Matrix4f();
+		matrix.setIdentity();
+		Matrix4f.translate(translation, matrix, matrix);
+		Matrix4f.rotate((float) Math.toRadians(rx), new Vector3f(1, 0, 0), matrix, matrix);
+		Matrix4f.rotate((float) Math.toRadians(ry), new Vector3f(0, 1, 0), matrix, matrix);
+		Matrix4f.rotate((float) Math.toRadians(rz), new Vector3f(0, 0, 1), matrix, matrix);
+		Matrix4f.scale(new Vector3f(scale, scale, scale), matrix, matrix);
+		return matrix;
+	}
+
+	//how Maths.createViewMatrix used to work
+	private static Matrix4f legacyView(Camera camera) {
+		Matrix4f viewMatrix = new Matrix4f();
+		viewMatrix.setIdentity();
+		Matrix4f.rotate((float) Math.toRadians(camera.getPitch()), new Vector3f(1, 0, 0), viewMatrix, viewMatrix);
+		Matrix4f.rotate((float) Math.toRadians(camera.getYaw()), new Vector3f(0, 1, 0), viewMatrix, viewMatrix);
+		Vector3f cameraPos = camera.getPosition();
+		Matrix4f.translate(new Vector3f(-cameraPos.x, -cameraPos.y, -cameraPos.z), viewMatrix, viewMatrix);
+		return viewMatrix;
+	}
+
+}
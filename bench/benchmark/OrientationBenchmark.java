@@ -0,0 +1,249 @@
+package benchmark;
+
+import java.util.Random;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Quaternion;
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Camera;
+import entities.Entity;
+import entities.EntityStore;
+import entities.Player;
+import entities.Rotator;
+import tools.Maths;
+import tools.ScalarTransformKernel;
+import tools.TransformKernel;
+
+/**
+ * @author Andrei
+ * Checks that the quaternion orientations in EntityStore give the same matrices as the Euler angles they replaced,
+ * and that the angles, slerp, Rotator and the camera still come out the same.
+ * Then times a frame of 100k spinning entities (or the count given as an argument), interpolated half way between
+ * two steps, the old way (angles lerped and turned into matrices with trig) and with quaternions.
+ *
+ * Usage: OrientationBenchmark [entities]
+ */
+public class OrientationBenchmark {
+
+	private static final float TOLERANCE = 1e-4f;
+	private static final int STEPS = 30;
+	private static final float DELTA = 1 / 60f;
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		verifyMatrices();
+		verifyAngles();
+		verifySlerp();
+		verifyRotator();
+		verifyCamera();
+		System.out.println("quaternion orientations match the Euler angles");
+
+		Random random = new Random(35);
+		float[] x = new float[count], y = new float[count], z = new float[count], scale = new float[count];
+		float[] rx = new float[count], ry = new float[count], rz = new float[count], speed = new float[count];
+		EntityStore store = new EntityStore(count);
+		Rotator[] rotators = new Rotator[count];
+		for (int i = 0; i < count; i++) {
+			x[i] = random.nextFloat() * 2000 - 1000;
+			y[i] = random.nextFloat() * 50;
+			z[i] = random.nextFloat() * 2000 - 1000;
+			rx[i] = random.nextFloat() * 20;
+			ry[i] = random.nextFloat() * 360;
+			rz[i] = random.nextFloat() * 20;
+			scale[i] = 1 + random.nextFloat();
+			speed[i] = 10 + random.nextFloat() * 50;
+			new Entity(store, null, new Vector3f(x[i], y[i], z[i]), rx[i], ry[i], rz[i], scale[i]);
+			rotators[i] = new Rotator(0, speed[i], 0);
+		}
+		store.updateMatrices();
+
+		//what the store used to do every frame: lerp the angles of the moving entities and build the matrix
+		float[] previousY = ry.clone(), matrices = new float[count * 16];
+		double euler = time(() -> {
+			for (int i = 0; i < count; i++) {
+				previousY[i] = ry[i];
+				ry[i] += speed[i] * DELTA;
+			}
+			for (int i = 0; i < count; i++) {
+				float angle = previousY[i] + (ry[i] - previousY[i]) * 0.5f;
+				Maths.writeTransformationMatrix(x[i], y[i], z[i], rx[i], angle, rz[i], scale[i], matrices, i * 16);
+			}
+		}) / count;
+		double eulerCompatible = time(() -> {
+			store.beginStep();
+			for (int i = 0; i < count; i++) {
+				store.increaseRotation(i, 0, speed[i] * DELTA, 0);
+			}
+			store.setInterpolation(0.5f);
+			store.updateMatrices();
+		}) / count;
+		double quaternion = time(() -> {
+			store.beginStep();
+			for (int i = 0; i < count; i++) {
+				rotators[i].update(store.getEntity(i), DELTA, 0);
+			}
+			store.setInterpolation(0.5f);
+			store.updateMatrices();
+		}) / count;
+		System.out.printf("%-46s %10s%n", "one step and one interpolated frame", "ns/entity");
+		System.out.printf("%-46s %10.1f%n", "old: lerped angles, matrices with trig", euler);
+		System.out.printf("%-46s %10.1f%n", "store, increaseRotation (Euler setters)", eulerCompatible);
+		System.out.printf("%-46s %10.1f%n", "store, Rotator (quaternion rotate and slerp)", quaternion);
+	}
+
+	//quaternion matrices, from Maths, the store and both kernels, against the matrices built from the angles
+	private static void verifyMatrices() {
+		Random random = new Random(1);
+		int count = 1000;
+		float[] x = new float[count], y = new float[count], z = new float[count], scale = new float[count];
+		float[] rx = new float[count], ry = new float[count], rz = new float[count];
+		float[] qx = new float[count], qy = new float[count], qz = new float[count], qw = new float[count];
+		float[] expected = new float[count * 16], actual = new float[count * 16];
+		EntityStore store = new EntityStore();
+		Quaternion q = new Quaternion();
+		for (int i = 0; i < count; i++) {
+			x[i] = random.nextFloat() * 200 - 100;
+			y[i] = random.nextFloat() * 200 - 100;
+			z[i] = random.nextFloat() * 200 - 100;
+			rx[i] = random.nextFloat() * 720 - 360;
+			ry[i] = random.nextFloat() * 720 - 360;
+			rz[i] = random.nextFloat() * 720 - 360;
+			scale[i] = 0.1f + random.nextFloat() * 5;
+			Maths.eulerToQuaternion(rx[i], ry[i], rz[i], q);
+			qx[i] = q.x;
+			qy[i] = q.y;
+			qz[i] = q.z;
+			qw[i] = q.w;
+			Maths.writeTransformationMatrix(x[i], y[i], z[i], rx[i], ry[i], rz[i], scale[i], expected, i * 16);
+			Maths.writeTransformationMatrix(x[i], y[i], z[i], q, scale[i], actual, i * 16);
+			new Entity(store, null, new Vector3f(x[i], y[i], z[i]), rx[i], ry[i], rz[i], scale[i]);
+		}
+		compare(expected, actual, count, "Maths quaternion matrix");
+		store.updateMatrices();
+		compare(expected, store.getMatrices(), count, "EntityStore");
+		new ScalarTransformKernel().computeMatrices(x, y, z, qx, qy, qz, qw, scale, 0, count, actual);
+		compare(expected, actual, count, "scalar kernel");
+		TransformKernel.getInstance().computeMatrices(x, y, z, qx, qy, qz, qw, scale, 0, count, actual);
+		compare(expected, actual, count, TransformKernel.getInstance().getName() + " kernel");
+	}
+
+	//angles worked out again from a quaternion have to give the same rotation, and angles that were set stay as set
+	private static void verifyAngles() {
+		Random random = new Random(2);
+		EntityStore store = new EntityStore();
+		Entity entity = new Entity(store, null, new Vector3f(), 0, 0, 0, 1);
+		Quaternion q = new Quaternion();
+		float[] expected = new float[16], actual = new float[16];
+		for (int i = 0; i < 1000; i++) {
+			float rx = random.nextFloat() * 720 - 360, ry = random.nextFloat() * 720 - 360;
+			float rz = random.nextFloat() * 720 - 360;
+			store.setRotation(0, rx, ry, rz);
+			if (store.getRotationX(0) != rx || store.getRotationY(0) != ry || store.getRotationZ(0) != rz) {
+				throw new IllegalStateException("angles that were set changed");
+			}
+			entity.setOrientation(Maths.eulerToQuaternion(rx, ry, rz, q));
+			Maths.writeTransformationMatrix(0, 0, 0, rx, ry, rz, 1, expected, 0);
+			Maths.writeTransformationMatrix(0, 0, 0, entity.getRotX(), entity.getRotY(), entity.getRotZ(), 1, actual, 0);
+			compare(expected, actual, 1, "angles from a quaternion");
+		}
+	}
+
+	private static void verifySlerp() {
+		Quaternion from = Maths.eulerToQuaternion(10, 20, 30, new Quaternion());
+		Quaternion to = Maths.eulerToQuaternion(10, 20, 150, new Quaternion());
+		Quaternion middle = Maths.eulerToQuaternion(10, 20, 90, new Quaternion());
+		Quaternion result = new Quaternion();
+		//turning around the last axis is multiplying on the right, so half way is half the angle
+		check(Maths.slerp(from.x, from.y, from.z, from.w, to.x, to.y, to.z, to.w, 0.5f, result), middle, "slerp");
+		check(Maths.slerp(from.x, from.y, from.z, from.w, to.x, to.y, to.z, to.w, 0, result), from, "slerp at 0");
+		check(Maths.slerp(from.x, from.y, from.z, from.w, to.x, to.y, to.z, to.w, 1, result), to, "slerp at 1");
+		//the same rotation with the opposite sign must not go the long way round
+		check(Maths.slerp(from.x, from.y, from.z, from.w, -from.x, -from.y, -from.z, -from.w, 0.5f, result), from,
+				"slerp to -q");
+	}
+
+	//a Rotator spinning around y has to end up where adding to rotY used to
+	private static void verifyRotator() {
+		EntityStore store = new EntityStore();
+		Entity spun = new Entity(store, null, new Vector3f(), 0, 180, 0, 5);
+		Rotator rotator = new Rotator(0, 30, 0);
+		for (int i = 0; i < STEPS * 100; i++) {
+			rotator.update(spun, DELTA, 0);
+		}
+		float[] expected = new float[16];
+		Maths.writeTransformationMatrix(0, 0, 0, 0, 180 + 30 * DELTA * STEPS * 100, 0, 5, expected, 0);
+		store.beginStep(); //so the matrix isn't interpolated
+		store.updateMatrices();
+		compare(expected, store.getMatrices(), 1, "Rotator");
+	}
+
+	//the camera works with the sines and cosines of its angles now, it has to end up where it used to
+	private static void verifyCamera() {
+		Random random = new Random(3);
+		EntityStore store = new EntityStore();
+		Player player = new Player(store, null, new Vector3f(), 0, 0, 0, 1);
+		Camera camera = new Camera(player);
+		Matrix4f view = new Matrix4f();
+		for (int i = 0; i < 1000; i++) {
+			float rotY = random.nextFloat() * 720 - 360;
+			player.setPosition(random.nextFloat() * 2000 - 1000, random.nextFloat() * 50, random.nextFloat() * 2000 - 1000);
+			player.setRotY(rotY);
+			camera.updatePosition();
+			//the old calculation, with the default zoom and pitch
+			double theta = Math.toRadians(rotY), pitch = Math.toRadians(15);
+			float horizontal = (float) (70 * Math.cos(pitch)), vertical = (float) (70 * Math.sin(pitch));
+			Vector3f position = player.getPosition();
+			float expectedX = position.x - (float) (horizontal * Math.sin(theta));
+			float expectedZ = position.z - (float) (horizontal * Math.cos(theta));
+			float expectedY = position.y + vertical + 6;
+			Vector3f actual = camera.getPosition();
+			if (Math.abs(actual.x - expectedX) > 1e-3f || Math.abs(actual.y - expectedY) > 1e-3f
+					|| Math.abs(actual.z - expectedZ) > 1e-3f) {
+				throw new IllegalStateException("camera at " + actual + " instead of " + expectedX + ", " + expectedY
+						+ ", " + expectedZ);
+			}
+			//the yaw can come out a whole turn away from 180 - rotY, which is the same direction
+			float yawDifference = (camera.getYaw() - (180 - rotY)) % 360;
+			if (Math.min(Math.abs(yawDifference), 360 - Math.abs(yawDifference)) > 1e-2f) {
+				throw new IllegalStateException("camera yaw " + camera.getYaw() + " instead of " + (180 - rotY));
+			}
+			Maths.createViewMatrix(camera, view);
+			if (Math.abs(view.m00 - Math.cos(Math.toRadians(camera.getYaw()))) > TOLERANCE) {
+				throw new IllegalStateException("view matrix doesn't match the yaw");
+			}
+		}
+	}
+
+	private static void compare(float[] expected, float[] actual, int count, String name) {
+		for (int i = 0; i < count * 16; i++) {
+			if (Math.abs(expected[i] - actual[i]) > TOLERANCE * Math.max(1, Math.abs(expected[i]))) {
+				throw new IllegalStateException(name + " differs at matrix " + i / 16 + ", element " + i % 16 + ": "
+						+ actual[i] + " instead of " + expected[i]);
+			}
+		}
+	}
+
+	//q and -q are the same rotation
+	private static void check(Quaternion actual, Quaternion expected, String name) {
+		float dot = Math.abs(actual.x * expected.x + actual.y * expected.y + actual.z * expected.z + actual.w * expected.w);
+		if (1 - dot > 1e-5f) {
+			throw new IllegalStateException(name + " gave " + actual + " instead of " + expected);
+		}
+	}
+
+	//best time of a few runs of one step after a warm up, in nanoseconds
+	private static double time(Runnable work) {
+		for (int run = 0; run < STEPS; run++) {
+			work.run();
+		}
+		long best = Long.MAX_VALUE;
+		for (int run = 0; run < STEPS; run++) {
+			long start = System.nanoTime();
+			work.run();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best;
+	}
+
+}
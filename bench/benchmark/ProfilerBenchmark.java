@@ -0,0 +1,116 @@
+package benchmark;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import tools.Profiler;
+
+/**
+ * @author Andrei
+ * Measures what a begin and end pair costs, and checks that nested scopes and scopes on other threads add up
+ * and end up in the CSV and the trace. Run it once as it is and once with -Ddreaming.profile=true,
+ * without the flag the profiler should cost nothing at all.
+ *
+ * Usage: ProfilerBenchmark [iterations]
+ */
+public class ProfilerBenchmark {
+
+	private static final int OUTER = Profiler.register("outer");
+	private static final int INNER = Profiler.register("inner");
+	private static final int WORKER = Profiler.register("worker");
+
+	private static volatile long sink;
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		System.out.println("profiler " + (Profiler.ENABLED ? "enabled" : "disabled"));
+		if (Profiler.ENABLED) {
+			check();
+		}
+		for (int run = 0; run < 5; run++) {
+			long plain = time(iterations, false);
+			long scoped = time(iterations, true);
+			System.out.printf("plain %.2f ns, with a scope %.2f ns, overhead %.2f ns per scope%n",
+					plain / (double) iterations, scoped / (double) iterations, (scoped - plain) / (double) iterations);
+		}
+	}
+
+	//the same bit of work, with or without a scope around it, ending a frame every 1000 iterations
+	private static long time(int iterations, boolean scoped) {
+		long start = System.nanoTime();
+		long value = 1;
+		for (int i = 0; i < iterations; i++) {
+			if (scoped) {
+				Profiler.begin(INNER);
+			}
+			value = value * 6364136223846793005L + 1442695040888963407L;
+			if (scoped) {
+				Profiler.end(INNER);
+			}
+			if (i % 1000 == 999) {
+				Profiler.endFrame();
+			}
+		}
+		sink = value;
+		return System.nanoTime() - start;
+	}
+
+	private static void check() throws InterruptedException, IOException {
+		Profiler.startCapture(3);
+		for (int frame = 0; frame < 3; frame++) {
+			Thread worker = new Thread(() -> {
+				Profiler.begin(WORKER);
+				sleep(2);
+				Profiler.end(WORKER);
+			}, "worker " + frame);
+			Profiler.begin(OUTER);
+			worker.start();
+			for (int i = 0; i < 2; i++) {
+				Profiler.begin(INNER);
+				sleep(1);
+				Profiler.end(INNER);
+			}
+			worker.join();
+			Profiler.end(OUTER);
+			Profiler.endFrame();
+		}
+		require(!Profiler.isCapturing(), "the capture should be over");
+		require(Profiler.getAverageCalls(INNER) == 2, "inner should run twice a frame");
+		require(Profiler.getAverage(OUTER, false) >= Profiler.getAverage(INNER, false), "outer includes inner");
+		require(Profiler.getAverage(WORKER, false) >= 2000000, "the worker's time should be counted");
+		try {
+			Profiler.begin(OUTER);
+			Profiler.end(INNER);
+			require(false, "ending the wrong scope should throw");
+		} catch (IllegalStateException e) {
+			Profiler.end(OUTER);
+		}
+
+		StringWriter csv = new StringWriter();
+		Profiler.writeCsv(csv);
+		String[] lines = csv.toString().split("\n");
+		require(lines.length == 4 && lines[0].contains("\"inner cpu ms\""), "the CSV should have a header and 3 frames");
+		StringWriter trace = new StringWriter();
+		Profiler.writeTrace(trace);
+		String json = trace.toString();
+		int events = json.split("\"ph\":\"X\"", -1).length - 1;
+		require(events == 12, "the trace should have 12 events, not " + events);
+		require(json.contains("\"name\":\"worker 2\""), "the worker threads should be named");
+		System.out.println("nesting, threads, CSV and trace OK");
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void require(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+package benchmark;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.function.LongSupplier;
+
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Camera;
+import entities.Controls;
+import entities.EntityStore;
+import entities.InputTrack;
+import entities.Player;
+import entities.RecordingControls;
+import entities.ScriptedControls;
+import entities.Terrain;
+import main.Simulation;
+import tools.FixedTimestep;
+
+/**
+ * @author Andrei
+ * Checks what RenderBenchmark relies on, without a display: playing back an input track ends up in the same
+ * place whatever the frame rate, and a track recorded while playing another one, written to a file and read
+ * back plays back the same. Then times how long looking up the input takes.
+ */
+public class ReplayBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		Terrain terrain = new Terrain(-1, -1, "heightmap");
+		InputTrack track = InputTrack.createDefault();
+		int steps = 3000;
+
+		String at60 = run(terrain, track, 60, steps, null);
+		String at144 = run(terrain, track, 144, steps, null);
+		System.out.println("60 fps:  " + at60);
+		System.out.println("144 fps: " + at144);
+		require(at60.equals(at144), "the frame rate changed where the player ended up");
+
+		InputTrack recorded = new InputTrack();
+		String recording = run(terrain, track, 60, steps, recorded);
+		StringWriter text = new StringWriter();
+		recorded.write(text);
+		Path file = Files.createTempFile("track", ".txt");
+		Files.write(file, text.toString().getBytes());
+		InputTrack reread = InputTrack.read(file);
+		Files.delete(file);
+		String replay = run(terrain, reread, 60, steps, null);
+		System.out.println("replay:  " + replay + " (" + reread.size() + " segments)");
+		require(recording.equals(at60) && replay.equals(at60), "the recorded track played back differently");
+
+		ScriptedControls controls = new ScriptedControls(track, new LongSupplier() {
+			private long step = 0;
+
+			@Override
+			public long getAsLong() {
+				return step++ % 2400;
+			}
+		});
+		for (int run = 0; run < 5; run++) {
+			long start = System.nanoTime();
+			int count = 0;
+			for (int i = 0; i < 10000000; i++) {
+				count += controls.isKeyDown(i & 31) ? 1 : 0;
+			}
+			System.out.printf("isKeyDown: %.2f ns (%d)%n", (System.nanoTime() - start) / 1e7, count);
+		}
+	}
+
+	//plays the track for a number of steps at a frame rate and says where the player and camera ended up
+	private static String run(Terrain terrain, InputTrack track, int fps, int stepCount, InputTrack record) {
+		EntityStore store = new EntityStore(4);
+		Player player = new Player(store, null, new Vector3f(-400, 0, -750), 0, 0, 0, 1);
+		Camera camera = new Camera(player);
+		Simulation simulation = new Simulation(store, Collections.singletonList(terrain), player, camera);
+		Controls controls = new ScriptedControls(track, simulation::getSteps);
+		RecordingControls recorder = null;
+		if (record != null) {
+			recorder = new RecordingControls(controls, record, simulation::getSteps);
+			controls = recorder;
+		}
+		player.setControls(controls);
+		camera.setControls(controls);
+		FixedTimestep timestep = new FixedTimestep(Simulation.STEPS_PER_SECOND);
+		while (simulation.getSteps() < stepCount) {
+			int steps = timestep.advance(1000000000L / fps);
+			for (int i = 0; i < steps && simulation.getSteps() < stepCount; i++) {
+				simulation.step(timestep.getStepSeconds());
+			}
+		}
+		simulation.interpolate(1);
+		if (recorder != null) {
+			recorder.finish();
+		}
+		Vector3f position = player.getPosition();
+		return String.format("%d steps, player %.4f %.4f %.4f, camera pitch %.3f yaw %.3f", simulation.getSteps(),
+				position.x, position.y, position.z, camera.getPitch(), camera.getYaw());
+	}
+
+	private static void require(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+}
@@ -0,0 +1,155 @@
+package benchmark;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import wrapper.GpuTimer;
+import wrapper.ResolutionScaler;
+
+/**
+ * @author Andrei
+ * Checks ResolutionScaler without a GPU, against a made up one whose time per frame is a fixed part plus a part
+ * that goes with the number of pixels, with some noise, and whose results come back FRAMES_IN_FLIGHT frames late
+ * like the timer queries do. It has to settle under the target without going back and forth, stay within its
+ * limits, ignore single slow frames and go back up when the load goes away. Then times an update.
+ */
+public class ResolutionScalerBenchmark {
+
+	private static final long TARGET = 14166666; //85% of a frame at 60 fps
+	private static final int FRAMES = 3000;
+
+	public static void main(String[] args) {
+		//light enough for the whole resolution, shouldn't ever change
+		Run light = run(new Load(2000000, 6000000, 0), 0.5f, 1, FRAMES);
+		System.out.println("light:      " + light);
+		require(light.changes == 0 && light.scale == 1, "changed the scale when the GPU kept up");
+
+		//about twice as much as fits, has to come down and then stay put
+		Run heavy = run(new Load(2000000, 26000000, 0), 0.5f, 1, FRAMES);
+		System.out.println("heavy:      " + heavy);
+		require(heavy.scale < 1 && heavy.lastGpu < TARGET, "didn't get under the target");
+		require(heavy.lastChangeFrame < 300 && heavy.changes <= 6, "took too long or too many changes to settle");
+		require(heavy.tailOver < 0.02, "still over the target after settling");
+
+		//too much even at the lowest scale, stays at the lowest
+		Run extreme = run(new Load(2000000, 200000000, 0), 0.5f, 1, FRAMES);
+		System.out.println("extreme:    " + extreme);
+		require(extreme.scale == 0.5f, "went under the minimum");
+
+		//single frames three times as slow every now and then
+		Run spikes = run(new Load(2000000, 10000000, 97), 0.5f, 1, FRAMES);
+		System.out.println("spikes:     " + spikes);
+		require(spikes.changes == 0, "changed the scale for single slow frames");
+
+		//heavy for a while and then light again, has to go back up to the maximum
+		Load load = new Load(2000000, 26000000, 0);
+		ResolutionScaler scaler = new ResolutionScaler(0.5f, 1, TARGET, GpuTimer.FRAMES_IN_FLIGHT + 1);
+		simulate(scaler, load, FRAMES / 2, new Random(3), null);
+		float low = scaler.getScale();
+		load.perPixel = 6000000;
+		simulate(scaler, load, FRAMES, new Random(4), null);
+		System.out.printf("recovering: %.2f -> %.2f after %d changes%n", low, scaler.getScale(), scaler.getChanges());
+		require(low < 1 && scaler.getScale() == 1, "didn't go back up when the load went away");
+
+		//a narrower range, too heavy for either end of it
+		Run clamped = run(new Load(2000000, 40000000, 0), 0.6f, 0.9f, FRAMES);
+		System.out.println("clamped:    " + clamped);
+		require(clamped.scale >= 0.6f && clamped.scale <= 0.9f, "left the limits");
+
+		ResolutionScaler timed = new ResolutionScaler(0.5f, 1, TARGET, 0);
+		Random random = new Random(5);
+		long[] times = new long[1024];
+		for (int i = 0; i < times.length; i++) {
+			times[i] = TARGET / 2 + random.nextInt((int) TARGET);
+		}
+		float sink = 0;
+		for (int run = 0; run < 5; run++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < 10000000; i++) {
+				sink += timed.update(times[i & 1023]);
+			}
+			System.out.printf("update: %.2f ns (%.0f)%n", (System.nanoTime() - start) / 1e7, sink);
+		}
+	}
+
+	private static Run run(Load load, float min, float max, int frames) {
+		ResolutionScaler scaler = new ResolutionScaler(min, max, TARGET, GpuTimer.FRAMES_IN_FLIGHT + 1);
+		Run run = new Run();
+		simulate(scaler, load, frames, new Random(1), run);
+		run.scale = scaler.getScale();
+		run.changes = scaler.getChanges();
+		return run;
+	}
+
+	//runs a number of frames, the GPU time of each only reaching the scaler FRAMES_IN_FLIGHT frames later
+	private static void simulate(ResolutionScaler scaler, Load load, int frames, Random random, Run run) {
+		ArrayDeque<Long> inFlight = new ArrayDeque<Long>();
+		long changes = scaler.getChanges();
+		int over = 0;
+		for (int frame = 0; frame < frames; frame++) {
+			long gpu = load.nanos(scaler.getScale(), frame, random);
+			inFlight.add(gpu);
+			if (inFlight.size() > GpuTimer.FRAMES_IN_FLIGHT) {
+				scaler.update(inFlight.poll());
+			}
+			if (run != null) {
+				if (scaler.getChanges() != changes) {
+					changes = scaler.getChanges();
+					run.lastChangeFrame = frame;
+				}
+				if (frame >= frames / 2 && gpu > TARGET) {
+					over++;
+				}
+				run.lastGpu = gpu;
+			}
+		}
+		if (run != null) {
+			run.tailOver = over / (double) (frames - frames / 2);
+		}
+	}
+
+	private static void require(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+	//a GPU that takes fixed + perPixel * scale^2, give or take 3%, and three times as long every spikeEvery frames
+	private static class Load {
+
+		private final long fixed;
+		private long perPixel;
+		private final int spikeEvery;
+
+		private Load(long fixed, long perPixel, int spikeEvery) {
+			this.fixed = fixed;
+			this.perPixel = perPixel;
+			this.spikeEvery = spikeEvery;
+		}
+
+		private long nanos(float scale, int frame, Random random) {
+			double nanos = (fixed + perPixel * scale * scale) * (1 + (random.nextDouble() - 0.5) * 0.06);
+			if (spikeEvery > 0 && frame % spikeEvery == spikeEvery - 1) {
+				nanos *= 3;
+			}
+			return (long) nanos;
+		}
+	}
+
+	private static class Run {
+
+		private float scale;
+		private long changes;
+		private int lastChangeFrame;
+		private long lastGpu;
+		//the fraction of frames in the second half that went over the target
+		private double tailOver;
+
+		@Override
+		public String toString() {
+			return String.format("scale %.2f, %d changes, last at frame %d, last GPU time %.2f ms, %.1f%% over later on",
+					scale, changes, lastChangeFrame, lastGpu / 1e6, tailOver * 100);
+		}
+	}
+
+}
@@ -0,0 +1,157 @@
+package benchmark;
+
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Entity;
+import entities.EntityStore;
+import entities.SceneGraph;
+
+/**
+ * @author Andrei
+ * Checks the scene graph: children follow their parents, only what changed is recomputed, and nodes can be removed
+ * at any point, even while they are waiting to be updated, and nodes bound to entities follow them without the
+ * entities that stand still costing anything. Then times updating a deep tree after one change near
+ * the top and after changing every node.
+ */
+public class SceneGraphBenchmark {
+
+	public static void main(String[] args) {
+		checkPropagation();
+		checkRemoveWhileDirty();
+		checkBound();
+		time();
+	}
+
+	//a child's world position is its parent's plus its own, and an unchanged graph recomputes nothing
+	private static void checkPropagation() {
+		SceneGraph graph = new SceneGraph();
+		int root = graph.createNode(-1, 10, 0, 0, 0, 0, 0, 1);
+		int child = graph.createNode(root, 0, 5, 0, 0, 0, 0, 1);
+		int grandchild = graph.createNode(child, 0, 0, 2, 0, 0, 0, 1);
+		require(graph.update() == 3, "the new nodes weren't all computed");
+		require(graph.update() == 0, "an unchanged graph was recomputed");
+		Vector3f position = graph.getWorldPosition(grandchild, new Vector3f());
+		require(close(position, 10, 5, 2), "the grandchild is at " + position);
+		graph.setLocalPosition(root, 0, 0, 0);
+		require(graph.update() == 3, "moving the root didn't recompute what is below it");
+		require(close(graph.getWorldPosition(grandchild, position), 0, 5, 2), "the grandchild didn't follow");
+		graph.setLocalScale(child, 2);
+		require(graph.update() == 2, "the root was recomputed for a change below it");
+		require(close(graph.getWorldPosition(grandchild, position), 0, 5, 4), "the scale didn't reach the grandchild");
+		System.out.println("propagation: ok");
+	}
+
+	//removing changed nodes before the update, so the arrays shrink under the ids still waiting for it
+	private static void checkRemoveWhileDirty() {
+		SceneGraph graph = new SceneGraph();
+		int[] ids = new int[40];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = graph.createNode(-1, i, 0, 0, 0, 0, 0, 1);
+		}
+		graph.update();
+		graph.setLocalPosition(ids[39], 1, 2, 3);
+		graph.setLocalPosition(ids[5], 7, 0, 0);
+		for (int i = 20; i < 40; i++) {
+			graph.removeNode(ids[i]);
+		}
+		require(graph.update() == 1, "a removed node was recomputed");
+		require(graph.size() == 20, "the graph has " + graph.size() + " nodes");
+		Vector3f position = graph.getWorldPosition(ids[5], new Vector3f());
+		require(close(position, 7, 0, 0), "the node that stayed isn't where it was put: " + position);
+		for (int i = 0; i < 20; i++) {
+			if (i != 5) {
+				require(close(graph.getWorldPosition(ids[i], position), i, 0, 0), "node " + i + " moved");
+			}
+		}
+
+		//a removed id handed out again, while the old one was still flagged
+		int parent = graph.createNode(-1, 0, 0, 0, 0, 0, 0, 1);
+		int child = graph.createNode(parent, 1, 0, 0, 0, 0, 0, 1);
+		graph.update();
+		graph.setLocalPosition(child, 2, 0, 0);
+		graph.removeNode(parent);
+		int reused = graph.createNode(ids[0], 0, 3, 0, 0, 0, 0, 1);
+		require(graph.update() == 1, "more than the new node was recomputed");
+		require(close(graph.getWorldPosition(reused, position), 0, 3, 0), "the new node is at " + position);
+		System.out.println("remove while dirty: ok");
+	}
+
+	//a lamp hanging off an entity: it follows the entity when it moves, and nothing is done when it doesn't
+	private static void checkBound() {
+		EntityStore store = new EntityStore();
+		Entity other = new Entity(store, null, new Vector3f(0, 0, 0), 0, 0, 0, 1);
+		Entity post = new Entity(store, null, new Vector3f(5, 0, 0), 0, 0, 0, 1);
+		SceneGraph graph = new SceneGraph();
+		int node = graph.createNode(-1);
+		int lamp = graph.createNode(node, 0, 4, 0, 0, 0, 0, 1);
+		graph.bind(node, post);
+		graph.update();
+		Vector3f position = graph.getWorldPosition(lamp, new Vector3f());
+		require(close(position, 5, 4, 0), "the lamp isn't on the post: " + position);
+		require(graph.update() == 0, "a post that didn't move was looked at again");
+		other.increasePosition(1, 0, 0);
+		require(graph.update() == 0, "an entity nothing is bound to changed the graph");
+		require(store.getBoundChangeCount() == 0, "the store collected a change nothing is bound to");
+		post.increasePosition(0, 0, 3);
+		require(store.getBoundChangeCount() == 1, "the store didn't collect the post's change");
+		require(graph.update() == 2, "the post moved but the lamp wasn't recomputed");
+		require(close(graph.getWorldPosition(lamp, position), 5, 4, 3), "the lamp didn't follow: " + position);
+		require(store.getBoundChangeCount() == 0, "the graph didn't take the changes");
+
+		//the post moves into another slot when the entity before it is removed, and is still followed
+		store.remove(other);
+		require(post.getIndex() == 0 && store.isBound(0), "the post didn't take its flag along");
+		post.setPosition(1, 0, 0);
+		graph.update();
+		require(close(graph.getWorldPosition(lamp, position), 1, 4, 0), "the lamp lost the post: " + position);
+		graph.removeNode(node);
+		require(!store.isBound(post.getIndex()), "the post is still watched after its node was removed");
+		post.setPosition(2, 0, 0);
+		require(store.getBoundChangeCount() == 0 && graph.update() == 0, "a removed node still follows the post");
+		System.out.println("bound entities: ok");
+	}
+
+	private static void time() {
+		//a thousand chains of ten, like props with things hanging off them
+		SceneGraph graph = new SceneGraph();
+		int[] roots = new int[1000];
+		for (int r = 0; r < roots.length; r++) {
+			roots[r] = graph.createNode(-1, r, 0, 0, 0, 0, 0, 1);
+			int parent = roots[r];
+			for (int depth = 1; depth < 10; depth++) {
+				parent = graph.createNode(parent, 0, 1, 0, 0, 5, 0, 1);
+			}
+		}
+		graph.update();
+		for (int run = 0; run < 5; run++) {
+			long start = System.nanoTime();
+			int updates = 20000;
+			for (int i = 0; i < updates; i++) {
+				graph.setLocalPosition(roots[i % roots.length], i, 0, 0);
+				graph.update();
+			}
+			long oneNanos = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < 50; i++) {
+				for (int root : roots) {
+					graph.increaseLocalRotation(root, 0, 1, 0);
+				}
+				graph.update();
+			}
+			long allNanos = System.nanoTime() - start;
+			System.out.printf("one chain: %.0f ns, all %d nodes: %.2f ms%n", oneNanos / (double) updates, graph.size(),
+					allNanos / 50 / 1e6);
+		}
+	}
+
+	private static boolean close(Vector3f position, float x, float y, float z) {
+		return Math.abs(position.x - x) < 1e-4f && Math.abs(position.y - y) < 1e-4f && Math.abs(position.z - z) < 1e-4f;
+	}
+
+	private static void require(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+}
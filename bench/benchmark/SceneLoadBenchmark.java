@@ -0,0 +1,131 @@
+package benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import entities.EntityStore;
+import tools.SceneFile;
+
+/**
+ * @author Andrei
+ * Measures how long it takes to load a scene with a lot of placements (1M unless a count is given),
+ * from the text form and from the binary form, and to put the placements into an entity store.
+ * The binary file is also checked to hold exactly what the text file did.
+ *
+ * Usage: SceneLoadBenchmark [placements]
+ */
+public class SceneLoadBenchmark {
+
+	private static final int MODELS = 8;
+	private static final int RUNS = 5;
+
+	public static void main(String[] args) throws IOException {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		Path text = Files.createTempFile("bench", SceneFile.TEXT_EXTENSION);
+		Path binary = Files.createTempFile("bench", SceneFile.BINARY_EXTENSION);
+		try {
+			writeText(text, count);
+			long start = System.nanoTime();
+			SceneFile fromText = SceneFile.readText(text);
+			double textMs = (System.nanoTime() - start) / 1e6;
+			fromText.writeBinary(binary);
+			check(SceneFile.readBinary(binary), fromText);
+
+			double readMs = Double.MAX_VALUE, storeMs = Double.MAX_VALUE;
+			for (int run = 0; run < RUNS; run++) {
+				start = System.nanoTime();
+				SceneFile scene = SceneFile.readBinary(binary);
+				long read = System.nanoTime();
+				EntityStore store = new EntityStore();
+				addToStore(scene, store);
+				long stored = System.nanoTime();
+				readMs = Math.min(readMs, (read - start) / 1e6);
+				storeMs = Math.min(storeMs, (stored - read) / 1e6);
+			}
+			System.out.printf("%d placements, text %.1f MB, binary %.1f MB%n", count, Files.size(text) / 1e6,
+					Files.size(binary) / 1e6);
+			System.out.printf("parse text      %8.1f ms%n", textMs);
+			System.out.printf("read binary     %8.1f ms%n", readMs);
+			System.out.printf("bulk add        %8.1f ms%n", storeMs);
+			System.out.printf("binary to store %8.1f ms%n", readMs + storeMs);
+		} finally {
+			Files.deleteIfExists(text);
+			Files.deleteIfExists(binary);
+		}
+	}
+
+	//the same runs of models that the SceneLoader makes, without the GL side
+	private static void addToStore(SceneFile scene, EntityStore store) {
+		int[] models = scene.getPlacementModels();
+		int count = scene.getPlacementCount();
+		int runStart = 0;
+		for (int i = 1; i <= count; i++) {
+			if (i == count || models[i] != models[runStart]) {
+				store.addAll(null, scene.getPlacements(), runStart * SceneFile.TRANSFORM_SIZE, i - runStart);
+				runStart = i;
+			}
+		}
+		if (store.size() != count) {
+			throw new IllegalStateException("store has " + store.size() + " entities, expected " + count);
+		}
+	}
+
+	//placements in runs of the same model, like a level editor would write them
+	private static void writeText(Path path, int count) throws IOException {
+		Random random = new Random(count);
+		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			writer.write("terrain -1 -1 floor heightmap\n");
+			for (int m = 0; m < MODELS; m++) {
+				writer.write("model prop" + m + " lamp lamp shine=10 reflectivity=1\n");
+			}
+			writer.write("light 0 10000 -7000 0.4 0.4 0.4\n");
+			writer.write("light 0 41.5 0 2 0 0 1 0.01 0.002 parent=0\n"); //written before its placement
+			for (int i = 0; i < count; i++) {
+				writer.write(String.format("entity prop%d %.2f %s %.2f 0 %.1f 0 %.2f\n", i * MODELS / count,
+						random.nextFloat() * 800 - 800, i % 2 == 0 ? "~" : "~1.5", random.nextFloat() * 800 - 800,
+						random.nextFloat() * 360, 0.5f + random.nextFloat()));
+			}
+			writer.write("player prop0 -400 0 -750 0 0 0 1\n");
+		}
+	}
+
+	private static void check(SceneFile actual, SceneFile expected) {
+		if (actual.getPlacementCount() != expected.getPlacementCount()
+				|| !actual.getModels().equals(expected.getModels())
+				|| !actual.getTerrains().equals(expected.getTerrains())
+				|| actual.getLightCount() != expected.getLightCount()
+				|| actual.getPlayerModel() != expected.getPlayerModel()) {
+			throw new IllegalStateException("binary scene doesn't match the text scene");
+		}
+		for (int i = 0; i < expected.getPlacementCount(); i++) {
+			if (actual.getPlacementModels()[i] != expected.getPlacementModels()[i]
+					|| actual.isPlacementOnTerrain(i) != expected.isPlacementOnTerrain(i)) {
+				throw new IllegalStateException("placement " + i + " doesn't match");
+			}
+		}
+		for (int i = 0; i < expected.getPlacementCount() * SceneFile.TRANSFORM_SIZE; i++) {
+			if (actual.getPlacements()[i] != expected.getPlacements()[i]) {
+				throw new IllegalStateException("transform value " + i + " doesn't match");
+			}
+		}
+		for (int i = 0; i < expected.getLightCount() * SceneFile.LIGHT_SIZE; i++) {
+			if (actual.getLights()[i] != expected.getLights()[i]) {
+				throw new IllegalStateException("light value " + i + " doesn't match");
+			}
+		}
+		for (int i = 0; i < expected.getLightCount(); i++) {
+			if (actual.getLightParent(i) != expected.getLightParent(i)
+					|| actual.isLightOnTerrain(i) != expected.isLightOnTerrain(i)) {
+				throw new IllegalStateException("light " + i + " doesn't match");
+			}
+		}
+		if (actual.getLightParent(1) != 0) {
+			throw new IllegalStateException("the lamp light lost its parent");
+		}
+	}
+
+}
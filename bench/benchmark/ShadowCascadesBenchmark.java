@@ -0,0 +1,166 @@
+package benchmark;
+
+import java.util.Random;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import tools.ShadowCascades;
+
+/**
+ * @author Andrei
+ * Checks ShadowCascades the way ShadowRenderer uses it, over a long random walk of the camera: every corner of every
+ * slice of the view is inside its cascade's box after each update, the boxes only ever sit on whole shadow map
+ * pixels, walking only draws the static casters again once in a while, and a new static version or sun direction
+ * redraws every cascade. Then times update, which runs once every frame.
+ */
+public class ShadowCascadesBenchmark {
+
+	//the same as MasterRenderer and ShadowRenderer
+	private static final float FOV = 70, NEAR = 0.1f, DISTANCE = 250, ASPECT = 1280 / 720f;
+	private static final int CASCADES = 3, SIZE = 2048;
+	private static final float MARGIN = 0.25f, REACH = 500;
+
+	public static void main(String[] args) {
+		ShadowCascades cascades = new ShadowCascades(CASCADES, NEAR, DISTANCE, FOV, ASPECT, SIZE, MARGIN, REACH);
+		Vector3f sun = new Vector3f(0, -10000, 7000);
+		Matrix4f view = new Matrix4f();
+		Random random = new Random(49);
+
+		float[] ends = cascades.getEnds();
+		require(Math.abs(ends[CASCADES - 1] - DISTANCE) < 1e-2f, "the last cascade doesn't end at the shadow distance");
+		for (int c = 1; c < CASCADES; c++) {
+			require(ends[c] > ends[c - 1] && ends[c] - ends[c - 1] > ends[0], "the cascades don't get longer");
+		}
+
+		//a player walking around and turning, the way the camera follows them
+		float x = 0, z = 0, yaw = 0, pitch = 20;
+		int frames = 20000;
+		long[] refreshed = new long[CASCADES];
+		float walked = 0;
+		for (int frame = 0; frame < frames; frame++) {
+			yaw += (random.nextFloat() - 0.5f) * 4;
+			pitch = Math.max(-10, Math.min(60, pitch + (random.nextFloat() - 0.5f)));
+			float step = 0.4f; //about 24 per second at 60 frames per second, running speed
+			x += step * (float) Math.sin(Math.toRadians(yaw));
+			z -= step * (float) Math.cos(Math.toRadians(yaw));
+			walked += step;
+			createView(x, 10, z, pitch, yaw, view);
+			cascades.update(view, sun, 1);
+			for (int c = 0; c < CASCADES; c++) {
+				if (cascades.needsRefresh(c)) {
+					refreshed[c]++;
+				}
+				checkCorners(cascades, c, view);
+				checkSnapped(cascades, c);
+			}
+		}
+		for (int c = 0; c < CASCADES; c++) {
+			//a cascade can only move once the camera moved margin * radius since the last time, plus turning
+			float slack = MARGIN * cascades.getRadius(c);
+			System.out.printf("cascade %d: ends at %.1f, radius %.1f, %.3f per pixel, drawn again %d times in %d frames"
+					+ " (walked %.0f, %.0f per refresh)%n", c, ends[c], cascades.getRadius(c), cascades.getTexelSize(c),
+					refreshed[c], frames, walked, walked / refreshed[c]);
+			require(refreshed[c] < frames / 4, "cascade " + c + " is drawn again almost every frame");
+			require(refreshed[c] <= walked / slack * 4 + 1, "cascade " + c + " moves more often than it needs to");
+		}
+		require(refreshed[CASCADES - 1] < refreshed[0], "the far cascade moves as often as the near one");
+		System.out.println("corners inside, snapped to pixels, few refreshes: ok");
+
+		//standing still redraws nothing, a new static version or a moving sun redraws everything
+		cascades.update(view, sun, 1);
+		for (int c = 0; c < CASCADES; c++) {
+			require(!cascades.needsRefresh(c), "cascade " + c + " moved while the camera stood still");
+		}
+		cascades.update(view, sun, 2);
+		for (int c = 0; c < CASCADES; c++) {
+			require(cascades.needsRefresh(c), "cascade " + c + " kept a stale static version");
+		}
+		sun.x += 100;
+		cascades.update(view, sun, 2);
+		for (int c = 0; c < CASCADES; c++) {
+			require(cascades.needsRefresh(c), "cascade " + c + " kept the old sun");
+		}
+		System.out.println("invalidation: ok");
+
+		//the cost of the update every frame
+		for (int run = 0; run < 5; run++) {
+			long start = System.nanoTime();
+			int updates = 200000;
+			for (int i = 0; i < updates; i++) {
+				createView(x + i * 0.01f, 10, z, pitch, yaw + i * 0.01f, view);
+				cascades.update(view, sun, 2);
+			}
+			long nanos = System.nanoTime() - start;
+			System.out.printf("update: %.0f ns%n", nanos / (double) updates);
+		}
+	}
+
+	//the eight corners of the cascade's slice of the view have to be inside the box the map was drawn for
+	private static void checkCorners(ShadowCascades cascades, int c, Matrix4f view) {
+		float tanX = (float) Math.tan(Math.toRadians(FOV / 2)), tanY = tanX / ASPECT;
+		float tx = view.m30, ty = view.m31, tz = view.m32;
+		Vector3f camera = new Vector3f(-(view.m00 * tx + view.m01 * ty + view.m02 * tz),
+				-(view.m10 * tx + view.m11 * ty + view.m12 * tz), -(view.m20 * tx + view.m21 * ty + view.m22 * tz));
+		Vector3f right = new Vector3f(view.m00, view.m10, view.m20);
+		Vector3f up = new Vector3f(view.m01, view.m11, view.m21);
+		Vector3f forward = new Vector3f(-view.m02, -view.m12, -view.m22);
+		float start = c == 0 ? NEAR : cascades.getEnds()[c - 1];
+		float end = cascades.getEnds()[c];
+		float halfSize = cascades.getHalfSize(c) * 1.0001f;
+		float[] shadow = cascades.getShadowMatrices();
+		for (float depth : new float[] { start, end }) {
+			for (int corner = 0; corner < 4; corner++) {
+				float sx = (corner & 1) == 0 ? -1 : 1, sy = (corner & 2) == 0 ? -1 : 1;
+				float px = camera.x + forward.x * depth + (right.x * sx * tanX + up.x * sy * tanY) * depth;
+				float py = camera.y + forward.y * depth + (right.y * sx * tanX + up.y * sy * tanY) * depth;
+				float pz = camera.z + forward.z * depth + (right.z * sx * tanX + up.z * sy * tanY) * depth;
+				float lightX = cascades.getRight().x * px + cascades.getRight().y * py + cascades.getRight().z * pz;
+				float lightY = cascades.getUp().x * px + cascades.getUp().y * py + cascades.getUp().z * pz;
+				require(Math.abs(lightX - cascades.getCachedX(c)) <= halfSize
+						&& Math.abs(lightY - cascades.getCachedY(c)) <= halfSize, "a corner is outside cascade " + c);
+				//and it lands inside the map, with a depth in range
+				int o = c * 16;
+				float u = shadow[o] * px + shadow[o + 4] * py + shadow[o + 8] * pz + shadow[o + 12];
+				float v = shadow[o + 1] * px + shadow[o + 5] * py + shadow[o + 9] * pz + shadow[o + 13];
+				float d = shadow[o + 2] * px + shadow[o + 6] * py + shadow[o + 10] * pz + shadow[o + 14];
+				require(u >= -1e-3f && u <= 1.001f && v >= -1e-3f && v <= 1.001f && d >= -1e-3f && d <= 1.001f,
+						"a corner is outside the map of cascade " + c + ": " + u + ", " + v + ", " + d);
+			}
+		}
+	}
+
+	//the middle of the box is on a shadow map pixel, so the pixels don't move around when it does
+	private static void checkSnapped(ShadowCascades cascades, int c) {
+		float texel = cascades.getTexelSize(c);
+		for (float value : new float[] { cascades.getCachedX(c), cascades.getCachedY(c) }) {
+			float pixels = value / texel;
+			require(Math.abs(pixels - Math.round(pixels)) < 1e-2f, "cascade " + c + " isn't on a pixel: " + pixels);
+		}
+	}
+
+	//the same as Maths.createViewMatrix, from the angles instead of a Camera
+	private static void createView(float x, float y, float z, float pitch, float yaw, Matrix4f dest) {
+		float sp = (float) Math.sin(Math.toRadians(pitch)), cp = (float) Math.cos(Math.toRadians(pitch));
+		float sy = (float) Math.sin(Math.toRadians(yaw)), cy = (float) Math.cos(Math.toRadians(yaw));
+		dest.setIdentity();
+		dest.m00 = cy;
+		dest.m01 = sp * sy;
+		dest.m02 = -cp * sy;
+		dest.m11 = cp;
+		dest.m12 = sp;
+		dest.m20 = sy;
+		dest.m21 = -sp * cy;
+		dest.m22 = cp * cy;
+		dest.m30 = -(dest.m00 * x + dest.m10 * y + dest.m20 * z);
+		dest.m31 = -(dest.m01 * x + dest.m11 * y + dest.m21 * z);
+		dest.m32 = -(dest.m02 * x + dest.m12 * y + dest.m22 * z);
+	}
+
+	private static void require(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+}
@@ -0,0 +1,237 @@
+package benchmark;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.SpatialHashGrid;
+import tools.Frustum;
+import tools.IntList;
+
+/**
+ * @author Andrei
+ * Measures the spatial hash grid with 10k, 100k and 1M objects (or the counts given as arguments).
+ * Objects are spread at a constant density, so the cost of a query of a given size should stay flat
+ * as the count grows. Every query type is also checked against a brute force scan before it is timed.
+ *
+ * Usage: SpatialIndexBenchmark [count...]
+ */
+public class SpatialIndexBenchmark {
+
+	private static final float CELL_SIZE = 50;
+	private static final int QUERIES = 2000;
+
+	public static void main(String[] args) {
+		int[] counts = { 10000, 100000, 1000000 };
+		if (args.length > 0) {
+			counts = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				counts[i] = Integer.parseInt(args[i]);
+			}
+		}
+		System.out.printf("%-9s %10s %10s %10s %10s %10s %10s %14s %14s%n", "objects", "insert ns", "move ns",
+				"box us", "sphere us", "frustum us", "knn8 us", "conc reads/s", "conc writes/s");
+		for (int count : counts) {
+			run(count);
+		}
+	}
+
+	private static void run(int count) {
+		Random random = new Random(count);
+		float extent = (float) Math.sqrt(count) * 10; //about one object per 100 square units
+		float[] x = new float[count], y = new float[count], z = new float[count], r = new float[count];
+		for (int i = 0; i < count; i++) {
+			x[i] = random.nextFloat() * extent;
+			y[i] = random.nextFloat() * 50;
+			z[i] = random.nextFloat() * extent;
+			r[i] = 0.5f + random.nextFloat() * 2.5f;
+		}
+		SpatialHashGrid grid = new SpatialHashGrid(CELL_SIZE, count);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			grid.update(i, x[i], y[i], z[i], r[i]);
+		}
+		double insertNs = (System.nanoTime() - start) / (double) count;
+
+		//move everything a little, some of the objects end up in a different cell
+		start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			x[i] += random.nextFloat() * 4 - 2;
+			z[i] += random.nextFloat() * 4 - 2;
+			grid.update(i, x[i], y[i], z[i], r[i]);
+		}
+		double moveNs = (System.nanoTime() - start) / (double) count;
+
+		IntList result = new IntList(1024);
+		verify(grid, x, y, z, r, extent, random, result);
+
+		double boxUs = time(() -> {
+			float cx = random.nextFloat() * extent, cz = random.nextFloat() * extent;
+			result.clear();
+			grid.queryBox(cx - 30, 0, cz - 30, cx + 30, 50, cz + 30, result);
+		});
+		double sphereUs = time(() -> {
+			result.clear();
+			grid.querySphere(random.nextFloat() * extent, 25, random.nextFloat() * extent, 30, result);
+		});
+		Frustum frustum = new Frustum();
+		Matrix4f projection = createProjection();
+		double frustumUs = time(() -> {
+			frustum.update(projection, createView(random.nextFloat() * extent, 20, random.nextFloat() * extent,
+					random.nextFloat() * 360));
+			result.clear();
+			grid.queryFrustum(frustum, result);
+		});
+		double nearestUs = time(() -> {
+			result.clear();
+			grid.queryNearest(random.nextFloat() * extent, 25, random.nextFloat() * extent, 8, result);
+		});
+
+		long[] concurrent = runConcurrently(grid, x, y, z, r, extent);
+		System.out.printf("%-9d %10.1f %10.1f %10.2f %10.2f %10.2f %10.2f %14d %14d%n", count, insertNs, moveNs, boxUs,
+				sphereUs, frustumUs, nearestUs, concurrent[0], concurrent[1]);
+	}
+
+	//average microseconds per query, after a warm up
+	private static double time(Runnable query) {
+		for (int i = 0; i < QUERIES; i++) {
+			query.run();
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < QUERIES; i++) {
+			query.run();
+		}
+		return (System.nanoTime() - start) / 1000.0 / QUERIES;
+	}
+
+	//one thread keeps moving objects while three threads run sphere queries, for one second
+	private static long[] runConcurrently(SpatialHashGrid grid, float[] x, float[] y, float[] z, float[] r,
+			float extent) {
+		AtomicBoolean running = new AtomicBoolean(true);
+		AtomicLong reads = new AtomicLong();
+		AtomicLong writes = new AtomicLong();
+		Thread writer = new Thread(() -> {
+			Random random = new Random(1);
+			long done = 0;
+			while (running.get()) {
+				int i = random.nextInt(x.length);
+				x[i] += random.nextFloat() * 4 - 2;
+				grid.update(i, x[i], y[i], z[i], r[i]);
+				done++;
+			}
+			writes.addAndGet(done);
+		});
+		Thread[] readers = new Thread[3];
+		for (int t = 0; t < readers.length; t++) {
+			final int seed = t;
+			readers[t] = new Thread(() -> {
+				Random random = new Random(seed + 100);
+				IntList result = new IntList(256);
+				long done = 0;
+				while (running.get()) {
+					result.clear();
+					grid.querySphere(random.nextFloat() * extent, 25, random.nextFloat() * extent, 30, result);
+					done++;
+				}
+				reads.addAndGet(done);
+			});
+		}
+		writer.start();
+		for (Thread reader : readers) {
+			reader.start();
+		}
+		try {
+			Thread.sleep(1000);
+			running.set(false);
+			writer.join();
+			for (Thread reader : readers) {
+				reader.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return new long[] { reads.get(), writes.get() };
+	}
+
+	//compares a few queries of every type against looking at every object
+	private static void verify(SpatialHashGrid grid, float[] x, float[] y, float[] z, float[] r, float extent,
+			Random random, IntList result) {
+		for (int q = 0; q < 5; q++) {
+			float cx = random.nextFloat() * extent, cy = 25, cz = random.nextFloat() * extent;
+			result.clear();
+			grid.querySphere(cx, cy, cz, 30, result);
+			int expected = 0;
+			for (int i = 0; i < x.length; i++) {
+				float dx = x[i] - cx, dy = y[i] - cy, dz = z[i] - cz, reach = 30 + r[i];
+				if (dx * dx + dy * dy + dz * dz <= reach * reach) {
+					expected++;
+				}
+			}
+			check(result.size() == expected, "sphere query found " + result.size() + ", expected " + expected);
+
+			result.clear();
+			grid.queryNearest(cx, cy, cz, 8, result);
+			float worst = 0;
+			for (int i = 0; i < result.size(); i++) {
+				worst = Math.max(worst, distance(x, y, z, result.get(i), cx, cy, cz));
+			}
+			int closer = 0;
+			for (int i = 0; i < x.length; i++) {
+				if (distance(x, y, z, i, cx, cy, cz) < worst) {
+					closer++;
+				}
+			}
+			check(result.size() == 8 && closer <= 7, "k nearest missed " + (closer - 7) + " closer objects");
+
+			Frustum frustum = new Frustum();
+			frustum.update(createProjection(), createView(cx, 20, cz, random.nextFloat() * 360));
+			result.clear();
+			grid.queryFrustum(frustum, result);
+			expected = 0;
+			for (int i = 0; i < x.length; i++) {
+				if (frustum.intersectsSphere(x[i], y[i], z[i], r[i])) {
+					expected++;
+				}
+			}
+			check(result.size() == expected, "frustum query found " + result.size() + ", expected " + expected);
+		}
+	}
+
+	private static float distance(float[] x, float[] y, float[] z, int i, float cx, float cy, float cz) {
+		float dx = x[i] - cx, dy = y[i] - cy, dz = z[i] - cz;
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new IllegalStateException(message);
+		}
+	}
+
+	//same projection as MasterRenderer, for a 16:9 window
+	private static Matrix4f createProjection() {
+		float aspectRatio = 16f / 9f, near = 0.1f, far = 1000;
+		float yScale = (float) ((1f / Math.tan(Math.toRadians(35))) * aspectRatio);
+		Matrix4f projection = new Matrix4f();
+		projection.m00 = yScale / aspectRatio;
+		projection.m11 = yScale;
+		projection.m22 = -((far + near) / (far - near));
+		projection.m23 = -1;
+		projection.m32 = -((2 * near * far) / (far - near));
+		projection.m33 = 0;
+		return projection;
+	}
+
+	private static Matrix4f createView(float x, float y, float z, float yaw) {
+		Matrix4f view = new Matrix4f();
+		Matrix4f.rotate((float) Math.toRadians(10), new Vector3f(1, 0, 0), view, view);
+		Matrix4f.rotate((float) Math.toRadians(yaw), new Vector3f(0, 1, 0), view, view);
+		Matrix4f.translate(new Vector3f(-x, -y, -z), view, view);
+		return view;
+	}
+
+}
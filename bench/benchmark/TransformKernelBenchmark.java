@@ -0,0 +1,154 @@
+package benchmark;
+
+import java.util.Random;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import tools.Frustum;
+import tools.IntList;
+import tools.Maths;
+import tools.ScalarTransformKernel;
+import tools.TransformKernel;
+
+/**
+ * @author Andrei
+ * Compares the vector transform kernel with the scalar one and with calling Maths and Frustum per entity,
+ * for 100k and 1M entities (or the counts given as arguments).
+ * The vector kernel is only used when the JVM runs with --add-modules jdk.incubator.vector and the simd
+ * source folder is compiled in, otherwise both columns show the scalar kernel.
+ * The results of the two kernels are checked against each other before anything is timed.
+ *
+ * Usage: TransformKernelBenchmark [entities...]
+ */
+public class TransformKernelBenchmark {
+
+	private static final int RUNS = 15;
+	private static final float TOLERANCE = 1e-5f;
+
+	public static void main(String[] args) {
+		int[] counts = { 100000, 1000000 };
+		if (args.length > 0) {
+			counts = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				counts[i] = Integer.parseInt(args[i]);
+			}
+		}
+		TransformKernel vector = TransformKernel.getInstance();
+		TransformKernel scalar = new ScalarTransformKernel();
+		System.out.println("kernel: " + vector.getName() + ", " + vector.getLanes() + " lanes");
+		System.out.printf("%-9s %-10s %12s %12s %12s%n", "entities", "", "per entity", "scalar", "vector");
+		for (int count : counts) {
+			run(count, scalar, vector);
+		}
+	}
+
+	private static void run(int count, TransformKernel scalar, TransformKernel vector) {
+		Random random = new Random(count);
+		float[] x = new float[count], y = new float[count], z = new float[count];
+		float[] rx = new float[count], ry = new float[count], rz = new float[count];
+		float[] scale = new float[count], radius = new float[count];
+		float extent = (float) Math.sqrt(count) * 10;
+		for (int i = 0; i < count; i++) {
+			x[i] = random.nextFloat() * extent;
+			y[i] = random.nextFloat() * 50;
+			z[i] = random.nextFloat() * extent;
+			rx[i] = random.nextFloat() * 360;
+			ry[i] = random.nextFloat() * 360;
+			rz[i] = random.nextFloat() * 360;
+			scale[i] = 0.5f + random.nextFloat() * 2;
+			radius[i] = 0.5f + random.nextFloat() * 2.5f;
+		}
+		float[] matrices = new float[count * 16], expected = new float[count * 16];
+		float[] outX = new float[count], outY = new float[count], outZ = new float[count];
+		float[] view = new float[16];
+		Matrix4f viewMatrix = createView(extent / 2, 20, extent / 2, 30);
+		Maths.storeMatrix(viewMatrix, view, 0);
+		Frustum frustum = new Frustum();
+		frustum.update(createProjection(), viewMatrix);
+		IntList visible = new IntList(count), expectedVisible = new IntList(count);
+
+		//both kernels have to agree before they are timed
+		scalar.computeMatrices(x, y, z, rx, ry, rz, scale, 0, count, expected);
+		vector.computeMatrices(x, y, z, rx, ry, rz, scale, 0, count, matrices);
+		for (int i = 0; i < count * 16; i++) {
+			if (Math.abs(matrices[i] - expected[i]) > TOLERANCE * Math.max(1, Math.abs(expected[i]))) {
+				throw new IllegalStateException("matrix element " + i + " is " + matrices[i] + ", expected " + expected[i]);
+			}
+		}
+		scalar.cullSpheres(frustum.getPlanes(), x, y, z, radius, 0, count, expectedVisible);
+		vector.cullSpheres(frustum.getPlanes(), x, y, z, radius, 0, count, visible);
+		if (visible.size() != expectedVisible.size()) {
+			throw new IllegalStateException(visible.size() + " spheres visible, expected " + expectedVisible.size());
+		}
+
+		double maths = time(() -> {
+			for (int i = 0; i < count; i++) {
+				Maths.writeTransformationMatrix(x[i], y[i], z[i], rx[i], ry[i], rz[i], scale[i], matrices, i * 16);
+			}
+		}) / count;
+		double scalarMatrices = time(() -> scalar.computeMatrices(x, y, z, rx, ry, rz, scale, 0, count, matrices)) / count;
+		double vectorMatrices = time(() -> vector.computeMatrices(x, y, z, rx, ry, rz, scale, 0, count, matrices)) / count;
+		System.out.printf("%-9d %-10s %12.2f %12.2f %12.2f%n", count, "matrices", maths, scalarMatrices, vectorMatrices);
+
+		double scalarPoints = time(() -> scalar.transformPoints(view, x, y, z, 0, count, outX, outY, outZ)) / count;
+		double vectorPoints = time(() -> vector.transformPoints(view, x, y, z, 0, count, outX, outY, outZ)) / count;
+		System.out.printf("%-9s %-10s %12s %12.2f %12.2f%n", "", "view space", "", scalarPoints, vectorPoints);
+
+		double frustumLoop = time(() -> {
+			visible.clear();
+			for (int i = 0; i < count; i++) {
+				if (frustum.intersectsSphere(x[i], y[i], z[i], radius[i])) {
+					visible.add(i);
+				}
+			}
+		}) / count;
+		double scalarCull = time(() -> {
+			visible.clear();
+			scalar.cullSpheres(frustum.getPlanes(), x, y, z, radius, 0, count, visible);
+		}) / count;
+		double vectorCull = time(() -> {
+			visible.clear();
+			vector.cullSpheres(frustum.getPlanes(), x, y, z, radius, 0, count, visible);
+		}) / count;
+		System.out.printf("%-9s %-10s %12.2f %12.2f %12.2f   (ns, %d visible)%n", "", "culling", frustumLoop, scalarCull,
+				vectorCull, visible.size());
+	}
+
+	//best time of a few runs after a warm up, in nanoseconds
+	private static double time(Runnable work) {
+		for (int run = 0; run < RUNS; run++) { //the vector code needs a while before C2 compiles it
+			work.run();
+		}
+		long best = Long.MAX_VALUE;
+		for (int run = 0; run < RUNS; run++) {
+			long start = System.nanoTime();
+			work.run();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best;
+	}
+
+	//same projection as MasterRenderer, for a 16:9 window
+	private static Matrix4f createProjection() {
+		float aspectRatio = 16f / 9f, near = 0.1f, far = 1000;
+		float yScale = (float) ((1f / Math.tan(Math.toRadians(35))) * aspectRatio);
+		Matrix4f projection = new Matrix4f();
+		projection.m00 = yScale / aspectRatio;
+		projection.m11 = yScale;
+		projection.m22 = -((far + near) / (far - near));
+		projection.m23 = -1;
+		projection.m32 = -((2 * near * far) / (far - near));
+		projection.m33 = 0;
+		return projection;
+	}
+
+	private static Matrix4f createView(float x, float y, float z, float yaw) {
+		Matrix4f view = new Matrix4f();
+		Matrix4f.rotate((float) Math.toRadians(10), new Vector3f(1, 0, 0), view, view);
+		Matrix4f.rotate((float) Math.toRadians(yaw), new Vector3f(0, 1, 0), view, view);
+		Matrix4f.translate(new Vector3f(-x, -y, -z), view, view);
+		return view;
+	}
+
+}
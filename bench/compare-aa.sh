@@ -0,0 +1,20 @@
+#!/bin/sh
+# Renders the benchmark scene once with every anti-aliasing mode and lists how long the frames took, so the
+# cost of each one can be compared on the same machine. Each run writes its own report, build/aa-<mode>.json.
+# Needs a GPU (or Mesa, see RenderBenchmark) and the LWJGL natives for the platform in lib/natives.
+#
+# Usage: bench/compare-aa.sh [more RenderBenchmark options, like entities=5000 lights=32]
+
+set -e
+cd "$(dirname "$0")/.."
+OUT=build/classes
+
+rm -rf "$OUT"
+mkdir -p "$OUT"
+find src simd bench -name '*.java' > build/sources.txt
+javac -nowarn --add-modules jdk.incubator.vector -d "$OUT" -cp "lib/jars/*" @build/sources.txt
+
+for MODE in off fxaa smaa msaa_2 msaa_4 msaa_8; do
+	java --add-modules jdk.incubator.vector -Djava.library.path=lib/natives -cp "$OUT:src:lib/jars/*" \
+		main.RenderBenchmark aa=$MODE report=build/aa-$MODE.json "$@"
+done
@@ -0,0 +1,14 @@
+#!/bin/sh
+# Builds the engine and the benchmarks with Gradle (core and jmh in settings.gradle) and runs the JMH
+# benchmarks, which write their results as JSON.
+#
+# Usage: bench/run.sh [results.json] [regex of the benchmarks to run]
+# Any of the other benchmarks can be run the same way afterwards:
+#     gradle -q :jmh:bench -Pmain=SceneGraphBenchmark
+
+set -e
+cd "$(dirname "$0")/.."
+RESULTS=${1:-build/bench-results.json}
+
+mkdir -p "$(dirname "$RESULTS")"
+gradle -q :jmh:jmh -Presults="$RESULTS" ${2:+"-Pinclude=$2"}
@@ -0,0 +1,172 @@
+package tools;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * @author Andrei
+ * The transform kernel written with the incubating Vector API, working on as many entities at once as fit
+ * into one of the CPU's vector registers (8 with AVX2, 16 with AVX-512).
+ *
+ * This lives in its own source folder because it needs --add-modules jdk.incubator.vector both to compile and
+ * to run. TransformKernel.getInstance loads it by name, so the rest of the code never depends on it.
+ * The entities left over at the end of a range (fewer than a full vector) go through the scalar kernel.
+ */
+public class VectorTransformKernel implements TransformKernel {
+
+	private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+	private static final int LANES = SPECIES.length();
+	private static final float DEGREES_TO_RADIANS = (float) (Math.PI / 180);
+
+	private final ScalarTransformKernel scalar = new ScalarTransformKernel();
+
+	//the 9 rotation and scale elements of the matrices, one row of lanes each, before they are spread out per entity
+	//one set per thread, since the kernel can be shared
+	private final ThreadLocal<float[]> columns = ThreadLocal.withInitial(() -> new float[9 * LANES]);
+
+	@Override
+	public void computeMatrices(float[] x, float[] y, float[] z, float[] rx, float[] ry, float[] rz, float[] scale,
+			int from, int to, float[] matrices) {
+		float[] out = columns.get();
+		int end = from + SPECIES.loopBound(to - from);
+		for (int i = from; i < end; i += LANES) {
+			FloatVector a = FloatVector.fromArray(SPECIES, rx, i).mul(DEGREES_TO_RADIANS);
+			FloatVector b = FloatVector.fromArray(SPECIES, ry, i).mul(DEGREES_TO_RADIANS);
+			FloatVector c = FloatVector.fromArray(SPECIES, rz, i).mul(DEGREES_TO_RADIANS);
+			FloatVector s = FloatVector.fromArray(SPECIES, scale, i);
+			FloatVector sa = a.lanewise(VectorOperators.SIN), ca = a.lanewise(VectorOperators.COS);
+			FloatVector sb = b.lanewise(VectorOperators.SIN), cb = b.lanewise(VectorOperators.COS);
+			FloatVector sc = c.lanewise(VectorOperators.SIN), cc = c.lanewise(VectorOperators.COS);
+			FloatVector sasb = sa.mul(sb), casb = ca.mul(sb);
+			//same terms as Maths.writeTransformationMatrix
+			cb.mul(cc).mul(s).intoArray(out, 0);
+			sasb.mul(cc).add(ca.mul(sc)).mul(s).intoArray(out, LANES);
+			sa.mul(sc).sub(casb.mul(cc)).mul(s).intoArray(out, 2 * LANES);
+			cb.mul(sc).neg().mul(s).intoArray(out, 3 * LANES);
+			ca.mul(cc).sub(sasb.mul(sc)).mul(s).intoArray(out, 4 * LANES);
+			casb.mul(sc).add(sa.mul(cc)).mul(s).intoArray(out, 5 * LANES);
+			sb.mul(s).intoArray(out, 6 * LANES);
+			sa.mul(cb).neg().mul(s).intoArray(out, 7 * LANES);
+			ca.mul(cb).mul(s).intoArray(out, 8 * LANES);
+			spread(out, x, y, z, i, matrices);
+		}
+		scalar.computeMatrices(x, y, z, rx, ry, rz, scale, end, to, matrices);
+	}
+
+	@Override
+	public void computeMatrices(float[] x, float[] y, float[] z, float[] qx, float[] qy, float[] qz, float[] qw,
+			float[] scale, int from, int to, float[] matrices) {
+		float[] out = columns.get();
+		int end = from + SPECIES.loopBound(to - from);
+		for (int i = from; i < end; i += LANES) {
+			FloatVector a = FloatVector.fromArray(SPECIES, qx, i);
+			FloatVector b = FloatVector.fromArray(SPECIES, qy, i);
+			FloatVector c = FloatVector.fromArray(SPECIES, qz, i);
+			FloatVector w = FloatVector.fromArray(SPECIES, qw, i);
+			FloatVector s = FloatVector.fromArray(SPECIES, scale, i);
+			FloatVector s2 = s.add(s);
+			FloatVector aa = a.mul(a), bb = b.mul(b), cc = c.mul(c);
+			FloatVector ab = a.mul(b), ac = a.mul(c), bc = b.mul(c);
+			FloatVector wa = w.mul(a), wb = w.mul(b), wc = w.mul(c);
+			//same terms as Maths.writeTransformationMatrix for quaternions
+			s.sub(bb.add(cc).mul(s2)).intoArray(out, 0);
+			ab.add(wc).mul(s2).intoArray(out, LANES);
+			ac.sub(wb).mul(s2).intoArray(out, 2 * LANES);
+			ab.sub(wc).mul(s2).intoArray(out, 3 * LANES);
+			s.sub(aa.add(cc).mul(s2)).intoArray(out, 4 * LANES);
+			bc.add(wa).mul(s2).intoArray(out, 5 * LANES);
+			ac.add(wb).mul(s2).intoArray(out, 6 * LANES);
+			bc.sub(wa).mul(s2).intoArray(out, 7 * LANES);
+			s.sub(aa.add(bb).mul(s2)).intoArray(out, 8 * LANES);
+			spread(out, x, y, z, i, matrices);
+		}
+		scalar.computeMatrices(x, y, z, qx, qy, qz, qw, scale, end, to, matrices);
+	}
+
+	@Override
+	public void transformPoints(float[] matrix, float[] x, float[] y, float[] z, int from, int to, float[] outX,
+			float[] outY, float[] outZ) {
+		FloatVector[] m = new FloatVector[15];
+		for (int e = 0; e < 15; e++) {
+			m[e] = FloatVector.broadcast(SPECIES, matrix[e]);
+		}
+		int end = from + SPECIES.loopBound(to - from);
+		for (int i = from; i < end; i += LANES) {
+			FloatVector px = FloatVector.fromArray(SPECIES, x, i);
+			FloatVector py = FloatVector.fromArray(SPECIES, y, i);
+			FloatVector pz = FloatVector.fromArray(SPECIES, z, i);
+			px.fma(m[0], py.fma(m[4], pz.fma(m[8], m[12]))).intoArray(outX, i);
+			px.fma(m[1], py.fma(m[5], pz.fma(m[9], m[13]))).intoArray(outY, i);
+			px.fma(m[2], py.fma(m[6], pz.fma(m[10], m[14]))).intoArray(outZ, i);
+		}
+		scalar.transformPoints(matrix, x, y, z, end, to, outX, outY, outZ);
+	}
+
+	@Override
+	public void cullSpheres(float[] planes, float[] x, float[] y, float[] z, float[] radius, int from, int to,
+			IntList visible) {
+		int planeCount = planes.length / 4;
+		FloatVector[] a = new FloatVector[planeCount], b = new FloatVector[planeCount];
+		FloatVector[] c = new FloatVector[planeCount], d = new FloatVector[planeCount];
+		for (int p = 0; p < planeCount; p++) {
+			a[p] = FloatVector.broadcast(SPECIES, planes[p * 4]);
+			b[p] = FloatVector.broadcast(SPECIES, planes[p * 4 + 1]);
+			c[p] = FloatVector.broadcast(SPECIES, planes[p * 4 + 2]);
+			d[p] = FloatVector.broadcast(SPECIES, planes[p * 4 + 3]);
+		}
+		int end = from + SPECIES.loopBound(to - from);
+		for (int i = from; i < end; i += LANES) {
+			FloatVector px = FloatVector.fromArray(SPECIES, x, i);
+			FloatVector py = FloatVector.fromArray(SPECIES, y, i);
+			FloatVector pz = FloatVector.fromArray(SPECIES, z, i);
+			FloatVector minusRadius = FloatVector.fromArray(SPECIES, radius, i).neg();
+			VectorMask<Float> inside = SPECIES.maskAll(true);
+			for (int p = 0; p < planeCount; p++) {
+				FloatVector distance = px.fma(a[p], py.fma(b[p], pz.fma(c[p], d[p])));
+				inside = inside.and(distance.compare(VectorOperators.GE, minusRadius));
+			}
+			long bits = inside.toLong();
+			while (bits != 0) {
+				visible.add(i + Long.numberOfTrailingZeros(bits));
+				bits &= bits - 1;
+			}
+		}
+		scalar.cullSpheres(planes, x, y, z, radius, end, to, visible);
+	}
+
+	//spreads the rows of rotation and scale terms out into one matrix per entity, for the entities from i on
+	private static void spread(float[] out, float[] x, float[] y, float[] z, int i, float[] matrices) {
+		for (int lane = 0; lane < LANES; lane++) {
+			int m = (i + lane) * 16;
+			matrices[m] = out[lane];
+			matrices[m + 1] = out[LANES + lane];
+			matrices[m + 2] = out[2 * LANES + lane];
+			matrices[m + 3] = 0;
+			matrices[m + 4] = out[3 * LANES + lane];
+			matrices[m + 5] = out[4 * LANES + lane];
+			matrices[m + 6] = out[5 * LANES + lane];
+			matrices[m + 7] = 0;
+			matrices[m + 8] = out[6 * LANES + lane];
+			matrices[m + 9] = out[7 * LANES + lane];
+			matrices[m + 10] = out[8 * LANES + lane];
+			matrices[m + 11] = 0;
+			matrices[m + 12] = x[i + lane];
+			matrices[m + 13] = y[i + lane];
+			matrices[m + 14] = z[i + lane];
+			matrices[m + 15] = 1;
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "vector " + SPECIES.vectorBitSize() + " bit";
+	}
+
+	@Override
+	public int getLanes() {
+		return LANES;
+	}
+
+}
@@ -0,0 +1,14 @@
+package entities;
+
+/**
+ * @author Andrei
+ * Something an entity does every simulation step (spinning, bobbing up and down, walking a path...)
+ * Behaviours are registered with a BehaviourSystem, which may run them on worker threads.
+ * A behaviour must only change the entity it is given, that way no two threads ever write to the same entity.
+ */
+public interface Behaviour {
+
+	//delta is the length of the step and time the total simulated time, both in seconds
+	void update(Entity entity, float delta, float time);
+
+}
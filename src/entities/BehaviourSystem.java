@@ -0,0 +1,165 @@
+package entities;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import tools.Profiler;
+
+/**
+ * @author Andrei
+ * Runs the behaviours of all the entities of one store every simulation step.
+ *
+ * The entities are split into chunks which are updated in parallel on a fork join pool, and update()
+ * only returns once every chunk is done, so a step never overlaps with the next one or with rendering.
+ * Every entity belongs to exactly one chunk, and behaviours only change their own entity, so two
+ * threads never write to the same entity. While the chunks run, the store only flags which entities
+ * changed and we add them to its dirty lists afterwards on the calling thread.
+ */
+public class BehaviourSystem {
+
+	//entities per task, small enough to balance the threads but big enough to be worth forking
+	private static final int CHUNK_SIZE = 1024;
+	//timed on whichever thread runs the chunk
+	private static final int CHUNK = Profiler.register("behaviour chunk");
+
+	private final EntityStore store;
+	private final ForkJoinPool pool;
+	private boolean parallel = true;
+
+	//the entities with behaviours, and their behaviours
+	private Entity[] entities = new Entity[16];
+	private Behaviour[][] behaviours = new Behaviour[16][];
+	private int count = 0;
+	private final Map<Entity, Integer> slots = new IdentityHashMap<Entity, Integer>();
+
+	private float time = 0;
+
+	public BehaviourSystem(EntityStore store) {
+		this(store, ForkJoinPool.commonPool());
+	}
+
+	public BehaviourSystem(EntityStore store, ForkJoinPool pool) {
+		this.store = store;
+		this.pool = pool;
+	}
+
+	//gives an entity another behaviour, the entity has to live in our store
+	public void add(Entity entity, Behaviour behaviour) {
+		if (entity.getStore() != store) {
+			throw new IllegalArgumentException("The entity belongs to a different store");
+		}
+		Integer slot = slots.get(entity);
+		if (slot == null) {
+			if (count == entities.length) {
+				entities = Arrays.copyOf(entities, count * 2);
+				behaviours = Arrays.copyOf(behaviours, count * 2);
+			}
+			slot = count++;
+			entities[slot] = entity;
+			behaviours[slot] = new Behaviour[0];
+			slots.put(entity, slot);
+		}
+		Behaviour[] list = behaviours[slot];
+		list = Arrays.copyOf(list, list.length + 1);
+		list[list.length - 1] = behaviour;
+		behaviours[slot] = list;
+	}
+
+	//takes away all the behaviours of an entity
+	public void remove(Entity entity) {
+		Integer slot = slots.remove(entity);
+		if (slot == null) {
+			return;
+		}
+		int last = --count;
+		if (slot != last) {
+			entities[slot] = entities[last];
+			behaviours[slot] = behaviours[last];
+			slots.put(entities[slot], slot);
+		}
+		entities[last] = null;
+		behaviours[last] = null;
+	}
+
+	//runs one step of every behaviour, returns once they have all finished
+	public void update(float delta) {
+		time += delta;
+		removeDeadEntities();
+		if (count == 0) {
+			return;
+		}
+		store.setDeferChanges(true);
+		try {
+			if (parallel && count > CHUNK_SIZE) {
+				pool.invoke(new UpdateTask(0, count, delta, time));
+			} else {
+				updateRange(0, count, delta, time);
+			}
+		} finally {
+			store.setDeferChanges(false);
+		}
+		//back on one thread, tell the store which entities changed
+		for (int i = 0; i < count; i++) {
+			store.flushChanges(entities[i].getIndex());
+		}
+	}
+
+	//lets us compare against running everything on the calling thread
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	private void updateRange(int from, int to, float delta, float time) {
+		Profiler.begin(CHUNK);
+		for (int i = from; i < to; i++) {
+			Entity entity = entities[i];
+			Behaviour[] list = behaviours[i];
+			for (int j = 0; j < list.length; j++) {
+				list[j].update(entity, delta, time);
+			}
+		}
+		Profiler.end(CHUNK);
+	}
+
+	//entities that were taken out of the store since the last step
+	private void removeDeadEntities() {
+		for (int i = count - 1; i >= 0; i--) {
+			if (entities[i].getIndex() < 0) {
+				remove(entities[i]);
+			}
+		}
+	}
+
+	private class UpdateTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int from, to;
+		private final float delta, time;
+
+		private UpdateTask(int from, int to, float delta, float time) {
+			this.from = from;
+			this.to = to;
+			this.delta = delta;
+			this.time = time;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= CHUNK_SIZE) {
+				updateRange(from, to, delta, time);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new UpdateTask(from, middle, delta, time), new UpdateTask(middle, to, delta, time));
+		}
+	}
+
+}
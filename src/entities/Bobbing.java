@@ -0,0 +1,27 @@
+package entities;
+
+/**
+ * @author Andrei
+ * Moves an entity up and down along a sine wave around where it started
+ */
+public class Bobbing implements Behaviour {
+
+	private final float height; //how far up and down it goes
+	private final float speed; //in radians per second
+	private final float phase; //so that neighbours don't all move together
+
+	public Bobbing(float height, float cyclesPerSecond, float phase) {
+		this.height = height;
+		this.speed = (float) (cyclesPerSecond * 2 * Math.PI);
+		this.phase = phase;
+	}
+
+	@Override
+	public void update(Entity entity, float delta, float time) {
+		//we only add the change since the last step, so anything else moving the entity still works
+		float now = (float) Math.sin(time * speed + phase);
+		float before = (float) Math.sin((time - delta) * speed + phase);
+		entity.increasePosition(0, (now - before) * height, 0);
+	}
+
+}
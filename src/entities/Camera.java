@@ -1,7 +1,6 @@
 package entities;
 
 
-import org.lwjgl.input.Mouse;
 import org.lwjgl.util.vector.Vector3f;
  
 /**
@@ -20,19 +19,54 @@ public class Camera {
     private float yaw = 0; // how left or right
     private float roll; // how much it's tilted
     
+    //the sines and cosines of the angles, only worked out again when the angles change
+    //the view matrix and the camera position are built from these instead of the angles
+    private float sinPitch, cosPitch;
+    private float sinYaw = 0, cosYaw = 1;
+    private float sinAngle = 0, cosAngle = 1; //of angleAroundPlayer
+    
     //camera is going to be following the player around
     private Player player;
     
+    private Controls controls = new DeviceControls();
+    
+    //when set, the camera sits on a node of a scene graph instead of following the player
+    private SceneGraph anchorGraph;
+    private int anchorNode;
+    
     //so we need information about the player
     public Camera(Player player){
     	this.player = player;
+    	updatePitch();
+    }
+    
+    public void setControls(Controls controls) {
+    	this.controls = controls;
     }
     
     //called whenever we want to move the camera around
     public void move(){
+    	processInput();
+    	updatePosition();
+    }
+    
+    //reads the mouse, called once every simulation step
+    public void processInput() {
     	//these 2 methods will gives us the information necessary to calculate the cameras position and rotation
     	calculateZoom();
     	calculatePitchAndAngle();
+    }
+    
+    //places the camera behind the player, called once every frame after the player has been interpolated
+    public void updatePosition() {
+    	if (anchorGraph != null) {
+    		//looking around still works, but the camera doesn't move away from the node
+    		anchorGraph.getWorldPosition(anchorNode, position);
+    		this.yaw = 180 - angleAroundPlayer;
+    		this.sinYaw = sinAngle; //sin(180 - a) = sin(a)
+    		this.cosYaw = -cosAngle; //cos(180 - a) = -cos(a)
+    		return;
+    	}
     	
     	//horizontal and vertical distances of the camera from the player
     	float horizontalDistance = calculateHorizontalDistance();
@@ -44,10 +78,17 @@ public class Camera {
     	//using intersection of parallel lines angle equivalence we can get the yaw
     	//http://jwilson.coe.uga.edu/EMAT6680/Dunbar/Math7200/ParallelLines/parall5.gif
     	//the yaw is equal to 180 minus theta from the calculateCameraPosition method
-    	this.yaw = 180 - (player.getRotY() + angleAroundPlayer);
+    	//sinYaw and cosYaw were set there, the angle itself is only kept for getYaw
+    	this.yaw = 180 - (float) Math.toDegrees(Math.atan2(sinYaw, -cosYaw));
 
     }
  
+    //use SceneGraph.attach, a null graph goes back to following the player
+    void setAnchor(SceneGraph graph, int node) {
+    	this.anchorGraph = graph;
+    	this.anchorNode = node;
+    }
+    
     public Vector3f getPosition() {
         return position;
     }
@@ -64,40 +105,67 @@ public class Camera {
         return roll;
     }
     
+    public float getSinPitch() {
+    	return sinPitch;
+    }
+    
+    public float getCosPitch() {
+    	return cosPitch;
+    }
+    
+    public float getSinYaw() {
+    	return sinYaw;
+    }
+    
+    public float getCosYaw() {
+    	return cosYaw;
+    }
+    
     //calculates the actual position of the camera
     private void calculateCameraPosition(float horizDistance, float verticDistance) {
     	//theta is the player rotation angle + angle around the player input by the user
     	//http://www.technologyuk.net/mathematics/geometry/images/geometry_0013.gif
     	//equivalent triangle angles is why we can use the player rotation here
-    	float theta = player.getRotY() + angleAroundPlayer;
+    	//the player's rotation comes as the direction it faces, which is (sin, 0, cos) of its angle
+    	//so theta's sine and cosine follow from the angle sum identities, without any trig
+    	Vector3f forward = player.getRenderForward();
+    	float length = (float) Math.sqrt(forward.x * forward.x + forward.z * forward.z);
+    	float sinRotation = length > 0 ? forward.x / length : 0;
+    	float cosRotation = length > 0 ? forward.z / length : 1;
+    	float sinTheta = sinRotation * cosAngle + cosRotation * sinAngle;
+    	float cosTheta = cosRotation * cosAngle - sinRotation * sinAngle;
     	
-    	float offsetX = (float) (horizDistance * Math.sin(Math.toRadians(theta))); //same way we calculated horizontal and vertical distances
-    	float offsetZ = (float) (horizDistance * Math.cos(Math.toRadians(theta)));
+    	float offsetX = horizDistance * sinTheta; //same way we calculated horizontal and vertical distances
+    	float offsetZ = horizDistance * cosTheta;
+    	this.sinYaw = sinTheta; //the yaw is 180 - theta
+    	this.cosYaw = -cosTheta;
     	
     	// the positions of the camera
     	// we subtract them from the players position because the cameras offsets from the player
     	// will be in the negative x and z direction
-    	position.x = player.getPosition().x - offsetX;
-    	position.z = player.getPosition().z - offsetZ;
+    	//we follow the position the player is drawn at, so the camera doesn't jitter between simulation steps
+    	Vector3f playerPosition = player.getRenderPosition();
+    	position.x = playerPosition.x - offsetX;
+    	position.z = playerPosition.z - offsetZ;
     	
     	//we know how far the camera is away from the player with verticDistance
     	//and we know the players y position. So we can calculate the cameras y position
     	//6 is used as an offset
-    	position.y = (player.getPosition().y + verticDistance) + 6;
+    	position.y = (playerPosition.y + verticDistance) + 6;
     }
     
     //horizontal distance
     private float calculateHorizontalDistance() {
-    	return (float) (distanceFromPlayer * Math.cos(Math.toRadians(pitch)));
+    	return distanceFromPlayer * cosPitch;
     }
     
     //vertical distance
     private float calculateVerticalDistance() {
-    	return (float) (distanceFromPlayer * Math.sin(Math.toRadians(pitch)));
+    	return distanceFromPlayer * sinPitch;
     }
     
     private void calculateZoom() {
-    	float zoomLevel = Mouse.getDWheel() * 0.1f; //mouse wheel input
+    	float zoomLevel = controls.getDWheel() * 0.1f; //mouse wheel input
     	distanceFromPlayer -= zoomLevel; //zooms out when we move the mousewheel down
     	//some limiting values
     	if (distanceFromPlayer < 10) {
@@ -110,11 +178,11 @@ public class Camera {
     }
     
     private void calculatePitchAndAngle() {
-    	if(Mouse.isButtonDown(1)) { //right mouse button
-    		float pitchChange = Mouse.getDY() * 0.1f; //how much the mouse has moved 
+    	if(controls.isButtonDown(1)) { //right mouse button
+    		float pitchChange = controls.getDY() * 0.1f; //how much the mouse has moved 
     		pitch -= pitchChange; //subtract it from the pitch
     		
-    		float angleChange = Mouse.getDX() * 0.3f; //how much the mouse has moved
+    		float angleChange = controls.getDX() * 0.3f; //how much the mouse has moved
     		angleAroundPlayer -= angleChange;
     		//some limiting values
     		if (pitch < 1) {
@@ -123,8 +191,22 @@ public class Camera {
     		if (pitch > 100) {
     			pitch = 100;
     		}
+    		if (pitchChange != 0) {
+    			updatePitch();
+    		}
+    		if (angleChange != 0) {
+    			double angle = Math.toRadians(angleAroundPlayer);
+    			sinAngle = (float) Math.sin(angle);
+    			cosAngle = (float) Math.cos(angle);
+    		}
     	}
     }
+    
+    private void updatePitch() {
+    	double angle = Math.toRadians(pitch);
+    	sinPitch = (float) Math.sin(angle);
+    	cosPitch = (float) Math.cos(angle);
+    }
      
  
 }
\ No newline at end of file
@@ -0,0 +1,22 @@
+package entities;
+
+/**
+ * @author Andrei
+ * Where the player and the camera get their input from.
+ * Normally this is the keyboard and mouse, but it can also be a script so the scene can run without a window
+ */
+public interface Controls {
+
+	//key codes are the ones from org.lwjgl.input.Keyboard
+	boolean isKeyDown(int key);
+
+	boolean isButtonDown(int button);
+
+	//mouse movement and wheel since the last call
+	int getDX();
+
+	int getDY();
+
+	int getDWheel();
+
+}
@@ -0,0 +1,37 @@
+package entities;
+
+import org.lwjgl.input.Keyboard;
+import org.lwjgl.input.Mouse;
+
+/**
+ * @author Andrei
+ * Controls that read the real keyboard and mouse, these need the display to be created
+ */
+public class DeviceControls implements Controls {
+
+	@Override
+	public boolean isKeyDown(int key) {
+		return Keyboard.isKeyDown(key);
+	}
+
+	@Override
+	public boolean isButtonDown(int button) {
+		return Mouse.isButtonDown(button);
+	}
+
+	@Override
+	public int getDX() {
+		return Mouse.getDX();
+	}
+
+	@Override
+	public int getDY() {
+		return Mouse.getDY();
+	}
+
+	@Override
+	public int getDWheel() {
+		return Mouse.getDWheel();
+	}
+
+}
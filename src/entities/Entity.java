@@ -1,6 +1,7 @@
 package entities;
 
 
+import org.lwjgl.util.vector.Quaternion;
 import org.lwjgl.util.vector.Vector3f;
 
 import models.TexturedModel;
@@ -9,37 +10,60 @@ import models.TexturedModel;
  * @author Andrei
  * An entity is an instance of a textured model
  * This class will allow us to create multiple entities which all use the same textured model
+ * The transform itself lives in an EntityStore, this class is just a handle onto it
  */
 public class Entity {
 	
     private TexturedModel model;
-    private Vector3f position;
-    private float rotX, rotY, rotZ;
-    private float scale;
+    private final EntityStore store;
+    int index; //our slot in the store, kept up to date by the store when entities are removed
+    
+    //getPosition hands out this copy of the stored position, changing it won't move the entity
+    private final Vector3f position = new Vector3f();
+    private final Vector3f renderPosition = new Vector3f();
+    private final Vector3f forward = new Vector3f();
+    private final Vector3f renderForward = new Vector3f();
+    private final Quaternion orientation = new Quaternion();
+    private final Quaternion renderOrientation = new Quaternion();
  
     //constructor
     public Entity(TexturedModel model, Vector3f position, float rotX, float rotY, float rotZ,
             float scale) {
+        this(EntityStore.getDefault(), model, position, rotX, rotY, rotZ, scale);
+    }
+    
+    public Entity(EntityStore store, TexturedModel model, Vector3f position, float rotX, float rotY, float rotZ,
+            float scale) {
         this.model = model;
-        this.position = position;
-        this.rotX = rotX;
-        this.rotY = rotY;
-        this.rotZ = rotZ;
-        this.scale = scale;
+        this.store = store;
+        this.index = store.add(this, position.x, position.y, position.z, rotX, rotY, rotZ, scale);
+    }
+    
+    //used by EntityStore.addAll, which fills in the transform itself
+    Entity(EntityStore store, TexturedModel model, int index) {
+        this.model = model;
+        this.store = store;
+        this.index = index;
     }
     
     //moves the entity in the world
     public void increasePosition(float dx, float dy, float dz) {
-        this.position.x += dx;
-        this.position.y += dy;
-        this.position.z += dz;
+        store.increasePosition(index, dx, dy, dz);
     }
     
     //rotates the entity
     public void increaseRotation(float dx, float dy, float dz) {
-        this.rotX += dx;
-        this.rotY += dy;
-        this.rotZ += dz;
+        store.increaseRotation(index, dx, dy, dz);
+    }
+    
+    //turns the entity around its own axes by a unit quaternion, cheaper than increaseRotation
+    public void rotate(Quaternion rotation) {
+        store.rotate(index, rotation.x, rotation.y, rotation.z, rotation.w);
+    }
+    
+    //takes the entity out of its store, the handle can't be used afterwards
+    public void remove() {
+        store.remove(this);
     }
     
     public TexturedModel getModel() {
@@ -49,45 +73,99 @@ public class Entity {
     public void setModel(TexturedModel model) {
         this.model = model;
     }
+    
+    public EntityStore getStore() {
+        return store;
+    }
+    
+    public int getIndex() {
+        return index;
+    }
  
+    //returns a copy of the position, use setPosition to move the entity
     public Vector3f getPosition() {
+        position.set(store.getPositionX(index), store.getPositionY(index), store.getPositionZ(index));
         return position;
     }
  
+    //the position the entity is drawn at, in between the last two simulation steps
+    public Vector3f getRenderPosition() {
+        renderPosition.set(store.getRenderPositionX(index), store.getRenderPositionY(index),
+                store.getRenderPositionZ(index));
+        return renderPosition;
+    }
+    
+    public Quaternion getRenderOrientation(Quaternion dest) {
+        return store.getRenderOrientation(index, dest);
+    }
+    
+    //the direction the entity faces (its z axis), a rotation around y by rotY faces (sin, 0, cos)
+    public Vector3f getForward() {
+        return getZAxis(store.getOrientation(index, orientation), forward);
+    }
+    
+    //the direction the entity is drawn facing, in between the last two simulation steps
+    public Vector3f getRenderForward() {
+        return getZAxis(store.getRenderOrientation(index, renderOrientation), renderForward);
+    }
+    
+    //the angle around y the entity is drawn at, between -180 and 180
+    public float getRenderRotY() {
+        Vector3f forward = getRenderForward();
+        return (float) Math.toDegrees(Math.atan2(forward.x, forward.z));
+    }
+ 
     public void setPosition(Vector3f position) {
-        this.position = position;
+        store.setPosition(index, position.x, position.y, position.z);
+    }
+    
+    public void setPosition(float x, float y, float z) {
+        store.setPosition(index, x, y, z);
     }
  
     public float getRotX() {
-        return rotX;
+        return store.getRotationX(index);
     }
  
     public void setRotX(float rotX) {
-        this.rotX = rotX;
+        store.setRotation(index, rotX, getRotY(), getRotZ());
     }
  
     public float getRotY() {
-        return rotY;
+        return store.getRotationY(index);
     }
  
     public void setRotY(float rotY) {
-        this.rotY = rotY;
+        store.setRotation(index, getRotX(), rotY, getRotZ());
     }
  
     public float getRotZ() {
-        return rotZ;
+        return store.getRotationZ(index);
     }
  
     public void setRotZ(float rotZ) {
-        this.rotZ = rotZ;
+        store.setRotation(index, getRotX(), getRotY(), rotZ);
+    }
+ 
+    public Quaternion getOrientation(Quaternion dest) {
+        return store.getOrientation(index, dest);
+    }
+    
+    public void setOrientation(Quaternion orientation) {
+        store.setOrientation(index, orientation.x, orientation.y, orientation.z, orientation.w);
     }
  
     public float getScale() {
-        return scale;
+        return store.getScale(index);
     }
  
     public void setScale(float scale) {
-        this.scale = scale;
+        store.setScale(index, scale);
+    }
+ 
+    private static Vector3f getZAxis(Quaternion q, Vector3f dest) {
+        dest.set(2 * (q.x * q.z + q.w * q.y), 2 * (q.y * q.z - q.w * q.x), 1 - 2 * (q.x * q.x + q.y * q.y));
+        return dest;
     }
  
 }
@@ -0,0 +1,776 @@
+package entities;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import org.lwjgl.util.vector.Quaternion;
+import org.lwjgl.util.vector.Vector3f;
+
+import models.TexturedModel;
+import tools.Maths;
+import tools.TransformKernel;
+
+/**
+ * @author Andrei
+ * Holds the transform data of entities as a structure of arrays.
+ * Every entity owns one slot (its index) in each of the primitive arrays, and its world matrix
+ * is cached as 16 packed floats which are only rebuilt when the entity has been changed.
+ * The Entity class is a thin handle onto one of these slots.
+ *
+ * The store also keeps the transform from the start of the current simulation step, so that
+ * entities which moved during the step can be drawn in between the two steps (see setInterpolation).
+ *
+ * Orientations are unit quaternions. They turn into matrices without any trig, can be turned a little at a time
+ * (rotate) and are interpolated with slerp. The Euler angles in degrees that the rest of the code uses are still
+ * there: setting them works out the quaternion once, and after the quaternion has been changed directly they are
+ * worked out again from it the next time they are asked for.
+ *
+ * Entities are static until their transform is changed after being added, from then on they are dynamic. Things
+ * cached from the static ones (the sun's shadow maps) keep the static version and redo their work once it changes.
+ *
+ * Entities that a scene graph node is bound to (see SceneGraph.bind) have their changes collected in a list of
+ * their own, so the graph only looks at the ones that changed instead of comparing all of them every step.
+ */
+public class EntityStore {
+
+	private static final int INITIAL_CAPACITY = 64;
+	private static final int MATRIX_SIZE = 16;
+	//below this many entities it isn't worth rebuilding every matrix instead of just the dirty ones
+	private static final int BULK_UPDATE_SIZE = 256;
+
+	//the store used by entities that aren't given one explicitly
+	private static final EntityStore DEFAULT = new EntityStore();
+
+	private int size = 0;
+
+	//the handles, so that we can go from an index back to the entity
+	private Entity[] handles;
+
+	//transform data, one element per entity
+	private float[] positionX, positionY, positionZ;
+	private float[] orientationX, orientationY, orientationZ, orientationW; //unit quaternions
+	private float[] scales;
+	
+	//the orientations as angles in degrees, like the old Entity fields
+	//stale when the quaternion was changed directly, and then only worked out again when asked for
+	private float[] rotationX, rotationY, rotationZ;
+	private boolean[] eulerStale;
+
+	//the transform at the start of the current simulation step
+	private float[] previousX, previousY, previousZ;
+	private float[] previousOrientX, previousOrientY, previousOrientZ, previousOrientW;
+	private float[] previousScales;
+
+	//4x4 world matrices, column major (same order as Matrix4f.store)
+	private float[] matrices;
+
+	//dirty flags and a list of the dirty indices so that updating doesn't need to scan every entity
+	private boolean[] dirty;
+	private int[] dirtyList;
+	private int dirtyCount = 0;
+
+	//entities that changed during the current simulation step, these get interpolated when drawn
+	private boolean[] moved;
+	private int[] movedList;
+	private int movedCount = 0;
+
+	//how far we are between the previous and the current step, 1 means draw the current step
+	private float alpha = 1;
+	
+	//while the behaviours are updated in parallel, changes are only flagged here (one element per entity,
+	//so threads that own different entities never write to the same place) and added to the lists afterwards
+	private boolean deferChanges = false;
+	private boolean[] pending;
+
+	//entities that have moved since they were added, and a number that changes whenever the static ones do
+	private boolean[] dynamic;
+	private long staticVersion = 0;
+
+	//entities a scene graph follows, and the ones of those that changed since the graph last took the changes
+	//the handles are kept rather than the indices, so the list stays right when removals move entities around
+	private boolean[] bound;
+	private boolean[] boundChanged;
+	private Entity[] boundChanges = new Entity[16];
+	private int boundChangeCount = 0;
+	
+	//optional spatial index, kept up to date whenever a matrix is rebuilt (ids are store indices)
+	private SpatialHashGrid spatialIndex;
+
+	//reused when building matrices (only the thread drawing the frame does that)
+	private final Vector3f translation = new Vector3f();
+	private final Quaternion rotation = new Quaternion();
+
+	public EntityStore() {
+		this(INITIAL_CAPACITY);
+	}
+
+	public EntityStore(int capacity) {
+		capacity = Math.max(capacity, 1);
+		handles = new Entity[capacity];
+		positionX = new float[capacity];
+		positionY = new float[capacity];
+		positionZ = new float[capacity];
+		orientationX = new float[capacity];
+		orientationY = new float[capacity];
+		orientationZ = new float[capacity];
+		orientationW = new float[capacity];
+		scales = new float[capacity];
+		rotationX = new float[capacity];
+		rotationY = new float[capacity];
+		rotationZ = new float[capacity];
+		eulerStale = new boolean[capacity];
+		previousX = new float[capacity];
+		previousY = new float[capacity];
+		previousZ = new float[capacity];
+		previousOrientX = new float[capacity];
+		previousOrientY = new float[capacity];
+		previousOrientZ = new float[capacity];
+		previousOrientW = new float[capacity];
+		previousScales = new float[capacity];
+		matrices = new float[capacity * MATRIX_SIZE];
+		dirty = new boolean[capacity];
+		dirtyList = new int[capacity];
+		moved = new boolean[capacity];
+		movedList = new int[capacity];
+		pending = new boolean[capacity];
+		dynamic = new boolean[capacity];
+		bound = new boolean[capacity];
+		boundChanged = new boolean[capacity];
+	}
+
+	public static EntityStore getDefault() {
+		return DEFAULT;
+	}
+	
+	//from now on the index follows the entities in this store, using their indices as ids
+	public void setSpatialIndex(SpatialHashGrid spatialIndex) {
+		this.spatialIndex = spatialIndex;
+		for (int i = 0; i < size; i++) {
+			markDirty(i); //everything gets added the next time the matrices are updated
+		}
+	}
+	
+	public SpatialHashGrid getSpatialIndex() {
+		return spatialIndex;
+	}
+
+	//adds an entity to the store and returns its index
+	int add(Entity handle, float x, float y, float z, float rx, float ry, float rz, float scale) {
+		ensureCapacity(size + 1);
+		int index = size++;
+		handles[index] = handle;
+		positionX[index] = previousX[index] = x;
+		positionY[index] = previousY[index] = y;
+		positionZ[index] = previousZ[index] = z;
+		setAngles(index, rx, ry, rz);
+		savePreviousOrientation(index);
+		scales[index] = previousScales[index] = scale;
+		dirty[index] = false;
+		moved[index] = false;
+		pending[index] = false;
+		dynamic[index] = false;
+		bound[index] = false;
+		boundChanged[index] = false;
+		staticVersion++;
+		markDirty(index);
+		return index;
+	}
+
+	//adds count entities that all use the same model, with their transforms packed as 7 floats each
+	//(x, y, z, rx, ry, rz, scale) starting at offset, and returns the index of the first one
+	//this grows the arrays once and skips the Entity constructor, for loading big scenes
+	public int addAll(TexturedModel model, float[] transforms, int offset, int count) {
+		ensureCapacity(size + count);
+		int first = size;
+		for (int i = 0; i < count; i++) {
+			int index = size++;
+			int t = offset + i * 7;
+			handles[index] = new Entity(this, model, index);
+			positionX[index] = previousX[index] = transforms[t];
+			positionY[index] = previousY[index] = transforms[t + 1];
+			positionZ[index] = previousZ[index] = transforms[t + 2];
+			setAngles(index, transforms[t + 3], transforms[t + 4], transforms[t + 5]);
+			savePreviousOrientation(index);
+			scales[index] = previousScales[index] = transforms[t + 6];
+			dirty[index] = false;
+			moved[index] = false;
+			pending[index] = false;
+			dynamic[index] = false;
+			bound[index] = false;
+			boundChanged[index] = false;
+			markDirty(index);
+		}
+		staticVersion++;
+		return first;
+	}
+
+	//removes an entity by moving the last entity into its slot, so the arrays stay packed
+	public void remove(Entity entity) {
+		int index = entity.index;
+		if (index < 0 || index >= size || handles[index] != entity) {
+			return;
+		}
+		if (!dynamic[index]) {
+			staticVersion++;
+		}
+		int last = --size;
+		if (index != last) {
+			handles[index] = handles[last];
+			handles[index].index = index;
+			positionX[index] = positionX[last];
+			positionY[index] = positionY[last];
+			positionZ[index] = positionZ[last];
+			orientationX[index] = orientationX[last];
+			orientationY[index] = orientationY[last];
+			orientationZ[index] = orientationZ[last];
+			orientationW[index] = orientationW[last];
+			scales[index] = scales[last];
+			rotationX[index] = rotationX[last];
+			rotationY[index] = rotationY[last];
+			rotationZ[index] = rotationZ[last];
+			eulerStale[index] = eulerStale[last];
+			previousX[index] = previousX[last];
+			previousY[index] = previousY[last];
+			previousZ[index] = previousZ[last];
+			previousOrientX[index] = previousOrientX[last];
+			previousOrientY[index] = previousOrientY[last];
+			previousOrientZ[index] = previousOrientZ[last];
+			previousOrientW[index] = previousOrientW[last];
+			previousScales[index] = previousScales[last];
+			dynamic[index] = dynamic[last];
+			bound[index] = bound[last];
+			boundChanged[index] = boundChanged[last]; //the list has the handle, which went along
+			System.arraycopy(matrices, last * MATRIX_SIZE, matrices, index * MATRIX_SIZE, MATRIX_SIZE);
+			//the lists might still point at the last slot, so flag the moved entity again under its new index
+			boolean wasMoving = moved[last];
+			dirty[index] = false;
+			moved[index] = false;
+			if (wasMoving) {
+				markMoved(index);
+			}
+			markDirty(index);
+			if (spatialIndex != null) {
+				spatialIndex.update(index, positionX[index], positionY[index], positionZ[index],
+						getBoundingRadius(index, scales[index]));
+			}
+		}
+		if (spatialIndex != null) {
+			spatialIndex.remove(last);
+		}
+		handles[last] = null;
+		dirty[last] = false;
+		dynamic[last] = false;
+		bound[last] = false;
+		boundChanged[last] = false;
+		moved[last] = false;
+		entity.index = -1;
+	}
+
+	public void setPosition(int index, float x, float y, float z) {
+		positionX[index] = x;
+		positionY[index] = y;
+		positionZ[index] = z;
+		changed(index);
+	}
+
+	public void increasePosition(int index, float dx, float dy, float dz) {
+		positionX[index] += dx;
+		positionY[index] += dy;
+		positionZ[index] += dz;
+		changed(index);
+	}
+
+	//rotations in degrees, each of these works out the quaternion again
+	public void setRotation(int index, float rx, float ry, float rz) {
+		setAngles(index, rx, ry, rz);
+		changed(index);
+	}
+
+	//adds to the angles, to spin something every step rotate with a quaternion is cheaper
+	public void increaseRotation(int index, float dx, float dy, float dz) {
+		refreshAngles(index);
+		setAngles(index, rotationX[index] + dx, rotationY[index] + dy, rotationZ[index] + dz);
+		changed(index);
+	}
+	
+	//sets the orientation to a unit quaternion
+	public void setOrientation(int index, float qx, float qy, float qz, float qw) {
+		orientationX[index] = qx;
+		orientationY[index] = qy;
+		orientationZ[index] = qz;
+		orientationW[index] = qw;
+		eulerStale[index] = true;
+		changed(index);
+	}
+	
+	//turns the entity by a unit quaternion around its own axes (the orientation becomes orientation * q)
+	//there's no trig in here, and the result is normalised again so turning a little every step doesn't drift
+	//like the other setters this only touches the entity's own slots, so behaviours can call it in parallel
+	public void rotate(int index, float qx, float qy, float qz, float qw) {
+		float x = orientationX[index], y = orientationY[index], z = orientationZ[index], w = orientationW[index];
+		float rx = w * qx + x * qw + y * qz - z * qy;
+		float ry = w * qy - x * qz + y * qw + z * qx;
+		float rz = w * qz + x * qy - y * qx + z * qw;
+		float rw = w * qw - x * qx - y * qy - z * qz;
+		float length = (float) Math.sqrt(rx * rx + ry * ry + rz * rz + rw * rw);
+		setOrientation(index, rx / length, ry / length, rz / length, rw / length);
+	}
+
+	public void setScale(int index, float scale) {
+		scales[index] = scale;
+		changed(index);
+	}
+	
+	//sets the whole transform at once
+	public void setTransform(int index, float x, float y, float z, float rx, float ry, float rz, float scale) {
+		positionX[index] = x;
+		positionY[index] = y;
+		positionZ[index] = z;
+		setAngles(index, rx, ry, rz);
+		scales[index] = scale;
+		changed(index);
+	}
+
+	//flags the matrix of an entity as out of date
+	public void markDirty(int index) {
+		if (!dirty[index]) {
+			dirty[index] = true;
+			if (dirtyCount == dirtyList.length) { //removals can leave stale entries in the list
+				dirtyList = Arrays.copyOf(dirtyList, dirtyCount * 2);
+			}
+			dirtyList[dirtyCount++] = index;
+		}
+	}
+
+	//the entity now uses a model of a different size, or one that casts a different shadow
+	public void modelChanged(int index) {
+		markDirty(index);
+		if (!dynamic[index]) {
+			staticVersion++;
+		}
+	}
+
+	public boolean isDirty(int index) {
+		return dirty[index];
+	}
+
+	//true once the entity has moved after it was added
+	public boolean isDynamic(int index) {
+		return dynamic[index];
+	}
+
+	//an entity that was only moved by an editor or a reload, and will stay put, can be made static again
+	public void setDynamic(int index, boolean isDynamic) {
+		if (dynamic[index] != isDynamic) {
+			dynamic[index] = isDynamic;
+			staticVersion++;
+		}
+	}
+
+	//changes whenever a static entity is added, removed, moved or becomes dynamic
+	public long getStaticVersion() {
+		return staticVersion;
+	}
+	
+	//whether a scene graph follows the entity, its changes are then collected for the graph to take
+	public void setBound(int index, boolean isBound) {
+		bound[index] = isBound;
+	}
+
+	public boolean isBound(int index) {
+		return bound[index];
+	}
+
+	//the bound entities that changed since clearBoundChanges, some of them may have been removed since (their index
+	//is then -1)
+	public int getBoundChangeCount() {
+		return boundChangeCount;
+	}
+
+	public Entity getBoundChange(int i) {
+		return boundChanges[i];
+	}
+
+	public void clearBoundChanges() {
+		for (int i = 0; i < boundChangeCount; i++) {
+			Entity entity = boundChanges[i];
+			if (entity.index >= 0) {
+				boundChanged[entity.index] = false;
+			}
+			boundChanges[i] = null;
+		}
+		boundChangeCount = 0;
+	}
+	
+	//when deferring, changes to transforms only set a flag for the entity, and flushChanges has to be
+	//called for every entity that might have changed once the writing threads are done
+	//the store must not grow or shrink while changes are deferred
+	public void setDeferChanges(boolean deferChanges) {
+		this.deferChanges = deferChanges;
+	}
+	
+	public void flushChanges(int index) {
+		if (pending[index]) {
+			pending[index] = false;
+			markDynamic(index);
+			markMoved(index);
+			markDirty(index);
+			markBoundChanged(index);
+		}
+	}
+
+	//called at the start of every simulation step
+	//the entities that moved during the last step have their current transform saved as the previous one
+	//everything else already has matching previous and current transforms, so it costs nothing
+	public void beginStep() {
+		for (int i = 0; i < movedCount; i++) {
+			int index = movedList[i];
+			if (index >= size || !moved[index]) {
+				continue;
+			}
+			previousX[index] = positionX[index];
+			previousY[index] = positionY[index];
+			previousZ[index] = positionZ[index];
+			savePreviousOrientation(index);
+			previousScales[index] = scales[index];
+			moved[index] = false;
+			markDirty(index); //the last interpolated matrix is out of date if the entity stops moving now
+		}
+		movedCount = 0;
+	}
+
+	//sets how far the renderer is between the previous and the current simulation step, from 0 to 1
+	public void setInterpolation(float alpha) {
+		this.alpha = alpha;
+	}
+
+	public float getInterpolation() {
+		return alpha;
+	}
+
+	//rebuilds the matrices of all the entities that changed since the last call
+	//entities that are moving get rebuilt every time, at the current interpolation
+	//returns how many matrices were rebuilt
+	public int updateMatrices() {
+		if (dirtyCount > size / 2 && size >= BULK_UPDATE_SIZE) {
+			return updateAllMatrices();
+		}
+		int updated = 0;
+		for (int i = 0; i < movedCount; i++) {
+			int index = movedList[i];
+			if (index < size && moved[index]) {
+				buildMatrix(index);
+				updated++;
+			}
+		}
+		for (int i = 0; i < dirtyCount; i++) {
+			int index = dirtyList[i];
+			//entities removed after being flagged leave stale entries behind
+			if (index < size && dirty[index]) {
+				if (!moved[index]) { //moving entities were done above
+					buildMatrix(index);
+					updated++;
+				}
+				dirty[index] = false;
+			}
+		}
+		dirtyCount = 0;
+		return updated;
+	}
+
+	//when most of the store is out of date (after loading a scene) every matrix is rebuilt in one pass of the
+	//transform kernel, which can work on several entities at once, and then the moving ones are interpolated
+	private int updateAllMatrices() {
+		TransformKernel.getInstance().computeMatrices(positionX, positionY, positionZ, orientationX, orientationY,
+				orientationZ, orientationW, scales, 0, size, matrices);
+		for (int index = 0; index < size; index++) {
+			if (moved[index]) {
+				buildMatrix(index);
+			} else if (spatialIndex != null) {
+				spatialIndex.update(index, positionX[index], positionY[index], positionZ[index],
+						getBoundingRadius(index, scales[index]));
+			}
+			dirty[index] = false;
+		}
+		dirtyCount = 0;
+		return size;
+	}
+
+	//rebuilds a single matrix, if it is out of date
+	public void updateMatrix(int index) {
+		if (dirty[index]) {
+			buildMatrix(index);
+			dirty[index] = false;
+		}
+	}
+
+	//puts the world matrix of an entity into a float buffer, ready to be uploaded
+	public void storeMatrix(int index, FloatBuffer buffer) {
+		updateMatrix(index);
+		buffer.put(matrices, index * MATRIX_SIZE, MATRIX_SIZE);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Entity getEntity(int index) {
+		return handles[index];
+	}
+
+	//the raw arrays are exposed so that renderers and cullers can loop over them without any boxing
+	//only the first size() elements are valid, and the arrays are replaced when the store grows
+	public float[] getPositionsX() {
+		return positionX;
+	}
+
+	public float[] getPositionsY() {
+		return positionY;
+	}
+
+	public float[] getPositionsZ() {
+		return positionZ;
+	}
+
+	public float[] getOrientationsX() {
+		return orientationX;
+	}
+
+	public float[] getOrientationsY() {
+		return orientationY;
+	}
+
+	public float[] getOrientationsZ() {
+		return orientationZ;
+	}
+
+	public float[] getOrientationsW() {
+		return orientationW;
+	}
+
+	public float[] getScales() {
+		return scales;
+	}
+
+	public float[] getMatrices() {
+		return matrices;
+	}
+
+	public static int getMatrixOffset(int index) {
+		return index * MATRIX_SIZE;
+	}
+
+	public float getPositionX(int index) {
+		return positionX[index];
+	}
+
+	public float getPositionY(int index) {
+		return positionY[index];
+	}
+
+	public float getPositionZ(int index) {
+		return positionZ[index];
+	}
+
+	public float getRotationX(int index) {
+		refreshAngles(index);
+		return rotationX[index];
+	}
+
+	public float getRotationY(int index) {
+		refreshAngles(index);
+		return rotationY[index];
+	}
+
+	public float getRotationZ(int index) {
+		refreshAngles(index);
+		return rotationZ[index];
+	}
+	
+	public Quaternion getOrientation(int index, Quaternion dest) {
+		dest.set(orientationX[index], orientationY[index], orientationZ[index], orientationW[index]);
+		return dest;
+	}
+
+	public float getScale(int index) {
+		return scales[index];
+	}
+	
+	//radius of the bounding sphere of the entity in the world
+	public float getBoundingRadius(int index) {
+		return getBoundingRadius(index, scales[index]);
+	}
+
+	//the interpolated values are what ends up on screen
+	public float getRenderPositionX(int index) {
+		return lerp(previousX[index], positionX[index]);
+	}
+
+	public float getRenderPositionY(int index) {
+		return lerp(previousY[index], positionY[index]);
+	}
+
+	public float getRenderPositionZ(int index) {
+		return lerp(previousZ[index], positionZ[index]);
+	}
+
+	//the orientation the entity is drawn with, slerped between the last two steps
+	public Quaternion getRenderOrientation(int index, Quaternion dest) {
+		if (!moved[index] || alpha >= 1) {
+			return getOrientation(index, dest);
+		}
+		return Maths.slerp(previousOrientX[index], previousOrientY[index], previousOrientZ[index],
+				previousOrientW[index], orientationX[index], orientationY[index], orientationZ[index],
+				orientationW[index], alpha, dest);
+	}
+
+	//every change to a transform goes through here
+	private void changed(int index) {
+		if (deferChanges) {
+			pending[index] = true;
+			return;
+		}
+		markDynamic(index);
+		markMoved(index);
+		markDirty(index);
+		markBoundChanged(index);
+	}
+
+	private void markBoundChanged(int index) {
+		if (bound[index] && !boundChanged[index]) {
+			boundChanged[index] = true;
+			if (boundChangeCount == boundChanges.length) {
+				boundChanges = Arrays.copyOf(boundChanges, boundChangeCount * 2);
+			}
+			boundChanges[boundChangeCount++] = handles[index];
+		}
+	}
+
+	//the first change to a static entity takes it out of the static casters
+	private void markDynamic(int index) {
+		if (!dynamic[index]) {
+			dynamic[index] = true;
+			staticVersion++;
+		}
+	}
+
+	private void markMoved(int index) {
+		if (!moved[index]) {
+			moved[index] = true;
+			if (movedCount == movedList.length) {
+				movedList = Arrays.copyOf(movedList, movedCount * 2);
+			}
+			movedList[movedCount++] = index;
+		}
+	}
+
+	private float lerp(float previous, float current) {
+		return previous + (current - previous) * alpha;
+	}
+
+	//sets the angles and works out the quaternion for them, the same way as Maths.eulerToQuaternion
+	//(written out here so that nothing shared is touched, behaviours set angles from several threads)
+	private void setAngles(int index, float rx, float ry, float rz) {
+		rotationX[index] = rx;
+		rotationY[index] = ry;
+		rotationZ[index] = rz;
+		eulerStale[index] = false;
+		double a = Math.toRadians(rx) / 2, b = Math.toRadians(ry) / 2, c = Math.toRadians(rz) / 2;
+		float sa = (float) Math.sin(a), ca = (float) Math.cos(a);
+		float sb = (float) Math.sin(b), cb = (float) Math.cos(b);
+		float sc = (float) Math.sin(c), cc = (float) Math.cos(c);
+		orientationX[index] = sa * cb * cc + ca * sb * sc;
+		orientationY[index] = ca * sb * cc - sa * cb * sc;
+		orientationZ[index] = ca * cb * sc + sa * sb * cc;
+		orientationW[index] = ca * cb * cc - sa * sb * sc;
+	}
+	
+	//works out the angles from the quaternion if it was changed since they were last set
+	//the same decomposition as SceneGraph uses for world matrices, y comes out between -90 and 90
+	private void refreshAngles(int index) {
+		if (eulerStale[index]) {
+			float qx = orientationX[index], qy = orientationY[index], qz = orientationZ[index], qw = orientationW[index];
+			float m20 = 2 * (qx * qz + qw * qy);
+			float m21 = 2 * (qy * qz - qw * qx);
+			float m22 = 1 - 2 * (qx * qx + qy * qy);
+			float m10 = 2 * (qx * qy - qw * qz);
+			float m00 = 1 - 2 * (qy * qy + qz * qz);
+			rotationX[index] = (float) Math.toDegrees(Math.atan2(-m21, m22));
+			rotationY[index] = (float) Math.toDegrees(Math.asin(Math.max(-1, Math.min(1, m20))));
+			rotationZ[index] = (float) Math.toDegrees(Math.atan2(-m10, m00));
+			eulerStale[index] = false;
+		}
+	}
+	
+	private void savePreviousOrientation(int index) {
+		previousOrientX[index] = orientationX[index];
+		previousOrientY[index] = orientationY[index];
+		previousOrientZ[index] = orientationZ[index];
+		previousOrientW[index] = orientationW[index];
+	}
+
+	//builds the matrix of an entity, interpolating it if the entity is moving
+	private void buildMatrix(int index) {
+		float scale;
+		if (moved[index]) {
+			translation.set(getRenderPositionX(index), getRenderPositionY(index), getRenderPositionZ(index));
+			getRenderOrientation(index, rotation);
+			scale = lerp(previousScales[index], scales[index]);
+		} else {
+			translation.set(positionX[index], positionY[index], positionZ[index]);
+			getOrientation(index, rotation);
+			scale = scales[index];
+		}
+		Maths.writeTransformationMatrix(translation.x, translation.y, translation.z, rotation, scale, matrices,
+				index * MATRIX_SIZE);
+		if (spatialIndex != null) {
+			spatialIndex.update(index, translation.x, translation.y, translation.z, getBoundingRadius(index, scale));
+		}
+	}
+	
+	private float getBoundingRadius(int index, float scale) {
+		TexturedModel model = handles[index].getModel();
+		float radius = model == null ? 1 : model.getRawModel().getBoundingRadius();
+		return radius * Math.abs(scale);
+	}
+
+	//grows all of the arrays, doubling their size
+	private void ensureCapacity(int required) {
+		int capacity = handles.length;
+		if (required <= capacity) {
+			return;
+		}
+		int newCapacity = Math.max(required, capacity * 2);
+		handles = Arrays.copyOf(handles, newCapacity);
+		positionX = Arrays.copyOf(positionX, newCapacity);
+		positionY = Arrays.copyOf(positionY, newCapacity);
+		positionZ = Arrays.copyOf(positionZ, newCapacity);
+		orientationX = Arrays.copyOf(orientationX, newCapacity);
+		orientationY = Arrays.copyOf(orientationY, newCapacity);
+		orientationZ = Arrays.copyOf(orientationZ, newCapacity);
+		orientationW = Arrays.copyOf(orientationW, newCapacity);
+		scales = Arrays.copyOf(scales, newCapacity);
+		rotationX = Arrays.copyOf(rotationX, newCapacity);
+		rotationY = Arrays.copyOf(rotationY, newCapacity);
+		rotationZ = Arrays.copyOf(rotationZ, newCapacity);
+		eulerStale = Arrays.copyOf(eulerStale, newCapacity);
+		previousX = Arrays.copyOf(previousX, newCapacity);
+		previousY = Arrays.copyOf(previousY, newCapacity);
+		previousZ = Arrays.copyOf(previousZ, newCapacity);
+		previousOrientX = Arrays.copyOf(previousOrientX, newCapacity);
+		previousOrientY = Arrays.copyOf(previousOrientY, newCapacity);
+		previousOrientZ = Arrays.copyOf(previousOrientZ, newCapacity);
+		previousOrientW = Arrays.copyOf(previousOrientW, newCapacity);
+		previousScales = Arrays.copyOf(previousScales, newCapacity);
+		matrices = Arrays.copyOf(matrices, newCapacity * MATRIX_SIZE);
+		dirty = Arrays.copyOf(dirty, newCapacity);
+		dirtyList = Arrays.copyOf(dirtyList, newCapacity);
+		moved = Arrays.copyOf(moved, newCapacity);
+		movedList = Arrays.copyOf(movedList, newCapacity);
+		pending = Arrays.copyOf(pending, newCapacity);
+		dynamic = Arrays.copyOf(dynamic, newCapacity);
+		bound = Arrays.copyOf(bound, newCapacity);
+		boundChanged = Arrays.copyOf(boundChanged, newCapacity);
+	}
+
+}
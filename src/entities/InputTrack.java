@@ -0,0 +1,200 @@
+package entities;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.lwjgl.input.Keyboard;
+
+/**
+ * @author Andrei
+ * The input of a run, by simulation step, so that a run can be played back exactly (see ScriptedControls)
+ * and recorded from the real keyboard and mouse (see RecordingControls).
+ *
+ * A track is a list of segments, every segment holds from its step until the step of the next one.
+ * The mouse movement of a segment is the movement in every one of its steps. As a file, one segment per line:
+ *
+ *     # step  keys  buttons  dx  dy  wheel
+ *     0       W     -        0   0   0
+ *     240     W,A   1        3   0   0
+ *
+ * Keys are the names from org.lwjgl.input.Keyboard, buttons are mouse button numbers, - is none of them.
+ */
+public class InputTrack {
+
+	private final List<Segment> segments = new ArrayList<Segment>();
+
+	//the track the benchmark uses when it isn't given one: walk forwards, turn left and right, jump,
+	//look around with the mouse and zoom in and out, 20 seconds at 120 steps a second
+	public static InputTrack createDefault() {
+		InputTrack track = new InputTrack();
+		int[] w = { Keyboard.KEY_W }, none = {}, look = { 1 };
+		track.add(new Segment(0, w, none, 0, 0, 0));
+		track.add(new Segment(240, new int[] { Keyboard.KEY_W, Keyboard.KEY_A }, none, 0, 0, 0));
+		track.add(new Segment(480, w, look, 4, 0, 0));
+		track.add(new Segment(720, new int[] { Keyboard.KEY_W, Keyboard.KEY_SPACE }, none, 0, 0, 0));
+		track.add(new Segment(721, w, none, 0, 0, -10));
+		track.add(new Segment(840, new int[] { Keyboard.KEY_W, Keyboard.KEY_D }, look, 0, -2, 0));
+		track.add(new Segment(1200, w, look, -6, 1, 0));
+		track.add(new Segment(1560, new int[] { Keyboard.KEY_S }, none, 0, 0, 20));
+		track.add(new Segment(1800, none, look, 10, 0, 0));
+		track.add(new Segment(2400, none, none, 0, 0, 0));
+		return track;
+	}
+
+	public static InputTrack read(Path path) throws IOException {
+		InputTrack track = new InputTrack();
+		try (BufferedReader reader = Files.newBufferedReader(path)) {
+			String line;
+			int number = 0;
+			while ((line = reader.readLine()) != null) {
+				number++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] parts = line.split("\\s+");
+				if (parts.length != 6) {
+					throw new IOException(path.getFileName() + ":" + number + ": expected step keys buttons dx dy wheel");
+				}
+				try {
+					track.add(new Segment(Long.parseLong(parts[0]), parseKeys(parts[1]), parseButtons(parts[2]),
+							Integer.parseInt(parts[3]), Integer.parseInt(parts[4]), Integer.parseInt(parts[5])));
+				} catch (IllegalArgumentException e) {
+					throw new IOException(path.getFileName() + ":" + number + ": " + e.getMessage());
+				}
+			}
+		}
+		return track;
+	}
+
+	public void write(Writer out) throws IOException {
+		out.write("# step  keys  buttons  dx  dy  wheel\n");
+		for (Segment segment : segments) {
+			StringBuilder keys = new StringBuilder();
+			for (int key : segment.keys) {
+				keys.append(keys.length() > 0 ? "," : "").append(Keyboard.getKeyName(key));
+			}
+			StringBuilder buttons = new StringBuilder();
+			for (int button : segment.buttons) {
+				buttons.append(buttons.length() > 0 ? "," : "").append(button);
+			}
+			out.write(segment.step + " " + (keys.length() > 0 ? keys : "-") + " " + (buttons.length() > 0 ? buttons : "-")
+					+ " " + segment.dx + " " + segment.dy + " " + segment.wheel + "\n");
+		}
+	}
+
+	//segments have to be added in order of their steps, a segment that changes nothing isn't kept
+	public void add(Segment segment) {
+		Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+		if (last != null && segment.step <= last.step) {
+			throw new IllegalArgumentException("Segment at step " + segment.step + " comes after step " + last.step);
+		}
+		if (last == null || !last.sameInput(segment)) {
+			segments.add(segment);
+		}
+	}
+
+	//the segment that holds at a step, or null before the first one
+	public Segment getSegment(long step) {
+		int low = 0, high = segments.size() - 1;
+		Segment found = null;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			Segment segment = segments.get(middle);
+			if (segment.step <= step) {
+				found = segment;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return found;
+	}
+
+	public int size() {
+		return segments.size();
+	}
+
+	private static int[] parseKeys(String text) {
+		if (text.equals("-")) {
+			return new int[0];
+		}
+		String[] names = text.split(",");
+		int[] keys = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			keys[i] = Keyboard.getKeyIndex(names[i].toUpperCase());
+			if (keys[i] == Keyboard.KEY_NONE) {
+				throw new IllegalArgumentException("unknown key " + names[i]);
+			}
+		}
+		return keys;
+	}
+
+	private static int[] parseButtons(String text) {
+		if (text.equals("-")) {
+			return new int[0];
+		}
+		String[] numbers = text.split(",");
+		int[] buttons = new int[numbers.length];
+		for (int i = 0; i < numbers.length; i++) {
+			buttons[i] = Integer.parseInt(numbers[i]);
+		}
+		return buttons;
+	}
+
+	//the input from one step on, immutable
+	public static class Segment {
+
+		private final long step;
+		private final int[] keys;
+		private final int[] buttons;
+		private final int dx, dy, wheel;
+
+		public Segment(long step, int[] keys, int[] buttons, int dx, int dy, int wheel) {
+			this.step = step;
+			this.keys = keys.clone();
+			this.buttons = buttons.clone();
+			Arrays.sort(this.keys);
+			Arrays.sort(this.buttons);
+			this.dx = dx;
+			this.dy = dy;
+			this.wheel = wheel;
+		}
+
+		public long getStep() {
+			return step;
+		}
+
+		public boolean isKeyDown(int key) {
+			return Arrays.binarySearch(keys, key) >= 0;
+		}
+
+		public boolean isButtonDown(int button) {
+			return Arrays.binarySearch(buttons, button) >= 0;
+		}
+
+		public int getDX() {
+			return dx;
+		}
+
+		public int getDY() {
+			return dy;
+		}
+
+		public int getDWheel() {
+			return wheel;
+		}
+
+		private boolean sameInput(Segment other) {
+			return Arrays.equals(keys, other.keys) && Arrays.equals(buttons, other.buttons) && dx == other.dx
+					&& dy == other.dy && wheel == other.wheel;
+		}
+	}
+
+}
@@ -0,0 +1,38 @@
+package entities;
+
+/**
+ * @author Andrei
+ * Walks an entity between a list of points on the x/z plane, turning it to face where it is going
+ */
+public class Patrol implements Behaviour {
+
+	private final float[] points; //x, z pairs
+	private final float speed; //units per second
+	private int target = 0;
+
+	public Patrol(float[] points, float speed) {
+		this.points = points;
+		this.speed = speed;
+	}
+
+	@Override
+	public void update(Entity entity, float delta, float time) {
+		if (points.length < 2) {
+			return;
+		}
+		float x = entity.getPosition().x;
+		float z = entity.getPosition().z;
+		float dx = points[target * 2] - x;
+		float dz = points[target * 2 + 1] - z;
+		float distance = (float) Math.sqrt(dx * dx + dz * dz);
+		float step = speed * delta;
+		if (distance <= step) { //we got there, head for the next point
+			entity.increasePosition(dx, 0, dz);
+			target = (target + 1) % (points.length / 2);
+			return;
+		}
+		entity.increasePosition(dx / distance * step, 0, dz / distance * step);
+		entity.setRotY((float) Math.toDegrees(Math.atan2(dx, dz))); //same convention as the player
+	}
+
+}
@@ -1,10 +1,11 @@
 package entities;
 
 import org.lwjgl.input.Keyboard;
+import org.lwjgl.util.vector.Quaternion;
 import org.lwjgl.util.vector.Vector3f;
 
 import models.TexturedModel;
-import wrapper.DisplayManager;
+import tools.Maths;
 
 /**
  * @author Andrei
@@ -27,27 +28,51 @@ public class Player extends Entity {
 	
 	private boolean isInAir = false;
 	
+	//the turn for one step, only worked out again when the turn speed or the step length changes
+	private final Quaternion turn = new Quaternion();
+	private float turnAngle = 0;
+	
+	private Controls controls = new DeviceControls();
+	
 	public Player(TexturedModel model, Vector3f position, float rotX, float rotY, float rotZ, float scale) {
 		super(model, position, rotX, rotY, rotZ, scale);		
 	}
 	
-	public void move(Terrain terrain) {
+	public Player(EntityStore store, TexturedModel model, Vector3f position, float rotX, float rotY, float rotZ, float scale) {
+		super(store, model, position, rotX, rotY, rotZ, scale);		
+	}
+	
+	public void setControls(Controls controls) {
+		this.controls = controls;
+	}
+	
+	//moves the player by one simulation step, delta is the length of the step in seconds
+	public void move(Terrain terrain, float delta) {
 		checkInputs();
-		super.increaseRotation(0, currentTurnSpeed * DisplayManager.getFrameTimeSeconds(), 0); //increase the players rotation
-		float distance = currentSpeed * DisplayManager.getFrameTimeSeconds(); //calculate the distance the player is going to move forward
-		//we know the distance and the rotation angle. We can now calculate the z and x axis components
-		float dx = (float) (distance * Math.sin(Math.toRadians(super.getRotY())));
-		float dz = (float) (distance * Math.cos(Math.toRadians(super.getRotY())));
+		float angle = currentTurnSpeed * delta;
+		if (angle != 0) { //increase the players rotation
+			if (angle != turnAngle) {
+				Maths.eulerToQuaternion(0, angle, 0, turn);
+				turnAngle = angle;
+			}
+			super.rotate(turn);
+		}
+		float distance = currentSpeed * delta; //calculate the distance the player is going to move forward
+		//we know the distance and the direction we're facing, which is (sin, 0, cos) of the rotation angle
+		//so we can calculate the z and x axis components
+		Vector3f forward = super.getForward();
+		float dx = distance * forward.x;
+		float dz = distance * forward.z;
 		super.increasePosition(dx, 0, dz); //increase the players position
 		
-		upwardsSpeed += GRAVITY * DisplayManager.getFrameTimeSeconds(); //jumping
-		super.increasePosition(dx, upwardsSpeed * DisplayManager.getFrameTimeSeconds(), dz); //increase the height
+		upwardsSpeed += GRAVITY * delta; //jumping
+		super.increasePosition(dx, upwardsSpeed * delta, dz); //increase the height
 		
 		float terrainHeight = terrain.getHeightOfTerrain(super.getPosition().x, super.getPosition().z);
 		if(super.getPosition().y < terrainHeight) {
 			upwardsSpeed = 0;
 			isInAir = false;
-			super.getPosition().y = terrainHeight;
+			super.setPosition(super.getPosition().x, terrainHeight, super.getPosition().z);
 		}
 	}
 	
@@ -61,23 +86,23 @@ public class Player extends Entity {
 	
 	//keyboard inputs
 	private void checkInputs() {
-		if(Keyboard.isKeyDown(Keyboard.KEY_W)) {
+		if(controls.isKeyDown(Keyboard.KEY_W)) {
 			this.currentSpeed = RUN_SPEED;
-		}else if(Keyboard.isKeyDown(Keyboard.KEY_S)){
+		}else if(controls.isKeyDown(Keyboard.KEY_S)){
 			this.currentSpeed = -RUN_SPEED;
 		}else {
 			this.currentSpeed = 0;
 		}
 		
-		if(Keyboard.isKeyDown(Keyboard.KEY_D)) {
+		if(controls.isKeyDown(Keyboard.KEY_D)) {
 			this.currentTurnSpeed = -TURN_SPEED;
-		}else if(Keyboard.isKeyDown(Keyboard.KEY_A)) {
+		}else if(controls.isKeyDown(Keyboard.KEY_A)) {
 			this.currentTurnSpeed = TURN_SPEED;
 		}else {
 			this.currentTurnSpeed = 0;
 		}
 		
-		if(Keyboard.isKeyDown(Keyboard.KEY_SPACE)) {
+		if(controls.isKeyDown(Keyboard.KEY_SPACE)) {
 			jump();
 		}
 	}
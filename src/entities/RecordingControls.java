@@ -0,0 +1,109 @@
+package entities;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * @author Andrei
+ * Passes through other controls (usually the keyboard and mouse) and writes down what they returned,
+ * step by step, into an input track that ScriptedControls can play back later.
+ * Only what the player and camera actually asked for ends up in the track, which is all a playback needs.
+ */
+public class RecordingControls implements Controls {
+
+	private final Controls source;
+	private final InputTrack track;
+	private final LongSupplier steps;
+
+	//what was returned in the current step
+	private long step = -1;
+	private final boolean[] keys = new boolean[256];
+	private final boolean[] buttons = new boolean[16];
+	private int dx, dy, wheel;
+
+	public RecordingControls(Controls source, InputTrack track, LongSupplier steps) {
+		this.source = source;
+		this.track = track;
+		this.steps = steps;
+	}
+
+	@Override
+	public boolean isKeyDown(int key) {
+		sync();
+		boolean down = source.isKeyDown(key);
+		keys[key] |= down;
+		return down;
+	}
+
+	@Override
+	public boolean isButtonDown(int button) {
+		sync();
+		boolean down = source.isButtonDown(button);
+		buttons[button] |= down;
+		return down;
+	}
+
+	@Override
+	public int getDX() {
+		sync();
+		int value = source.getDX();
+		dx += value;
+		return value;
+	}
+
+	@Override
+	public int getDY() {
+		sync();
+		int value = source.getDY();
+		dy += value;
+		return value;
+	}
+
+	@Override
+	public int getDWheel() {
+		sync();
+		int value = source.getDWheel();
+		wheel += value;
+		return value;
+	}
+
+	//adds the last step to the track, call it when the recording is over
+	public void finish() {
+		flush();
+		step = -1;
+	}
+
+	//starts a new segment when the simulation has moved on to the next step
+	private void sync() {
+		long now = steps.getAsLong();
+		if (now != step) {
+			flush();
+			step = now;
+		}
+	}
+
+	private void flush() {
+		if (step < 0) {
+			return;
+		}
+		track.add(new InputTrack.Segment(step, pressed(keys), pressed(buttons), dx, dy, wheel));
+		Arrays.fill(keys, false);
+		Arrays.fill(buttons, false);
+		dx = dy = wheel = 0;
+	}
+
+	private static int[] pressed(boolean[] down) {
+		int count = 0;
+		for (boolean value : down) {
+			count += value ? 1 : 0;
+		}
+		int[] pressed = new int[count];
+		for (int i = 0, j = 0; i < down.length; i++) {
+			if (down[i]) {
+				pressed[j++] = i;
+			}
+		}
+		return pressed;
+	}
+
+}
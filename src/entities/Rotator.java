@@ -0,0 +1,48 @@
+package entities;
+
+import org.lwjgl.util.vector.Quaternion;
+
+import tools.Maths;
+
+/**
+ * @author Andrei
+ * Spins an entity at a constant speed, in degrees per second around each of its own axes
+ * The turn for one step is worked out once as a quaternion, the simulation step never changes length
+ */
+public class Rotator implements Behaviour {
+
+	private final float speedX, speedY, speedZ;
+	
+	//the turn for the last step length, swapped as a whole since a rotator can be shared by entities that are
+	//updated on different threads
+	private volatile Step step = new Step(0, new Quaternion());
+
+	public Rotator(float speedX, float speedY, float speedZ) {
+		this.speedX = speedX;
+		this.speedY = speedY;
+		this.speedZ = speedZ;
+	}
+
+	@Override
+	public void update(Entity entity, float delta, float time) {
+		Step current = step;
+		if (current.delta != delta) {
+			current = new Step(delta, Maths.eulerToQuaternion(speedX * delta, speedY * delta, speedZ * delta,
+					new Quaternion()));
+			step = current;
+		}
+		entity.rotate(current.rotation);
+	}
+	
+	private static class Step {
+		
+		private final float delta;
+		private final Quaternion rotation;
+		
+		private Step(float delta, Quaternion rotation) {
+			this.delta = delta;
+			this.rotation = rotation;
+		}
+	}
+
+}
@@ -0,0 +1,692 @@
+package entities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import tools.IntList;
+import tools.Maths;
+
+/**
+ * @author Andrei
+ * A hierarchy of transforms, so things can be parented to each other (a light inside a lamp, a hat on the player).
+ *
+ * Nodes are referred to by an int id. Internally they are laid out breadth first: every parent comes
+ * before its children, the children of a node sit next to each other, and each depth level is one
+ * contiguous range. Every node has a local transform (relative to its parent) and a cached world matrix.
+ *
+ * Changing a node only flags it. update() then recomputes the flagged nodes and everything below them,
+ * so nodes that didn't change (and nothing below them changed) cost nothing. When a lot of nodes changed
+ * at once, the levels are updated one after the other with each level split over the fork join pool.
+ *
+ * Entities, lights and cameras can be attached to a node and follow its world transform, and a node can
+ * be bound to an entity so that it follows the entity instead (to parent things to the player). The entity's store
+ * collects the changes to bound entities, so bound entities that stand still cost nothing either.
+ */
+public class SceneGraph {
+
+	private static final int NO_NODE = -1;
+	private static final int MATRIX_SIZE = 16;
+
+	//above this many changed nodes we update level by level in parallel instead of walking the changed subtrees
+	private static final int PARALLEL_THRESHOLD = 4096;
+	private static final int CHUNK_SIZE = 1024;
+
+	private final ForkJoinPool pool;
+
+	//the tree, by id (this is what the layout is rebuilt from)
+	private int[] parentOf = new int[16];
+	private int[] firstChildOf = new int[16];
+	private int[] nextSiblingOf = new int[16];
+	private boolean[] alive = new boolean[16];
+	private int idCount = 0;
+	private IntList freeIds = new IntList();
+	private int nodeCount = 0;
+	private int slotCount = 0; //removed nodes keep their slot until the layout is rebuilt
+
+	//the breadth first layout, by slot
+	private int[] slotOfId = new int[16];
+	private int[] idOfSlot = new int[16];
+	private int[] parentSlot = new int[16];
+	private int[] firstChildSlot = new int[16];
+	private int[] childCount = new int[16];
+	private int[] levelStart = new int[2]; //slots of level i are levelStart[i] to levelStart[i + 1]
+	private int levelCount = 0;
+	private boolean layoutChanged = false;
+
+	//transforms, by slot
+	private float[] localX = new float[16], localY = new float[16], localZ = new float[16];
+	private float[] localRotX = new float[16], localRotY = new float[16], localRotZ = new float[16];
+	private float[] localScale = new float[16];
+	private float[] world = new float[16 * MATRIX_SIZE];
+
+	//changed nodes, by id so that the list survives the layout being rebuilt
+	private boolean[] dirty = new boolean[16];
+	private IntList dirtyIds = new IntList();
+
+	//which slots were recomputed in the current update
+	private int[] stamp = new int[16];
+	private int updateCount = 0;
+	private boolean[] changed = new boolean[16];
+
+	//things that follow nodes, and nodes that follow entities, by id
+	private Attachment[] attachments = new Attachment[16];
+	private Entity[] boundTo = new Entity[16];
+	//the other way round, the nodes bound to every entity, and the stores the entities are in
+	private final Map<Entity, IntList> boundNodes = new HashMap<Entity, IntList>();
+	private final List<EntityStore> boundStores = new ArrayList<EntityStore>();
+	private IntList attachedSlots = new IntList();
+
+	//reused while updating on the calling thread
+	private final float[] local = new float[MATRIX_SIZE];
+	private final IntList stack = new IntList();
+
+	public SceneGraph() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	public SceneGraph(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	//creates a node with an identity local transform, parent can be -1 for a root node
+	public int createNode(int parent) {
+		int id;
+		if (!freeIds.isEmpty()) {
+			id = freeIds.get(freeIds.size() - 1);
+			freeIds.truncate(freeIds.size() - 1);
+		} else {
+			id = idCount++;
+			ensureIdCapacity(idCount);
+		}
+		alive[id] = true;
+		parentOf[id] = NO_NODE;
+		firstChildOf[id] = NO_NODE;
+		nextSiblingOf[id] = NO_NODE;
+		attachments[id] = null;
+		boundTo[id] = null;
+		linkToParent(id, parent);
+		nodeCount++;
+
+		//new nodes go at the end until the layout is rebuilt
+		int slot = slotCount++;
+		ensureSlotCapacity(slotCount);
+		slotOfId[id] = slot;
+		idOfSlot[slot] = id;
+		localX[slot] = localY[slot] = localZ[slot] = 0;
+		localRotX[slot] = localRotY[slot] = localRotZ[slot] = 0;
+		localScale[slot] = 1;
+		layoutChanged = true;
+		markDirty(id);
+		return id;
+	}
+
+	public int createNode(int parent, float x, float y, float z, float rx, float ry, float rz, float scale) {
+		int id = createNode(parent);
+		setLocalTransform(id, x, y, z, rx, ry, rz, scale);
+		return id;
+	}
+
+	//removes the node and everything below it
+	public void removeNode(int id) {
+		if (!alive[id]) {
+			return;
+		}
+		unlinkFromParent(id);
+		stack.clear();
+		stack.add(id);
+		while (!stack.isEmpty()) {
+			int current = stack.get(stack.size() - 1);
+			stack.truncate(stack.size() - 1);
+			for (int child = firstChildOf[current]; child != NO_NODE; child = nextSiblingOf[child]) {
+				stack.add(child);
+			}
+			alive[current] = false;
+			dirty[current] = false;
+			attachments[current] = null;
+			unbind(current);
+			freeIds.add(current);
+			nodeCount--;
+		}
+		//the removed ids come out of the changed list as well, their slots go away when the layout is rebuilt
+		//and the ids can be handed out again before the next update
+		int kept = 0;
+		for (int i = 0; i < dirtyIds.size(); i++) {
+			int dirtyId = dirtyIds.get(i);
+			if (dirty[dirtyId]) {
+				dirtyIds.set(kept++, dirtyId);
+			}
+		}
+		dirtyIds.truncate(kept);
+		layoutChanged = true;
+	}
+
+	//moves a node (and everything below it) under another parent, -1 makes it a root
+	public void setParent(int id, int parent) {
+		for (int ancestor = parent; ancestor != NO_NODE; ancestor = parentOf[ancestor]) {
+			if (ancestor == id) {
+				throw new IllegalArgumentException("A node can't be parented to one of its own children");
+			}
+		}
+		unlinkFromParent(id);
+		linkToParent(id, parent);
+		layoutChanged = true;
+		markDirty(id);
+	}
+
+	public int getParent(int id) {
+		return parentOf[id];
+	}
+
+	public void setLocalPosition(int id, float x, float y, float z) {
+		int slot = slotOfId[id];
+		localX[slot] = x;
+		localY[slot] = y;
+		localZ[slot] = z;
+		markDirty(id);
+	}
+
+	public void increaseLocalPosition(int id, float dx, float dy, float dz) {
+		int slot = slotOfId[id];
+		localX[slot] += dx;
+		localY[slot] += dy;
+		localZ[slot] += dz;
+		markDirty(id);
+	}
+
+	//rotations in degrees, same order as the entities
+	public void setLocalRotation(int id, float rx, float ry, float rz) {
+		int slot = slotOfId[id];
+		localRotX[slot] = rx;
+		localRotY[slot] = ry;
+		localRotZ[slot] = rz;
+		markDirty(id);
+	}
+
+	public void increaseLocalRotation(int id, float dx, float dy, float dz) {
+		int slot = slotOfId[id];
+		localRotX[slot] += dx;
+		localRotY[slot] += dy;
+		localRotZ[slot] += dz;
+		markDirty(id);
+	}
+
+	public void setLocalScale(int id, float scale) {
+		localScale[slotOfId[id]] = scale;
+		markDirty(id);
+	}
+
+	public void setLocalTransform(int id, float x, float y, float z, float rx, float ry, float rz, float scale) {
+		int slot = slotOfId[id];
+		localX[slot] = x;
+		localY[slot] = y;
+		localZ[slot] = z;
+		localRotX[slot] = rx;
+		localRotY[slot] = ry;
+		localRotZ[slot] = rz;
+		localScale[slot] = scale;
+		markDirty(id);
+	}
+
+	//the entity will be moved to the world transform of the node every time the node changes
+	//only uniform scales and the same rotation order as Maths.createTransformationMatrix are supported
+	public void attach(int id, Entity entity) {
+		attachments[id] = new Attachment(entity, attachments[id]);
+		layoutChanged = true; //rebuilds the list of nodes with attachments
+		markDirty(id);
+	}
+
+	//the light will be placed at the world position of the node
+	public void attach(int id, Light light) {
+		attachments[id] = new Attachment(light, attachments[id]);
+		layoutChanged = true;
+		markDirty(id);
+	}
+
+	//the camera will sit at the world position of the node instead of following the player
+	public void attach(int id, Camera camera) {
+		camera.setAnchor(this, id);
+	}
+
+	//the local transform of the node is copied from the entity whenever the entity changes, so children follow it
+	//an entity that a node is bound to must not also be attached to that node or anything below it, and can only
+	//be bound in one graph (its store keeps one list of changes)
+	public void bind(int id, Entity entity) {
+		unbind(id);
+		boundTo[id] = entity;
+		IntList nodes = boundNodes.get(entity);
+		if (nodes == null) {
+			nodes = new IntList(1);
+			boundNodes.put(entity, nodes);
+		}
+		nodes.add(id);
+		EntityStore store = entity.getStore();
+		store.setBound(entity.getIndex(), true);
+		if (!boundStores.contains(store)) {
+			boundStores.add(store);
+		}
+		pullEntity(id, entity);
+	}
+
+	//recomputes the world matrices of the nodes that changed and everything below them
+	//returns how many nodes were recomputed
+	public int update() {
+		pullBoundEntities();
+		if (layoutChanged) {
+			rebuildLayout();
+		}
+		if (dirtyIds.isEmpty()) {
+			return 0;
+		}
+		updateCount++;
+		int recomputed;
+		if (dirtyIds.size() > PARALLEL_THRESHOLD) {
+			recomputed = updateLevels();
+		} else {
+			recomputed = updateSubtrees();
+		}
+		for (int i = 0; i < dirtyIds.size(); i++) {
+			dirty[dirtyIds.get(i)] = false;
+		}
+		dirtyIds.clear();
+		return recomputed;
+	}
+
+	public void getWorldMatrix(int id, Matrix4f dest) {
+		int offset = slotOfId[id] * MATRIX_SIZE;
+		dest.m00 = world[offset];
+		dest.m01 = world[offset + 1];
+		dest.m02 = world[offset + 2];
+		dest.m03 = world[offset + 3];
+		dest.m10 = world[offset + 4];
+		dest.m11 = world[offset + 5];
+		dest.m12 = world[offset + 6];
+		dest.m13 = world[offset + 7];
+		dest.m20 = world[offset + 8];
+		dest.m21 = world[offset + 9];
+		dest.m22 = world[offset + 10];
+		dest.m23 = world[offset + 11];
+		dest.m30 = world[offset + 12];
+		dest.m31 = world[offset + 13];
+		dest.m32 = world[offset + 14];
+		dest.m33 = world[offset + 15];
+	}
+
+	public Vector3f getWorldPosition(int id, Vector3f dest) {
+		int offset = slotOfId[id] * MATRIX_SIZE;
+		dest.set(world[offset + 12], world[offset + 13], world[offset + 14]);
+		return dest;
+	}
+
+	public int size() {
+		return nodeCount;
+	}
+
+	public int getLevelCount() {
+		return levelCount;
+	}
+
+	private void markDirty(int id) {
+		if (!dirty[id]) {
+			dirty[id] = true;
+			dirtyIds.add(id);
+		}
+	}
+
+	//walks down from every changed node, the dirty nodes are sorted by slot so parents are always done first
+	private int updateSubtrees() {
+		int[] slots = new int[dirtyIds.size()];
+		int count = 0;
+		for (int i = 0; i < dirtyIds.size(); i++) {
+			int id = dirtyIds.get(i);
+			if (alive[id] && dirty[id]) {
+				slots[count++] = slotOfId[id];
+			}
+		}
+		Arrays.sort(slots, 0, count);
+		int recomputed = 0;
+		for (int i = 0; i < count; i++) {
+			int root = slots[i];
+			if (stamp[root] == updateCount) {
+				continue; //already done as part of a parent
+			}
+			stack.clear();
+			stack.add(root);
+			while (!stack.isEmpty()) {
+				int slot = stack.get(stack.size() - 1);
+				stack.truncate(stack.size() - 1);
+				computeWorld(slot, local);
+				stamp[slot] = updateCount;
+				notifyAttachments(slot);
+				recomputed++;
+				int first = firstChildSlot[slot];
+				for (int child = first; child < first + childCount[slot]; child++) {
+					stack.add(child);
+				}
+			}
+		}
+		return recomputed;
+	}
+
+	//goes through the levels in order, every level is split into chunks which are computed in parallel
+	//nodes are picked by their dirty flag, which removed nodes don't have
+	private int updateLevels() {
+		for (int level = 0; level < levelCount; level++) {
+			int from = levelStart[level], to = levelStart[level + 1];
+			if (to - from > CHUNK_SIZE) {
+				pool.invoke(new LevelTask(from, to));
+			} else {
+				updateRange(from, to, local);
+			}
+		}
+		//attachments touch other objects, so they are done here on the calling thread
+		int recomputed = 0;
+		for (int slot = 0; slot < nodeCount; slot++) {
+			if (changed[slot]) {
+				recomputed++;
+			}
+		}
+		for (int i = 0; i < attachedSlots.size(); i++) {
+			int slot = attachedSlots.get(i);
+			if (changed[slot]) {
+				notifyAttachments(slot);
+			}
+		}
+		return recomputed;
+	}
+
+	private void updateRange(int from, int to, float[] scratch) {
+		for (int slot = from; slot < to; slot++) {
+			int parent = parentSlot[slot];
+			boolean needed = dirty[idOfSlot[slot]] || (parent != NO_NODE && changed[parent]);
+			changed[slot] = needed;
+			if (needed) {
+				computeWorld(slot, scratch);
+				stamp[slot] = updateCount;
+			}
+		}
+	}
+
+	//world = parent world * local
+	private void computeWorld(int slot, float[] scratch) {
+		int parent = parentSlot[slot];
+		if (parent == NO_NODE) {
+			Maths.writeTransformationMatrix(localX[slot], localY[slot], localZ[slot], localRotX[slot], localRotY[slot],
+					localRotZ[slot], localScale[slot], world, slot * MATRIX_SIZE);
+		} else {
+			Maths.writeTransformationMatrix(localX[slot], localY[slot], localZ[slot], localRotX[slot], localRotY[slot],
+					localRotZ[slot], localScale[slot], scratch, 0);
+			Maths.multiply(world, parent * MATRIX_SIZE, scratch, 0, world, slot * MATRIX_SIZE);
+		}
+	}
+
+	private void notifyAttachments(int slot) {
+		Attachment attachment = attachments[idOfSlot[slot]];
+		if (attachment == null) {
+			return;
+		}
+		int offset = slot * MATRIX_SIZE;
+		float x = world[offset + 12], y = world[offset + 13], z = world[offset + 14];
+		for (; attachment != null; attachment = attachment.next) {
+			if (attachment.light != null) {
+				attachment.light.getPosition().set(x, y, z);
+			} else {
+				applyToEntity(attachment.entity, offset);
+			}
+		}
+	}
+
+	//splits the world matrix back into position, rotation and scale for the entity store
+	//the rotation is rx * ry * rz, so m20 = sin(ry), m21 = -sin(rx)cos(ry), m22 = cos(rx)cos(ry), m10 = -cos(ry)sin(rz)
+	private void applyToEntity(Entity entity, int offset) {
+		float scale = (float) Math.sqrt(world[offset] * world[offset] + world[offset + 1] * world[offset + 1]
+				+ world[offset + 2] * world[offset + 2]);
+		float inverse = scale == 0 ? 0 : 1 / scale;
+		float m20 = world[offset + 8] * inverse;
+		float m21 = world[offset + 9] * inverse;
+		float m22 = world[offset + 10] * inverse;
+		float m10 = world[offset + 4] * inverse;
+		float m00 = world[offset] * inverse;
+		float ry = (float) Math.asin(Math.max(-1, Math.min(1, m20)));
+		float rx = (float) Math.atan2(-m21, m22);
+		float rz = (float) Math.atan2(-m10, m00);
+		entity.getStore().setTransform(entity.getIndex(), world[offset + 12], world[offset + 13], world[offset + 14],
+				(float) Math.toDegrees(rx), (float) Math.toDegrees(ry), (float) Math.toDegrees(rz), scale);
+	}
+
+	//copies the transform of the bound entities that changed since the last update into their nodes
+	private void pullBoundEntities() {
+		for (EntityStore store : boundStores) {
+			for (int i = 0; i < store.getBoundChangeCount(); i++) {
+				Entity entity = store.getBoundChange(i);
+				IntList nodes = boundNodes.get(entity);
+				if (nodes == null) {
+					continue;
+				}
+				if (entity.getIndex() < 0) { //removed from its store, the nodes stay where they are
+					for (int n = 0; n < nodes.size(); n++) {
+						boundTo[nodes.get(n)] = null;
+					}
+					boundNodes.remove(entity);
+					continue;
+				}
+				for (int n = 0; n < nodes.size(); n++) {
+					pullEntity(nodes.get(n), entity);
+				}
+			}
+			store.clearBoundChanges();
+		}
+	}
+
+	private void pullEntity(int id, Entity entity) {
+		Vector3f position = entity.getPosition();
+		setLocalTransform(id, position.x, position.y, position.z, entity.getRotX(), entity.getRotY(), entity.getRotZ(),
+				entity.getScale());
+	}
+
+	//the node stops following its entity, the entity stops being watched once no node follows it
+	private void unbind(int id) {
+		Entity entity = boundTo[id];
+		if (entity == null) {
+			return;
+		}
+		boundTo[id] = null;
+		IntList nodes = boundNodes.get(entity);
+		int kept = 0;
+		for (int n = 0; n < nodes.size(); n++) {
+			if (nodes.get(n) != id) {
+				nodes.set(kept++, nodes.get(n));
+			}
+		}
+		nodes.truncate(kept);
+		if (kept == 0) {
+			boundNodes.remove(entity);
+			if (entity.getIndex() >= 0) {
+				entity.getStore().setBound(entity.getIndex(), false);
+			}
+		}
+	}
+
+	//lays the nodes out breadth first, moving their transforms along with them
+	private void rebuildLayout() {
+		int[] order = new int[nodeCount];
+		int count = 0;
+		levelCount = 0;
+		IntList starts = new IntList();
+		//the roots are the first level
+		starts.add(0);
+		for (int id = 0; id < idCount; id++) {
+			if (alive[id] && parentOf[id] == NO_NODE) {
+				order[count++] = id;
+			}
+		}
+		int[] newParent = new int[nodeCount];
+		int[] newFirstChild = new int[nodeCount];
+		int[] newChildCount = new int[nodeCount];
+		Arrays.fill(newParent, 0, count, NO_NODE);
+		int levelFrom = 0;
+		while (levelFrom < count) {
+			int levelTo = count;
+			starts.add(levelTo);
+			for (int slot = levelFrom; slot < levelTo; slot++) {
+				newFirstChild[slot] = count;
+				for (int child = firstChildOf[order[slot]]; child != NO_NODE; child = nextSiblingOf[child]) {
+					newParent[count] = slot;
+					order[count++] = child;
+				}
+				newChildCount[slot] = count - newFirstChild[slot];
+			}
+			levelFrom = levelTo;
+		}
+		levelCount = starts.size() - 1;
+		levelStart = starts.toArray();
+
+		//move the per slot data into the new order
+		float[] newX = new float[order.length], newY = new float[order.length], newZ = new float[order.length];
+		float[] newRotX = new float[order.length], newRotY = new float[order.length], newRotZ = new float[order.length];
+		float[] newScale = new float[order.length];
+		float[] newWorld = new float[order.length * MATRIX_SIZE];
+		for (int slot = 0; slot < order.length; slot++) {
+			int old = slotOfId[order[slot]];
+			newX[slot] = localX[old];
+			newY[slot] = localY[old];
+			newZ[slot] = localZ[old];
+			newRotX[slot] = localRotX[old];
+			newRotY[slot] = localRotY[old];
+			newRotZ[slot] = localRotZ[old];
+			newScale[slot] = localScale[old];
+			System.arraycopy(world, old * MATRIX_SIZE, newWorld, slot * MATRIX_SIZE, MATRIX_SIZE);
+		}
+		int capacity = Math.max(order.length, 16);
+		localX = Arrays.copyOf(newX, capacity);
+		localY = Arrays.copyOf(newY, capacity);
+		localZ = Arrays.copyOf(newZ, capacity);
+		localRotX = Arrays.copyOf(newRotX, capacity);
+		localRotY = Arrays.copyOf(newRotY, capacity);
+		localRotZ = Arrays.copyOf(newRotZ, capacity);
+		localScale = Arrays.copyOf(newScale, capacity);
+		world = Arrays.copyOf(newWorld, capacity * MATRIX_SIZE);
+		parentSlot = Arrays.copyOf(newParent, capacity);
+		firstChildSlot = Arrays.copyOf(newFirstChild, capacity);
+		childCount = Arrays.copyOf(newChildCount, capacity);
+		idOfSlot = Arrays.copyOf(order, capacity);
+		stamp = new int[capacity];
+		changed = new boolean[capacity];
+		slotCount = order.length;
+		attachedSlots.clear();
+		for (int slot = 0; slot < order.length; slot++) {
+			slotOfId[order[slot]] = slot;
+			if (attachments[order[slot]] != null) {
+				attachedSlots.add(slot);
+			}
+		}
+		layoutChanged = false;
+	}
+
+	private void linkToParent(int id, int parent) {
+		parentOf[id] = parent;
+		if (parent != NO_NODE) {
+			nextSiblingOf[id] = firstChildOf[parent];
+			firstChildOf[parent] = id;
+		}
+	}
+
+	private void unlinkFromParent(int id) {
+		int parent = parentOf[id];
+		if (parent != NO_NODE) {
+			if (firstChildOf[parent] == id) {
+				firstChildOf[parent] = nextSiblingOf[id];
+			} else {
+				for (int child = firstChildOf[parent]; child != NO_NODE; child = nextSiblingOf[child]) {
+					if (nextSiblingOf[child] == id) {
+						nextSiblingOf[child] = nextSiblingOf[id];
+						break;
+					}
+				}
+			}
+		}
+		parentOf[id] = NO_NODE;
+		nextSiblingOf[id] = NO_NODE;
+	}
+
+	private void ensureIdCapacity(int required) {
+		if (required <= parentOf.length) {
+			return;
+		}
+		int capacity = Math.max(required, parentOf.length * 2);
+		parentOf = Arrays.copyOf(parentOf, capacity);
+		firstChildOf = Arrays.copyOf(firstChildOf, capacity);
+		nextSiblingOf = Arrays.copyOf(nextSiblingOf, capacity);
+		alive = Arrays.copyOf(alive, capacity);
+		slotOfId = Arrays.copyOf(slotOfId, capacity);
+		dirty = Arrays.copyOf(dirty, capacity);
+		attachments = Arrays.copyOf(attachments, capacity);
+		boundTo = Arrays.copyOf(boundTo, capacity);
+	}
+
+	private void ensureSlotCapacity(int required) {
+		if (required <= localX.length) {
+			return;
+		}
+		int capacity = Math.max(required, localX.length * 2);
+		idOfSlot = Arrays.copyOf(idOfSlot, capacity);
+		localX = Arrays.copyOf(localX, capacity);
+		localY = Arrays.copyOf(localY, capacity);
+		localZ = Arrays.copyOf(localZ, capacity);
+		localRotX = Arrays.copyOf(localRotX, capacity);
+		localRotY = Arrays.copyOf(localRotY, capacity);
+		localRotZ = Arrays.copyOf(localRotZ, capacity);
+		localScale = Arrays.copyOf(localScale, capacity);
+		world = Arrays.copyOf(world, capacity * MATRIX_SIZE);
+	}
+
+	//something that follows a node, either an entity or a light
+	private static class Attachment {
+
+		private final Entity entity;
+		private final Light light;
+		private final Attachment next;
+
+		private Attachment(Entity entity, Attachment next) {
+			this.entity = entity;
+			this.light = null;
+			this.next = next;
+		}
+
+		private Attachment(Light light, Attachment next) {
+			this.entity = null;
+			this.light = light;
+			this.next = next;
+		}
+	}
+
+	private class LevelTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int from, to;
+
+		private LevelTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= CHUNK_SIZE) {
+				updateRange(from, to, new float[MATRIX_SIZE]);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new LevelTask(from, middle), new LevelTask(middle, to));
+		}
+	}
+
+}
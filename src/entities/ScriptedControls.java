@@ -0,0 +1,52 @@
+package entities;
+
+import java.util.function.LongSupplier;
+
+/**
+ * @author Andrei
+ * Controls that play back an input track. What is pressed depends only on the simulation step,
+ * so the same track over the same scene always ends up in the same place, whatever the frame rate.
+ * Nothing is pressed before the first segment.
+ */
+public class ScriptedControls implements Controls {
+
+	private final InputTrack track;
+	private final LongSupplier steps;
+
+	//steps is where the simulation is, usually simulation::getSteps
+	public ScriptedControls(InputTrack track, LongSupplier steps) {
+		this.track = track;
+		this.steps = steps;
+	}
+
+	@Override
+	public boolean isKeyDown(int key) {
+		InputTrack.Segment segment = track.getSegment(steps.getAsLong());
+		return segment != null && segment.isKeyDown(key);
+	}
+
+	@Override
+	public boolean isButtonDown(int button) {
+		InputTrack.Segment segment = track.getSegment(steps.getAsLong());
+		return segment != null && segment.isButtonDown(button);
+	}
+
+	@Override
+	public int getDX() {
+		InputTrack.Segment segment = track.getSegment(steps.getAsLong());
+		return segment == null ? 0 : segment.getDX();
+	}
+
+	@Override
+	public int getDY() {
+		InputTrack.Segment segment = track.getSegment(steps.getAsLong());
+		return segment == null ? 0 : segment.getDY();
+	}
+
+	@Override
+	public int getDWheel() {
+		InputTrack.Segment segment = track.getSegment(steps.getAsLong());
+		return segment == null ? 0 : segment.getDWheel();
+	}
+
+}
@@ -0,0 +1,572 @@
+package entities;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import tools.Frustum;
+import tools.IntList;
+
+/**
+ * @author Andrei
+ * A loose hashed grid that can answer "what is near X" and "what is inside the frustum" without
+ * looking at every object.
+ *
+ * Objects are bounding spheres with an int id (entities use their EntityStore index). An object
+ * lives in the cell that contains its centre, and queries look half a cell further out to make up
+ * for that, so moving an object only touches the cells it leaves and enters and nothing is ever
+ * rebuilt. Objects bigger than half a cell are kept in a separate list that every query checks.
+ *
+ * Reads and writes can happen on different threads at the same time. Each cell is locked on its
+ * own while it is read or changed, and the lock around the whole structure is only taken exclusively
+ * when a new cell has to be created or the arrays have to grow.
+ */
+public class SpatialHashGrid {
+
+	private static final int NO_CELL = -1;
+	private static final int OVERSIZED = Integer.MAX_VALUE; //sorts last when locking two cells
+	private static final long EMPTY_KEY = Long.MIN_VALUE;
+
+	private final float cellSize;
+	private final float inverseCellSize;
+	private final float looseRadius; //objects bigger than this go into the oversized list
+
+	//per object data, indexed by id
+	private float[] x, y, z, radius;
+	private int[] cellOf;
+	private int[] slotOf; //where the id sits inside its cell
+	private int size = 0;
+
+	//the cells, and a hash table (open addressing) from packed cell coordinates to cell index
+	private Cell[] cells = new Cell[64];
+	private int cellCount = 0;
+	private long[] keys;
+	private int[] values;
+	private final Cell oversized = new Cell(0, 0, 0);
+
+	//the range of cell coordinates that have ever been used, so k-nearest searches know when to stop
+	private int minCellX = Integer.MAX_VALUE, minCellY = Integer.MAX_VALUE, minCellZ = Integer.MAX_VALUE;
+	private int maxCellX = Integer.MIN_VALUE, maxCellY = Integer.MIN_VALUE, maxCellZ = Integer.MIN_VALUE;
+
+	private final ReentrantReadWriteLock structure = new ReentrantReadWriteLock();
+
+	public SpatialHashGrid(float cellSize) {
+		this(cellSize, 1024);
+	}
+
+	public SpatialHashGrid(float cellSize, int capacity) {
+		this.cellSize = cellSize;
+		this.inverseCellSize = 1 / cellSize;
+		this.looseRadius = cellSize / 2;
+		capacity = Math.max(capacity, 1);
+		x = new float[capacity];
+		y = new float[capacity];
+		z = new float[capacity];
+		radius = new float[capacity];
+		cellOf = new int[capacity];
+		slotOf = new int[capacity];
+		Arrays.fill(cellOf, NO_CELL);
+		keys = new long[256];
+		values = new int[256];
+		Arrays.fill(keys, EMPTY_KEY);
+	}
+
+	//adds an object or moves it if it is already in the grid
+	public void update(int id, float px, float py, float pz, float r) {
+		structure.readLock().lock();
+		try {
+			if (id < cellOf.length) {
+				int target = r > looseRadius ? OVERSIZED : findCell(cellX(px), cellY(py), cellZ(pz));
+				if (target != NO_CELL) {
+					move(id, target, px, py, pz, r);
+					return;
+				}
+			}
+		} finally {
+			structure.readLock().unlock();
+		}
+		//the object needs a cell that doesn't exist yet, or the arrays need to grow
+		structure.writeLock().lock();
+		try {
+			ensureCapacity(id + 1);
+			int target = r > looseRadius ? OVERSIZED : createCell(cellX(px), cellY(py), cellZ(pz));
+			move(id, target, px, py, pz, r);
+		} finally {
+			structure.writeLock().unlock();
+		}
+	}
+
+	public void remove(int id) {
+		structure.readLock().lock();
+		try {
+			if (id >= cellOf.length) {
+				return;
+			}
+			Cell cell = getCell(cellOf[id]);
+			if (cell == null) {
+				return;
+			}
+			synchronized (cell) {
+				if (getCell(cellOf[id]) == cell) {
+					removeFromCell(cell, id);
+					cellOf[id] = NO_CELL;
+					synchronized (this) {
+						size--;
+					}
+				}
+			}
+		} finally {
+			structure.readLock().unlock();
+		}
+	}
+
+	//finds every object whose sphere touches the box
+	public void queryBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, IntList result) {
+		structure.readLock().lock();
+		try {
+			queryCell(oversized, minX, minY, minZ, maxX, maxY, maxZ, null, result);
+			forEachCellInBox(minX, minY, minZ, maxX, maxY, maxZ, null, result);
+		} finally {
+			structure.readLock().unlock();
+		}
+	}
+
+	//finds every object whose sphere touches the query sphere
+	public void querySphere(float cx, float cy, float cz, float r, IntList result) {
+		structure.readLock().lock();
+		try {
+			int start = result.size();
+			queryCell(oversized, cx - r, cy - r, cz - r, cx + r, cy + r, cz + r, null, result);
+			forEachCellInBox(cx - r, cy - r, cz - r, cx + r, cy + r, cz + r, null, result);
+			//the box test above lets through objects near the corners, so filter them out
+			int kept = start;
+			for (int i = start; i < result.size(); i++) {
+				int id = result.get(i);
+				float dx = x[id] - cx, dy = y[id] - cy, dz = z[id] - cz;
+				float reach = r + radius[id];
+				if (dx * dx + dy * dy + dz * dz <= reach * reach) {
+					result.set(kept++, id);
+				}
+			}
+			result.truncate(kept);
+		} finally {
+			structure.readLock().unlock();
+		}
+	}
+
+	//finds every object that might be visible in the frustum
+	public void queryFrustum(Frustum frustum, IntList result) {
+		structure.readLock().lock();
+		try {
+			queryCell(oversized, frustum.getMinX(), frustum.getMinY(), frustum.getMinZ(), frustum.getMaxX(),
+					frustum.getMaxY(), frustum.getMaxZ(), frustum, result);
+			forEachCellInBox(frustum.getMinX(), frustum.getMinY(), frustum.getMinZ(), frustum.getMaxX(),
+					frustum.getMaxY(), frustum.getMaxZ(), frustum, result);
+		} finally {
+			structure.readLock().unlock();
+		}
+	}
+
+	//finds the k objects whose centres are closest to the point, nearest first
+	public void queryNearest(float px, float py, float pz, int k, IntList result) {
+		if (k <= 0) {
+			return;
+		}
+		structure.readLock().lock();
+		try {
+			Nearest nearest = new Nearest(k);
+			synchronized (oversized) {
+				for (int i = 0; i < oversized.count; i++) {
+					nearest.offer(oversized.ids[i], px, py, pz);
+				}
+			}
+			if (cellCount > 0) {
+				int ox = cellX(px), oy = cellY(py), oz = cellZ(pz);
+				//the furthest ring that can still contain anything
+				int lastRing = Math.max(Math.max(Math.max(Math.abs(ox - minCellX), Math.abs(ox - maxCellX)),
+						Math.max(Math.abs(oy - minCellY), Math.abs(oy - maxCellY))),
+						Math.max(Math.abs(oz - minCellZ), Math.abs(oz - maxCellZ)));
+				for (int ring = 0; ring <= lastRing; ring++) {
+					//every centre in this ring is at least (ring - 1) cells away
+					float closest = (ring - 1) * cellSize;
+					if (nearest.isFull() && closest > 0 && closest * closest > nearest.worstDistance()) {
+						break;
+					}
+					searchRing(ox, oy, oz, ring, px, py, pz, nearest);
+				}
+			}
+			nearest.drainInto(result);
+		} finally {
+			structure.readLock().unlock();
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getCellCount() {
+		return cellCount;
+	}
+
+	public int getOversizedCount() {
+		return oversized.count;
+	}
+
+	public float getCellSize() {
+		return cellSize;
+	}
+
+	//moves an object into the target cell, locking both cells (in a fixed order, so writers can't deadlock)
+	private void move(int id, int target, float px, float py, float pz, float r) {
+		int current = cellOf[id];
+		Cell to = getCell(target);
+		if (current == target) {
+			synchronized (to) {
+				if (cellOf[id] == target) {
+					setBounds(id, px, py, pz, r);
+					return;
+				}
+			}
+		}
+		Cell from = getCell(current);
+		if (from == null) {
+			synchronized (to) {
+				setBounds(id, px, py, pz, r);
+				addToCell(to, target, id);
+			}
+			synchronized (this) {
+				size++;
+			}
+			return;
+		}
+		Cell first = current < target ? from : to;
+		Cell second = current < target ? to : from;
+		synchronized (first) {
+			synchronized (second) {
+				removeFromCell(from, id);
+				setBounds(id, px, py, pz, r);
+				addToCell(to, target, id);
+			}
+		}
+	}
+
+	private void setBounds(int id, float px, float py, float pz, float r) {
+		x[id] = px;
+		y[id] = py;
+		z[id] = pz;
+		radius[id] = r;
+	}
+
+	private void addToCell(Cell cell, int cellIndex, int id) {
+		if (cell.count == cell.ids.length) {
+			cell.ids = Arrays.copyOf(cell.ids, cell.count * 2);
+		}
+		slotOf[id] = cell.count;
+		cell.ids[cell.count++] = id;
+		cellOf[id] = cellIndex;
+	}
+
+	//swaps the last id of the cell into the hole
+	private void removeFromCell(Cell cell, int id) {
+		int slot = slotOf[id];
+		int last = cell.ids[--cell.count];
+		cell.ids[slot] = last;
+		slotOf[last] = slot;
+	}
+
+	private Cell getCell(int index) {
+		if (index == NO_CELL) {
+			return null;
+		}
+		return index == OVERSIZED ? oversized : cells[index];
+	}
+
+	//tests every object in a cell against the box (and the frustum, if there is one)
+	private void queryCell(Cell cell, float minX, float minY, float minZ, float maxX, float maxY, float maxZ,
+			Frustum frustum, IntList result) {
+		synchronized (cell) {
+			int[] ids = cell.ids;
+			for (int i = 0; i < cell.count; i++) {
+				int id = ids[i];
+				float r = radius[id];
+				float px = x[id], py = y[id], pz = z[id];
+				if (px + r < minX || px - r > maxX || py + r < minY || py - r > maxY || pz + r < minZ
+						|| pz - r > maxZ) {
+					continue;
+				}
+				if (frustum != null && !frustum.intersectsSphere(px, py, pz, r)) {
+					continue;
+				}
+				result.add(id);
+			}
+		}
+	}
+
+	//visits all the cells that can contain objects touching the box
+	private void forEachCellInBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ,
+			Frustum frustum, IntList result) {
+		if (cellCount == 0) {
+			return;
+		}
+		int x0 = Math.max(cellX(minX - looseRadius), minCellX), x1 = Math.min(cellX(maxX + looseRadius), maxCellX);
+		int y0 = Math.max(cellY(minY - looseRadius), minCellY), y1 = Math.min(cellY(maxY + looseRadius), maxCellY);
+		int z0 = Math.max(cellZ(minZ - looseRadius), minCellZ), z1 = Math.min(cellZ(maxZ + looseRadius), maxCellZ);
+		if (x0 > x1 || y0 > y1 || z0 > z1) {
+			return;
+		}
+		long range = (long) (x1 - x0 + 1) * (y1 - y0 + 1) * (z1 - z0 + 1);
+		if (range > cellCount) {
+			//the box covers more cell coordinates than there are cells, so just go through the cells
+			for (int i = 0; i < cellCount; i++) {
+				Cell cell = cells[i];
+				if (cell.cx >= x0 && cell.cx <= x1 && cell.cy >= y0 && cell.cy <= y1 && cell.cz >= z0 && cell.cz <= z1) {
+					visitCell(cell, minX, minY, minZ, maxX, maxY, maxZ, frustum, result);
+				}
+			}
+			return;
+		}
+		for (int cx = x0; cx <= x1; cx++) {
+			for (int cy = y0; cy <= y1; cy++) {
+				for (int cz = z0; cz <= z1; cz++) {
+					int index = findCell(cx, cy, cz);
+					if (index != NO_CELL) {
+						visitCell(cells[index], minX, minY, minZ, maxX, maxY, maxZ, frustum, result);
+					}
+				}
+			}
+		}
+	}
+
+	private void visitCell(Cell cell, float minX, float minY, float minZ, float maxX, float maxY, float maxZ,
+			Frustum frustum, IntList result) {
+		if (cell.count == 0) {
+			return;
+		}
+		//skip the whole cell if its loose bounds are outside the frustum
+		if (frustum != null) {
+			float x0 = cell.cx * cellSize - looseRadius, y0 = cell.cy * cellSize - looseRadius;
+			float z0 = cell.cz * cellSize - looseRadius;
+			float size = cellSize + 2 * looseRadius;
+			if (!frustum.intersectsBox(x0, y0, z0, x0 + size, y0 + size, z0 + size)) {
+				return;
+			}
+		}
+		queryCell(cell, minX, minY, minZ, maxX, maxY, maxZ, frustum, result);
+	}
+
+	//looks at the cells that are exactly ring cells away from the origin cell (the surface of a cube)
+	private void searchRing(int ox, int oy, int oz, int ring, float px, float py, float pz, Nearest nearest) {
+		int x0 = Math.max(ox - ring, minCellX), x1 = Math.min(ox + ring, maxCellX);
+		int y0 = Math.max(oy - ring, minCellY), y1 = Math.min(oy + ring, maxCellY);
+		for (int cx = x0; cx <= x1; cx++) {
+			for (int cy = y0; cy <= y1; cy++) {
+				boolean onSurface = Math.abs(cx - ox) == ring || Math.abs(cy - oy) == ring;
+				int step = onSurface || ring == 0 ? 1 : 2 * ring; //inside the cube only the two z faces are on the ring
+				for (int cz = oz - ring; cz <= oz + ring; cz += step) {
+					if (cz < minCellZ || cz > maxCellZ) {
+						continue;
+					}
+					int index = findCell(cx, cy, cz);
+					if (index == NO_CELL) {
+						continue;
+					}
+					Cell cell = cells[index];
+					synchronized (cell) {
+						for (int i = 0; i < cell.count; i++) {
+							nearest.offer(cell.ids[i], px, py, pz);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private int cellX(float value) {
+		return (int) Math.floor(value * inverseCellSize);
+	}
+
+	private int cellY(float value) {
+		return (int) Math.floor(value * inverseCellSize);
+	}
+
+	private int cellZ(float value) {
+		return (int) Math.floor(value * inverseCellSize);
+	}
+
+	//21 bits per axis is plenty, that's a million cells in each direction
+	private static long pack(int cx, int cy, int cz) {
+		return ((long) (cx & 0x1FFFFF) << 42) | ((long) (cy & 0x1FFFFF) << 21) | (cz & 0x1FFFFF);
+	}
+
+	private static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	private int findCell(int cx, int cy, int cz) {
+		long key = pack(cx, cy, cz);
+		int mask = keys.length - 1;
+		for (int slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+			if (keys[slot] == key) {
+				return values[slot];
+			}
+			if (keys[slot] == EMPTY_KEY) {
+				return NO_CELL;
+			}
+		}
+	}
+
+	//only called while holding the write lock
+	private int createCell(int cx, int cy, int cz) {
+		int existing = findCell(cx, cy, cz);
+		if (existing != NO_CELL) {
+			return existing;
+		}
+		if (cellCount == cells.length) {
+			cells = Arrays.copyOf(cells, cellCount * 2);
+		}
+		int index = cellCount++;
+		cells[index] = new Cell(cx, cy, cz);
+		if (cellCount * 2 > keys.length) {
+			rehash(keys.length * 2);
+		} else {
+			insertKey(pack(cx, cy, cz), index);
+		}
+		minCellX = Math.min(minCellX, cx);
+		minCellY = Math.min(minCellY, cy);
+		minCellZ = Math.min(minCellZ, cz);
+		maxCellX = Math.max(maxCellX, cx);
+		maxCellY = Math.max(maxCellY, cy);
+		maxCellZ = Math.max(maxCellZ, cz);
+		return index;
+	}
+
+	private void insertKey(long key, int value) {
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while (keys[slot] != EMPTY_KEY) {
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+	}
+
+	private void rehash(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, EMPTY_KEY);
+		for (int i = 0; i < cellCount; i++) {
+			insertKey(pack(cells[i].cx, cells[i].cy, cells[i].cz), i);
+		}
+	}
+
+	//only called while holding the write lock
+	private void ensureCapacity(int required) {
+		int capacity = cellOf.length;
+		if (required <= capacity) {
+			return;
+		}
+		int newCapacity = Math.max(required, capacity * 2);
+		x = Arrays.copyOf(x, newCapacity);
+		y = Arrays.copyOf(y, newCapacity);
+		z = Arrays.copyOf(z, newCapacity);
+		radius = Arrays.copyOf(radius, newCapacity);
+		slotOf = Arrays.copyOf(slotOf, newCapacity);
+		cellOf = Arrays.copyOf(cellOf, newCapacity);
+		Arrays.fill(cellOf, capacity, newCapacity, NO_CELL);
+	}
+
+	private static class Cell {
+
+		private final int cx, cy, cz;
+		private int[] ids = new int[8];
+		private int count = 0;
+
+		private Cell(int cx, int cy, int cz) {
+			this.cx = cx;
+			this.cy = cy;
+			this.cz = cz;
+		}
+	}
+
+	//keeps the k closest ids in a max heap on squared distance
+	private class Nearest {
+
+		private final int[] ids;
+		private final float[] distances;
+		private int count = 0;
+
+		private Nearest(int k) {
+			ids = new int[k];
+			distances = new float[k];
+		}
+
+		private boolean isFull() {
+			return count == ids.length;
+		}
+
+		private float worstDistance() {
+			return distances[0];
+		}
+
+		private void offer(int id, float px, float py, float pz) {
+			float dx = x[id] - px, dy = y[id] - py, dz = z[id] - pz;
+			float distance = dx * dx + dy * dy + dz * dz;
+			if (count < ids.length) {
+				int i = count++;
+				while (i > 0) { //sift up
+					int parent = (i - 1) / 2;
+					if (distances[parent] >= distance) {
+						break;
+					}
+					ids[i] = ids[parent];
+					distances[i] = distances[parent];
+					i = parent;
+				}
+				ids[i] = id;
+				distances[i] = distance;
+			} else if (distance < distances[0]) {
+				siftDown(id, distance, count);
+			}
+		}
+
+		private void siftDown(int id, float distance, int heapSize) {
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= heapSize) {
+					break;
+				}
+				if (child + 1 < heapSize && distances[child + 1] > distances[child]) {
+					child++;
+				}
+				if (distances[child] <= distance) {
+					break;
+				}
+				ids[i] = ids[child];
+				distances[i] = distances[child];
+				i = child;
+			}
+			ids[i] = id;
+			distances[i] = distance;
+		}
+
+		//empties the heap from the furthest to the nearest, then writes the ids out nearest first
+		private void drainInto(IntList result) {
+			int start = result.size();
+			for (int i = 0; i < count; i++) {
+				result.add(0);
+			}
+			for (int remaining = count; remaining > 0; remaining--) {
+				result.set(start + remaining - 1, ids[0]);
+				int lastId = ids[remaining - 1];
+				float lastDistance = distances[remaining - 1];
+				siftDown(lastId, lastDistance, remaining - 1);
+			}
+			count = 0;
+		}
+	}
+
+}
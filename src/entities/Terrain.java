@@ -39,6 +39,12 @@ public class Terrain {
 		this.model = generateTerrain(loader, heightMap);
 	}
 	
+	//creates a terrain that only knows its heights, nothing gets uploaded to the graphics card
+	//used when the scene is simulated without a display
+	public Terrain(int gridX, int gridZ, String heightMap) {
+		this(gridX, gridZ, null, null, heightMap);
+	}
+	
 	
 	public float getX() {
 		return x;
@@ -59,6 +65,11 @@ public class Terrain {
 		return texture;
 	}
 	
+	//whether the x,z coordinate lies on this tile
+	public boolean contains(float worldX, float worldZ) {
+		return worldX >= x && worldX < x + SIZE && worldZ >= z && worldZ < z + SIZE;
+	}
+	
 	//gets the height of the terrain for any given x,z coordinate
 	public float getHeightOfTerrain(float worldX, float worldZ) {
 		//transform these world coordinates into positions relative to the terrain
@@ -148,6 +159,9 @@ public class Terrain {
 				indices[pointer++] = bottomRight;
 			}
 		}
+		if(loader == null) { //headless terrain, the heights are all we need
+			return null;
+		}
 		return loader.loadToVAO(vertices, textureCoords, normals, indices);
 	}
 	
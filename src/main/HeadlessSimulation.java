@@ -0,0 +1,134 @@
+package main;
+
+import java.util.Collections;
+import java.util.Random;
+
+import org.lwjgl.input.Keyboard;
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.BehaviourSystem;
+import entities.Bobbing;
+import entities.Controls;
+import entities.Entity;
+import entities.EntityStore;
+import entities.Patrol;
+import entities.Player;
+import entities.Rotator;
+import entities.Terrain;
+import tools.Profiler;
+
+/**
+ * @author Andrei
+ * Runs the simulation without a display or any rendering, as fast as it can.
+ * Used to measure how many simulation steps per second we can do, and to check that the
+ * result only depends on the number of steps and not on the frame rate.
+ *
+ * The props are a mix of spinning, bobbing and patrolling entities, so this also measures the behaviour system.
+ *
+ * With -Ddreaming.profile=true every step is a profiler frame, and the time per scope is printed at the end.
+ *
+ * Usage: HeadlessSimulation [entities] [steps] [serial]
+ */
+public class HeadlessSimulation {
+
+	public static void main(String[] args) {
+		int entityCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int stepCount = args.length > 1 ? Integer.parseInt(args[1]) : Simulation.STEPS_PER_SECOND * 60;
+		boolean serial = args.length > 2 && args[2].equals("serial");
+
+		EntityStore store = new EntityStore(entityCount + 1);
+		Terrain terrain = new Terrain(-1, -1, "heightmap"); //heights only, no mesh
+
+		//animated props scattered over the terrain
+		Random random = new Random(42);
+		Player player = new Player(store, null, new Vector3f(-400, 0, -750), 0, 0, 0, 1);
+		Simulation simulation = new Simulation(store, Collections.singletonList(terrain), player, null);
+		BehaviourSystem behaviours = simulation.getBehaviours();
+		behaviours.setParallel(!serial);
+		for (int i = 0; i < entityCount; i++) {
+			float x = -800 + random.nextFloat() * 800;
+			float z = -800 + random.nextFloat() * 800;
+			Entity prop = new Entity(store, null, new Vector3f(x, terrain.getHeightOfTerrain(x, z), z), 0, 0, 0, 1);
+			switch (i % 3) {
+			case 0:
+				behaviours.add(prop, new Rotator(0, 10 + random.nextFloat() * 50, 0));
+				break;
+			case 1:
+				behaviours.add(prop, new Bobbing(2, 0.5f, random.nextFloat() * 6.28f));
+				behaviours.add(prop, new Rotator(0, 20, 0));
+				break;
+			default:
+				behaviours.add(prop, new Patrol(new float[] { x, z, x + 20, z, x + 20, z + 20 }, 5));
+			}
+		}
+		player.setControls(new ScriptedRun(simulation));
+
+		long start = System.nanoTime();
+		for (int i = 0; i < stepCount; i++) {
+			simulation.step(1f / Simulation.STEPS_PER_SECOND);
+			Profiler.endFrame();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		double seconds = elapsed / 1e9;
+		Vector3f position = player.getPosition();
+		System.out.println("entities: " + entityCount + ", steps: " + stepCount + (serial ? ", serial" : ", parallel"));
+		System.out.printf("time: %.3f s, %.1f steps/s, %.3f ms/step%n", seconds, stepCount / seconds,
+				seconds * 1000 / stepCount);
+		System.out.printf("simulated %.1f s, final player position: %.4f %.4f %.4f%n",
+				stepCount / (float) Simulation.STEPS_PER_SECOND, position.x, position.y, position.z);
+		if (Profiler.ENABLED) {
+			System.out.printf("last %d steps:%n", Profiler.getFrameCount());
+			for (int scope = 0; scope < Profiler.getScopeCount(); scope++) {
+				System.out.printf("  %-20s %8.3f ms %8.1f calls%n", Profiler.getName(scope),
+						Profiler.getAverage(scope, false) / 1e6, Profiler.getAverageCalls(scope));
+			}
+		}
+	}
+
+	//runs forwards the whole time, turns left for a while every 4 seconds and jumps every 2 seconds
+	private static class ScriptedRun implements Controls {
+
+		private final Simulation simulation;
+
+		private ScriptedRun(Simulation simulation) {
+			this.simulation = simulation;
+		}
+
+		@Override
+		public boolean isKeyDown(int key) {
+			long step = simulation.getSteps();
+			switch (key) {
+			case Keyboard.KEY_W:
+				return true;
+			case Keyboard.KEY_A:
+				return step % (Simulation.STEPS_PER_SECOND * 4) < Simulation.STEPS_PER_SECOND;
+			case Keyboard.KEY_SPACE:
+				return step % (Simulation.STEPS_PER_SECOND * 2) == 0;
+			default:
+				return false;
+			}
+		}
+
+		@Override
+		public boolean isButtonDown(int button) {
+			return false;
+		}
+
+		@Override
+		public int getDX() {
+			return 0;
+		}
+
+		@Override
+		public int getDY() {
+			return 0;
+		}
+
+		@Override
+		public int getDWheel() {
+			return 0;
+		}
+	}
+
+}
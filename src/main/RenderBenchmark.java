@@ -0,0 +1,256 @@
+package main;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Camera;
+import entities.EntityStore;
+import entities.InputTrack;
+import entities.Light;
+import entities.Player;
+import entities.Rotator;
+import entities.ScriptedControls;
+import entities.SpatialHashGrid;
+import entities.Terrain;
+import shaders.ShaderProgram;
+import tools.FixedTimestep;
+import wrapper.AntiAliasing;
+import wrapper.DisplayManager;
+import wrapper.FrameStats;
+import wrapper.Framebuffer;
+import wrapper.ImpostorBaker;
+import wrapper.Loader;
+import wrapper.MasterRenderer;
+import wrapper.SceneLoader;
+import wrapper.ShadowRenderer;
+import wrapper.StressScene;
+
+/**
+ * @author Andrei
+ * Renders a fixed number of frames offscreen and writes how long they took to a JSON report, so that builds
+ * can be compared with each other. Nothing depends on the clock: the input comes from a track, every frame
+ * advances the simulation by the same amount, and the last frame is read back and checksummed, so two runs
+ * of the same build on the same machine have to draw exactly the same picture.
+ *
+ * Every frame ends with glFinish, so the frame times include the GPU's work. On a Linux machine without a GPU
+ * it runs on Mesa's software rasterizer: LIBGL_ALWAYS_SOFTWARE=1 xvfb-run java ... main.RenderBenchmark
+ *
+ * Usage: RenderBenchmark [option=value...]
+ *   scene=res/default.scene   the scene to draw, or
+ *   entities=N lights=M       a stress scene with N entities and M lights instead (see StressScene)
+ *   frames=600 warmup=60      how many frames to draw, and how many of those are left out of the numbers
+ *   fps=60                    how much simulated time every frame is
+ *   width=1280 height=720     the size of the framebuffer
+ *   track=file                the input to play back (see InputTrack), a built in walk around otherwise
+ *   seed=42                   for the stress scene
+ *   aa=off                    the anti-aliasing preset or mode (see AntiAliasing), bench/compare-aa.sh runs all of them
+ *   report=benchmark.json     where the report goes
+ */
+public class RenderBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		Map<String, String> options = parseOptions(args);
+		int frames = Integer.parseInt(options.getOrDefault("frames", "600"));
+		int warmup = Integer.parseInt(options.getOrDefault("warmup", "60"));
+		int fps = Integer.parseInt(options.getOrDefault("fps", "60"));
+		int width = Integer.parseInt(options.getOrDefault("width", "1280"));
+		int height = Integer.parseInt(options.getOrDefault("height", "720"));
+		String reportFile = options.getOrDefault("report", "benchmark.json");
+		InputTrack track = options.containsKey("track") ? InputTrack.read(Paths.get(options.get("track")))
+				: InputTrack.createDefault();
+
+		DisplayManager.setSize(width, height);
+		DisplayManager.createOffscreen();
+		Loader loader = new Loader();
+		MasterRenderer renderer = new MasterRenderer(loader);
+		Framebuffer framebuffer = new Framebuffer(width, height);
+		AntiAliasing antiAliasing = new AntiAliasing(loader);
+		antiAliasing.set(options.getOrDefault("aa", "off"));
+		EntityStore store = EntityStore.getDefault();
+		ImpostorBaker impostors = ImpostorBaker.ENABLED ? new ImpostorBaker(loader) : null;
+		if (impostors != null) {
+			renderer.setImpostors(loader, impostors);
+		}
+		ShaderProgram.linkAll(); //before the scene, so loading it doesn't count as compiling the shaders
+
+		//either a scene file or a generated scene
+		List<Terrain> terrains;
+		List<Light> lights;
+		Player player;
+		String sceneName;
+		StressScene stress = null;
+		if (options.containsKey("entities")) {
+			int entityCount = Integer.parseInt(options.get("entities"));
+			int lightCount = Integer.parseInt(options.getOrDefault("lights", "16"));
+			stress = new StressScene(loader, store, entityCount, lightCount,
+					Long.parseLong(options.getOrDefault("seed", "42")));
+			if (impostors != null) { //everything in it is the player's model
+				impostors.bake(stress.getPlayer().getModel(), "stress bunny white", stress.getPlayerMesh(),
+						new File("res/white.png"));
+			}
+			terrains = stress.getTerrains();
+			lights = stress.getLights();
+			player = stress.getPlayer();
+			sceneName = "stress " + entityCount + " entities, " + lightCount + " lights";
+		} else {
+			String file = options.getOrDefault("scene", "res/default.scene");
+			SceneLoader scene = new SceneLoader(loader, store, Paths.get(file));
+			scene.setImpostors(impostors);
+			scene.load();
+			terrains = scene.getTerrains();
+			lights = scene.getLights();
+			player = scene.getPlayer();
+			sceneName = file;
+		}
+
+		Camera camera = new Camera(player);
+		Simulation simulation = new Simulation(store, terrains, player, camera);
+		ScriptedControls controls = new ScriptedControls(track, simulation::getSteps);
+		player.setControls(controls);
+		camera.setControls(controls);
+		if (stress != null) { //every fourth one spins, so there is something for the simulation to do
+			for (int i = 0; i < stress.getEntities().size(); i += 4) {
+				simulation.getBehaviours().add(stress.getEntities().get(i), new Rotator(0, 10 + i % 50, 0));
+			}
+		}
+		store.setSpatialIndex(new SpatialHashGrid(50));
+		FixedTimestep timestep = new FixedTimestep(Simulation.STEPS_PER_SECOND);
+		long frameNanos = 1000000000L / fps;
+
+		FrameStats times = new FrameStats(frames);
+		long drawCalls = 0, maxDrawCalls = 0, triangles = 0, visible = 0, vaoBinds = 0, uniformUploads = 0, uniformsSkipped = 0;
+		long shadowDraws = 0, shadowRefreshes = 0, impostorInstances = 0, impostorDraws = 0;
+		long start = System.nanoTime();
+		for (int frame = 0; frame < warmup + frames; frame++) {
+			long frameStart = System.nanoTime();
+			int steps = timestep.advance(frameNanos); //the same every run, unlike the real clock
+			for (int i = 0; i < steps; i++) {
+				simulation.step(timestep.getStepSeconds());
+			}
+			simulation.interpolate(timestep.getAlpha());
+
+			framebuffer.bind();
+			for (Terrain tile : terrains) {
+				renderer.processTerrain(tile);
+			}
+			renderer.processVisibleEntities(store, camera);
+			antiAliasing.beginScene(width, height);
+			renderer.setSun(lights.isEmpty() ? null : lights.get(0));
+			renderer.render(lights, camera);
+			antiAliasing.endScene(framebuffer);
+			framebuffer.unbind();
+			GL11.glFinish(); //so the frame time includes the drawing, not just handing it to the driver
+			loader.getResources().endFrame();
+			ShaderProgram.endFrame();
+			if (loader.getArena() != null) {
+				loader.getArena().endFrame();
+			}
+
+			if (frame >= warmup) {
+				times.record(System.nanoTime() - frameStart);
+				drawCalls += renderer.getDrawCalls();
+				maxDrawCalls = Math.max(maxDrawCalls, renderer.getDrawCalls());
+				triangles += renderer.getTriangles();
+				vaoBinds += renderer.getVaoBinds();
+				uniformUploads += ShaderProgram.getFrameUploads();
+				uniformsSkipped += ShaderProgram.getFrameSkipped();
+				visible += renderer.getVisibleCount();
+				shadowDraws += renderer.getShadowDrawCalls();
+				shadowRefreshes += renderer.getShadowRefreshes();
+				impostorInstances += renderer.getImpostorInstances();
+				impostorDraws += renderer.getImpostorDrawCalls();
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		CRC32 checksum = new CRC32();
+		checksum.update(framebuffer.readPixels());
+		int error = GL11.glGetError();
+		String glRenderer = GL11.glGetString(GL11.GL_RENDERER), glVersion = GL11.glGetString(GL11.GL_VERSION);
+		Vector3f position = player.getPosition();
+
+		try (Writer out = new FileWriter(reportFile)) {
+			out.write("{\n");
+			field(out, "scene", quote(sceneName));
+			field(out, "renderer", quote(glRenderer));
+			field(out, "version", quote(glVersion));
+			field(out, "width", width);
+			field(out, "height", height);
+			field(out, "antiAliasing", quote(antiAliasing.getName()));
+			field(out, "frames", frames);
+			field(out, "warmupFrames", warmup);
+			field(out, "simulationSteps", simulation.getSteps());
+			field(out, "entities", store.size());
+			field(out, "lights", lights.size());
+			field(out, "gpuMemoryBytes", loader.getResources().getTotalBytes());
+			field(out, "vertexArena", loader.getArena() != null);
+			field(out, "uniformUploadsPerFrame", String.format(Locale.ROOT, "%.1f", uniformUploads / (double) frames));
+			field(out, "uniformUploadsSkippedPerFrame", String.format(Locale.ROOT, "%.1f", uniformsSkipped / (double) frames));
+			field(out, "shadows", ShadowRenderer.ENABLED);
+			field(out, "shadowDrawCallsPerFrame", String.format(Locale.ROOT, "%.1f", shadowDraws / (double) frames));
+			field(out, "shadowCascadeRefreshes", shadowRefreshes);
+			field(out, "impostors", impostors != null);
+			field(out, "impostorsPerFrame", String.format(Locale.ROOT, "%.1f", impostorInstances / (double) frames));
+			field(out, "impostorDrawCallsPerFrame", String.format(Locale.ROOT, "%.1f", impostorDraws / (double) frames));
+			field(out, "seconds", String.format(Locale.ROOT, "%.3f", seconds));
+			out.write("  \"frameTimeMs\": {");
+			out.write(String.format(Locale.ROOT,
+					"\"mean\": %.3f, \"p50\": %.3f, \"p90\": %.3f, \"p95\": %.3f, \"p99\": %.3f, \"max\": %.3f},\n",
+					times.getMean() / 1e6, times.getPercentile(0.5) / 1e6, times.getPercentile(0.9) / 1e6,
+					times.getPercentile(0.95) / 1e6, times.getPercentile(0.99) / 1e6, times.getMax() / 1e6));
+			out.write(String.format(Locale.ROOT,
+					"  \"drawCalls\": {\"mean\": %.1f, \"max\": %d},\n  \"vaoBindsPerFrame\": %.1f,\n  \"trianglesPerFrame\": %.0f,\n  \"visibleEntities\": %.1f,\n",
+					drawCalls / (double) frames, maxDrawCalls, vaoBinds / (double) frames, triangles / (double) frames,
+					visible / (double) frames));
+			field(out, "finalPlayerPosition", String.format(Locale.ROOT, "[%.4f, %.4f, %.4f]", position.x, position.y,
+					position.z));
+			field(out, "glError", error);
+			out.write("  \"checksum\": \"" + String.format("%08x", checksum.getValue()) + "\"\n}\n");
+		}
+		System.out.printf("%s, %s: %d frames, p50 %.3f ms, p99 %.3f ms, checksum %08x, report in %s%n", sceneName,
+				antiAliasing.getName(), frames, times.getPercentile(0.5) / 1e6, times.getPercentile(0.99) / 1e6,
+				checksum.getValue(), reportFile);
+
+		antiAliasing.cleanUp();
+		framebuffer.cleanUp();
+		if (impostors != null) {
+			impostors.cleanUp();
+		}
+		renderer.cleanUp();
+		loader.cleanUp();
+		DisplayManager.closeDisplay();
+	}
+
+	//name=value arguments
+	private static Map<String, String> parseOptions(String[] args) {
+		Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (equals <= 0) {
+				throw new IllegalArgumentException("Expected name=value, got " + arg);
+			}
+			options.put(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+		return options;
+	}
+
+	private static void field(Writer out, String name, Object value) throws IOException {
+		out.write("  \"" + name + "\": " + value + ",\n");
+	}
+
+	private static String quote(String text) {
+		return "\"" + String.valueOf(text).replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+}
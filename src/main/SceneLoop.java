@@ -1,125 +1,226 @@
 package main;
 
-import java.util.ArrayList;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Paths;
 import java.util.List;
 
+import org.lwjgl.input.Keyboard;
 import org.lwjgl.opengl.Display;
-import org.lwjgl.util.vector.Vector3f;
 
 import entities.Camera;
+import entities.DeviceControls;
 import entities.Entity;
+import entities.EntityStore;
+import entities.InputTrack;
 import entities.Light;
 import entities.Player;
+import entities.RecordingControls;
+import entities.Rotator;
+import entities.SpatialHashGrid;
 import entities.Terrain;
-import models.RawModel;
-import models.TexturedModel;
-import tools.ModelData;
-import tools.OBJFileLoader;
+import shaders.ShaderProgram;
+import tools.EngineEvents;
+import tools.FixedTimestep;
+import tools.Profiler;
+import wrapper.AntiAliasing;
 import wrapper.DisplayManager;
+import wrapper.DynamicResolution;
+import wrapper.ImpostorBaker;
 import wrapper.Loader;
 import wrapper.MasterRenderer;
-import wrapper.ModelTexture;
+import wrapper.ProfilerOverlay;
+import wrapper.SceneLoader;
 
 /**
  * @author Andrei
  * Class containing the main method for the project.
- * It's in this class we initalize and render all the entities and terrain onto the scene
+ * It's in this class we load the scene and render all the entities and terrain onto it
+ *
+ * Started with -Ddreaming.record=file, the input of the whole run is written to that file when the window closes,
+ * and RenderBenchmark can play it back with track=file.
+ * With -Ddreaming.dynamicResolution=true the scene is drawn at whatever resolution the GPU keeps up with,
+ * see DynamicResolution. The anti-aliasing is picked with -Ddreaming.aa, see AntiAliasing.
  */
 public class SceneLoop {
+	
+	private static final String SCENE = "res/default.scene";
+	//how many frames F4 captures for the profile files
+	private static final int CAPTURE_FRAMES = 120;
+	private static final int FRAME = Profiler.register("frame");
 
 	public static void main(String[] args) {
 		
 		DisplayManager.createDisplay(); //opens up the display
 		Loader loader = new Loader();
-		MasterRenderer renderer = new MasterRenderer();
-		List<Entity> entities = new ArrayList<Entity>();
-		List<Light> lights = new ArrayList<Light>();
+		MasterRenderer renderer = new MasterRenderer(loader);
+		ProfilerOverlay overlay = new ProfilerOverlay(loader); //only shows anything with -Ddreaming.profile=true
+		DynamicResolution resolution = DynamicResolution.ENABLED ? new DynamicResolution(loader) : null;
+		AntiAliasing antiAliasing = new AntiAliasing(loader);
 		
-		//create a new terrain with the use of a heightmap
-		Terrain terrain = new Terrain(-1,-1,loader,new ModelTexture(loader.loadTexture("floor")), "heightmap");
-		
-		//load all the necessary information for a bunny object
-		ModelData bunnyData = OBJFileLoader.loadOBJ("bunny");
-		RawModel bunnyModel = loader.loadToVAO(bunnyData.getVertices(), bunnyData.getTextureCoords(),
-				bunnyData.getNormals(), bunnyData.getIndices());
-		TexturedModel bunnyStaticModel = new TexturedModel(bunnyModel,new ModelTexture(loader.loadTexture("white")));
-		bunnyStaticModel.getTexture().setShineDamper(10);
-		bunnyStaticModel.getTexture().setReflectivity(1);
-		
-		//load all the necessary info for a lamp object
-		ModelData lamp = OBJFileLoader.loadOBJ("lamp");
-		RawModel lampModel = loader.loadToVAO(lamp.getVertices(), lamp.getTextureCoords(), lamp.getNormals(), lamp.getIndices());
-		TexturedModel lampStaticModel = new TexturedModel(lampModel,new ModelTexture(loader.loadTexture("lamp")));
-		lampStaticModel.getTexture().setUseFakeLightning(true);
-		lampStaticModel.getTexture().setShineDamper(10);
-		lampStaticModel.getTexture().setReflectivity(1);
-		
-		//load a dragon model
-		ModelData dragon = OBJFileLoader.loadOBJ("dragon");
-		RawModel dragonModel = loader.loadToVAO(dragon.getVertices(), dragon.getTextureCoords(), dragon.getNormals(), dragon.getIndices());
-		TexturedModel dragonStaticModel = new TexturedModel(dragonModel,new ModelTexture(loader.loadTexture("red")));
-		dragonStaticModel.getTexture().setShineDamper(10);
-		dragonStaticModel.getTexture().setReflectivity(1);
-        
-		//the main light (i.e a sun or a moon)
-		lights.add(new Light(new Vector3f(0,10000,-7000), new Vector3f(0.4f,0.4f,0.4f)));
-		
-		int colour = 0;
-		int centerX = -400;
-		int centerZ = -400;
-		int distance = 200;
-		float theta = 0;
-		
-		//position the other lights and lamp posts in a hexagonal shape with alternating light colours
-		for (int i = 0; i < 6; i++) {
-			float posX = (float) (Math.cos(Math.toRadians(theta)) * distance) + centerX;
-			float posZ = (float) (Math.sin(Math.toRadians(theta)) * distance) + centerZ;
-			float posY = terrain.getHeightOfTerrain(posX, posZ);
-			float lightPosY = posY + 41.5f;
-			
-			Vector3f colourVector = new Vector3f(0,0,0);
-			switch(colour) {
-				case 0: colourVector = new Vector3f(2,0,0);
-					break;
-				case 1: colourVector = new Vector3f(0,2,2);
-					break;
-				case 2: colourVector = new Vector3f(2,2,0);
-					break;
-			}
-			colour = (colour+ 1)%3;
-			theta = theta + 60;
-			
-			lights.add(new Light(new Vector3f(posX,lightPosY,posZ), colourVector, new Vector3f(1,0.01f,0.002f)));
-			entities.add(new Entity(lampStaticModel, new Vector3f(posX, posY ,posZ),0,0,0,3));
+		//the terrain, models, lights and entities all come from the scene file, which is reloaded when it is saved
+		SceneLoader scene = new SceneLoader(loader, EntityStore.getDefault(), Paths.get(SCENE));
+		//far away entities are drawn as impostors, baked when their models are loaded
+		ImpostorBaker impostors = ImpostorBaker.ENABLED ? new ImpostorBaker(loader) : null;
+		if (impostors != null) {
+			scene.setImpostors(impostors);
+			renderer.setImpostors(loader, impostors);
 		}
-		
-		//position model in the center of screen
-		entities.add(new Entity(dragonStaticModel, new Vector3f(-400, terrain.getHeightOfTerrain(-400, -400) ,-400),0,180,0,5));
+		ShaderProgram.linkAll(); //before the scene, so loading it doesn't count as compiling the shaders
+		try {
+			scene.load();
+			scene.watch();
+		} catch (IOException e) {
+			System.err.println("Couldn't load the scene " + SCENE + ": " + e.getMessage());
+			System.exit(-1);
+		}
+		List<Light> lights = scene.getLights();
 		
 		//create a new instance of player
-		Player player = new Player(bunnyStaticModel, new Vector3f(-400,0,-750), (float) 0, 0,0,1);
+		Player player = scene.getPlayer();
 		
 		//and a camera
 		Camera camera = new Camera(player);
 		
+		//everything that moves is updated by the simulation at a fixed rate, independent of the frame rate
+		Simulation simulation = new Simulation(EntityStore.getDefault(), scene.getTerrains(), player, camera);
+		scene.setSceneGraph(simulation.getSceneGraph()); //the lamp lights follow their lamps
+		for (Entity dragon : scene.getEntities("dragon")) {
+			simulation.getBehaviours().add(dragon, new Rotator(0, 30, 0)); //this used to be half a degree per frame at 60fps
+		}
+		FixedTimestep timestep = new FixedTimestep(Simulation.STEPS_PER_SECOND);
+		
+		String recordFile = System.getProperty("dreaming.record");
+		InputTrack recording = new InputTrack();
+		RecordingControls recorder = new RecordingControls(new DeviceControls(), recording, simulation::getSteps);
+		if (recordFile != null) {
+			player.setControls(recorder);
+			camera.setControls(recorder);
+		}
+		
+		//keep the entities in a spatial index so the renderer only gets the ones the camera can see
+		EntityStore.getDefault().setSpatialIndex(new SpatialHashGrid(50));
+		
 		// the main scene loop, where all the objects are updated and rendered every frame
+		boolean capturing = false;
+		long frame = 0;
 		while (!Display.isCloseRequested()) {
 			
-			player.move(terrain);
-			camera.move();
-			renderer.processEntity(player);
-			renderer.processTerrain(terrain);
-            for(Entity entity:entities){
-                renderer.processEntity(entity);
-            }
-            entities.get(6).increaseRotation(0,0.5f,0);
-			renderer.render(lights, camera);
+			//shows up in flight recordings, see EngineEvents
+			EngineEvents.Frame frameEvent = new EngineEvents.Frame();
+			frameEvent.begin();
+			Profiler.begin(FRAME);
+			scene.poll(); //picks up any changes to the scene file
+			
+			while (Keyboard.next()) {
+				//F2 switches between capped, uncapped and vsync, the frame times are shown in the title
+				if (Keyboard.getEventKeyState() && Keyboard.getEventKey() == Keyboard.KEY_F2) {
+					DisplayManager.cyclePacing();
+				}
+				//F3 shows and hides the profiler, F4 writes the next few frames to profile files
+				if (Keyboard.getEventKeyState() && Keyboard.getEventKey() == Keyboard.KEY_F3) {
+					overlay.toggle();
+				}
+				if (Keyboard.getEventKeyState() && Keyboard.getEventKey() == Keyboard.KEY_F4 && Profiler.ENABLED) {
+					Profiler.startCapture(CAPTURE_FRAMES);
+					capturing = true;
+				}
+				//F6 goes through the anti-aliasing presets
+				if (Keyboard.getEventKeyState() && Keyboard.getEventKey() == Keyboard.KEY_F6) {
+					antiAliasing.cyclePreset();
+					System.out.println("Anti-aliasing: " + antiAliasing.getName());
+				}
+				//F7 prints how fragmented the shared vertex buffers are and compacts them
+				if (Keyboard.getEventKeyState() && Keyboard.getEventKey() == Keyboard.KEY_F7 && loader.getArena() != null) {
+					System.out.print(loader.getArena().getReport());
+					loader.getArena().compact();
+				}
+			}
+			
+			int steps = timestep.advance(); //how many steps fit into the time since the last frame
+			for (int i = 0; i < steps; i++) {
+				simulation.step(timestep.getStepSeconds());
+			}
+			simulation.interpolate(timestep.getAlpha()); //draw everything in between the last two steps
+			
+			for (Terrain tile : scene.getTerrains()) {
+				renderer.processTerrain(tile);
+			}
+			renderer.processVisibleEntities(EntityStore.getDefault(), camera); //the player is in the store as well
+			renderer.setSun(lights.isEmpty() ? null : lights.get(0)); //the main light casts the shadows
+			if (resolution != null) {
+				resolution.beginScene();
+				antiAliasing.beginScene(resolution.getSceneWidth(), resolution.getSceneHeight());
+				renderer.render(lights, camera);
+				antiAliasing.endScene(resolution.getFramebuffer());
+				resolution.endScene();
+			} else {
+				antiAliasing.beginScene(DisplayManager.getWidth(), DisplayManager.getHeight());
+				renderer.render(lights, camera);
+				antiAliasing.endScene(null);
+			}
+			overlay.render();
 			DisplayManager.updateDisplay();
+			if (resolution != null) {
+				resolution.endFrame();
+			}
+			loader.getResources().endFrame(); //deletes what was released a few frames ago
+			ShaderProgram.endFrame(); //for the uniform upload counts
+			if (loader.getArena() != null) {
+				loader.getArena().endFrame(); //compacts the shared vertex buffers if they got too fragmented
+			}
+			Profiler.end(FRAME);
+			Profiler.endFrame();
+			frameEvent.end();
+			if (frameEvent.shouldCommit()) {
+				frameEvent.frame = frame;
+				frameEvent.steps = steps;
+				frameEvent.commit();
+			}
+			frame++;
+			if (capturing && !Profiler.isCapturing()) {
+				capturing = false;
+				writeProfile("profile-" + System.currentTimeMillis());
+			}
 		}
 		
+		if (recordFile != null) {
+			recorder.finish();
+			try (Writer out = new FileWriter(recordFile)) {
+				recording.write(out);
+				System.out.println("Wrote the input track " + recordFile);
+			} catch (IOException e) {
+				System.err.println("Couldn't write the input track " + recordFile + ": " + e.getMessage());
+			}
+		}
+		try {
+			scene.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		overlay.cleanUp();
+		antiAliasing.cleanUp();
+		if (resolution != null) {
+			resolution.cleanUp();
+		}
+		if (impostors != null) {
+			impostors.cleanUp();
+		}
 		renderer.cleanUp();
 		loader.cleanUp();
 		DisplayManager.closeDisplay();
 	}
+	
+	//the per frame totals as CSV and every captured scope as a Chrome trace
+	private static void writeProfile(String name) {
+		try (Writer csv = new FileWriter(name + ".csv"); Writer trace = new FileWriter(name + ".json")) {
+			Profiler.writeCsv(csv);
+			Profiler.writeTrace(trace);
+			System.out.println("Wrote " + name + ".csv and " + name + ".json");
+		} catch (IOException e) {
+			System.err.println("Couldn't write the profile " + name + ": " + e.getMessage());
+		}
+	}
 
 }
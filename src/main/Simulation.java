@@ -0,0 +1,104 @@
+package main;
+
+import java.util.List;
+
+import entities.BehaviourSystem;
+import entities.Camera;
+import entities.EntityStore;
+import entities.Player;
+import entities.SceneGraph;
+import entities.Terrain;
+import tools.Profiler;
+
+/**
+ * @author Andrei
+ * Everything that moves in the scene, updated in fixed size steps.
+ * Nothing in here touches OpenGL, so the simulation can also run without a display
+ */
+public class Simulation {
+
+	//how many simulation steps we take per second, independent of the frame rate
+	public static final int STEPS_PER_SECOND = 120;
+	
+	private static final int STEP = Profiler.register("simulation step");
+	private static final int MOVE = Profiler.register("Player.move");
+	private static final int BEHAVIOURS = Profiler.register("behaviours");
+	private static final int SCENE_GRAPH = Profiler.register("scene graph");
+
+	private final EntityStore store;
+	private final List<Terrain> terrains; //the live list, so the player walks on what a reload put there
+	private final Player player;
+	private final Camera camera; //can be null when running headless
+
+	//everything the props do on their own, updated on worker threads
+	private final BehaviourSystem behaviours;
+
+	//things parented to other things, updated after everything else has moved
+	private final SceneGraph sceneGraph = new SceneGraph();
+
+	private long steps = 0;
+
+	public Simulation(EntityStore store, List<Terrain> terrains, Player player, Camera camera) {
+		this.store = store;
+		this.terrains = terrains;
+		this.player = player;
+		this.camera = camera;
+		this.behaviours = new BehaviourSystem(store);
+	}
+
+	public BehaviourSystem getBehaviours() {
+		return behaviours;
+	}
+
+	public SceneGraph getSceneGraph() {
+		return sceneGraph;
+	}
+
+	//advances the scene by one step of delta seconds
+	public void step(float delta) {
+		Profiler.begin(STEP);
+		store.beginStep(); //remember where everything was, so we can interpolate
+		Profiler.begin(MOVE);
+		player.move(getTerrainUnderPlayer(), delta);
+		Profiler.end(MOVE);
+		if (camera != null) {
+			camera.processInput();
+		}
+		Profiler.begin(BEHAVIOURS);
+		behaviours.update(delta); //the player and camera are done first, the behaviours never touch them
+		Profiler.end(BEHAVIOURS);
+		Profiler.begin(SCENE_GRAPH);
+		sceneGraph.update(); //last, so the nodes bound to entities see where they ended up
+		Profiler.end(SCENE_GRAPH);
+		steps++;
+		Profiler.end(STEP);
+	}
+
+	//called once per rendered frame, alpha is how far we are between the last two steps
+	public void interpolate(float alpha) {
+		store.setInterpolation(alpha);
+		if (camera != null) {
+			camera.updatePosition();
+		}
+	}
+
+	//the tile the player is on, off the edge of the world it keeps to the heights of the first one
+	private Terrain getTerrainUnderPlayer() {
+		float x = store.getPositionX(player.getIndex()), z = store.getPositionZ(player.getIndex());
+		for (int i = 0; i < terrains.size(); i++) {
+			if (terrains.get(i).contains(x, z)) {
+				return terrains.get(i);
+			}
+		}
+		return terrains.get(0);
+	}
+
+	public long getSteps() {
+		return steps;
+	}
+
+	public Player getPlayer() {
+		return player;
+	}
+
+}
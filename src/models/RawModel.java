@@ -1,5 +1,8 @@
 package models;
 
+import wrapper.GpuResource;
+import wrapper.MeshResource;
+
 /**
  * @author Andrei
  * This class represents a 3D Object stored in memory
@@ -9,10 +12,38 @@ public class RawModel {
 	//these variables are the two things we need to know about a model once its stored in memory
 	private int vaoID;
 	private int vertexCount;
+	
+	//radius of a sphere around the origin of the model that contains all of its vertices, used for culling
+	private float boundingRadius;
+	
+	//where the model is in its VAO's buffers, both 0 unless it shares them with other models (see VertexArena)
+	//the first index counts indices, not bytes, and the base vertex is added to every index
+	private int firstIndex;
+	private int baseVertex;
+	
+	//the VAO and its buffers on the GPU, null for a model that wasn't made by the Loader
+	private GpuResource resource;
 
 	public RawModel(int vaoID, int vertexCount) {
+		this(vaoID, vertexCount, 0);
+	}
+	
+	public RawModel(int vaoID, int vertexCount, float boundingRadius) {
 		this.vaoID = vaoID;
 		this.vertexCount = vertexCount;
+		this.boundingRadius = boundingRadius;
+	}
+
+	public RawModel(MeshResource resource, int vertexCount, float boundingRadius) {
+		this(resource.getVaoID(), vertexCount, boundingRadius);
+		this.resource = resource;
+	}
+
+	//for a model that is a range of buffers shared with other models
+	public RawModel(GpuResource resource, int vaoID, int vertexCount, float boundingRadius, int firstIndex, int baseVertex) {
+		this(vaoID, vertexCount, boundingRadius);
+		this.resource = resource;
+		setRange(firstIndex, baseVertex);
 	}
 
 	public int getVaoID() {
@@ -22,4 +53,38 @@ public class RawModel {
 	public int getVertexCount() {
 		return vertexCount;
 	}
+
+	public float getBoundingRadius() {
+		return boundingRadius;
+	}
+
+	public int getFirstIndex() {
+		return firstIndex;
+	}
+
+	//the byte offset of the first index, for glDrawElements
+	public long getIndexOffset() {
+		return 4L * firstIndex;
+	}
+
+	public int getBaseVertex() {
+		return baseVertex;
+	}
+
+	//when the range moved, which happens when the shared buffers are compacted
+	public void setRange(int firstIndex, int baseVertex) {
+		this.firstIndex = firstIndex;
+		this.baseVertex = baseVertex;
+	}
+
+	public GpuResource getResource() {
+		return resource;
+	}
+
+	//tells GpuResources it was drawn this frame
+	public void touch() {
+		if (resource != null) {
+			resource.touch();
+		}
+	}
 }
@@ -0,0 +1,48 @@
+package shaders;
+
+import org.lwjgl.util.vector.Matrix4f;
+
+/**
+ * @author Andrei
+ * Draws a model into the frames of its impostor atlas (see ImpostorBaker), with two outputs: the texture's colour
+ * into the first draw buffer and the normal and depth into the second. No lights, those are added when the impostor
+ * is drawn.
+ */
+public class ImpostorBakeShader extends ShaderProgram {
+
+	private static final String VERTEX_FILE = "/shaders/impostorBakeVertexShader.txt";
+	private static final String FRAGMENT_FILE = "/shaders/impostorBakeFragmentShader.txt";
+
+	private int location_bakeMatrix;
+	private int location_fakeLighting;
+
+	public ImpostorBakeShader() {
+		super(VERTEX_FILE, FRAGMENT_FILE);
+	}
+
+	@Override
+	protected void bindAttributes() {
+		super.bindAttribute(0, "position");
+		super.bindAttribute(1, "textureCoords");
+		super.bindAttribute(2, "normal");
+		super.bindOutput(0, "out_Colour");
+		super.bindOutput(1, "out_NormalDepth");
+	}
+
+	@Override
+	protected void getAllUniformLocations() {
+		location_bakeMatrix = super.getUniformLocation("bakeMatrix");
+		location_fakeLighting = super.getUniformLocation("fakeLighting");
+	}
+
+	//from the model to the frame being drawn
+	public void loadBakeMatrix(Matrix4f matrix) {
+		super.loadMatrix(location_bakeMatrix, matrix);
+	}
+
+	//the normals point up, like the entity shader's FAKE_LIGHTING
+	public void loadFakeLighting(boolean useFake) {
+		super.loadBoolean(location_fakeLighting, useFake);
+	}
+
+}
@@ -0,0 +1,81 @@
+package shaders;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+/**
+ * @author Andrei
+ * Draws impostors, quads facing the camera with a picture of the model on them, instead of far away entities
+ * (see ImpostorRenderer). The quad is the only vertex data, every impostor is an instance with its position,
+ * radius, turn and fade. They are only lit by the sun.
+ */
+public class ImpostorShader extends ShaderProgram {
+
+	private static final String VERTEX_FILE = "/shaders/impostorVertexShader.txt";
+	private static final String FRAGMENT_FILE = "/shaders/impostorFragmentShader.txt";
+
+	//the texture units of the two atlases
+	public static final int ALBEDO_UNIT = 0;
+	public static final int NORMAL_UNIT = 1;
+
+	private int location_projectionMatrix;
+	private int location_viewMatrix;
+	private int location_cameraPosition;
+	private int location_frames;
+	private int location_toSun;
+	private int location_sunColour;
+	private int location_albedoAtlas;
+	private int location_normalAtlas;
+
+	public ImpostorShader() {
+		super(VERTEX_FILE, FRAGMENT_FILE);
+	}
+
+	@Override
+	protected void bindAttributes() {
+		super.bindAttribute(0, "corner");
+		super.bindAttribute(1, "instance");
+		super.bindAttribute(2, "instanceYawFade");
+	}
+
+	@Override
+	protected void getAllUniformLocations() {
+		location_projectionMatrix = super.getUniformLocation("projectionMatrix");
+		location_viewMatrix = super.getUniformLocation("viewMatrix");
+		location_cameraPosition = super.getUniformLocation("cameraPosition");
+		location_frames = super.getUniformLocation("frames");
+		location_toSun = super.getUniformLocation("toSun");
+		location_sunColour = super.getUniformLocation("sunColour");
+		location_albedoAtlas = super.getUniformLocation("albedoAtlas");
+		location_normalAtlas = super.getUniformLocation("normalAtlas");
+	}
+
+	public void connectTextureUnits() {
+		super.loadInt(location_albedoAtlas, ALBEDO_UNIT);
+		super.loadInt(location_normalAtlas, NORMAL_UNIT);
+	}
+
+	public void loadProjectionMatrix(Matrix4f projection) {
+		super.loadMatrix(location_projectionMatrix, projection);
+	}
+
+	public void loadViewMatrix(Matrix4f view) {
+		super.loadMatrix(location_viewMatrix, view);
+	}
+
+	public void loadCameraPosition(Vector3f position) {
+		super.loadVector(location_cameraPosition, position);
+	}
+
+	//how many frames there are on each side of the atlases
+	public void loadFrames(int frames) {
+		super.loadFloat(location_frames, frames);
+	}
+
+	//the unit direction towards the sun and its colour, a colour of 0 leaves only the ambient light
+	public void loadSun(Vector3f toSun, Vector3f colour) {
+		super.loadVector(location_toSun, toSun);
+		super.loadVector(location_sunColour, colour);
+	}
+
+}
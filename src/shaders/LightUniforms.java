@@ -0,0 +1,87 @@
+package shaders;
+
+import java.nio.FloatBuffer;
+import java.util.List;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Light;
+
+/**
+ * @author Andrei
+ * The positions, colours and attenuations of a list of lights, packed one after the other the way the shaders'
+ * vec3 arrays expect them. Each array then goes up in one glUniform3 call, instead of one call per light
+ * and per array (that was 192 calls for 64 lights). Packing doesn't touch OpenGL.
+ */
+public class LightUniforms {
+
+	private final int capacity;
+	private final FloatBuffer positions;
+	private final FloatBuffer colours;
+	private final FloatBuffer attenuations;
+	//the lights are written in here first and copied into the buffers in one go, which is a lot faster than a put per float
+	private final float[] packedPositions, packedColours, packedAttenuations;
+
+	public LightUniforms(int capacity) {
+		this.capacity = capacity;
+		positions = BufferUtils.createFloatBuffer(capacity * 3);
+		colours = BufferUtils.createFloatBuffer(capacity * 3);
+		attenuations = BufferUtils.createFloatBuffer(capacity * 3);
+		packedPositions = new float[capacity * 3];
+		packedColours = new float[capacity * 3];
+		packedAttenuations = new float[capacity * 3];
+	}
+
+	//packs up to capacity lights and returns how many that was
+	//with fillUnused the rest of the slots get a light that adds nothing, for shaders that go through every slot
+	public int pack(List<Light> lights, boolean fillUnused) {
+		int count = Math.min(lights.size(), capacity);
+		for (int i = 0; i < count; i++) {
+			Light light = lights.get(i);
+			put(packedPositions, i, light.getPosition());
+			put(packedColours, i, light.getColour());
+			put(packedAttenuations, i, light.getAttenuation());
+		}
+		int filled = count;
+		if (fillUnused) {
+			for (; filled < capacity; filled++) {
+				int at = filled * 3;
+				packedPositions[at] = packedPositions[at + 1] = packedPositions[at + 2] = 0;
+				packedColours[at] = packedColours[at + 1] = packedColours[at + 2] = 0; //black
+				packedAttenuations[at] = 1;
+				packedAttenuations[at + 1] = packedAttenuations[at + 2] = 0;
+			}
+		}
+		copy(packedPositions, filled, positions);
+		copy(packedColours, filled, colours);
+		copy(packedAttenuations, filled, attenuations);
+		return count;
+	}
+
+	//ready to be read after pack, they hold as many lights as were packed (or capacity if the unused slots were filled)
+	public FloatBuffer getPositions() {
+		return positions;
+	}
+
+	public FloatBuffer getColours() {
+		return colours;
+	}
+
+	public FloatBuffer getAttenuations() {
+		return attenuations;
+	}
+
+	private static void put(float[] packed, int light, Vector3f vector) {
+		packed[light * 3] = vector.x;
+		packed[light * 3 + 1] = vector.y;
+		packed[light * 3 + 2] = vector.z;
+	}
+
+	private static void copy(float[] packed, int lights, FloatBuffer buffer) {
+		buffer.clear();
+		buffer.put(packed, 0, lights * 3);
+		buffer.flip();
+	}
+
+}
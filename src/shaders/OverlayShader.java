@@ -0,0 +1,35 @@
+package shaders;
+
+import org.lwjgl.util.vector.Vector4f;
+
+/**
+ * @author Andrei
+ * Shader for flat textured rectangles drawn on top of the scene, like the profiler overlay
+ */
+public class OverlayShader extends ShaderProgram {
+
+	private static final String VERTEX_FILE = "/shaders/overlayVertexShader.txt";
+	private static final String FRAGMENT_FILE = "/shaders/overlayFragmentShader.txt";
+
+	private int location_placement;
+
+	public OverlayShader() {
+		super(VERTEX_FILE, FRAGMENT_FILE);
+	}
+
+	@Override
+	protected void bindAttributes() {
+		super.bindAttribute(0, "position");
+	}
+
+	@Override
+	protected void getAllUniformLocations() {
+		location_placement = super.getUniformLocation("placement");
+	}
+
+	//the bottom left corner and the size, in normalised device coordinates
+	public void loadPlacement(Vector4f placement) {
+		super.loadVector(location_placement, placement);
+	}
+
+}
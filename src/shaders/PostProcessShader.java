@@ -0,0 +1,76 @@
+package shaders;
+
+import org.lwjgl.util.vector.Vector2f;
+
+/**
+ * @author Andrei
+ * Shader for a full screen pass over a picture that was already rendered, like the anti-aliasing passes.
+ * They all share the same vertex shader and the same uniforms, a pass that doesn't use one just doesn't have it.
+ */
+public class PostProcessShader extends ShaderProgram {
+
+	private static final String VERTEX_FILE = "/shaders/postVertexShader.txt";
+
+	//the texture units the samplers read from
+	public static final int SCENE_UNIT = 0;
+	public static final int EDGE_UNIT = 1;
+	public static final int WEIGHT_UNIT = 2;
+
+	private int location_sceneTexture;
+	private int location_edgeTexture;
+	private int location_weightTexture;
+	private int location_texelSize;
+	private int location_regionSize;
+	private int location_edgeThreshold;
+	private int location_subpixelQuality;
+	private int location_searchSteps;
+	
+	private boolean unitsConnected = false;
+
+	public PostProcessShader(String fragmentFile) {
+		super(VERTEX_FILE, fragmentFile);
+	}
+
+	//the samplers are pointed at their units the first time it is used, not in the constructor
+	//so the program doesn't have to be ready while the others are still being made
+	@Override
+	public void start() {
+		super.start();
+		if (!unitsConnected) {
+			unitsConnected = true;
+			super.loadInt(location_sceneTexture, SCENE_UNIT);
+			super.loadInt(location_edgeTexture, EDGE_UNIT);
+			super.loadInt(location_weightTexture, WEIGHT_UNIT);
+		}
+	}
+
+	@Override
+	protected void bindAttributes() {
+		super.bindAttribute(0, "position");
+	}
+
+	@Override
+	protected void getAllUniformLocations() {
+		location_sceneTexture = super.getUniformLocation("sceneTexture");
+		location_edgeTexture = super.getUniformLocation("edgeTexture");
+		location_weightTexture = super.getUniformLocation("weightTexture");
+		location_texelSize = super.getUniformLocation("texelSize");
+		location_regionSize = super.getUniformLocation("regionSize");
+		location_edgeThreshold = super.getUniformLocation("edgeThreshold");
+		location_subpixelQuality = super.getUniformLocation("subpixelQuality");
+		location_searchSteps = super.getUniformLocation("searchSteps");
+	}
+
+	//the size of one pixel of the textures in texture coordinates, and how many pixels the picture covers
+	public void loadRegion(Vector2f texelSize, Vector2f regionSize) {
+		super.loadVector(location_texelSize, texelSize);
+		super.loadVector(location_regionSize, regionSize);
+	}
+
+	public void loadQuality(float edgeThreshold, float subpixelQuality, int searchSteps) {
+		super.loadFloat(location_edgeThreshold, edgeThreshold);
+		super.loadFloat(location_subpixelQuality, subpixelQuality);
+		super.loadInt(location_searchSteps, searchSteps);
+	}
+
+}
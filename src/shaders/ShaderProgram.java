@@ -1,41 +1,142 @@
 package shaders;
 
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.ARBGetProgramBinary;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GLContext;
 import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
+import org.lwjgl.util.vector.Vector4f;
+
+import tools.EngineEvents;
 
 /**
  * @author Andrei
  * A generic shader program, containing all attributes and methods a shader program would have
+ *
+ * The constructor only hands the shaders to the driver, nothing asks whether they compiled until the program is
+ * first used. Drivers that compile on other threads can then work on all the programs made at startup at once
+ * instead of one after the other. linkAll waits for every program that was handed over, it is called as soon as the
+ * renderers made theirs, so how long a program took from being handed over to being ready is its compile time,
+ * which is printed then (a program first used before that is waited for then).
+ *
+ * With ARB_get_program_binary the linked program is saved into -Ddreaming.shaderCache (cache/shaders by default,
+ * "off" turns it off), named after a hash of the sources, the attributes and the driver. The next launch loads
+ * that instead of compiling, and if the driver doesn't take it any more it compiles from the sources after all.
+ *
+ * A program can be built with defines, lines like "#define SPECULAR" put right after the #version line of both
+ * shaders, so that one source file gives several programs that only do what they need to (see StaticShader).
+ *
+ * A program keeps its uniforms' values, so it remembers what it last gave each one and the load methods skip the
+ * call into OpenGL when the value didn't change. How many loads went through and how many were skipped is
+ * counted over all programs for every frame, see endFrame. The calls that do go through go to a UniformSink, which
+ * is OpenGL unless a benchmark swapped it for one that needs no display.
  */
 public abstract class ShaderProgram {
 
+    private static final String CACHE = System.getProperty("dreaming.shaderCache", "cache/shaders");
+
     private int programID;
     private int vertexShaderID;
     private int fragmentShaderID;
     
+    private final String vertexFile;
+    private final String fragmentFile;
+    private final String defines;
+    private final String vertexSource;
+    private final String fragmentSource;
+    //the names bindAttributes gave, they are part of the binary so they are part of its name
+    private final StringBuilder attributes = new StringBuilder();
+    private File cacheFile;
+    private boolean fromCache = false;
+    private boolean linked = false;
+    private long issuedAt;
+    private final EngineEvents.ShaderCompile event = new EngineEvents.ShaderCompile();
+    
+    //the bits of the values every uniform location was last given, null for one that wasn't given anything yet
+    private int[][] uniformBits = new int[32][];
+    private long uploads = 0;
+    private long skipped = 0;
+    
+    private static UniformSink sink = UniformSink.GL;
+
+    //the programs handed to the driver that nobody waited for yet
+    private static final List<ShaderProgram> unlinked = new ArrayList<ShaderProgram>();
+    
+    //over all the programs, for this frame and the last one
+    private static int frameUploads = 0, frameSkipped = 0;
+    private static int lastFrameUploads = 0, lastFrameSkipped = 0;
+    
     //we need a FloatBuffer to load up matrixes
     private static FloatBuffer matrixBuffer = BufferUtils.createFloatBuffer(16); //4x4 matrices
+    private static IntBuffer intBuffer = BufferUtils.createIntBuffer(64); //int arrays
+    private static FloatBuffer floatBuffer = BufferUtils.createFloatBuffer(64); //float and matrix arrays
     
-    //The constructor 
+    //The constructor, starts loading the program but doesn't wait for it
     public ShaderProgram(String vertexFile,String fragmentFile){
-        vertexShaderID = loadShader(vertexFile,GL20.GL_VERTEX_SHADER); //loads up the vertex file
-        fragmentShaderID = loadShader(fragmentFile,GL20.GL_FRAGMENT_SHADER); //loads up the fragment shader
+        this(vertexFile, fragmentFile, "");
+    }
+    
+    //the same with defines, the names of the macros (and their values) separated by spaces, like "LIGHTS=7 SPECULAR"
+    public ShaderProgram(String vertexFile, String fragmentFile, String defines) {
+        this.vertexFile = vertexFile;
+        this.fragmentFile = fragmentFile;
+        this.defines = defines.trim();
+        if (sink != UniformSink.GL) { //nothing to build, the uniforms go to the sink and so do their locations
+            vertexSource = fragmentSource = "";
+            linked = true;
+            getAllUniformLocations();
+            return;
+        }
+        event.begin();
+        issuedAt = System.nanoTime();
+        vertexSource = addDefines(readSource(vertexFile), this.defines);
+        fragmentSource = addDefines(readSource(fragmentFile), this.defines);
         programID = GL20.glCreateProgram(); //creates the program
-        GL20.glAttachShader(programID, vertexShaderID); //attach the vertex shader
-        GL20.glAttachShader(programID, fragmentShaderID); //attach the fragment shader
         bindAttributes(); //binds the attributes to the VAO
-        GL20.glLinkProgram(programID); // link it all together
-        GL20.glValidateProgram(programID); // validate the program
-        getAllUniformLocations(); // gets all the uniform locations
+        if (!CACHE.equals("off") && GLContext.getCapabilities().GL_ARB_get_program_binary) {
+            cacheFile = new File(CACHE, cacheKey() + ".bin");
+            fromCache = loadBinary();
+        }
+        if (!fromCache) {
+            compileAndLink();
+        }
+        unlinked.add(this);
+    }
+    
+    //where the uniforms of every program go from now on, UniformSink.GL unless something is timing the load methods
+    public static void setUniformSink(UniformSink sink) {
+        ShaderProgram.sink = sink;
+    }
+
+    //waits for every program made so far, in the order they were made
+    public static void linkAll() {
+        while (!unlinked.isEmpty()) {
+            unlinked.get(0).ensureLinked();
+        }
     }
     
     //used to make sure that all shader uniforms will have a method
@@ -43,23 +144,64 @@ public abstract class ShaderProgram {
     
     //gets the location of a uniform variable in shader code
     protected int getUniformLocation(String uniformName) {
-    	return GL20.glGetUniformLocation(programID, uniformName);
+    	ensureLinked();
+    	return sink.getLocation(programID, uniformName);
     }
     
     public void start(){
+        ensureLinked();
         GL20.glUseProgram(programID);
     }
+    
+    //waits for the program to be ready, only the first call does anything
+    //throws an IllegalStateException with the driver's log if it didn't compile or link
+    public void ensureLinked() {
+        if (linked) {
+            return;
+        }
+        unlinked.remove(this);
+        boolean ok = GL20.glGetProgrami(programID, GL20.GL_LINK_STATUS) != GL11.GL_FALSE;
+        if (!ok && fromCache) { //the driver changed in a way the name doesn't show, back to the sources
+            fromCache = false;
+            compileAndLink();
+            ok = GL20.glGetProgrami(programID, GL20.GL_LINK_STATUS) != GL11.GL_FALSE;
+        }
+        if (!ok) {
+            event.end();
+            commitEvent(false);
+            throw new IllegalStateException("Could not build the shader program " + getName() + ":\n" + getErrors());
+        }
+        linked = true;
+        if (cacheFile != null && !fromCache) {
+            saveBinary();
+        }
+        GL20.glValidateProgram(programID); // validate the program
+        event.end();
+        commitEvent(true);
+        System.out.printf("Shader %s: %s, ready after %.2f ms%n", getName(), fromCache ? "from the cache" : "compiled",
+                (System.nanoTime() - issuedAt) / 1e6);
+        getAllUniformLocations(); // gets all the uniform locations
+    }
+    
+    //the two source files, without the folder, and the defines if there are any
+    public String getName() {
+        return vertexFile.substring(vertexFile.lastIndexOf('/') + 1) + " + "
+                + fragmentFile.substring(fragmentFile.lastIndexOf('/') + 1) + (defines.isEmpty() ? "" : " [" + defines + "]");
+    }
      
     public void stop(){
         GL20.glUseProgram(0);
     }
     
     public void cleanUp(){
+        unlinked.remove(this);
         stop(); //checks that no program is currently running
-        GL20.glDetachShader(programID, vertexShaderID);
-        GL20.glDetachShader(programID, fragmentShaderID);
-        GL20.glDeleteShader(vertexShaderID);
-        GL20.glDeleteShader(fragmentShaderID);
+        if (vertexShaderID != 0) { //a program from the cache has no shaders
+            GL20.glDetachShader(programID, vertexShaderID);
+            GL20.glDetachShader(programID, fragmentShaderID);
+            GL20.glDeleteShader(vertexShaderID);
+            GL20.glDeleteShader(fragmentShaderID);
+        }
         GL20.glDeleteProgram(programID);
     }
     
@@ -69,16 +211,68 @@ public abstract class ShaderProgram {
     //method to bind an attribute, it can't be done outside this class because of programID
     protected void bindAttribute(int attribute, String variableName){
         GL20.glBindAttribLocation(programID, attribute, variableName);
+        attributes.append(attribute).append('=').append(variableName).append(';');
+    }
+    
+    //for shaders that write more than one colour, which out variable goes to which draw buffer
+    //like the attributes it has to be done before linking, so it is done in bindAttributes
+    protected void bindOutput(int drawBuffer, String variableName){
+        GL30.glBindFragDataLocation(programID, drawBuffer, variableName);
+        attributes.append("out").append(drawBuffer).append('=').append(variableName).append(';');
     }
     
     //used to load up a float into an uniform
     protected void loadFloat(int location, float value) {
-    	GL20.glUniform1f(location, value);
+    	if(changed(location, 1, value, 0, 0, 0)) {
+    		sink.uniform1f(location, value);
+    	}
+    }
+    
+    //used to load up an int into an uniform
+    protected void loadInt(int location, int value) {
+    	if(changed(location, 1, Float.intBitsToFloat(value), 0, 0, 0)) {
+    		sink.uniform1i(location, value);
+    	}
+    }
+    
+    //used to load up the first count values of an int array into an uniform array
+    protected void loadInts(int location, int[] values, int count) {
+    	if(!changed(location, values, count)) {
+    		return;
+    	}
+    	if(intBuffer.capacity() < count) {
+    		intBuffer = BufferUtils.createIntBuffer(count);
+    	}
+    	intBuffer.clear();
+    	intBuffer.put(values, 0, count);
+    	intBuffer.flip();
+    	sink.uniform1(location, intBuffer);
     }
     
     //used to load up a vector into an uniform
     protected void loadVector(int location, Vector3f vector) {
-    	GL20.glUniform3f(location, vector.x, vector.y, vector.z);
+    	if(changed(location, 3, vector.x, vector.y, vector.z, 0)) {
+    		sink.uniform3f(location, vector.x, vector.y, vector.z);
+    	}
+    }
+    
+    //used to load up a whole vec3 array from a buffer of packed vectors, starting at the element of location
+    protected void loadVectors(int location, FloatBuffer vectors) {
+    	if(vectors.hasRemaining() && changed(location, vectors)) {
+    		sink.uniform3(location, vectors);
+    	}
+    }
+    
+    protected void loadVector(int location, Vector2f vector) {
+    	if(changed(location, 2, vector.x, vector.y, 0, 0)) {
+    		sink.uniform2f(location, vector.x, vector.y);
+    	}
+    }
+    
+    protected void loadVector(int location, Vector4f vector) {
+    	if(changed(location, 4, vector.x, vector.y, vector.z, vector.w)) {
+    		sink.uniform4f(location, vector.x, vector.y, vector.z, vector.w);
+    	}
     }
     
     //used to load up a boolean into an uniform
@@ -88,41 +282,300 @@ public abstract class ShaderProgram {
     	if(value) {
     		toLoad = 1;
     	}
-    	GL20.glUniform1f(location, toLoad);
+    	loadFloat(location, toLoad);
     }
     
     //used to load up a matrix into an uniform
     protected void loadMatrix(int location, Matrix4f matrix) {
+    	matrixBuffer.clear();
     	matrix.store(matrixBuffer); //store the matrix into the float buffer
     	matrixBuffer.flip(); // prepare it for being read
-    	GL20.glUniformMatrix4(location, false, matrixBuffer);
+    	if(changed(location, matrixBuffer)) {
+    		sink.uniformMatrix4(location, matrixBuffer);
+    	}
+    }
+    
+    //used to load up a matrix that is already packed into a float array, starting at offset
+    protected void loadMatrix(int location, float[] matrices, int offset) {
+    	matrixBuffer.clear();
+    	matrixBuffer.put(matrices, offset, 16);
+    	matrixBuffer.flip();
+    	if(changed(location, matrixBuffer)) {
+    		sink.uniformMatrix4(location, matrixBuffer);
+    	}
+    }
+    
+    //used to load up the first count values of a float array into an uniform array
+    protected void loadFloats(int location, float[] values, int count) {
+    	if(changed(location, fill(values, count))) {
+    		sink.uniform1(location, floatBuffer);
+    	}
+    }
+    
+    //used to load up count matrices packed one after the other (column major) into an uniform array
+    protected void loadMatrices(int location, float[] matrices, int count) {
+    	if(changed(location, fill(matrices, count * 16))) {
+    		sink.uniformMatrix4(location, floatBuffer);
+    	}
+    }
+    
+    //how many loads of this program went through to OpenGL and how many were skipped, since it was made
+    public long getUploads() {
+    	return uploads;
+    }
+    
+    public long getSkipped() {
+    	return skipped;
+    }
+    
+    //called once at the end of every frame, for the counts of the last frame
+    public static void endFrame() {
+    	lastFrameUploads = frameUploads;
+    	lastFrameSkipped = frameSkipped;
+    	frameUploads = 0;
+    	frameSkipped = 0;
+    }
+    
+    //over all the programs, in the last frame
+    public static int getFrameUploads() {
+    	return lastFrameUploads;
+    }
+    
+    public static int getFrameSkipped() {
+    	return lastFrameSkipped;
+    }
+    
+    //the first count floats of an array in floatBuffer, ready to be read
+    private static FloatBuffer fill(float[] values, int count) {
+    	if(floatBuffer.capacity() < count) {
+    		floatBuffer = BufferUtils.createFloatBuffer(count);
+    	}
+    	floatBuffer.clear();
+    	floatBuffer.put(values, 0, count);
+    	floatBuffer.flip();
+    	return floatBuffer;
+    }
+    
+    //compares a value of up to four components with what the uniform at location has, remembering it if it's new
+    //floats are compared by their bits, so an int passed through intBitsToFloat is compared exactly
+    private boolean changed(int location, int count, float x, float y, float z, float w) {
+    	int[] bits = shadow(location, count);
+    	if(bits == null) {
+    		return false;
+    	}
+    	int bx = Float.floatToRawIntBits(x), by = Float.floatToRawIntBits(y);
+    	int bz = Float.floatToRawIntBits(z), bw = Float.floatToRawIntBits(w);
+    	if(bits[0] >= count && bits[1] == bx && (count < 2 || bits[2] == by) && (count < 3 || bits[3] == bz)
+    			&& (count < 4 || bits[4] == bw)) {
+    		return skip();
+    	}
+    	bits[0] = Math.max(bits[0], count);
+    	bits[1] = bx;
+    	if(count > 1) bits[2] = by;
+    	if(count > 2) bits[3] = bz;
+    	if(count > 3) bits[4] = bw;
+    	return upload();
+    }
+    
+    //the same for the floats from the buffer's position to its limit, without moving the position
+    private boolean changed(int location, FloatBuffer values) {
+    	int count = values.remaining(), start = values.position();
+    	int[] bits = shadow(location, count);
+    	if(bits == null) {
+    		return false;
+    	}
+    	boolean same = bits[0] >= count;
+    	for(int i = 0; i < count; i++) {
+    		int b = Float.floatToRawIntBits(values.get(start + i));
+    		same &= bits[i + 1] == b;
+    		bits[i + 1] = b;
+    	}
+    	bits[0] = Math.max(bits[0], count);
+    	return same ? skip() : upload();
+    }
+    
+    //and for the first count ints of an array
+    private boolean changed(int location, int[] values, int count) {
+    	int[] bits = shadow(location, count);
+    	if(bits == null) {
+    		return false;
+    	}
+    	if(bits[0] >= count && Arrays.equals(bits, 1, count + 1, values, 0, count)) {
+    		return skip();
+    	}
+    	bits[0] = Math.max(bits[0], count);
+    	System.arraycopy(values, 0, bits, 1, count);
+    	return upload();
+    }
+    
+    //what the uniform at location was last given, the first element is how many of the values after it are known
+    //an array given fewer values than before keeps the rest, like the uniform does, so the shorter light index
+    //lists of the entities in a frame compare against the same copy instead of replacing it every draw
+    //null for -1, a uniform the shader doesn't have (OpenGL ignores those anyway)
+    private int[] shadow(int location, int count) {
+    	if(location < 0) {
+    		return null;
+    	}
+    	if(location >= uniformBits.length) {
+    		uniformBits = Arrays.copyOf(uniformBits, Math.max(location + 1, uniformBits.length * 2));
+    	}
+    	int[] bits = uniformBits[location];
+    	if(bits == null || bits.length < count + 1) { //only grows, up to the longest the uniform was given
+    		bits = bits == null ? new int[count + 1] : Arrays.copyOf(bits, count + 1);
+    		uniformBits[location] = bits;
+    	}
+    	return bits;
+    }
+    
+    private boolean upload() {
+    	uploads++;
+    	frameUploads++;
+    	return true;
+    }
+    
+    private boolean skip() {
+    	skipped++;
+    	frameSkipped++;
+    	return false;
+    }
+    
+    //compiles both shaders and links them, without asking how it went
+    private void compileAndLink() {
+        vertexShaderID = compileShader(vertexSource, GL20.GL_VERTEX_SHADER); //loads up the vertex file
+        fragmentShaderID = compileShader(fragmentSource, GL20.GL_FRAGMENT_SHADER); //loads up the fragment shader
+        GL20.glAttachShader(programID, vertexShaderID); //attach the vertex shader
+        GL20.glAttachShader(programID, fragmentShaderID); //attach the fragment shader
+        if (cacheFile != null) { //so the driver keeps the binary around for saveBinary
+            ARBGetProgramBinary.glProgramParameteri(programID, ARBGetProgramBinary.GL_PROGRAM_BINARY_RETRIEVABLE_HINT,
+                    GL11.GL_TRUE);
+        }
+        GL20.glLinkProgram(programID); // link it all together
+    }
+    
+    //the compile logs of the shaders that didn't compile, or the link log if they both did
+    private String getErrors() {
+        StringBuilder errors = new StringBuilder();
+        if (GL20.glGetShaderi(vertexShaderID, GL20.GL_COMPILE_STATUS) == GL11.GL_FALSE) {
+            errors.append(vertexFile).append(": ").append(GL20.glGetShaderInfoLog(vertexShaderID, 2000)).append('\n');
+        }
+        if (GL20.glGetShaderi(fragmentShaderID, GL20.GL_COMPILE_STATUS) == GL11.GL_FALSE) {
+            errors.append(fragmentFile).append(": ").append(GL20.glGetShaderInfoLog(fragmentShaderID, 2000)).append('\n');
+        }
+        if (errors.length() == 0) {
+            errors.append(GL20.glGetProgramInfoLog(programID, 2000));
+        }
+        return errors.toString();
+    }
+    
+    private void commitEvent(boolean compiled) {
+        if (event.shouldCommit()) {
+            event.file = getName();
+            event.type = fromCache ? "program from the cache" : "program";
+            event.compiled = compiled;
+            event.commit();
+        }
+    }
+    
+    //the name of the cached binary: whatever could make the driver build a different program goes into it
+    private String cacheKey() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : new String[] { vertexSource, fragmentSource, attributes.toString(),
+                    GL11.glGetString(GL11.GL_VENDOR), GL11.glGetString(GL11.GL_RENDERER),
+                    GL11.glGetString(GL11.GL_VERSION) }) {
+                digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); //every JVM has SHA-256
+        }
+    }
+    
+    //hands the cached binary to the driver if there is one, whether it took it shows in the link status
+    private boolean loadBinary() {
+        if (!cacheFile.isFile()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(cacheFile))) {
+            int format = in.readInt();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            ByteBuffer binary = BufferUtils.createByteBuffer(data.length);
+            binary.put(data).flip();
+            ARBGetProgramBinary.glProgramBinary(programID, format, binary);
+            return true;
+        } catch (IOException e) { //a broken file, compiling will write it again
+            System.err.println("Could not read the shader cache " + cacheFile + ": " + e);
+            return false;
+        }
+    }
+    
+    private void saveBinary() {
+        int length = GL20.glGetProgrami(programID, ARBGetProgramBinary.GL_PROGRAM_BINARY_LENGTH);
+        if (length <= 0) {
+            return;
+        }
+        ByteBuffer binary = BufferUtils.createByteBuffer(length);
+        IntBuffer written = BufferUtils.createIntBuffer(1);
+        IntBuffer format = BufferUtils.createIntBuffer(1);
+        ARBGetProgramBinary.glGetProgramBinary(programID, written, format, binary);
+        byte[] data = new byte[written.get(0)];
+        binary.get(data);
+        cacheFile.getParentFile().mkdirs();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(cacheFile))) {
+            out.writeInt(format.get(0));
+            out.writeInt(data.length);
+            out.write(data);
+        } catch (IOException e) { //not being able to cache it only makes the next start slower
+            System.err.println("Could not write the shader cache " + cacheFile + ": " + e);
+        }
     }
     
     //used for loading shader source files
-    //takes in the filename of the shader source file and an int that specifies if its a vertex or fragment shader
     //https://www.youtube.com/watch?v=4w7lNF8dnYw
-    private static int loadShader(String file, int type){
+    private static String readSource(String file) {
         StringBuilder shaderSource = new StringBuilder();
-        try{
-        	InputStream input = Class.class.getResourceAsStream(file);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(input));
+        InputStream input = Class.class.getResourceAsStream(file);
+        if (input == null) {
+            throw new IllegalArgumentException("There is no shader " + file);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input))) {
             String line;
             while((line = reader.readLine())!=null){
                 shaderSource.append(line).append("//\n");
             }
-            reader.close();
         }catch(IOException e){
-            e.printStackTrace();
-            System.exit(-1);
+            throw new UncheckedIOException("Could not read the shader " + file, e);
         }
+        return shaderSource.toString();
+    }
+    
+    //puts a #define line for every define after the #version line, which has to stay the first one
+    private static String addDefines(String source, String defines) {
+        if (defines.isEmpty()) {
+            return source;
+        }
+        StringBuilder lines = new StringBuilder();
+        for (String define : defines.split("\\s+")) {
+            lines.append("#define ").append(define.replace('=', ' ')).append('\n');
+        }
+        int afterVersion = source.startsWith("#version") ? source.indexOf('\n') + 1 : 0;
+        if (afterVersion > 0) {
+            lines.append("#line 2\n"); //so the line numbers in the compile log are still the ones of the file
+        }
+        return source.substring(0, afterVersion) + lines + source.substring(afterVersion);
+    }
+    
+    //starts compiling a shader, an int specifies if its a vertex or fragment shader
+    private static int compileShader(String source, int type) {
         int shaderID = GL20.glCreateShader(type);
-        GL20.glShaderSource(shaderID, shaderSource);
+        GL20.glShaderSource(shaderID, source);
         GL20.glCompileShader(shaderID);
-        if(GL20.glGetShaderi(shaderID, GL20.GL_COMPILE_STATUS )== GL11.GL_FALSE){
-            System.out.println(GL20.glGetShaderInfoLog(shaderID, 500));
-            System.err.println("Could not compile shader!");
-            System.exit(-1);
-        }
         return shaderID;
     }
 }
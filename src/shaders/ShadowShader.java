@@ -0,0 +1,56 @@
+package shaders;
+
+import org.lwjgl.util.vector.Matrix4f;
+
+/**
+ * @author Andrei
+ * Draws the depth of shadow casters into a cascade of the sun's shadow map (see ShadowRenderer), there is no colour.
+ * The variant with alpha testing looks at the texture and leaves out the transparent pixels, so grass and ferns
+ * cast the shadow of their leaves and not of the whole quad.
+ */
+public class ShadowShader extends ShaderProgram {
+
+	private static final String VERTEX_FILE = "/shaders/shadowVertexShader.txt";
+	private static final String FRAGMENT_FILE = "/shaders/shadowFragmentShader.txt";
+
+	private final boolean alphaTest;
+
+	private int location_transformationMatrix;
+	private int location_lightMatrix;
+
+	public ShadowShader(boolean alphaTest) {
+		super(VERTEX_FILE, FRAGMENT_FILE, alphaTest ? "ALPHA_TEST" : "");
+		this.alphaTest = alphaTest;
+	}
+
+	public boolean isAlphaTested() {
+		return alphaTest;
+	}
+
+	@Override
+	protected void bindAttributes() {
+		super.bindAttribute(0, "position");
+		super.bindAttribute(1, "textureCoords");
+	}
+
+	@Override
+	protected void getAllUniformLocations() {
+		location_transformationMatrix = super.getUniformLocation("transformationMatrix");
+		location_lightMatrix = super.getUniformLocation("lightMatrix");
+	}
+
+	public void loadTransformationMatrix(Matrix4f matrix) {
+		super.loadMatrix(location_transformationMatrix, matrix);
+	}
+
+	//straight out of a packed array, like the ones in EntityStore
+	public void loadTransformationMatrix(float[] matrices, int offset) {
+		super.loadMatrix(location_transformationMatrix, matrices, offset);
+	}
+
+	//from the world to the cascade being drawn
+	public void loadLightMatrix(Matrix4f matrix) {
+		super.loadMatrix(location_lightMatrix, matrix);
+	}
+
+}
@@ -3,7 +3,6 @@ package shaders;
 import java.util.List;
 
 import org.lwjgl.util.vector.Matrix4f;
-import org.lwjgl.util.vector.Vector3f;
 
 import entities.Camera;
 import entities.Light;
@@ -12,29 +11,82 @@ import tools.Maths;
 /**
  * @author Andrei
  * An implementation of the abstract ShaderProgram class for the shaders we created
+ *
+ * The shaders are built with a set of features, each one a #define, so that a material only pays for what it uses.
+ * StaticShaderCache has one of these for every combination, ModelTexture.getShaderFeatures picks the one for it.
+ * SHADOWS isn't a feature of the material, it is on for every variant when the sun casts shadows.
  */
 public class StaticShader extends ShaderProgram {
 
-	private static final int MAX_LIGHTS = 7;
+	//the features, the normals point up, transparent pixels are thrown away, shiny highlights
+	public static final int FAKE_LIGHTING = 1;
+	public static final int ALPHA_TEST = 2;
+	public static final int SPECULAR = 4;
+	//every feature, the combinations go from 0 to this
+	public static final int ALL_FEATURES = FAKE_LIGHTING | ALPHA_TEST | SPECULAR;
+	//the sun's light is looked up in the shadow map (see ShadowRenderer)
+	public static final int SHADOWS = 8;
+
+	//how many lights can light up one entity
+	public static final int MAX_LIGHTS = 7;
+	//how many lights are uploaded per frame, the entities pick theirs out of these
+	public static final int FRAME_LIGHTS = 64;
+	//how many cascades the sun's shadow map has, and the texture unit it is bound to
+	public static final int SHADOW_CASCADES = 3;
+	public static final int SHADOW_UNIT = 1;
 	
 	//declare the filenames of the shaders
 	private static final String VERTEX_FILE = "/shaders/vertexShader.txt";
     private static final String FRAGMENT_FILE = "/shaders/fragmentShader.txt";
     
+    //reused every time the view matrix is loaded
+    private Matrix4f viewMatrix = new Matrix4f();
+    private LightUniforms lightUniforms = new LightUniforms(FRAME_LIGHTS);
+    
     //locations of the uniforms
     private int location_transformationMatrix;
     private int location_projectionMatrix;
     private int location_viewMatrix;
-    private int location_lightPosition[];
-    private int location_lightColour[];
-    private int location_attenuation[];
+    private int location_lightPosition; //of the first element, the arrays are loaded in one go
+    private int location_lightColour;
+    private int location_attenuation;
     private int location_shineDamper;
     private int location_reflectivity;
-    private int location_useFakeLightning;
+    private int location_lightIndex;
+    private int location_lightCount;
+    private int location_shadowMap;
+    private int location_shadowMatrix;
+    private int location_cascadeEnd;
+    private int location_sunLight;
+    
+    
+    private final int features;
     
+    public StaticShader(int features) {
+        super(VERTEX_FILE, FRAGMENT_FILE, defines(features));
+        this.features = features;
+    }
+    
+    public int getFeatures() {
+    	return features;
+    }
     
-    public StaticShader() {
-        super(VERTEX_FILE, FRAGMENT_FILE);
+    //the #defines for the features, and the sizes of the light arrays
+    private static String defines(int features) {
+    	String defines = "MAX_LIGHTS=" + MAX_LIGHTS + " FRAME_LIGHTS=" + FRAME_LIGHTS;
+    	if ((features & FAKE_LIGHTING) != 0) {
+    		defines += " FAKE_LIGHTING";
+    	}
+    	if ((features & ALPHA_TEST) != 0) {
+    		defines += " ALPHA_TEST";
+    	}
+    	if ((features & SPECULAR) != 0) {
+    		defines += " SPECULAR";
+    	}
+    	if ((features & SHADOWS) != 0) {
+    		defines += " SHADOWS CASCADES=" + SHADOW_CASCADES;
+    	}
+    	return defines;
     }
  
     //binds the attributes
@@ -53,22 +105,18 @@ public class StaticShader extends ShaderProgram {
 		location_viewMatrix = super.getUniformLocation("viewMatrix");
 		location_shineDamper = super.getUniformLocation("shineDamper");
 		location_reflectivity = super.getUniformLocation("reflectivity");
-		location_useFakeLightning = super.getUniformLocation("useFakeLightning");
 		
-		location_lightPosition = new int[MAX_LIGHTS];
-		location_lightColour = new int[MAX_LIGHTS];
-		location_attenuation = new int[MAX_LIGHTS];
+		location_lightIndex = super.getUniformLocation("lightIndex");
+		location_lightCount = super.getUniformLocation("lightCount");
 		
-		for (int i = 0; i<MAX_LIGHTS; i++) {
-			location_lightPosition[i] = super.getUniformLocation("lightPosition["+i+"]");
-			location_lightColour[i] = super.getUniformLocation("lightColour["+i+"]");
-			location_attenuation[i] = super.getUniformLocation("attenuation["+i+"]");
-		}
+		location_lightPosition = super.getUniformLocation("lightPosition[0]");
+		location_lightColour = super.getUniformLocation("lightColour[0]");
+		location_attenuation = super.getUniformLocation("attenuation[0]");
 		
-	}
-	
-	public void loadFakeLightningVariable(boolean useFake) {
-		super.loadBoolean(location_useFakeLightning, useFake);
+		location_shadowMap = super.getUniformLocation("shadowMap");
+		location_shadowMatrix = super.getUniformLocation("shadowMatrix[0]");
+		location_cascadeEnd = super.getUniformLocation("cascadeEnd[0]");
+		location_sunLight = super.getUniformLocation("sunLight");
 	}
 	
 	public void loadShineVariables(float damper, float reflectivity) {
@@ -81,24 +129,38 @@ public class StaticShader extends ShaderProgram {
 		super.loadMatrix(location_transformationMatrix, matrix);
 	}
 	
+	//loads a matrix straight out of a packed array, like the ones in EntityStore
+	public void loadTransformationMatrix(float[] matrices, int offset) {
+		super.loadMatrix(location_transformationMatrix, matrices, offset);
+	}
+	
+	//loads the lights of the frame, the entities refer to them by their position in the list
 	public void loadLights(List<Light> lights) {
-		for(int i =0;i<MAX_LIGHTS;i++) {
-			if(i<lights.size()){
-				super.loadVector(location_lightPosition[i], lights.get(i).getPosition());
-				super.loadVector(location_lightColour[i], lights.get(i).getColour());
-				super.loadVector(location_attenuation[i], lights.get(i).getAttenuation());
-			}else {
-				super.loadVector(location_lightPosition[i], new Vector3f(0,0,0));
-				super.loadVector(location_lightColour[i], new Vector3f(0,0,0));
-				super.loadVector(location_attenuation[i], new Vector3f(1,0,0)); //we use 1 so it doesnt divide by 0
-			}
-		}
+		lightUniforms.pack(lights, false); //nothing reads the slots past the end of the list
+		super.loadVectors(location_lightPosition, lightUniforms.getPositions());
+		super.loadVectors(location_lightColour, lightUniforms.getColours());
+		super.loadVectors(location_attenuation, lightUniforms.getAttenuations());
+	}
+	
+	//which of the frame lights light up the next entity
+	public void loadLightIndices(int[] indices, int count) {
+		super.loadInts(location_lightIndex, indices, Math.max(count, 1));
+		super.loadInt(location_lightCount, count);
+	}
+	
+	//the cascades of the sun's shadow map, and which of the frame lights is the sun (-1 if none is)
+	//does nothing for variants without SHADOWS, they don't have the uniforms
+	public void loadShadows(float[] shadowMatrices, float[] cascadeEnds, int sunLight) {
+		super.loadInt(location_shadowMap, SHADOW_UNIT);
+		super.loadMatrices(location_shadowMatrix, shadowMatrices, SHADOW_CASCADES);
+		super.loadFloats(location_cascadeEnd, cascadeEnds, SHADOW_CASCADES);
+		super.loadInt(location_sunLight, sunLight);
 	}
 	
 	//creates the view matrix using the camera
 	//the view matrix moves the whole world in the opposite direction of the camera to simulate a camera
 	public void loadViewMatrix(Camera camera) {
-		Matrix4f viewMatrix = Maths.createViewMatrix(camera);
+		Maths.createViewMatrix(camera, viewMatrix); //reuses the same matrix every frame
 		super.loadMatrix(location_viewMatrix, viewMatrix);
 	}
 	
@@ -0,0 +1,40 @@
+package shaders;
+
+/**
+ * @author Andrei
+ * Every variant of the StaticShader, one for each combination of features, looked up by the features.
+ * They are all made at once when the cache is, so the driver can compile them side by side and nothing has to be
+ * compiled in the middle of a frame when a new material shows up. After the first run they come out of the
+ * program binary cache (see ShaderProgram).
+ * When the sun casts shadows every variant has SHADOWS as well, they are still looked up by the material's features.
+ */
+public class StaticShaderCache {
+
+	private final StaticShader[] variants = new StaticShader[StaticShader.ALL_FEATURES + 1];
+
+	public StaticShaderCache() {
+		this(false);
+	}
+
+	public StaticShaderCache(boolean shadows) {
+		for (int features = 0; features < variants.length; features++) {
+			variants[features] = new StaticShader(shadows ? features | StaticShader.SHADOWS : features);
+		}
+	}
+
+	//the variant with exactly these features
+	public StaticShader get(int features) {
+		return variants[features];
+	}
+
+	public int size() {
+		return variants.length;
+	}
+
+	public void cleanUp() {
+		for (StaticShader variant : variants) {
+			variant.cleanUp();
+		}
+	}
+
+}
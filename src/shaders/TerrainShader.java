@@ -3,7 +3,6 @@ package shaders;
 import java.util.List;
 
 import org.lwjgl.util.vector.Matrix4f;
-import org.lwjgl.util.vector.Vector3f;
 
 import entities.Camera;
 import entities.Light;
@@ -12,6 +11,7 @@ import tools.Maths;
 /**
  * @author Andrei
  * This class is pretty much the same as the StaticShader class except it uses different shaders and works on terrains
+ * With shadows it looks up the sun in the same shadow map, see StaticShader.SHADOWS
  */
 public class TerrainShader extends ShaderProgram{
      
@@ -24,14 +24,26 @@ public class TerrainShader extends ShaderProgram{
     private int location_transformationMatrix;
     private int location_projectionMatrix;
     private int location_viewMatrix;
-    private int location_lightPosition[];
-    private int location_lightColour[];
-    private int location_attenuation[];
+    private int location_lightPosition; //of the first element, the arrays are loaded in one go
+    private int location_lightColour;
+    private int location_attenuation;
     private int location_shineDamper;
     private int location_reflectivity;
+    private int location_shadowMap;
+    private int location_shadowMatrix;
+    private int location_cascadeEnd;
+    private int location_sunLight;
+    
+    //reused every time the view matrix is loaded
+    private Matrix4f viewMatrix = new Matrix4f();
+    private LightUniforms lightUniforms = new LightUniforms(MAX_LIGHTS);
  
     public TerrainShader() {
-        super(VERTEX_FILE, FRAGMENT_FILE);
+        this(false);
+    }
+    
+    public TerrainShader(boolean shadows) {
+        super(VERTEX_FILE, FRAGMENT_FILE, shadows ? "SHADOWS CASCADES=" + StaticShader.SHADOW_CASCADES : "");
     }
  
     @Override
@@ -49,16 +61,14 @@ public class TerrainShader extends ShaderProgram{
         location_shineDamper = super.getUniformLocation("shineDamper");
         location_reflectivity = super.getUniformLocation("reflectivity");
         
-		location_lightPosition = new int[MAX_LIGHTS];
-		location_lightColour = new int[MAX_LIGHTS];
-		location_attenuation = new int[MAX_LIGHTS];
+		location_lightPosition = super.getUniformLocation("lightPosition[0]");
+		location_lightColour = super.getUniformLocation("lightColour[0]");
+		location_attenuation = super.getUniformLocation("attenuation[0]");
 		
-		for (int i = 0; i<MAX_LIGHTS; i++) {
-			location_lightPosition[i] = super.getUniformLocation("lightPosition["+i+"]");
-			location_lightColour[i] = super.getUniformLocation("lightColour["+i+"]");
-			location_attenuation[i] = super.getUniformLocation("attenuation["+i+"]");
-		}
-         
+		location_shadowMap = super.getUniformLocation("shadowMap");
+		location_shadowMatrix = super.getUniformLocation("shadowMatrix[0]");
+		location_cascadeEnd = super.getUniformLocation("cascadeEnd[0]");
+		location_sunLight = super.getUniformLocation("sunLight");
     }
      
     public void loadShineVariables(float damper,float reflectivity){
@@ -71,21 +81,22 @@ public class TerrainShader extends ShaderProgram{
     }
      
 	public void loadLights(List<Light> lights) {
-		for(int i =0;i<MAX_LIGHTS;i++) {
-			if(i<lights.size()){
-				super.loadVector(location_lightPosition[i], lights.get(i).getPosition());
-				super.loadVector(location_lightColour[i], lights.get(i).getColour());
-				super.loadVector(location_attenuation[i], lights.get(i).getAttenuation());
-			}else {
-				super.loadVector(location_lightPosition[i], new Vector3f(0,0,0));
-				super.loadVector(location_lightColour[i], new Vector3f(0,0,0));
-				super.loadVector(location_attenuation[i], new Vector3f(1,0,0));
-			}
-		}
+		lightUniforms.pack(lights, true); //the terrain shader goes through all of its slots, the unused ones add nothing
+		super.loadVectors(location_lightPosition, lightUniforms.getPositions());
+		super.loadVectors(location_lightColour, lightUniforms.getColours());
+		super.loadVectors(location_attenuation, lightUniforms.getAttenuations());
+	}
+     
+	//the sun is the light with the index sunLight in the list given to loadLights, -1 if it isn't in it
+	public void loadShadows(float[] shadowMatrices, float[] cascadeEnds, int sunLight) {
+		super.loadInt(location_shadowMap, StaticShader.SHADOW_UNIT);
+		super.loadMatrices(location_shadowMatrix, shadowMatrices, StaticShader.SHADOW_CASCADES);
+		super.loadFloats(location_cascadeEnd, cascadeEnds, StaticShader.SHADOW_CASCADES);
+		super.loadInt(location_sunLight, sunLight);
 	}
      
     public void loadViewMatrix(Camera camera){
-        Matrix4f viewMatrix = Maths.createViewMatrix(camera);
+        Maths.createViewMatrix(camera, viewMatrix); //reuses the same matrix every frame
         super.loadMatrix(location_viewMatrix, viewMatrix);
     }
      
@@ -0,0 +1,92 @@
+package shaders;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import org.lwjgl.opengl.GL20;
+
+/**
+ * @author Andrei
+ * Where ShaderProgram sends the uniforms its load methods found changed, and where it gets their locations from.
+ * GL is OpenGL, the only one the game uses. ShaderProgram.setUniformSink swaps it for one that doesn't need a
+ * context, so that the load path (the compare with what the uniform last got, then the call) can be timed without
+ * a display, see bench/benchmark/HotPathBenchmark. A program made while another sink is set isn't built at all.
+ */
+public interface UniformSink {
+
+	//the location of a uniform of the program, -1 if it doesn't have one with that name
+	int getLocation(int programID, String name);
+
+	void uniform1i(int location, int value);
+
+	void uniform1f(int location, float value);
+
+	void uniform2f(int location, float x, float y);
+
+	void uniform3f(int location, float x, float y, float z);
+
+	void uniform4f(int location, float x, float y, float z, float w);
+
+	//the arrays, from the buffer's position to its limit
+	void uniform1(int location, IntBuffer values);
+
+	void uniform1(int location, FloatBuffer values);
+
+	void uniform3(int location, FloatBuffer values);
+
+	void uniformMatrix4(int location, FloatBuffer matrices);
+
+	UniformSink GL = new UniformSink() {
+
+		@Override
+		public int getLocation(int programID, String name) {
+			return GL20.glGetUniformLocation(programID, name);
+		}
+
+		@Override
+		public void uniform1i(int location, int value) {
+			GL20.glUniform1i(location, value);
+		}
+
+		@Override
+		public void uniform1f(int location, float value) {
+			GL20.glUniform1f(location, value);
+		}
+
+		@Override
+		public void uniform2f(int location, float x, float y) {
+			GL20.glUniform2f(location, x, y);
+		}
+
+		@Override
+		public void uniform3f(int location, float x, float y, float z) {
+			GL20.glUniform3f(location, x, y, z);
+		}
+
+		@Override
+		public void uniform4f(int location, float x, float y, float z, float w) {
+			GL20.glUniform4f(location, x, y, z, w);
+		}
+
+		@Override
+		public void uniform1(int location, IntBuffer values) {
+			GL20.glUniform1(location, values);
+		}
+
+		@Override
+		public void uniform1(int location, FloatBuffer values) {
+			GL20.glUniform1(location, values);
+		}
+
+		@Override
+		public void uniform3(int location, FloatBuffer values) {
+			GL20.glUniform3(location, values);
+		}
+
+		@Override
+		public void uniformMatrix4(int location, FloatBuffer matrices) {
+			GL20.glUniformMatrix4(location, false, matrices);
+		}
+	};
+
+}
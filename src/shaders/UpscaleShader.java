@@ -0,0 +1,45 @@
+package shaders;
+
+import org.lwjgl.util.vector.Vector2f;
+
+/**
+ * @author Andrei
+ * Shader that stretches the scene, rendered at a lower resolution by DynamicResolution, over the whole screen
+ * and sharpens it
+ */
+public class UpscaleShader extends ShaderProgram {
+
+	private static final String VERTEX_FILE = "/shaders/upscaleVertexShader.txt";
+	private static final String FRAGMENT_FILE = "/shaders/upscaleFragmentShader.txt";
+
+	private int location_uvScale;
+	private int location_texelSize;
+	private int location_sharpness;
+
+	public UpscaleShader() {
+		super(VERTEX_FILE, FRAGMENT_FILE);
+	}
+
+	@Override
+	protected void bindAttributes() {
+		super.bindAttribute(0, "position");
+	}
+
+	@Override
+	protected void getAllUniformLocations() {
+		location_uvScale = super.getUniformLocation("uvScale");
+		location_texelSize = super.getUniformLocation("texelSize");
+		location_sharpness = super.getUniformLocation("sharpness");
+	}
+
+	//how much of the texture the scene covers, and the size of one of its pixels, both in texture coordinates
+	public void loadRegion(Vector2f uvScale, Vector2f texelSize) {
+		super.loadVector(location_uvScale, uvScale);
+		super.loadVector(location_texelSize, texelSize);
+	}
+
+	public void loadSharpness(float sharpness) {
+		super.loadFloat(location_sharpness, sharpness);
+	}
+
+}
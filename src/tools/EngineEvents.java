@@ -0,0 +1,125 @@
+package tools;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * @author Andrei
+ * The Java Flight Recorder events the engine emits, so a recording shows the frames, culling, draws and loading
+ * next to the GC pauses, allocations and JIT activity JFR records anyway. res/dreaming.jfc turns them all on:
+ *
+ *     java -XX:StartFlightRecording=settings=res/dreaming.jfc,filename=dreaming.jfr ... main.SceneLoop
+ *
+ * An event that isn't enabled in the recording (or when there is no recording) costs a check of isEnabled,
+ * so the fields are only filled in when it is. Every event is timed with begin() and commit(), like this:
+ *
+ *     EngineEvents.Frame event = new EngineEvents.Frame();
+ *     event.begin();
+ *     ...
+ *     event.commit();
+ */
+public class EngineEvents {
+
+	private static final String ENGINE = "Dreaming";
+
+	@Name("dreaming.Frame")
+	@Label("Frame")
+	@Description("One pass of the scene loop, from polling the input to swapping the buffers")
+	@Category({ ENGINE, "Render" })
+	@StackTrace(false)
+	public static class Frame extends Event {
+		@Label("Frame")
+		public long frame;
+		@Label("Simulation Steps")
+		public int steps;
+	}
+
+	@Name("dreaming.Cull")
+	@Label("Cull")
+	@Description("Finding the entities of a store that are inside the camera's view")
+	@Category({ ENGINE, "Render" })
+	@StackTrace(false)
+	public static class Cull extends Event {
+		@Label("Entities")
+		public int entities;
+		@Label("Visible")
+		public int visible;
+		@Label("Spatial Index")
+		public boolean indexed;
+	}
+
+	@Name("dreaming.Batch")
+	@Label("Batch")
+	@Description("Sorting the visible entities into batches by textured model")
+	@Category({ ENGINE, "Render" })
+	@StackTrace(false)
+	public static class Batch extends Event {
+		@Label("Entities")
+		public int entities;
+		@Label("Batches")
+		public int batches;
+	}
+
+	@Name("dreaming.DrawPass")
+	@Label("Draw Pass")
+	@Description("Issuing the draw calls of one renderer, this is CPU time, the GPU time is in the profiler")
+	@Category({ ENGINE, "Render" })
+	@StackTrace(false)
+	public static class DrawPass extends Event {
+		@Label("Pass")
+		public String pass;
+		@Label("Batches")
+		public int batches;
+		@Label("Draw Calls")
+		public int drawCalls;
+		@Label("Triangles")
+		public long triangles;
+	}
+
+	@Name("dreaming.Upload")
+	@Label("GPU Upload")
+	@Description("A VAO, buffer or texture sent to the GPU by the Loader")
+	@Category({ ENGINE, "Loading" })
+	public static class Upload extends Event {
+		@Label("Kind")
+		@Description("VAO, VBO, IBO or texture")
+		public String kind;
+		@Label("Name")
+		public String name;
+		@Label("Size")
+		@DataAmount
+		public long bytes;
+	}
+
+	@Name("dreaming.ModelParse")
+	@Label("Model Parse")
+	@Description("Reading an OBJ file into model data")
+	@Category({ ENGINE, "Loading" })
+	public static class ModelParse extends Event {
+		@Label("File")
+		public String file;
+		@Label("Vertices")
+		public int vertices;
+		@Label("Triangles")
+		public int triangles;
+	}
+
+	@Name("dreaming.ShaderCompile")
+	@Label("Shader Compile")
+	@Description("Compiling one shader source file")
+	@Category({ ENGINE, "Loading" })
+	public static class ShaderCompile extends Event {
+		@Label("File")
+		public String file;
+		@Label("Type")
+		public String type;
+		@Label("Compiled")
+		public boolean compiled;
+	}
+
+}
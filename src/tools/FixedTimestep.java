@@ -0,0 +1,61 @@
+package tools;
+
+/**
+ * @author Andrei
+ * Splits real time into simulation steps of a fixed length.
+ * Frame time is added to an accumulator and whole steps are taken out of it, whatever is left over
+ * tells the renderer how far it is between the last two steps (the alpha).
+ */
+public class FixedTimestep {
+
+	//if a frame takes really long we drop time instead of trying to catch up forever
+	private static final int MAX_STEPS_PER_FRAME = 8;
+
+	private final long stepNanos;
+	private final float stepSeconds;
+
+	private long accumulator = 0;
+	private long lastTime = -1;
+
+	public FixedTimestep(int stepsPerSecond) {
+		this.stepNanos = 1000000000L / stepsPerSecond;
+		this.stepSeconds = stepNanos / 1000000000f;
+	}
+
+	//adds the real time since the last call and returns how many steps should be simulated
+	public int advance() {
+		long now = System.nanoTime();
+		if (lastTime < 0) {
+			lastTime = now;
+		}
+		long elapsed = now - lastTime;
+		lastTime = now;
+		return advance(elapsed);
+	}
+
+	//same as above, but for a given amount of time (used for scripted or headless runs)
+	public int advance(long elapsedNanos) {
+		accumulator += elapsedNanos;
+		long steps = accumulator / stepNanos;
+		if (steps > MAX_STEPS_PER_FRAME) {
+			steps = MAX_STEPS_PER_FRAME;
+			accumulator = stepNanos * steps + accumulator % stepNanos;
+		}
+		accumulator -= steps * stepNanos;
+		return (int) steps;
+	}
+
+	//how far we are between the previous and the next step, from 0 to 1
+	public float getAlpha() {
+		return accumulator / (float) stepNanos;
+	}
+
+	public float getStepSeconds() {
+		return stepSeconds;
+	}
+
+	public long getStepNanos() {
+		return stepNanos;
+	}
+
+}
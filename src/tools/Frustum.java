@@ -0,0 +1,121 @@
+package tools;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector4f;
+
+/**
+ * @author Andrei
+ * The view frustum of the camera, stored as 6 planes so we can test if things are visible.
+ * The planes are taken straight out of the projection * view matrix (Gribb and Hartmann's method)
+ * http://www.cs.otago.ac.nz/postgrads/alexis/planeExtraction.pdf
+ */
+public class Frustum {
+
+	//a, b, c, d for each plane, the normals point into the frustum
+	//left, right, bottom, top, near, far
+	private final float[] planes = new float[24];
+
+	//world space bounding box of the frustum corners
+	private float minX, minY, minZ, maxX, maxY, maxZ;
+
+	private final Matrix4f clip = new Matrix4f();
+	private final Matrix4f inverse = new Matrix4f();
+	private final Vector4f corner = new Vector4f();
+
+	public void update(Matrix4f projection, Matrix4f view) {
+		Matrix4f.mul(projection, view, clip);
+		//row i of the matrix is (m0i, m1i, m2i, m3i)
+		setPlane(0, clip.m03 + clip.m00, clip.m13 + clip.m10, clip.m23 + clip.m20, clip.m33 + clip.m30);
+		setPlane(1, clip.m03 - clip.m00, clip.m13 - clip.m10, clip.m23 - clip.m20, clip.m33 - clip.m30);
+		setPlane(2, clip.m03 + clip.m01, clip.m13 + clip.m11, clip.m23 + clip.m21, clip.m33 + clip.m31);
+		setPlane(3, clip.m03 - clip.m01, clip.m13 - clip.m11, clip.m23 - clip.m21, clip.m33 - clip.m31);
+		setPlane(4, clip.m03 + clip.m02, clip.m13 + clip.m12, clip.m23 + clip.m22, clip.m33 + clip.m32);
+		setPlane(5, clip.m03 - clip.m02, clip.m13 - clip.m12, clip.m23 - clip.m22, clip.m33 - clip.m32);
+		calculateBounds();
+	}
+
+	//true if any part of the sphere is inside the frustum
+	public boolean intersectsSphere(float x, float y, float z, float radius) {
+		for (int i = 0; i < 24; i += 4) {
+			if (planes[i] * x + planes[i + 1] * y + planes[i + 2] * z + planes[i + 3] < -radius) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	//true if any part of the box might be inside the frustum
+	//for each plane we only test the corner of the box that is furthest along the plane normal
+	public boolean intersectsBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		for (int i = 0; i < 24; i += 4) {
+			float a = planes[i], b = planes[i + 1], c = planes[i + 2];
+			float x = a >= 0 ? maxX : minX;
+			float y = b >= 0 ? maxY : minY;
+			float z = c >= 0 ? maxZ : minZ;
+			if (a * x + b * y + c * z + planes[i + 3] < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public float[] getPlanes() {
+		return planes;
+	}
+
+	public float getMinX() {
+		return minX;
+	}
+
+	public float getMinY() {
+		return minY;
+	}
+
+	public float getMinZ() {
+		return minZ;
+	}
+
+	public float getMaxX() {
+		return maxX;
+	}
+
+	public float getMaxY() {
+		return maxY;
+	}
+
+	public float getMaxZ() {
+		return maxZ;
+	}
+
+	private void setPlane(int plane, float a, float b, float c, float d) {
+		float length = (float) Math.sqrt(a * a + b * b + c * c);
+		int i = plane * 4;
+		planes[i] = a / length;
+		planes[i + 1] = b / length;
+		planes[i + 2] = c / length;
+		planes[i + 3] = d / length;
+	}
+
+	//transforms the 8 corners of the clip space cube back into the world
+	private void calculateBounds() {
+		minX = minY = minZ = Float.POSITIVE_INFINITY;
+		maxX = maxY = maxZ = Float.NEGATIVE_INFINITY;
+		if (Matrix4f.invert(clip, inverse) == null) {
+			return;
+		}
+		for (int i = 0; i < 8; i++) {
+			corner.set((i & 1) == 0 ? -1 : 1, (i & 2) == 0 ? -1 : 1, (i & 4) == 0 ? -1 : 1, 1);
+			Matrix4f.transform(inverse, corner, corner);
+			float x = corner.x / corner.w;
+			float y = corner.y / corner.w;
+			float z = corner.z / corner.w;
+			minX = Math.min(minX, x);
+			minY = Math.min(minY, y);
+			minZ = Math.min(minZ, z);
+			maxX = Math.max(maxX, x);
+			maxY = Math.max(maxY, y);
+			maxZ = Math.max(maxZ, z);
+		}
+	}
+
+}
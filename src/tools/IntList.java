@@ -0,0 +1,65 @@
+package tools;
+
+import java.util.Arrays;
+
+/**
+ * @author Andrei
+ * A growable list of ints, used where a List<Integer> would box every element (query results, index lists)
+ */
+public class IntList {
+
+	private int[] data;
+	private int size = 0;
+
+	public IntList() {
+		this(16);
+	}
+
+	public IntList(int capacity) {
+		data = new int[Math.max(capacity, 1)];
+	}
+
+	public void add(int value) {
+		if (size == data.length) {
+			data = Arrays.copyOf(data, size * 2);
+		}
+		data[size++] = value;
+	}
+
+	public int get(int index) {
+		return data[index];
+	}
+
+	public void set(int index, int value) {
+		data[index] = value;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	//drops everything after the first size elements
+	public void truncate(int size) {
+		if (size < this.size) {
+			this.size = size;
+		}
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	//the backing array, only the first size() elements are valid
+	public int[] getData() {
+		return data;
+	}
+
+	public int[] toArray() {
+		return Arrays.copyOf(data, size);
+	}
+
+}
@@ -1,6 +1,9 @@
 package tools;
 
+import java.nio.FloatBuffer;
+
 import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Quaternion;
 import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
 
@@ -19,27 +22,230 @@ public class Maths {
 		return l1 * p1.y + l2 * p2.y + l3 * p3.y;
 	}
 	
+	//kept for callers that want a new matrix, the work is done by the allocation free version below
 	public static Matrix4f createTransformationMatrix(Vector3f translation, float rx, float ry, float rz, float scale) {
-		Matrix4f matrix = new Matrix4f();
-		matrix.setIdentity();
-		Matrix4f.translate(translation, matrix, matrix);
-		Matrix4f.rotate((float) Math.toRadians(rx), new Vector3f(1,0,0), matrix, matrix);
-		Matrix4f.rotate((float) Math.toRadians(ry), new Vector3f(0,1,0), matrix, matrix);
-		Matrix4f.rotate((float) Math.toRadians(rz), new Vector3f(0,0,1), matrix, matrix);
-		Matrix4f.scale(new Vector3f(scale,scale,scale), matrix, matrix);
-		return matrix;
+		return createTransformationMatrix(translation.x, translation.y, translation.z, rx, ry, rz, scale, new Matrix4f());
+	}
+	
+	//translation * rotation around x * around y * around z * scale, the same as three Matrix4f.rotate calls
+	//but each sine and cosine is only worked out once and nothing is allocated, rotations are in degrees
+	public static Matrix4f createTransformationMatrix(float x, float y, float z, float rx, float ry, float rz,
+			float scale, Matrix4f dest) {
+		double a = Math.toRadians(rx), b = Math.toRadians(ry), c = Math.toRadians(rz);
+		float sa = (float) Math.sin(a), ca = (float) Math.cos(a);
+		float sb = (float) Math.sin(b), cb = (float) Math.cos(b);
+		float sc = (float) Math.sin(c), cc = (float) Math.cos(c);
+		//mXY is column X, row Y
+		dest.m00 = cb * cc * scale;
+		dest.m01 = (sa * sb * cc + ca * sc) * scale;
+		dest.m02 = (-ca * sb * cc + sa * sc) * scale;
+		dest.m03 = 0;
+		dest.m10 = -cb * sc * scale;
+		dest.m11 = (-sa * sb * sc + ca * cc) * scale;
+		dest.m12 = (ca * sb * sc + sa * cc) * scale;
+		dest.m13 = 0;
+		dest.m20 = sb * scale;
+		dest.m21 = -sa * cb * scale;
+		dest.m22 = ca * cb * scale;
+		dest.m23 = 0;
+		dest.m30 = x;
+		dest.m31 = y;
+		dest.m32 = z;
+		dest.m33 = 1;
+		return dest;
+	}
+	
+	//the same matrix as above, written straight into a float array in column major order
+	public static void writeTransformationMatrix(float x, float y, float z, float rx, float ry, float rz, float scale,
+			float[] dest, int offset) {
+		double a = Math.toRadians(rx), b = Math.toRadians(ry), c = Math.toRadians(rz);
+		float sa = (float) Math.sin(a), ca = (float) Math.cos(a);
+		float sb = (float) Math.sin(b), cb = (float) Math.cos(b);
+		float sc = (float) Math.sin(c), cc = (float) Math.cos(c);
+		dest[offset] = cb * cc * scale;
+		dest[offset + 1] = (sa * sb * cc + ca * sc) * scale;
+		dest[offset + 2] = (-ca * sb * cc + sa * sc) * scale;
+		dest[offset + 3] = 0;
+		dest[offset + 4] = -cb * sc * scale;
+		dest[offset + 5] = (-sa * sb * sc + ca * cc) * scale;
+		dest[offset + 6] = (ca * sb * sc + sa * cc) * scale;
+		dest[offset + 7] = 0;
+		dest[offset + 8] = sb * scale;
+		dest[offset + 9] = -sa * cb * scale;
+		dest[offset + 10] = ca * cb * scale;
+		dest[offset + 11] = 0;
+		dest[offset + 12] = x;
+		dest[offset + 13] = y;
+		dest[offset + 14] = z;
+		dest[offset + 15] = 1;
+	}
+	
+	//writes the matrices of count entities, starting at from, into the buffer one after the other
+	//the transforms are structure of arrays like in EntityStore, the buffer's position moves on by 16 per entity
+	public static void writeTransformationMatrices(float[] x, float[] y, float[] z, float[] rx, float[] ry,
+			float[] rz, float[] scale, int from, int count, FloatBuffer dest) {
+		for (int i = from; i < from + count; i++) {
+			double a = Math.toRadians(rx[i]), b = Math.toRadians(ry[i]), c = Math.toRadians(rz[i]);
+			float sa = (float) Math.sin(a), ca = (float) Math.cos(a);
+			float sb = (float) Math.sin(b), cb = (float) Math.cos(b);
+			float sc = (float) Math.sin(c), cc = (float) Math.cos(c);
+			float s = scale[i];
+			dest.put(cb * cc * s).put((sa * sb * cc + ca * sc) * s).put((-ca * sb * cc + sa * sc) * s).put(0);
+			dest.put(-cb * sc * s).put((-sa * sb * sc + ca * cc) * s).put((ca * sb * sc + sa * cc) * s).put(0);
+			dest.put(sb * s).put(-sa * cb * s).put(ca * cb * s).put(0);
+			dest.put(x[i]).put(y[i]).put(z[i]).put(1);
+		}
 	}
 	
 	
+    //the quaternion for rotating around x, then y, then z in degrees, the same rotation as the matrices above
+    //(translation * around x * around y * around z), the three axis quaternions multiplied out
+    public static Quaternion eulerToQuaternion(float rx, float ry, float rz, Quaternion dest) {
+    	double a = Math.toRadians(rx) / 2, b = Math.toRadians(ry) / 2, c = Math.toRadians(rz) / 2;
+    	float sa = (float) Math.sin(a), ca = (float) Math.cos(a);
+    	float sb = (float) Math.sin(b), cb = (float) Math.cos(b);
+    	float sc = (float) Math.sin(c), cc = (float) Math.cos(c);
+    	dest.x = sa * cb * cc + ca * sb * sc;
+    	dest.y = ca * sb * cc - sa * cb * sc;
+    	dest.z = ca * cb * sc + sa * sb * cc;
+    	dest.w = ca * cb * cc - sa * sb * sc;
+    	return dest;
+    }
+    
+    //spherical interpolation between two unit quaternions, t = 0 gives a and t = 1 gives b
+    //always takes the short way round, and falls back to a normalised lerp when the two are almost the same
+    //(which is what happens between two simulation steps), since that is just as good there and needs no trig
+    public static Quaternion slerp(float ax, float ay, float az, float aw, float bx, float by, float bz, float bw,
+    		float t, Quaternion dest) {
+    	float dot = ax * bx + ay * by + az * bz + aw * bw;
+    	if (dot < 0) {
+    		dot = -dot;
+    		bx = -bx;
+    		by = -by;
+    		bz = -bz;
+    		bw = -bw;
+    	}
+    	float wa, wb;
+    	if (dot > 0.9995f) {
+    		wa = 1 - t;
+    		wb = t;
+    	} else {
+    		double angle = Math.acos(dot);
+    		double sin = Math.sin(angle);
+    		wa = (float) (Math.sin((1 - t) * angle) / sin);
+    		wb = (float) (Math.sin(t * angle) / sin);
+    	}
+    	dest.x = wa * ax + wb * bx;
+    	dest.y = wa * ay + wb * by;
+    	dest.z = wa * az + wb * bz;
+    	dest.w = wa * aw + wb * bw;
+    	return normalise(dest);
+    }
+    
+    //unlike Quaternion.normalise this leaves a zero quaternion alone
+    public static Quaternion normalise(Quaternion q) {
+    	float length = (float) Math.sqrt(q.x * q.x + q.y * q.y + q.z * q.z + q.w * q.w);
+    	if (length > 0) {
+    		q.x /= length;
+    		q.y /= length;
+    		q.z /= length;
+    		q.w /= length;
+    	}
+    	return q;
+    }
+    
+    //translation * rotation by a unit quaternion * scale, written into a float array in column major order
+    //this is the same matrix writeTransformationMatrix builds from angles, but without any trig
+    public static void writeTransformationMatrix(float x, float y, float z, Quaternion rotation, float scale,
+    		float[] dest, int offset) {
+    	writeTransformationMatrix(x, y, z, rotation.x, rotation.y, rotation.z, rotation.w, scale, dest, offset);
+    }
+    
+    public static void writeTransformationMatrix(float x, float y, float z, float qx, float qy, float qz, float qw,
+    		float scale, float[] dest, int offset) {
+    	float xx = qx * qx, yy = qy * qy, zz = qz * qz;
+    	float xy = qx * qy, xz = qx * qz, yz = qy * qz;
+    	float wx = qw * qx, wy = qw * qy, wz = qw * qz;
+    	float s2 = scale * 2;
+    	dest[offset] = scale - (yy + zz) * s2;
+    	dest[offset + 1] = (xy + wz) * s2;
+    	dest[offset + 2] = (xz - wy) * s2;
+    	dest[offset + 3] = 0;
+    	dest[offset + 4] = (xy - wz) * s2;
+    	dest[offset + 5] = scale - (xx + zz) * s2;
+    	dest[offset + 6] = (yz + wx) * s2;
+    	dest[offset + 7] = 0;
+    	dest[offset + 8] = (xz + wy) * s2;
+    	dest[offset + 9] = (yz - wx) * s2;
+    	dest[offset + 10] = scale - (xx + yy) * s2;
+    	dest[offset + 11] = 0;
+    	dest[offset + 12] = x;
+    	dest[offset + 13] = y;
+    	dest[offset + 14] = z;
+    	dest[offset + 15] = 1;
+    }
+    
+    //copies a matrix into a float array in column major order, the same order as Matrix4f.store
+    public static void storeMatrix(Matrix4f matrix, float[] dest, int offset) {
+    	dest[offset] = matrix.m00;
+    	dest[offset + 1] = matrix.m01;
+    	dest[offset + 2] = matrix.m02;
+    	dest[offset + 3] = matrix.m03;
+    	dest[offset + 4] = matrix.m10;
+    	dest[offset + 5] = matrix.m11;
+    	dest[offset + 6] = matrix.m12;
+    	dest[offset + 7] = matrix.m13;
+    	dest[offset + 8] = matrix.m20;
+    	dest[offset + 9] = matrix.m21;
+    	dest[offset + 10] = matrix.m22;
+    	dest[offset + 11] = matrix.m23;
+    	dest[offset + 12] = matrix.m30;
+    	dest[offset + 13] = matrix.m31;
+    	dest[offset + 14] = matrix.m32;
+    	dest[offset + 15] = matrix.m33;
+    }
+    
+    //multiplies two column major matrices that are packed into float arrays, dest = left * right
+    //dest must not overlap with either of the inputs
+    public static void multiply(float[] left, int leftOffset, float[] right, int rightOffset, float[] dest, int destOffset) {
+    	for (int column = 0; column < 4; column++) {
+    		int r = rightOffset + column * 4;
+    		float r0 = right[r], r1 = right[r + 1], r2 = right[r + 2], r3 = right[r + 3];
+    		for (int row = 0; row < 4; row++) {
+    			int l = leftOffset + row;
+    			dest[destOffset + column * 4 + row] = left[l] * r0 + left[l + 4] * r1 + left[l + 8] * r2 + left[l + 12] * r3;
+    		}
+    	}
+    }
+    
     public static Matrix4f createViewMatrix(Camera camera) {
-        Matrix4f viewMatrix = new Matrix4f();
-        viewMatrix.setIdentity();
-        Matrix4f.rotate((float) Math.toRadians(camera.getPitch()), new Vector3f(1, 0, 0), viewMatrix,
-                viewMatrix);
-        Matrix4f.rotate((float) Math.toRadians(camera.getYaw()), new Vector3f(0, 1, 0), viewMatrix, viewMatrix);
-        Vector3f cameraPos = camera.getPosition();
-        Vector3f negativeCameraPos = new Vector3f(-cameraPos.x,-cameraPos.y,-cameraPos.z);
-        Matrix4f.translate(negativeCameraPos, viewMatrix, viewMatrix);
-        return viewMatrix;
+        return createViewMatrix(camera, new Matrix4f());
+    }
+    
+    //rotation around x by the pitch * around y by the yaw * translation by minus the cameras position
+    //worked out directly instead of with Matrix4f.rotate and translate, nothing is allocated
+    //the camera keeps the sines and cosines of its angles, so there is no trig in here either
+    public static Matrix4f createViewMatrix(Camera camera, Matrix4f dest) {
+        float sp = camera.getSinPitch(), cp = camera.getCosPitch();
+        float sy = camera.getSinYaw(), cy = camera.getCosYaw();
+        Vector3f position = camera.getPosition();
+        dest.m00 = cy;
+        dest.m01 = sp * sy;
+        dest.m02 = -cp * sy;
+        dest.m03 = 0;
+        dest.m10 = 0;
+        dest.m11 = cp;
+        dest.m12 = sp;
+        dest.m13 = 0;
+        dest.m20 = sy;
+        dest.m21 = -sp * cy;
+        dest.m22 = cp * cy;
+        dest.m23 = 0;
+        //the rotation applied to minus the position
+        dest.m30 = -(dest.m00 * position.x + dest.m10 * position.y + dest.m20 * position.z);
+        dest.m31 = -(dest.m01 * position.x + dest.m11 * position.y + dest.m21 * position.z);
+        dest.m32 = -(dest.m02 * position.x + dest.m12 * position.y + dest.m22 * position.z);
+        dest.m33 = 1;
+        return dest;
     }
 }
@@ -0,0 +1,57 @@
+package tools;
+
+/**
+ * @author Andrei
+ * Makes meshes in code, for stress scenes and for when a model file isn't there.
+ * The data comes out the same way OBJFileLoader gives it, so it goes into Loader.loadToVAO the same way.
+ */
+public class MeshGenerator {
+
+	//a UV sphere with the given number of rings (top to bottom) and segments (around), roughly
+	//2 * rings * segments triangles. The bumps make it a bit less regular than a ball, so the lighting has something to show
+	public static ModelData createBlob(int rings, int segments, float radius, float bumpiness) {
+		int columns = segments + 1; //the seam has its vertices twice, for the texture coordinates
+		int vertexCount = (rings + 1) * columns;
+		float[] positions = new float[vertexCount * 3];
+		float[] textureCoords = new float[vertexCount * 2];
+		float[] normals = new float[vertexCount * 3];
+		float furthest = 0;
+		for (int ring = 0; ring <= rings; ring++) {
+			double polar = Math.PI * ring / rings;
+			for (int segment = 0; segment <= segments; segment++) {
+				double azimuth = 2 * Math.PI * segment / segments;
+				float nx = (float) (Math.sin(polar) * Math.cos(azimuth));
+				float ny = (float) Math.cos(polar);
+				float nz = (float) (Math.sin(polar) * Math.sin(azimuth));
+				float r = radius * (1 + bumpiness * (float) (Math.sin(polar * 5) * Math.cos(azimuth * 3)));
+				int vertex = ring * columns + segment;
+				positions[vertex * 3] = nx * r;
+				positions[vertex * 3 + 1] = ny * r + radius; //sits on the ground instead of being cut in half by it
+				positions[vertex * 3 + 2] = nz * r;
+				normals[vertex * 3] = nx;
+				normals[vertex * 3 + 1] = ny;
+				normals[vertex * 3 + 2] = nz;
+				textureCoords[vertex * 2] = segment / (float) segments;
+				textureCoords[vertex * 2 + 1] = ring / (float) rings;
+				furthest = Math.max(furthest, (float) Math.sqrt(nx * r * nx * r + (ny * r + radius) * (ny * r + radius)
+						+ nz * r * nz * r));
+			}
+		}
+		int[] indices = new int[rings * segments * 6];
+		int at = 0;
+		for (int ring = 0; ring < rings; ring++) {
+			for (int segment = 0; segment < segments; segment++) {
+				int topLeft = ring * columns + segment, bottomLeft = topLeft + columns;
+				//counter clockwise seen from outside
+				indices[at++] = topLeft;
+				indices[at++] = topLeft + 1;
+				indices[at++] = bottomLeft;
+				indices[at++] = topLeft + 1;
+				indices[at++] = bottomLeft + 1;
+				indices[at++] = bottomLeft;
+			}
+		}
+		return new ModelData(positions, textureCoords, normals, indices, furthest);
+	}
+
+}
@@ -19,8 +19,14 @@ public class OBJFileLoader {
     private static final String RES_LOC = "res/";
  
     public static ModelData loadOBJ(String objFileName) {
+        return loadOBJ(new File(RES_LOC + objFileName + ".obj"));
+    }
+ 
+    //for files outside of res, like generated ones
+    public static ModelData loadOBJ(File objFile) {
+        EngineEvents.ModelParse event = new EngineEvents.ModelParse();
+        event.begin();
         FileReader isr = null;
-        File objFile = new File(RES_LOC + objFileName + ".obj");
         try {
             isr = new FileReader(objFile);
         } catch (FileNotFoundException e) {
@@ -81,6 +87,13 @@ public class OBJFileLoader {
         int[] indicesArray = convertIndicesListToArray(indices);
         ModelData data = new ModelData(verticesArray, texturesArray, normalsArray, indicesArray,
                 furthest);
+        event.end();
+        if (event.shouldCommit()) {
+            event.file = objFile.getPath();
+            event.vertices = vertices.size();
+            event.triangles = indicesArray.length / 3;
+            event.commit();
+        }
         return data;
     }
  
@@ -0,0 +1,68 @@
+package tools;
+
+import org.lwjgl.util.vector.Vector3f;
+
+/**
+ * @author Andrei
+ * Maps the directions of the upper half of a sphere onto a square and back, for impostors (see ImpostorBaker).
+ *
+ * The half sphere is squashed into a pyramid (the direction divided by |x| + |y| + |z|) and the pyramid is seen
+ * from above, turned by 45 degrees so it fills the square from -1 to 1. Every point of the square is a direction,
+ * the middle is straight up and the edge is the horizon. An atlas of frames x frames pictures of a model, each one
+ * seen from the direction of its grid point, then has the pictures spread out evenly over every way the model can
+ * be looked at from above. Things far away are never seen from below, so the lower half isn't worth the pixels.
+ *
+ * The impostor shaders do exactly the same, the formulas in here are the reference for them.
+ */
+public class Octahedral {
+
+	//where a direction lands on the square, both coordinates from -1 to 1, directions below the horizon are flattened
+	//onto it
+	public static void encode(float x, float y, float z, float[] dest) {
+		float sum = Math.abs(x) + Math.max(y, 0) + Math.abs(z);
+		if (sum == 0) { //only straight down gets flattened to nothing, look at it from the side
+			x = 1;
+			sum = 1;
+		}
+		x /= sum;
+		z /= sum;
+		dest[0] = x + z;
+		dest[1] = x - z;
+	}
+
+	//the unit direction of a point of the square
+	public static Vector3f decode(float u, float v, Vector3f dest) {
+		float x = (u + v) / 2, z = (u - v) / 2;
+		dest.set(x, 1 - Math.abs(x) - Math.abs(z), z);
+		return dest.normalise(dest);
+	}
+
+	//the direction a frame of the atlas was seen from, the frames sit on the grid points with the outer ones on the
+	//horizon
+	public static Vector3f frameDirection(int frameX, int frameY, int frames, Vector3f dest) {
+		return decode(frameX * 2f / (frames - 1) - 1, frameY * 2f / (frames - 1) - 1, dest);
+	}
+
+	//where a direction is between the frames, from 0 to frames - 1 on both axes
+	//the four frames around it are blended by how close it is to each of them
+	public static void gridPosition(float x, float y, float z, int frames, float[] dest) {
+		encode(x, y, z, dest);
+		dest[0] = Math.max(0, Math.min(frames - 1, (dest[0] + 1) / 2 * (frames - 1)));
+		dest[1] = Math.max(0, Math.min(frames - 1, (dest[1] + 1) / 2 * (frames - 1)));
+	}
+
+	//the way across and up of a picture taken from a direction, at right angles to it and to each other
+	//up leans towards the world's up, looking from straight above it is -z instead
+	public static void basis(Vector3f direction, Vector3f right, Vector3f up) {
+		if (Math.abs(direction.y) > 0.999f) {
+			up.set(0, 0, -1);
+		} else {
+			up.set(0, 1, 0);
+		}
+		Vector3f.cross(up, direction, right);
+		right.normalise();
+		Vector3f.cross(direction, right, up);
+		up.normalise();
+	}
+
+}
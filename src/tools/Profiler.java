@@ -0,0 +1,332 @@
+package tools;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * @author Andrei
+ * A scoped frame profiler. Code is timed by wrapping it in begin and end calls for a scope, scopes can be nested
+ * and can be used on any thread. At the end of every frame the render thread adds up how long each scope took
+ * in that frame and keeps the totals for the last HISTORY frames, which is what the overlay shows and what gets
+ * written out as CSV. GPU times come in through recordGpu (see GpuTimer) a few frames late and are kept the same way.
+ * A capture keeps every single begin and end for a number of frames, and can be written as a Chrome trace
+ * (open chrome://tracing or ui.perfetto.dev and load the file).
+ *
+ * The profiler is only on when the JVM is started with -Ddreaming.profile=true. ENABLED is a constant, so when it is
+ * off every call in here is an empty method the JIT removes, and instrumented code costs nothing.
+ *
+ * Scopes are registered once (usually into a static final int) and referred to by their id after that:
+ *
+ *     private static final int MOVE = Profiler.register("Player.move");
+ *     Profiler.begin(MOVE);
+ *     ...
+ *     Profiler.end(MOVE);
+ */
+public class Profiler {
+
+	public static final boolean ENABLED = Boolean.getBoolean("dreaming.profile");
+
+	//how many frames of totals are kept
+	public static final int HISTORY = 240;
+	private static final int MAX_SCOPES = 64;
+	private static final int MAX_DEPTH = 32;
+	//the start time of times given to add, which aren't events
+	private static final long ADDED = Long.MIN_VALUE;
+	//and of counts given to count, which only go into the calls
+	private static final long COUNTED = Long.MIN_VALUE + 1;
+
+	private static final List<String> names = new ArrayList<String>();
+
+	//every thread that has used a scope, so endFrame can collect their times
+	private static final List<ThreadState> threads = new CopyOnWriteArrayList<ThreadState>();
+	private static final ThreadLocal<ThreadState> currentThread = ThreadLocal.withInitial(Profiler::newThreadState);
+
+	//per frame totals in nanoseconds, [frame % HISTORY][scope]
+	private static final long[][] cpuHistory = new long[HISTORY][MAX_SCOPES];
+	private static final long[][] gpuHistory = new long[HISTORY][MAX_SCOPES];
+	private static final int[][] callHistory = new int[HISTORY][MAX_SCOPES];
+	private static final long[] gpuFrame = new long[MAX_SCOPES];
+	private static long frame = 0;
+
+	//a running capture, every event as (scope, thread, start, end), GPU events use the GPU_THREAD thread id
+	private static final int GPU_THREAD = -1;
+	private static long[] captured = new long[0];
+	private static int capturedCount = 0;
+	private static int captureFramesLeft = 0;
+
+	//gives a scope its id, registering the same name twice gives the same id
+	public static synchronized int register(String name) {
+		int id = names.indexOf(name);
+		if (id >= 0) {
+			return id;
+		}
+		if (names.size() == MAX_SCOPES) {
+			throw new IllegalStateException("More than " + MAX_SCOPES + " profiler scopes");
+		}
+		names.add(name);
+		return names.size() - 1;
+	}
+
+	public static void begin(int scope) {
+		if (!ENABLED) {
+			return;
+		}
+		ThreadState thread = currentThread.get();
+		if (thread.depth == MAX_DEPTH) {
+			throw new IllegalStateException("Profiler scopes nested too deep at " + names.get(scope));
+		}
+		thread.stack[thread.depth] = scope;
+		thread.starts[thread.depth++] = System.nanoTime();
+	}
+
+	public static void end(int scope) {
+		if (!ENABLED) {
+			return;
+		}
+		long now = System.nanoTime();
+		ThreadState thread = currentThread.get();
+		if (thread.depth == 0 || thread.stack[thread.depth - 1] != scope) {
+			throw new IllegalStateException("Profiler scope " + names.get(scope) + " ended but wasn't the last one begun");
+		}
+		thread.depth--;
+		thread.add(scope, thread.starts[thread.depth], now);
+	}
+
+	//adds time that was measured some other way (like LightAssigner.getFrameNanos) to a scope for this frame
+	public static void add(int scope, long nanos) {
+		if (!ENABLED) {
+			return;
+		}
+		currentThread.get().add(scope, ADDED, nanos);
+	}
+
+	//adds to the calls of a scope for this frame without timing anything, for things like the number of draws
+	//a pass made, which then show up in the overlay and the averages next to its time
+	public static void count(int scope, int amount) {
+		if (!ENABLED) {
+			return;
+		}
+		currentThread.get().add(scope, COUNTED, amount);
+	}
+
+	//GPU time for a scope, in nanoseconds on the GPU's clock, the frame it belongs to is long gone by now
+	//so it is counted in the frame it arrives in
+	public static void recordGpu(int scope, long start, long end) {
+		if (!ENABLED) {
+			return;
+		}
+		gpuFrame[scope] += end - start;
+		if (captureFramesLeft > 0) {
+			capture(scope, GPU_THREAD, start, end);
+		}
+	}
+
+	//called by the render thread once every frame, after everything has been drawn
+	public static void endFrame() {
+		if (!ENABLED) {
+			return;
+		}
+		int slot = (int) (frame % HISTORY);
+		long[] cpu = cpuHistory[slot];
+		int[] calls = callHistory[slot];
+		Arrays.fill(cpu, 0);
+		Arrays.fill(calls, 0);
+		for (ThreadState thread : threads) {
+			synchronized (thread) {
+				for (int i = 0; i < thread.count; i++) {
+					int scope = thread.scopes[i];
+					long start = thread.startTimes[i], end = thread.endTimes[i];
+					if (start == ADDED) { //end is the duration
+						cpu[scope] += end;
+						continue;
+					}
+					if (start == COUNTED) { //end is the count
+						calls[scope] += (int) end;
+						continue;
+					}
+					cpu[scope] += end - start;
+					calls[scope]++;
+					if (captureFramesLeft > 0) {
+						capture(scope, thread.id, start, end);
+					}
+				}
+				thread.count = 0;
+			}
+		}
+		System.arraycopy(gpuFrame, 0, gpuHistory[slot], 0, MAX_SCOPES);
+		Arrays.fill(gpuFrame, 0);
+		if (captureFramesLeft > 0) {
+			captureFramesLeft--;
+		}
+		frame++;
+	}
+
+	//starts keeping every event for the next few frames, for writeTrace
+	public static void startCapture(int frames) {
+		captured = new long[4096];
+		capturedCount = 0;
+		captureFramesLeft = frames;
+	}
+
+	public static boolean isCapturing() {
+		return captureFramesLeft > 0;
+	}
+
+	public static int getScopeCount() {
+		return names.size();
+	}
+
+	public static String getName(int scope) {
+		return names.get(scope);
+	}
+
+	//how many frames of history there are
+	public static int getFrameCount() {
+		return (int) Math.min(frame, HISTORY);
+	}
+
+	//the average time per frame of a scope over the history, in nanoseconds
+	public static long getAverage(int scope, boolean gpu) {
+		int frames = getFrameCount();
+		if (frames == 0) {
+			return 0;
+		}
+		long[][] history = gpu ? gpuHistory : cpuHistory;
+		long sum = 0;
+		for (int i = 0; i < frames; i++) {
+			sum += history[i][scope];
+		}
+		return sum / frames;
+	}
+
+	//the longest a scope took in any one frame of the history
+	public static long getMax(int scope, boolean gpu) {
+		long[][] history = gpu ? gpuHistory : cpuHistory;
+		long max = 0;
+		for (int i = 0; i < getFrameCount(); i++) {
+			max = Math.max(max, history[i][scope]);
+		}
+		return max;
+	}
+
+	public static float getAverageCalls(int scope) {
+		int frames = getFrameCount();
+		long sum = 0;
+		for (int i = 0; i < frames; i++) {
+			sum += callHistory[i][scope];
+		}
+		return frames == 0 ? 0 : sum / (float) frames;
+	}
+
+	//one line per frame of the history, oldest first, with the CPU and GPU milliseconds of every scope
+	public static void writeCsv(Writer out) throws IOException {
+		out.write("frame");
+		for (String name : names) {
+			out.write("," + quote(name + " cpu ms") + "," + quote(name + " gpu ms"));
+		}
+		out.write("\n");
+		for (long f = frame - getFrameCount(); f < frame; f++) {
+			int slot = (int) (f % HISTORY);
+			out.write(Long.toString(f));
+			for (int scope = 0; scope < names.size(); scope++) {
+				out.write(String.format(Locale.ROOT, ",%.4f,%.4f", cpuHistory[slot][scope] / 1e6,
+						gpuHistory[slot][scope] / 1e6));
+			}
+			out.write("\n");
+		}
+	}
+
+	//the captured events in the Chrome trace event format, times in microseconds
+	//GPU events are on their own track and shifted so that the first one starts with the first CPU event
+	public static void writeTrace(Writer out) throws IOException {
+		long cpuStart = Long.MAX_VALUE, gpuStart = Long.MAX_VALUE;
+		for (int i = 0; i < capturedCount; i++) {
+			long start = captured[i * 4 + 2];
+			if (captured[i * 4 + 1] == GPU_THREAD) {
+				gpuStart = Math.min(gpuStart, start);
+			} else {
+				cpuStart = Math.min(cpuStart, start);
+			}
+		}
+		out.write("{\"traceEvents\":[\n");
+		for (ThreadState thread : threads) {
+			out.write(String.format(Locale.ROOT,
+					"{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":%d,\"args\":{\"name\":%s}},\n", thread.id,
+					quote(thread.name)));
+		}
+		out.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + GPU_THREAD
+				+ ",\"args\":{\"name\":\"GPU\"}}");
+		for (int i = 0; i < capturedCount; i++) {
+			int scope = (int) captured[i * 4];
+			long thread = captured[i * 4 + 1];
+			long start = captured[i * 4 + 2], end = captured[i * 4 + 3];
+			long origin = thread == GPU_THREAD ? gpuStart : cpuStart;
+			out.write(String.format(Locale.ROOT,
+					",\n{\"name\":%s,\"cat\":\"%s\",\"ph\":\"X\",\"pid\":1,\"tid\":%d,\"ts\":%.3f,\"dur\":%.3f}",
+					quote(names.get(scope)), thread == GPU_THREAD ? "gpu" : "cpu", thread, (start - origin) / 1e3,
+					(end - start) / 1e3));
+		}
+		out.write("\n]}\n");
+	}
+
+	private static void capture(int scope, long thread, long start, long end) {
+		if ((capturedCount + 1) * 4 > captured.length) {
+			captured = Arrays.copyOf(captured, captured.length * 2);
+		}
+		int at = capturedCount++ * 4;
+		captured[at] = scope;
+		captured[at + 1] = thread;
+		captured[at + 2] = start;
+		captured[at + 3] = end;
+	}
+
+	private static String quote(String text) {
+		return "\"" + text.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	private static ThreadState newThreadState() {
+		ThreadState state = new ThreadState(Thread.currentThread());
+		threads.add(state);
+		return state;
+	}
+
+	//the open scopes of one thread, and the scopes it finished this frame
+	private static class ThreadState {
+
+		private final long id;
+		private final String name;
+
+		//only touched by the owning thread
+		private final int[] stack = new int[MAX_DEPTH];
+		private final long[] starts = new long[MAX_DEPTH];
+		private int depth = 0;
+
+		//written by the owning thread and read by endFrame, so both lock the state
+		private int[] scopes = new int[64];
+		private long[] startTimes = new long[64];
+		private long[] endTimes = new long[64];
+		private int count = 0;
+
+		private ThreadState(Thread thread) {
+			this.id = thread.getId();
+			this.name = thread.getName();
+		}
+
+		private synchronized void add(int scope, long start, long end) {
+			if (count == scopes.length) {
+				scopes = Arrays.copyOf(scopes, count * 2);
+				startTimes = Arrays.copyOf(startTimes, count * 2);
+				endTimes = Arrays.copyOf(endTimes, count * 2);
+			}
+			scopes[count] = scope;
+			startTimes[count] = start;
+			endTimes[count++] = end;
+		}
+	}
+
+}
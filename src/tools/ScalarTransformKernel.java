@@ -0,0 +1,61 @@
+package tools;
+
+/**
+ * @author Andrei
+ * The plain Java version of the transform kernel, one entity at a time.
+ * Used when the Vector API isn't available, and by the vector kernel for the entities left over at the end of a range.
+ */
+public class ScalarTransformKernel implements TransformKernel {
+
+	@Override
+	public void computeMatrices(float[] x, float[] y, float[] z, float[] rx, float[] ry, float[] rz, float[] scale,
+			int from, int to, float[] matrices) {
+		for (int i = from; i < to; i++) {
+			Maths.writeTransformationMatrix(x[i], y[i], z[i], rx[i], ry[i], rz[i], scale[i], matrices, i * 16);
+		}
+	}
+
+	@Override
+	public void computeMatrices(float[] x, float[] y, float[] z, float[] qx, float[] qy, float[] qz, float[] qw,
+			float[] scale, int from, int to, float[] matrices) {
+		for (int i = from; i < to; i++) {
+			Maths.writeTransformationMatrix(x[i], y[i], z[i], qx[i], qy[i], qz[i], qw[i], scale[i], matrices, i * 16);
+		}
+	}
+
+	@Override
+	public void transformPoints(float[] matrix, float[] x, float[] y, float[] z, int from, int to, float[] outX,
+			float[] outY, float[] outZ) {
+		for (int i = from; i < to; i++) {
+			float px = x[i], py = y[i], pz = z[i];
+			outX[i] = matrix[0] * px + matrix[4] * py + matrix[8] * pz + matrix[12];
+			outY[i] = matrix[1] * px + matrix[5] * py + matrix[9] * pz + matrix[13];
+			outZ[i] = matrix[2] * px + matrix[6] * py + matrix[10] * pz + matrix[14];
+		}
+	}
+
+	@Override
+	public void cullSpheres(float[] planes, float[] x, float[] y, float[] z, float[] radius, int from, int to,
+			IntList visible) {
+		for (int i = from; i < to; i++) {
+			boolean inside = true;
+			for (int p = 0; p < planes.length && inside; p += 4) {
+				inside = planes[p] * x[i] + planes[p + 1] * y[i] + planes[p + 2] * z[i] + planes[p + 3] >= -radius[i];
+			}
+			if (inside) {
+				visible.add(i);
+			}
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "scalar";
+	}
+
+	@Override
+	public int getLanes() {
+		return 1;
+	}
+
+}
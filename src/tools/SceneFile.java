@@ -0,0 +1,599 @@
+package tools;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Andrei
+ * Everything that makes up a scene, as plain data: models, terrain tiles, lights, entity placements and the player.
+ * Nothing in here touches OpenGL, the SceneLoader turns this into actual entities and terrains.
+ *
+ * Scenes are written in a text form (.scene) and can be compiled into a binary form (.scenebin) which
+ * loads a lot faster, since the placements are stored as flat arrays that are read in one go.
+ *
+ * The text form has one record per line, # starts a comment:
+ *   terrain gridX gridZ texture heightmap
+ *   model name obj texture [shine=10] [reflectivity=1] [fakelight]
+ *   entity model x y z rx ry rz scale
+ *   light x y z r g b [attenuationX attenuationY attenuationZ] [parent=placement]
+ *   player model x y z rx ry rz scale
+ * A height written as ~ is the height of the terrain at x z, and ~5 is 5 above it.
+ * A light with a parent follows that placement around (counting the entity records from 0), x y z is then
+ * where it sits relative to the placement, turning with it.
+ *
+ * Usage: SceneFile input.scene output.scenebin
+ */
+public class SceneFile {
+
+	public static final String TEXT_EXTENSION = ".scene";
+	public static final String BINARY_EXTENSION = ".scenebin";
+
+	//floats per placement: x, y, z, rx, ry, rz, scale
+	public static final int TRANSFORM_SIZE = 7;
+	//floats per light: position, colour, attenuation
+	public static final int LIGHT_SIZE = 9;
+
+	private static final int MAGIC = 0x43535244; //"DRSC"
+	private static final int VERSION = 2;
+
+	private final List<ModelDef> models = new ArrayList<ModelDef>();
+	private final List<TerrainDef> terrains = new ArrayList<TerrainDef>();
+
+	private int lightCount = 0;
+	private float[] lights = new float[LIGHT_SIZE * 8];
+	private boolean[] lightOnTerrain = new boolean[8];
+	private int[] lightParents = new int[8];
+
+	private int placementCount = 0;
+	private int[] placementModels = new int[64];
+	private float[] placements = new float[TRANSFORM_SIZE * 64];
+	private boolean[] placementOnTerrain = new boolean[64];
+
+	private int playerModel = -1;
+	private final float[] player = new float[TRANSFORM_SIZE];
+	private boolean playerOnTerrain = false;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: SceneFile input" + TEXT_EXTENSION + " output" + BINARY_EXTENSION);
+			return;
+		}
+		long start = System.nanoTime();
+		SceneFile scene = readText(Paths.get(args[0]));
+		scene.writeBinary(Paths.get(args[1]));
+		System.out.printf("Compiled %d placements, %d lights, %d models in %.1f ms%n", scene.getPlacementCount(),
+				scene.getLightCount(), scene.getModels().size(), (System.nanoTime() - start) / 1e6);
+	}
+
+	//reads either form, going by the extension
+	public static SceneFile read(Path path) throws IOException {
+		if (path.toString().endsWith(BINARY_EXTENSION)) {
+			return readBinary(path);
+		}
+		return readText(path);
+	}
+
+	public static SceneFile readText(Path path) throws IOException {
+		SceneFile scene = new SceneFile();
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				int comment = line.indexOf('#');
+				if (comment >= 0) {
+					line = line.substring(0, comment);
+				}
+				line = line.trim();
+				if (line.isEmpty()) {
+					continue;
+				}
+				try {
+					scene.parseLine(line.split("\\s+"));
+				} catch (RuntimeException e) {
+					throw new IOException(path + ":" + lineNumber + ": " + e.getMessage(), e);
+				}
+			}
+		}
+		//the lights can come before the placements they are parented to
+		for (int i = 0; i < scene.lightCount; i++) {
+			if (scene.lightParents[i] >= scene.placementCount) {
+				throw new IOException(path + ": light " + i + " is parented to placement " + scene.lightParents[i]
+						+ ", but there are only " + scene.placementCount);
+			}
+		}
+		return scene;
+	}
+
+	public static SceneFile readBinary(Path path) throws IOException {
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			buffer = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+			}
+		}
+		buffer.flip();
+		if (buffer.getInt() != MAGIC) {
+			throw new IOException(path + " is not a compiled scene");
+		}
+		int version = buffer.getInt();
+		if (version != VERSION) {
+			throw new IOException(path + " was compiled with version " + version + ", expected " + VERSION);
+		}
+		SceneFile scene = new SceneFile();
+		int modelCount = buffer.getInt();
+		for (int i = 0; i < modelCount; i++) {
+			scene.models.add(new ModelDef(getString(buffer), getString(buffer), getString(buffer), buffer.getFloat(),
+					buffer.getFloat(), buffer.get() != 0));
+		}
+		int terrainCount = buffer.getInt();
+		for (int i = 0; i < terrainCount; i++) {
+			scene.terrains.add(new TerrainDef(buffer.getInt(), buffer.getInt(), getString(buffer), getString(buffer)));
+		}
+		scene.playerModel = buffer.getInt();
+		scene.playerOnTerrain = buffer.get() != 0;
+		align(buffer);
+		buffer.asFloatBuffer().get(scene.player);
+		buffer.position(buffer.position() + TRANSFORM_SIZE * 4);
+
+		scene.lightCount = buffer.getInt();
+		scene.lights = new float[Math.max(scene.lightCount, 1) * LIGHT_SIZE];
+		scene.lightOnTerrain = new boolean[Math.max(scene.lightCount, 1)];
+		scene.lightParents = new int[Math.max(scene.lightCount, 1)];
+		buffer.asFloatBuffer().get(scene.lights, 0, scene.lightCount * LIGHT_SIZE);
+		buffer.position(buffer.position() + scene.lightCount * LIGHT_SIZE * 4);
+		buffer.asIntBuffer().get(scene.lightParents, 0, scene.lightCount);
+		buffer.position(buffer.position() + scene.lightCount * 4);
+		getFlags(buffer, scene.lightOnTerrain, scene.lightCount);
+
+		//the placements are three flat arrays, by far the biggest part of the file
+		int count = buffer.getInt();
+		scene.placementCount = count;
+		scene.placementModels = new int[Math.max(count, 1)];
+		scene.placements = new float[Math.max(count, 1) * TRANSFORM_SIZE];
+		scene.placementOnTerrain = new boolean[Math.max(count, 1)];
+		buffer.asIntBuffer().get(scene.placementModels, 0, count);
+		buffer.position(buffer.position() + count * 4);
+		buffer.asFloatBuffer().get(scene.placements, 0, count * TRANSFORM_SIZE);
+		buffer.position(buffer.position() + count * TRANSFORM_SIZE * 4);
+		getFlags(buffer, scene.placementOnTerrain, count);
+		for (int i = 0; i < count; i++) {
+			if (scene.placementModels[i] < 0 || scene.placementModels[i] >= modelCount) {
+				throw new IOException(path + ": placement " + i + " uses model " + scene.placementModels[i]
+						+ ", but there are only " + modelCount);
+			}
+		}
+		for (int i = 0; i < scene.lightCount; i++) {
+			if (scene.lightParents[i] >= count) {
+				throw new IOException(path + ": light " + i + " is parented to placement " + scene.lightParents[i]
+						+ ", but there are only " + count);
+			}
+		}
+		return scene;
+	}
+
+	public void writeBinary(Path path) throws IOException {
+		int size = 64 + placementCount * (TRANSFORM_SIZE * 4 + 5) + lightCount * (LIGHT_SIZE * 4 + 5);
+		for (ModelDef model : models) {
+			size += 32 + model.name.length() * 3 + model.obj.length() * 3 + model.texture.length() * 3;
+		}
+		for (TerrainDef terrain : terrains) {
+			size += 24 + terrain.texture.length() * 3 + terrain.heightMap.length() * 3;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(models.size());
+		for (ModelDef model : models) {
+			putString(buffer, model.name);
+			putString(buffer, model.obj);
+			putString(buffer, model.texture);
+			buffer.putFloat(model.shineDamper);
+			buffer.putFloat(model.reflectivity);
+			buffer.put((byte) (model.fakeLighting ? 1 : 0));
+		}
+		buffer.putInt(terrains.size());
+		for (TerrainDef terrain : terrains) {
+			buffer.putInt(terrain.gridX);
+			buffer.putInt(terrain.gridZ);
+			putString(buffer, terrain.texture);
+			putString(buffer, terrain.heightMap);
+		}
+		buffer.putInt(playerModel);
+		buffer.put((byte) (playerOnTerrain ? 1 : 0));
+		align(buffer);
+		buffer.asFloatBuffer().put(player);
+		buffer.position(buffer.position() + TRANSFORM_SIZE * 4);
+
+		buffer.putInt(lightCount);
+		buffer.asFloatBuffer().put(lights, 0, lightCount * LIGHT_SIZE);
+		buffer.position(buffer.position() + lightCount * LIGHT_SIZE * 4);
+		buffer.asIntBuffer().put(lightParents, 0, lightCount);
+		buffer.position(buffer.position() + lightCount * 4);
+		putFlags(buffer, lightOnTerrain, lightCount);
+
+		buffer.putInt(placementCount);
+		buffer.asIntBuffer().put(placementModels, 0, placementCount);
+		buffer.position(buffer.position() + placementCount * 4);
+		buffer.asFloatBuffer().put(placements, 0, placementCount * TRANSFORM_SIZE);
+		buffer.position(buffer.position() + placementCount * TRANSFORM_SIZE * 4);
+		putFlags(buffer, placementOnTerrain, placementCount);
+		buffer.flip();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	public void addModel(ModelDef model) {
+		if (getModelIndex(model.name) >= 0) {
+			throw new IllegalArgumentException("Model " + model.name + " is defined twice");
+		}
+		models.add(model);
+	}
+
+	public void addTerrain(TerrainDef terrain) {
+		terrains.add(terrain);
+	}
+
+	//parent is the placement the light follows, or -1
+	public void addLight(float x, float y, float z, boolean onTerrain, float r, float g, float b, float attenuationX,
+			float attenuationY, float attenuationZ, int parent) {
+		if (onTerrain && parent >= 0) {
+			throw new IllegalArgumentException("A light with a parent can't be on the terrain as well");
+		}
+		if (lightCount == lightOnTerrain.length) {
+			lights = Arrays.copyOf(lights, lights.length * 2);
+			lightOnTerrain = Arrays.copyOf(lightOnTerrain, lightOnTerrain.length * 2);
+			lightParents = Arrays.copyOf(lightParents, lightParents.length * 2);
+		}
+		int l = lightCount * LIGHT_SIZE;
+		lights[l] = x;
+		lights[l + 1] = y;
+		lights[l + 2] = z;
+		lights[l + 3] = r;
+		lights[l + 4] = g;
+		lights[l + 5] = b;
+		lights[l + 6] = attenuationX;
+		lights[l + 7] = attenuationY;
+		lights[l + 8] = attenuationZ;
+		lightParents[lightCount] = parent;
+		lightOnTerrain[lightCount++] = onTerrain;
+	}
+
+	public void addPlacement(int model, float x, float y, float z, boolean onTerrain, float rx, float ry, float rz,
+			float scale) {
+		if (placementCount == placementModels.length) {
+			placementModels = Arrays.copyOf(placementModels, placementCount * 2);
+			placements = Arrays.copyOf(placements, placements.length * 2);
+			placementOnTerrain = Arrays.copyOf(placementOnTerrain, placementCount * 2);
+		}
+		setTransform(placements, placementCount * TRANSFORM_SIZE, x, y, z, rx, ry, rz, scale);
+		placementModels[placementCount] = model;
+		placementOnTerrain[placementCount++] = onTerrain;
+	}
+
+	public void setPlayer(int model, float x, float y, float z, boolean onTerrain, float rx, float ry, float rz,
+			float scale) {
+		playerModel = model;
+		playerOnTerrain = onTerrain;
+		setTransform(player, 0, x, y, z, rx, ry, rz, scale);
+	}
+
+	public int getModelIndex(String name) {
+		for (int i = 0; i < models.size(); i++) {
+			if (models.get(i).name.equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public List<ModelDef> getModels() {
+		return models;
+	}
+
+	public List<TerrainDef> getTerrains() {
+		return terrains;
+	}
+
+	public int getLightCount() {
+		return lightCount;
+	}
+
+	//LIGHT_SIZE floats per light, only the first getLightCount() lights are valid
+	public float[] getLights() {
+		return lights;
+	}
+
+	public boolean isLightOnTerrain(int light) {
+		return lightOnTerrain[light];
+	}
+
+	//the placement the light follows, -1 if it stays where it is
+	public int getLightParent(int light) {
+		return lightParents[light];
+	}
+
+	public int getPlacementCount() {
+		return placementCount;
+	}
+
+	public int[] getPlacementModels() {
+		return placementModels;
+	}
+
+	//TRANSFORM_SIZE floats per placement, only the first getPlacementCount() placements are valid
+	public float[] getPlacements() {
+		return placements;
+	}
+
+	public boolean isPlacementOnTerrain(int placement) {
+		return placementOnTerrain[placement];
+	}
+
+	//-1 if the scene has no player
+	public int getPlayerModel() {
+		return playerModel;
+	}
+
+	public float[] getPlayer() {
+		return player;
+	}
+
+	public boolean isPlayerOnTerrain() {
+		return playerOnTerrain;
+	}
+
+	private void parseLine(String[] words) {
+		switch (words[0]) {
+		case "terrain":
+			expect(words, 5, 5);
+			addTerrain(new TerrainDef(Integer.parseInt(words[1]), Integer.parseInt(words[2]), words[3], words[4]));
+			break;
+		case "model":
+			expect(words, 4, 7);
+			float shineDamper = 1, reflectivity = 0;
+			boolean fakeLighting = false;
+			for (int i = 4; i < words.length; i++) {
+				if (words[i].startsWith("shine=")) {
+					shineDamper = Float.parseFloat(words[i].substring(6));
+				} else if (words[i].startsWith("reflectivity=")) {
+					reflectivity = Float.parseFloat(words[i].substring(13));
+				} else if (words[i].equals("fakelight")) {
+					fakeLighting = true;
+				} else {
+					throw new IllegalArgumentException("Unknown model option " + words[i]);
+				}
+			}
+			addModel(new ModelDef(words[1], words[2], words[3], shineDamper, reflectivity, fakeLighting));
+			break;
+		case "entity":
+		case "player":
+			expect(words, 9, 9);
+			int model = getModelIndex(words[1]);
+			if (model < 0) {
+				throw new IllegalArgumentException("Unknown model " + words[1]);
+			}
+			boolean onTerrain = words[3].startsWith("~");
+			float x = Float.parseFloat(words[2]), y = parseHeight(words[3]), z = Float.parseFloat(words[4]);
+			float rx = Float.parseFloat(words[5]), ry = Float.parseFloat(words[6]), rz = Float.parseFloat(words[7]);
+			float scale = Float.parseFloat(words[8]);
+			if (words[0].equals("player")) {
+				setPlayer(model, x, y, z, onTerrain, rx, ry, rz, scale);
+			} else {
+				addPlacement(model, x, y, z, onTerrain, rx, ry, rz, scale);
+			}
+			break;
+		case "light":
+			expect(words, 7, 11);
+			int values = words.length;
+			int parent = -1;
+			if (words[values - 1].startsWith("parent=")) {
+				parent = Integer.parseInt(words[--values].substring(7));
+				if (parent < 0) {
+					throw new IllegalArgumentException("Unknown placement " + parent);
+				}
+			}
+			if (values != 7 && values != 10) {
+				throw new IllegalArgumentException("A light needs either no attenuation or all 3 values");
+			}
+			float attenuationX = 1, attenuationY = 0, attenuationZ = 0;
+			if (values == 10) {
+				attenuationX = Float.parseFloat(words[7]);
+				attenuationY = Float.parseFloat(words[8]);
+				attenuationZ = Float.parseFloat(words[9]);
+			}
+			addLight(Float.parseFloat(words[1]), parseHeight(words[2]), Float.parseFloat(words[3]),
+					words[2].startsWith("~"), Float.parseFloat(words[4]), Float.parseFloat(words[5]),
+					Float.parseFloat(words[6]), attenuationX, attenuationY, attenuationZ, parent);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown record " + words[0]);
+		}
+	}
+
+	//~ on its own is 0 above the terrain
+	private static float parseHeight(String word) {
+		if (word.startsWith("~")) {
+			return word.length() == 1 ? 0 : Float.parseFloat(word.substring(1));
+		}
+		return Float.parseFloat(word);
+	}
+
+	private static void expect(String[] words, int min, int max) {
+		if (words.length < min || words.length > max) {
+			throw new IllegalArgumentException(words[0] + " takes " + (min == max ? "" + (min - 1)
+					: (min - 1) + " to " + (max - 1)) + " values, got " + (words.length - 1));
+		}
+	}
+
+	private static void setTransform(float[] dest, int offset, float x, float y, float z, float rx, float ry,
+			float rz, float scale) {
+		dest[offset] = x;
+		dest[offset + 1] = y;
+		dest[offset + 2] = z;
+		dest[offset + 3] = rx;
+		dest[offset + 4] = ry;
+		dest[offset + 5] = rz;
+		dest[offset + 6] = scale;
+	}
+
+	private static void putString(ByteBuffer buffer, String string) {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		buffer.putShort((short) bytes.length);
+		buffer.put(bytes);
+	}
+
+	private static String getString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	//one byte per flag, followed by padding so the next array starts on 4 bytes
+	private static void putFlags(ByteBuffer buffer, boolean[] flags, int count) {
+		for (int i = 0; i < count; i++) {
+			buffer.put((byte) (flags[i] ? 1 : 0));
+		}
+		align(buffer);
+	}
+
+	private static void getFlags(ByteBuffer buffer, boolean[] flags, int count) {
+		for (int i = 0; i < count; i++) {
+			flags[i] = buffer.get() != 0;
+		}
+		align(buffer);
+	}
+
+	//new buffers are zeroed, so skipping ahead writes zeros as the padding
+	private static void align(ByteBuffer buffer) {
+		buffer.position((buffer.position() + 3) & ~3);
+	}
+
+	/**
+	 * A model and the texture it is drawn with, referred to by name from the placements
+	 */
+	public static class ModelDef {
+
+		private final String name;
+		private final String obj;
+		private final String texture;
+		private final float shineDamper;
+		private final float reflectivity;
+		private final boolean fakeLighting;
+
+		public ModelDef(String name, String obj, String texture, float shineDamper, float reflectivity,
+				boolean fakeLighting) {
+			this.name = name;
+			this.obj = obj;
+			this.texture = texture;
+			this.shineDamper = shineDamper;
+			this.reflectivity = reflectivity;
+			this.fakeLighting = fakeLighting;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getObj() {
+			return obj;
+		}
+
+		public String getTexture() {
+			return texture;
+		}
+
+		public float getShineDamper() {
+			return shineDamper;
+		}
+
+		public float getReflectivity() {
+			return reflectivity;
+		}
+
+		public boolean isFakeLighting() {
+			return fakeLighting;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof ModelDef)) {
+				return false;
+			}
+			ModelDef model = (ModelDef) other;
+			return name.equals(model.name) && obj.equals(model.obj) && texture.equals(model.texture)
+					&& shineDamper == model.shineDamper && reflectivity == model.reflectivity
+					&& fakeLighting == model.fakeLighting;
+		}
+
+		@Override
+		public int hashCode() {
+			return name.hashCode();
+		}
+	}
+
+	/**
+	 * One tile of terrain
+	 */
+	public static class TerrainDef {
+
+		private final int gridX;
+		private final int gridZ;
+		private final String texture;
+		private final String heightMap;
+
+		public TerrainDef(int gridX, int gridZ, String texture, String heightMap) {
+			this.gridX = gridX;
+			this.gridZ = gridZ;
+			this.texture = texture;
+			this.heightMap = heightMap;
+		}
+
+		public int getGridX() {
+			return gridX;
+		}
+
+		public int getGridZ() {
+			return gridZ;
+		}
+
+		public String getTexture() {
+			return texture;
+		}
+
+		public String getHeightMap() {
+			return heightMap;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof TerrainDef)) {
+				return false;
+			}
+			TerrainDef terrain = (TerrainDef) other;
+			return gridX == terrain.gridX && gridZ == terrain.gridZ && texture.equals(terrain.texture)
+					&& heightMap.equals(terrain.heightMap);
+		}
+
+		@Override
+		public int hashCode() {
+			return gridX * 31 + gridZ;
+		}
+	}
+
+}
@@ -0,0 +1,245 @@
+package tools;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+/**
+ * @author Andrei
+ * Works out where the cascades of the sun's shadow map go, without touching OpenGL (ShadowRenderer draws them).
+ *
+ * The part of the camera's view up to the shadow distance is cut into slices, nearer slices are thinner so they
+ * get more shadow map pixels per metre. Every slice is wrapped in a sphere, which is the same size whichever way
+ * the camera looks, and the cascade is a box around that sphere seen from the sun.
+ *
+ * The static casters are only drawn into a cascade again when it has to move. The box is made bigger than the
+ * sphere by a margin, and only once the sphere would stick out of it (the camera moved more than margin * radius)
+ * does the cascade move. It then moves by whole shadow map pixels, so the pixels of the new map are where the
+ * pixels of the old one were and the shadow edges don't crawl. Whatever else changed the static casters (one of
+ * them moved, one was added or removed, the sun moved) is given as a version number, a new one redraws them all.
+ */
+public class ShadowCascades {
+
+	//how much of the split follows a logarithmic spacing rather than an even one
+	private static final float SPLIT_LAMBDA = 0.75f;
+
+	private final int count;
+	private final int resolution;
+	private final float margin;
+	//how far behind a cascade (towards the sun) things can still cast a shadow into it
+	private final float casterReach;
+
+	//the distance at which every slice ends, the last one is the shadow distance
+	private final float[] ends;
+	//the sphere around every slice, its middle is this far along the view direction
+	private final float[] centres;
+	private final float[] radii;
+
+	//where every cascade was last drawn, in the sun's space, and whether it has to be drawn again
+	private final float[] cachedX, cachedY, cachedZ;
+	private final boolean[] valid;
+	private final boolean[] refresh;
+	private final Vector3f cachedDirection = new Vector3f();
+	private long cachedVersion = Long.MIN_VALUE;
+
+	//the sun's axes, x and y across the map and z from the sun into the scene
+	private final Vector3f right = new Vector3f(), up = new Vector3f(), direction = new Vector3f();
+
+	private final Vector3f scratch = new Vector3f();
+
+	private final Matrix4f[] matrices;
+	private final float[] shadowMatrices;
+	private long refreshes = 0;
+
+	public ShadowCascades(int count, float near, float distance, float fov, float aspectRatio, int resolution,
+			float margin, float casterReach) {
+		this.count = count;
+		this.resolution = resolution;
+		this.margin = margin;
+		this.casterReach = casterReach;
+		ends = new float[count];
+		centres = new float[count];
+		radii = new float[count];
+		cachedX = new float[count];
+		cachedY = new float[count];
+		cachedZ = new float[count];
+		valid = new boolean[count];
+		refresh = new boolean[count];
+		matrices = new Matrix4f[count];
+		shadowMatrices = new float[count * 16];
+		//the projection's fov is horizontal, see MasterRenderer
+		float tanX = (float) Math.tan(Math.toRadians(fov / 2)), tanY = tanX / aspectRatio;
+		float k = tanX * tanX + tanY * tanY; //how far the corners of a slice are from its middle, per metre of depth
+		float start = near;
+		for (int i = 0; i < count; i++) {
+			float part = (i + 1) / (float) count;
+			float end = SPLIT_LAMBDA * near * (float) Math.pow(distance / near, part)
+					+ (1 - SPLIT_LAMBDA) * (near + (distance - near) * part);
+			ends[i] = end;
+			//the corners at depth d are d * sqrt(k) from the middle, the centre is as far from the near ones
+			//as from the far ones, unless that is past the far end and the far corners decide it alone
+			centres[i] = Math.min(end, (start + end) * (1 + k) / 2);
+			radii[i] = (float) Math.sqrt((end - centres[i]) * (end - centres[i]) + end * end * k);
+			matrices[i] = new Matrix4f();
+			start = end;
+		}
+	}
+
+	//places the cascades for the camera's view matrix and the direction the sunlight travels in
+	//the cascades that have to be drawn again are the ones needsRefresh is true for
+	public void update(Matrix4f view, Vector3f sunDirection, long staticVersion) {
+		direction.set(sunDirection);
+		direction.normalise();
+		boolean invalidated = staticVersion != cachedVersion || !direction.equals(cachedDirection);
+		if (invalidated) {
+			cachedVersion = staticVersion;
+			cachedDirection.set(direction);
+			setAxes();
+		}
+		//the camera's position and the way it looks, out of the view matrix
+		float tx = view.m30, ty = view.m31, tz = view.m32;
+		float cameraX = -(view.m00 * tx + view.m01 * ty + view.m02 * tz);
+		float cameraY = -(view.m10 * tx + view.m11 * ty + view.m12 * tz);
+		float cameraZ = -(view.m20 * tx + view.m21 * ty + view.m22 * tz);
+		float forwardX = -view.m02, forwardY = -view.m12, forwardZ = -view.m22;
+		for (int i = 0; i < count; i++) {
+			//the middle of the slice's sphere in the sun's space
+			set(cameraX + forwardX * centres[i], cameraY + forwardY * centres[i], cameraZ + forwardZ * centres[i]);
+			float lightX = Vector3f.dot(right, scratch), lightY = Vector3f.dot(up, scratch);
+			float lightZ = Vector3f.dot(direction, scratch);
+			float texel = getTexelSize(i);
+			float slack = margin * radii[i];
+			refresh[i] = invalidated || !valid[i] || Math.abs(lightX - cachedX[i]) > slack
+					|| Math.abs(lightY - cachedY[i]) > slack || Math.abs(lightZ - cachedZ[i]) > slack;
+			if (refresh[i]) {
+				//whole pixels, so the new map lines up with the old one
+				cachedX[i] = (float) Math.floor(lightX / texel) * texel;
+				cachedY[i] = (float) Math.floor(lightY / texel) * texel;
+				cachedZ[i] = lightZ;
+				valid[i] = true;
+				buildMatrix(i);
+				refreshes++;
+			}
+		}
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	//true if the static casters have to be drawn into the cascade again after the last update
+	public boolean needsRefresh(int cascade) {
+		return refresh[cascade];
+	}
+
+	//the view distance at which the cascade ends, the shader picks the first one a fragment is closer than
+	public float[] getEnds() {
+		return ends;
+	}
+
+	//the radius of the slice's sphere, and half the width of the map, which has the margin on top
+	public float getRadius(int cascade) {
+		return radii[cascade];
+	}
+
+	public float getHalfSize(int cascade) {
+		return radii[cascade] * (1 + margin);
+	}
+
+	//the size of one shadow map pixel in world units
+	public float getTexelSize(int cascade) {
+		return 2 * getHalfSize(cascade) / resolution;
+	}
+
+	//from world space to the cascade's clip space, for drawing the casters
+	public Matrix4f getMatrix(int cascade) {
+		return matrices[cascade];
+	}
+
+	//the same for every cascade but to shadow map coordinates (0 to 1) and depth, packed for the shaders
+	public float[] getShadowMatrices() {
+		return shadowMatrices;
+	}
+
+	//the middle of the cascade's box in the sun's space
+	public float getCachedX(int cascade) {
+		return cachedX[cascade];
+	}
+
+	public float getCachedY(int cascade) {
+		return cachedY[cascade];
+	}
+
+	public Vector3f getRight() {
+		return right;
+	}
+
+	public Vector3f getUp() {
+		return up;
+	}
+
+	public Vector3f getDirection() {
+		return direction;
+	}
+
+	//how many times a cascade had to be drawn again since it was made
+	public long getRefreshes() {
+		return refreshes;
+	}
+
+	//true if a sphere in world space is (partly) inside the cascade's box, for picking the casters
+	public boolean intersectsSphere(int cascade, float x, float y, float z, float radius) {
+		set(x, y, z);
+		float halfSize = getHalfSize(cascade);
+		float lightZ = Vector3f.dot(direction, scratch) - cachedZ[cascade];
+		return Math.abs(Vector3f.dot(right, scratch) - cachedX[cascade]) <= halfSize + radius
+				&& Math.abs(Vector3f.dot(up, scratch) - cachedY[cascade]) <= halfSize + radius
+				&& lightZ >= -halfSize - casterReach - radius && lightZ <= halfSize + radius;
+	}
+
+	private Vector3f set(float x, float y, float z) {
+		scratch.set(x, y, z);
+		return scratch;
+	}
+
+	//the sun's axes, across the map any two directions at right angles to it will do
+	private void setAxes() {
+		Vector3f worldUp = Math.abs(direction.y) > 0.99f ? new Vector3f(1, 0, 0) : new Vector3f(0, 1, 0);
+		Vector3f.cross(direction, worldUp, right);
+		right.normalise();
+		Vector3f.cross(right, direction, up);
+		up.normalise();
+	}
+
+	//an orthographic projection of the box around where the cascade was last drawn
+	//z goes from casterReach beyond the box on the sun's side to the far side of the box
+	private void buildMatrix(int cascade) {
+		float halfSize = getHalfSize(cascade);
+		float depth = 2 * halfSize + casterReach, s = 2 / depth;
+		Matrix4f m = matrices[cascade];
+		m.setIdentity();
+		m.m00 = right.x / halfSize;
+		m.m10 = right.y / halfSize;
+		m.m20 = right.z / halfSize;
+		m.m30 = -cachedX[cascade] / halfSize;
+		m.m01 = up.x / halfSize;
+		m.m11 = up.y / halfSize;
+		m.m21 = up.z / halfSize;
+		m.m31 = -cachedY[cascade] / halfSize;
+		m.m02 = direction.x * s;
+		m.m12 = direction.y * s;
+		m.m22 = direction.z * s;
+		m.m32 = -cachedZ[cascade] * s + casterReach / depth;
+		//the shadow map coordinates are half the clip space ones plus a half
+		int offset = cascade * 16;
+		float[] rows = { m.m00, m.m10, m.m20, m.m30, m.m01, m.m11, m.m21, m.m31, m.m02, m.m12, m.m22, m.m32 };
+		for (int row = 0; row < 3; row++) {
+			for (int column = 0; column < 4; column++) {
+				//column major, like the rest of the matrices given to the shaders
+				shadowMatrices[offset + column * 4 + row] = rows[row * 4 + column] * 0.5f + (column == 3 ? 0.5f : 0);
+			}
+		}
+		shadowMatrices[offset + 3] = shadowMatrices[offset + 7] = shadowMatrices[offset + 11] = 0;
+		shadowMatrices[offset + 15] = 1;
+	}
+
+}
@@ -0,0 +1,59 @@
+package tools;
+
+/**
+ * @author Andrei
+ * Math that runs over a whole range of entities at once, on structure of arrays data like the arrays in EntityStore.
+ *
+ * There are two implementations: ScalarTransformKernel, which works on one entity at a time and always works,
+ * and VectorTransformKernel (in the simd source folder), which uses the incubating Vector API to work on as many
+ * entities as fit into the CPU's vector registers. getInstance picks the vector one when it is on the class path and
+ * the JVM was started with --add-modules jdk.incubator.vector, and the scalar one otherwise.
+ * Starting the JVM with -Ddreaming.simd=false always picks the scalar one.
+ *
+ * All the ranges are from (inclusive) to to (exclusive), matrices are 16 floats per entity in column major order.
+ */
+public interface TransformKernel {
+
+	//the same matrices as Maths.writeTransformationMatrix, written at index * 16 for every index in the range
+	void computeMatrices(float[] x, float[] y, float[] z, float[] rx, float[] ry, float[] rz, float[] scale, int from,
+			int to, float[] matrices);
+
+	//the same matrices from unit quaternions instead of angles (see EntityStore), which needs no trig at all
+	void computeMatrices(float[] x, float[] y, float[] z, float[] qx, float[] qy, float[] qz, float[] qw,
+			float[] scale, int from, int to, float[] matrices);
+
+	//multiplies points by a matrix (like the view matrix), the results go into the out arrays at the same indices
+	void transformPoints(float[] matrix, float[] x, float[] y, float[] z, int from, int to, float[] outX, float[] outY,
+			float[] outZ);
+
+	//adds the index of every sphere that is at least partly inside the planes (a, b, c, d for each, see Frustum)
+	void cullSpheres(float[] planes, float[] x, float[] y, float[] z, float[] radius, int from, int to, IntList visible);
+
+	String getName();
+
+	//how many entities are worked on at once
+	int getLanes();
+
+	//the best kernel this JVM can run, picked once
+	static TransformKernel getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	static class Holder {
+
+		private static final String VECTOR_KERNEL = "tools.VectorTransformKernel";
+		private static final TransformKernel INSTANCE = load();
+
+		private static TransformKernel load() {
+			if (Boolean.parseBoolean(System.getProperty("dreaming.simd", "true"))) {
+				try {
+					return (TransformKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+				} catch (ReflectiveOperationException | LinkageError e) {
+					//the kernel isn't compiled in or the vector module isn't there, the scalar one does the same work
+				}
+			}
+			return new ScalarTransformKernel();
+		}
+	}
+
+}
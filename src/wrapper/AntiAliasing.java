@@ -0,0 +1,271 @@
+package wrapper;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.util.vector.Vector2f;
+
+import models.RawModel;
+import shaders.PostProcessShader;
+import tools.Profiler;
+
+/**
+ * @author Andrei
+ * Smooths the jagged edges of the scene, in one of a few ways that cost more or less:
+ *   MSAA (2, 4 or 8 samples) renders the scene into a multisampled framebuffer and averages the samples into the
+ *     target, the best looking and by far the most expensive in fill rate and memory bandwidth
+ *   FXAA is one full screen pass over the finished picture that blurs along the edges it finds
+ *   SMAA is three cheap passes (find the edges, work out how much to blend, blend) that keep the picture sharper
+ * Everything is drawn between beginScene and endScene, which puts the smoothed picture into the target.
+ * The mode can change at any time, the framebuffers it needs are made the next frame.
+ *
+ * Picked with -Ddreaming.aa= a preset (off, low, medium, high, ultra) or a mode (fxaa, smaa, msaa_2...).
+ * The default is ultra, 8x MSAA, which is what the window used to be created with.
+ */
+public class AntiAliasing {
+
+	public enum Mode {
+		OFF(0), FXAA(0), SMAA(0), MSAA_2(2), MSAA_4(4), MSAA_8(8);
+
+		private final int samples;
+
+		private Mode(int samples) {
+			this.samples = samples;
+		}
+
+		public int getSamples() {
+			return samples;
+		}
+	}
+
+	//a mode and how hard the post process passes try
+	public enum Preset {
+		OFF(Mode.OFF, 0, 0, 0),
+		LOW(Mode.FXAA, 0.166f, 0.5f, 4),
+		MEDIUM(Mode.SMAA, 0.1f, 0, 8),
+		HIGH(Mode.MSAA_4, 0, 0, 0),
+		ULTRA(Mode.MSAA_8, 0, 0, 0);
+
+		private final Mode mode;
+		private final float edgeThreshold;
+		private final float subpixelQuality;
+		private final int searchSteps;
+
+		private Preset(Mode mode, float edgeThreshold, float subpixelQuality, int searchSteps) {
+			this.mode = mode;
+			this.edgeThreshold = edgeThreshold;
+			this.subpixelQuality = subpixelQuality;
+			this.searchSteps = searchSteps;
+		}
+
+		public Mode getMode() {
+			return mode;
+		}
+	}
+
+	private static final int RESOLVE = Profiler.register("anti-aliasing");
+	//a rectangle from 0 to 1, as a triangle strip
+	private static final float[] QUAD = { 0, 1, 0, 0, 1, 1, 1, 0 };
+
+	private final RawModel quad;
+	private final PostProcessShader fxaaShader = new PostProcessShader("/shaders/fxaaFragmentShader.txt");
+	private final PostProcessShader edgeShader = new PostProcessShader("/shaders/smaaEdgeFragmentShader.txt");
+	private final PostProcessShader weightShader = new PostProcessShader("/shaders/smaaWeightFragmentShader.txt");
+	private final PostProcessShader blendShader = new PostProcessShader("/shaders/smaaBlendFragmentShader.txt");
+	private final GpuTimer gpuTimer = new GpuTimer();
+	private final int maxSamples = GL11.glGetInteger(GL30.GL_MAX_SAMPLES);
+	private final Vector2f texelSize = new Vector2f();
+	private final Vector2f regionSize = new Vector2f();
+
+	private Mode mode;
+	//the settings of the post process passes, a mode picked on its own gets the ones of the medium preset
+	private float edgeThreshold = Preset.MEDIUM.edgeThreshold;
+	private float subpixelQuality = 0.75f;
+	private int searchSteps = Preset.MEDIUM.searchSteps;
+	private Preset preset;
+
+	//made when they are first needed, at least as big as the scene
+	private Framebuffer scene, edges, weights;
+	//MSAA samples can only be copied between framebuffers of exactly the same format, which the window's might
+	//not be, so for the window they go through this one first
+	private Framebuffer resolved;
+	private int width, height;
+
+	public AntiAliasing(Loader loader) {
+		quad = loader.loadToVAO(QUAD, 2);
+		set(System.getProperty("dreaming.aa", "ultra"));
+	}
+
+	//a preset or a mode by name, ignoring case
+	public void set(String name) {
+		String upper = name.trim().toUpperCase().replace('-', '_');
+		for (Preset preset : Preset.values()) {
+			if (preset.name().equals(upper)) {
+				setPreset(preset);
+				return;
+			}
+		}
+		try {
+			setMode(Mode.valueOf(upper));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown anti-aliasing " + name + ", expected off, low, medium, high, ultra,"
+					+ " fxaa, smaa, msaa_2, msaa_4 or msaa_8");
+		}
+	}
+
+	public void setPreset(Preset preset) {
+		setMode(preset.mode);
+		if (preset.searchSteps > 0) {
+			edgeThreshold = preset.edgeThreshold;
+			subpixelQuality = preset.subpixelQuality;
+			searchSteps = preset.searchSteps;
+		}
+		this.preset = preset;
+	}
+
+	public void setMode(Mode mode) {
+		if (mode.samples > maxSamples) {
+			System.err.println(mode + " isn't supported, using " + maxSamples + " samples");
+			mode = maxSamples >= 4 ? Mode.MSAA_4 : maxSamples >= 2 ? Mode.MSAA_2 : Mode.FXAA;
+		}
+		if (mode != this.mode) {
+			this.mode = mode;
+			freeFramebuffers();
+		}
+		preset = null;
+	}
+
+	//the next preset, for a key to go through them
+	public Preset cyclePreset() {
+		Preset next = Preset.values()[preset == null ? 0 : (preset.ordinal() + 1) % Preset.values().length];
+		setPreset(next);
+		return next;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	//null if the mode was picked on its own
+	public Preset getPreset() {
+		return preset;
+	}
+
+	//the name of the preset, or of the mode if there isn't one
+	public String getName() {
+		return (preset != null ? preset.name() + " (" + mode.name() + ")" : mode.name()).toLowerCase();
+	}
+
+	//everything drawn until endScene is anti-aliased, the scene is width x height pixels
+	//with the mode off nothing changes, the scene is drawn straight into whatever is bound
+	public void beginScene(int width, int height) {
+		this.width = width;
+		this.height = height;
+		if (mode == Mode.OFF) {
+			return;
+		}
+		if (scene == null || scene.getWidth() < width || scene.getHeight() < height) {
+			createFramebuffers(width, height);
+		}
+		scene.bind(width, height);
+	}
+
+	//puts the anti-aliased scene into the bottom left corner of target, or the window if it is null
+	public void endScene(Framebuffer target) {
+		if (mode == Mode.OFF) {
+			return;
+		}
+		Profiler.begin(RESOLVE);
+		gpuTimer.begin(RESOLVE);
+		if (mode.samples > 0 && target == null) {
+			scene.resolveTo(resolved, width, height);
+			resolved.resolveTo(null, width, height);
+		} else if (mode.samples > 0) {
+			scene.resolveTo(target, width, height);
+		} else {
+			texelSize.set(1f / scene.getWidth(), 1f / scene.getHeight());
+			regionSize.set(width, height);
+			GL11.glDisable(GL11.GL_DEPTH_TEST);
+			GL30.glBindVertexArray(quad.getVaoID());
+			GL20.glEnableVertexAttribArray(0);
+			if (mode == Mode.FXAA) {
+				bind(target);
+				pass(fxaaShader, scene, null, null);
+			} else {
+				edges.bind(width, height);
+				pass(edgeShader, scene, null, null);
+				weights.bind(width, height);
+				pass(weightShader, null, edges, null);
+				bind(target);
+				pass(blendShader, scene, null, weights);
+			}
+			GL20.glDisableVertexAttribArray(0);
+			GL30.glBindVertexArray(0);
+			GL11.glEnable(GL11.GL_DEPTH_TEST);
+		}
+		bind(target);
+		gpuTimer.end(RESOLVE);
+		gpuTimer.endFrame();
+		Profiler.end(RESOLVE);
+	}
+
+	public void cleanUp() {
+		freeFramebuffers();
+		fxaaShader.cleanUp();
+		edgeShader.cleanUp();
+		weightShader.cleanUp();
+		blendShader.cleanUp();
+		gpuTimer.cleanUp();
+	}
+
+	//draws the quad with a shader, reading the colour textures of the framebuffers that aren't null
+	private void pass(PostProcessShader shader, Framebuffer scene, Framebuffer edges, Framebuffer weights) {
+		shader.start();
+		shader.loadRegion(texelSize, regionSize);
+		shader.loadQuality(edgeThreshold, subpixelQuality, searchSteps);
+		bindTexture(PostProcessShader.SCENE_UNIT, scene);
+		bindTexture(PostProcessShader.EDGE_UNIT, edges);
+		bindTexture(PostProcessShader.WEIGHT_UNIT, weights);
+		GL11.glDrawArrays(GL11.GL_TRIANGLE_STRIP, 0, quad.getVertexCount());
+		shader.stop();
+	}
+
+	private static void bindTexture(int unit, Framebuffer framebuffer) {
+		if (framebuffer != null) {
+			GL13.glActiveTexture(GL13.GL_TEXTURE0 + unit);
+			GL11.glBindTexture(GL11.GL_TEXTURE_2D, framebuffer.getColourTexture());
+		}
+	}
+
+	private void bind(Framebuffer target) {
+		if (target != null) {
+			target.bind(width, height);
+		} else {
+			GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
+			GL11.glViewport(0, 0, width, height);
+		}
+	}
+
+	private void createFramebuffers(int width, int height) {
+		freeFramebuffers();
+		scene = new Framebuffer(width, height, mode.samples, true);
+		if (mode == Mode.SMAA) {
+			edges = new Framebuffer(width, height, 0, false);
+			weights = new Framebuffer(width, height, 0, false);
+		}
+		if (mode.samples > 0) {
+			resolved = new Framebuffer(width, height, 0, false);
+		}
+	}
+
+	private void freeFramebuffers() {
+		for (Framebuffer framebuffer : new Framebuffer[] { scene, edges, weights, resolved }) {
+			if (framebuffer != null) {
+				framebuffer.cleanUp();
+			}
+		}
+		scene = edges = weights = resolved = null;
+	}
+
+}
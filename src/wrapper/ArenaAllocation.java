@@ -0,0 +1,77 @@
+package wrapper;
+
+import models.RawModel;
+
+/**
+ * @author Andrei
+ * A mesh that lives in a VertexArena: its vertices and indices are ranges of a page's buffers. Deleting it gives
+ * the ranges back to the arena. It takes no memory of its own as far as GpuResources is concerned, the pages
+ * are counted instead, getUsedBytes is how much of its page it takes up. When the page is compacted the ranges move and the model is told where to.
+ */
+public class ArenaAllocation extends GpuResource {
+
+	private final VertexArena arena;
+	private final int vao;
+	private int baseVertex;
+	private final int vertexCount;
+	private int firstIndex;
+	private final int indexCount;
+	private RawModel model;
+
+	ArenaAllocation(String name, VertexArena arena, int vao, int baseVertex, int vertexCount, int firstIndex, int indexCount) {
+		super(name);
+		this.arena = arena;
+		this.vao = vao;
+		this.baseVertex = baseVertex;
+		this.vertexCount = vertexCount;
+		this.firstIndex = firstIndex;
+		this.indexCount = indexCount;
+	}
+
+	//the size of its ranges
+	public long getUsedBytes() {
+		return (long) vertexCount * VertexArena.VERTEX_BYTES + 4L * indexCount;
+	}
+
+	//the model drawn from this allocation, kept up to date when it moves
+	public void setModel(RawModel model) {
+		this.model = model;
+	}
+
+	public int getVaoID() {
+		return vao;
+	}
+
+	//the first vertex, added to every index when drawing
+	public int getBaseVertex() {
+		return baseVertex;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	//where the indices start in the page's index buffer, in indices not bytes
+	public int getFirstIndex() {
+		return firstIndex;
+	}
+
+	public int getIndexCount() {
+		return indexCount;
+	}
+
+	@Override
+	protected void delete() {
+		arena.free(this);
+	}
+
+	//for VertexArena, after compacting
+	void moveTo(int baseVertex, int firstIndex) {
+		this.baseVertex = baseVertex;
+		this.firstIndex = firstIndex;
+		if (model != null) {
+			model.setRange(firstIndex, baseVertex);
+		}
+	}
+
+}
@@ -0,0 +1,131 @@
+package wrapper;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * @author Andrei
+ * Hands out ranges of a fixed size space, in whatever units the caller counts in (vertices, indices...), and takes
+ * them back. Doesn't touch OpenGL, VertexArena uses it to place meshes in its big buffers.
+ *
+ * The free ranges are kept sorted by where they start, a new range goes into the first one big enough and a range
+ * that is given back is merged with the free ones next to it. After a lot of meshes came and went the free space
+ * can end up in pieces too small to use, compact moves everything to the front so it is in one piece again.
+ */
+public class ArenaAllocator {
+
+	//where a range goes when compacting, from and to are the same for one that stays where it is
+	public interface Mover {
+		void move(int from, int to, int size);
+	}
+
+	private final int capacity;
+	//start -> size
+	private final TreeMap<Integer, Integer> free = new TreeMap<Integer, Integer>();
+	private final TreeMap<Integer, Integer> used = new TreeMap<Integer, Integer>();
+	private int usedUnits = 0;
+
+	public ArenaAllocator(int capacity) {
+		this.capacity = capacity;
+		if (capacity > 0) {
+			free.put(0, capacity);
+		}
+	}
+
+	//the start of a new range of the given size, or -1 if there is no free range that big
+	public int allocate(int size) {
+		if (size <= 0) {
+			throw new IllegalArgumentException("Can't allocate " + size);
+		}
+		for (Map.Entry<Integer, Integer> block : free.entrySet()) {
+			int start = block.getKey(), blockSize = block.getValue();
+			if (blockSize >= size) {
+				free.remove(start); //the entry can't be read after this, the tree reuses it
+				if (blockSize > size) {
+					free.put(start + size, blockSize - size);
+				}
+				used.put(start, size);
+				usedUnits += size;
+				return start;
+			}
+		}
+		return -1;
+	}
+
+	//gives a range back, start has to be what allocate returned
+	public void free(int start) {
+		Integer size = used.remove(start);
+		if (size == null) {
+			throw new IllegalArgumentException("Nothing was allocated at " + start);
+		}
+		usedUnits -= size;
+		int end = start + size;
+		Map.Entry<Integer, Integer> before = free.floorEntry(start);
+		if (before != null && before.getKey() + before.getValue() == start) { //joins the free range before it
+			start = before.getKey();
+			free.remove(start);
+		}
+		Integer after = free.remove(end);
+		if (after != null) { //and the one after it
+			end += after;
+		}
+		free.put(start, end - start);
+	}
+
+	//moves every range to the front, in the order they are in, telling the mover about each one
+	//the ranges only ever move towards the start, so they could even be moved in place one after another
+	public void compact(Mover mover) {
+		TreeMap<Integer, Integer> moved = new TreeMap<Integer, Integer>();
+		int next = 0;
+		Iterator<Map.Entry<Integer, Integer>> ranges = used.entrySet().iterator();
+		while (ranges.hasNext()) {
+			Map.Entry<Integer, Integer> range = ranges.next();
+			mover.move(range.getKey(), next, range.getValue());
+			moved.put(next, range.getValue());
+			next += range.getValue();
+		}
+		used.clear();
+		used.putAll(moved);
+		free.clear();
+		if (next < capacity) {
+			free.put(next, capacity - next);
+		}
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getUsed() {
+		return usedUnits;
+	}
+
+	public int getFree() {
+		return capacity - usedUnits;
+	}
+
+	//the biggest range that can still be allocated
+	public int getLargestFree() {
+		int largest = 0;
+		for (int size : free.values()) {
+			largest = Math.max(largest, size);
+		}
+		return largest;
+	}
+
+	public int getFreeBlockCount() {
+		return free.size();
+	}
+
+	public int getAllocationCount() {
+		return used.size();
+	}
+
+	//0 when all the free space is in one piece, close to 1 when it is in lots of small ones
+	public float getFragmentation() {
+		int freeUnits = getFree();
+		return freeUnits == 0 ? 0 : 1 - getLargestFree() / (float) freeUnits;
+	}
+
+}
@@ -1,65 +1,177 @@
 package wrapper;
 
 import org.lwjgl.LWJGLException;
-import org.lwjgl.Sys;
 import org.lwjgl.opengl.ContextAttribs;
 import org.lwjgl.opengl.Display;
 import org.lwjgl.opengl.DisplayMode;
 import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.Pbuffer;
 import org.lwjgl.opengl.PixelFormat;
 
+import tools.Profiler;
+
 /**
  * @author Andrei
  * Used for managing the display window
+ *
+ * The size, the pacing mode and the frame cap can be given on the command line
+ * (-Ddreaming.width=1920 -Ddreaming.height=1080 -Ddreaming.pacing=vsync -Ddreaming.fps=144)
+ * and the pacing can be changed while running with setPacing and setFpsCap.
+ * Instead of a window there can be an offscreen context, for rendering into framebuffers without a screen.
  */
 public class DisplayManager {
-	
-	//initalize display variables
-	private static final int WIDTH = 1280;
-	private static final int HEIGHT = 720;
-	private static final int FPS_CAP = 60;
+
+	//how the frames are paced
+	public enum Pacing {
+		UNCAPPED, //as fast as we can draw
+		VSYNC, //the driver waits for the monitor
+		CAPPED //we wait ourselves, see FramePacer
+	}
+
 	private static final String TITLE = "Dreaming";
+	//how many frames the stats are kept for, and how often they are shown in the title (in nanoseconds)
+	private static final int STATS_FRAMES = 600;
+	private static final long TITLE_INTERVAL = 1000000000L;
 	
+	private static final int PACING = Profiler.register("frame pacing");
+	private static final int UPDATE = Profiler.register("Display.update");
+
+	//initalize display variables
+	private static int width = Integer.getInteger("dreaming.width", 1280);
+	private static int height = Integer.getInteger("dreaming.height", 720);
+	private static Pacing pacing = Pacing.valueOf(System.getProperty("dreaming.pacing", "capped").toUpperCase());
+	private static final FramePacer pacer = new FramePacer(Integer.getInteger("dreaming.fps", 60));
+	private static final FrameStats stats = new FrameStats(STATS_FRAMES);
+	private static Pbuffer offscreen;
+
 	//used for movement
 	private static long lastFrameTime;
+	private static long deltaNanos;
 	private static float delta;
-	
+	private static long lastTitleTime;
+
 	public static void createDisplay() {
 		//used for specifying the version of OpenGL we're going to use. In this case it's 3.2.
 		ContextAttribs attribs = new ContextAttribs(3, 2).withForwardCompatible(true).withProfileCore(true);
 		try {
-			Display.setDisplayMode(new DisplayMode(WIDTH, HEIGHT)); //here we determine the width and height
-			Display.create(new PixelFormat().withSamples(8).withDepthBits(24), attribs); //and then create the display with Anti-aliasing (MSAA)
+			Display.setDisplayMode(new DisplayMode(width, height)); //here we determine the width and height
+			Display.create(new PixelFormat().withDepthBits(24), attribs); //and then create the display, the anti-aliasing is done by AntiAliasing
 			Display.setTitle(TITLE);
 		} catch (LWJGLException e) {
 			e.printStackTrace();
 		}
-		GL11.glViewport(0, 0, WIDTH, HEIGHT); //tells OpenGL where to render the scene
+		GL11.glViewport(0, 0, width, height); //tells OpenGL where to render the scene
+		setPacing(pacing);
 		lastFrameTime = getCurrentTime();
+		lastTitleTime = lastFrameTime;
 	}
-	
+
+	//a context without a window, nothing is shown and updateDisplay isn't needed, so draw into a Framebuffer
+	//works with Mesa's software rasterizer on a machine without a GPU (LIBGL_ALWAYS_SOFTWARE=1, under xvfb-run)
+	public static void createOffscreen() {
+		ContextAttribs attribs = new ContextAttribs(3, 2).withForwardCompatible(true).withProfileCore(true);
+		try {
+			offscreen = new Pbuffer(width, height, new PixelFormat().withDepthBits(24), null, null, attribs);
+			offscreen.makeCurrent();
+		} catch (LWJGLException e) {
+			throw new IllegalStateException("Couldn't create an offscreen context", e);
+		}
+		GL11.glViewport(0, 0, width, height);
+		lastFrameTime = getCurrentTime();
+	}
+
 	public static void updateDisplay() {
-		Display.sync(FPS_CAP); //synchronises the scene to run at a steady fps
+		if (pacing == Pacing.CAPPED) {
+			Profiler.begin(PACING);
+			pacer.sync(); //synchronises the scene to run at a steady fps
+			Profiler.end(PACING);
+		}
+		Profiler.begin(UPDATE);
 		Display.update();
-		long currentFrameTime = getCurrentTime(); //gets the current frame time in ms
-		delta = (currentFrameTime - lastFrameTime)/1000f; //how long the last frame took to render
+		Profiler.end(UPDATE);
+		long currentFrameTime = getCurrentTime(); //gets the current frame time in ns
+		deltaNanos = currentFrameTime - lastFrameTime; //how long the last frame took to render
+		delta = deltaNanos / 1e9f;
 		lastFrameTime = currentFrameTime; //make it ready for the next frame calculation
+		stats.record(deltaNanos);
+		if (currentFrameTime - lastTitleTime >= TITLE_INTERVAL) {
+			lastTitleTime = currentFrameTime;
+			Display.setTitle(String.format("%s - %s %.0f fps, p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, %d hitches", TITLE,
+					pacing.name().toLowerCase(), 1e9 / stats.getMean(), stats.getPercentile(0.5) / 1e6,
+					stats.getPercentile(0.95) / 1e6, stats.getPercentile(0.99) / 1e6, stats.getHitches()));
+		}
 	}
-	
+
 	public static float getFrameTimeSeconds() {
 		return delta;
 	}
-	
+
+	public static long getFrameTimeNanos() {
+		return deltaNanos;
+	}
+
+	public static int getWidth() {
+		return width;
+	}
+
+	public static int getHeight() {
+		return height;
+	}
+
+	public static FrameStats getFrameStats() {
+		return stats;
+	}
+
+	//can be changed at any time
+	public static void setPacing(Pacing pacing) {
+		DisplayManager.pacing = pacing;
+		if (Display.isCreated()) {
+			Display.setVSyncEnabled(pacing == Pacing.VSYNC);
+		}
+		pacer.reset();
+		stats.clear(); //the old frames say nothing about the new mode
+	}
+
+	public static Pacing getPacing() {
+		return pacing;
+	}
+
+	//goes to the next pacing mode, for a key binding
+	public static Pacing cyclePacing() {
+		setPacing(Pacing.values()[(pacing.ordinal() + 1) % Pacing.values().length]);
+		return pacing;
+	}
+
+	//the frame rate used when the pacing is CAPPED
+	public static void setFpsCap(int fps) {
+		pacer.setTargetFps(fps);
+		stats.clear();
+	}
+
+	public static int getFpsCap() {
+		return pacer.getTargetFps();
+	}
+
+	//only has an effect before the display is created
+	public static void setSize(int width, int height) {
+		DisplayManager.width = width;
+		DisplayManager.height = height;
+	}
+
 	public static void closeDisplay() {
+		if (offscreen != null) {
+			offscreen.destroy();
+			offscreen = null;
+			return;
+		}
 		Display.destroy();
 	}
-	
-	
+
+
 	private static long getCurrentTime() {
-		//Sys.getTime() returns the time in ticks which we need to
-		//divide by number ticks per second which is given by Sys.getTimerResolution()
-		//we multiply it by 1000 to get the time in miliseconds
-		return Sys.getTime()*1000/Sys.getTimerResolution();
+		//Sys.getTime() only has millisecond resolution on some platforms, which made delta jump between 16 and 17 ms
+		//System.nanoTime() is monotonic and precise
+		return System.nanoTime();
 	}
 
 }
@@ -0,0 +1,167 @@
+package wrapper;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.util.vector.Vector2f;
+
+import models.RawModel;
+import shaders.UpscaleShader;
+import tools.Profiler;
+
+/**
+ * @author Andrei
+ * Renders the scene at a lower resolution than the window when the GPU can't keep up, and stretches it over
+ * the window with a bit of sharpening. How long the GPU takes for the scene is measured with timer queries
+ * (see GpuTimer) and ResolutionScaler picks the resolution of the next frames from that.
+ *
+ * The framebuffer is made once at the biggest size it can be, and a smaller resolution only draws into its
+ * bottom left corner, so changing the scale never makes new textures.
+ *
+ * Turned on with -Ddreaming.dynamicResolution=true. The other options are
+ *   -Ddreaming.targetMs=      the GPU time to stay under, 85% of a frame at the fps cap if not given
+ *   -Ddreaming.minScale=0.5   -Ddreaming.maxScale=1 the range the scale stays in
+ *   -Ddreaming.sharpness=0.4  how much the upscaled picture is sharpened, 0 for not at all
+ *   -Ddreaming.resolutionLog= a CSV file every frame's GPU time and scale are written to
+ */
+public class DynamicResolution {
+
+	public static final boolean ENABLED = Boolean.getBoolean("dreaming.dynamicResolution");
+	private static final int SCENE = Profiler.register("scene (scaled)");
+
+	//a rectangle from 0 to 1, as a triangle strip
+	private static final float[] QUAD = { 0, 1, 0, 0, 1, 1, 1, 0 };
+
+	private final Framebuffer framebuffer;
+	private final GpuTimer gpuTimer = new GpuTimer(true);
+	private final ResolutionScaler scaler;
+	private final UpscaleShader shader = new UpscaleShader();
+	private final RawModel quad;
+	private final float sharpness = Float.parseFloat(System.getProperty("dreaming.sharpness", "0.4"));
+	private final Vector2f uvScale = new Vector2f();
+	private final Vector2f texelSize = new Vector2f();
+
+	private Writer log;
+	private long frame = 0;
+	private long lastResultFrame = -1;
+	private int sceneWidth, sceneHeight;
+
+	public DynamicResolution(Loader loader) {
+		float minScale = Float.parseFloat(System.getProperty("dreaming.minScale", "0.5"));
+		float maxScale = Float.parseFloat(System.getProperty("dreaming.maxScale", "1"));
+		String targetMs = System.getProperty("dreaming.targetMs");
+		long targetNanos = targetMs != null ? (long) (Double.parseDouble(targetMs) * 1e6)
+				: (long) (0.85 * 1e9 / DisplayManager.getFpsCap());
+		scaler = new ResolutionScaler(minScale, maxScale, targetNanos, GpuTimer.FRAMES_IN_FLIGHT + 1);
+		framebuffer = new Framebuffer(Math.round(DisplayManager.getWidth() * maxScale),
+				Math.round(DisplayManager.getHeight() * maxScale));
+		quad = loader.loadToVAO(QUAD, 2);
+		texelSize.set(1f / framebuffer.getWidth(), 1f / framebuffer.getHeight());
+		if (!gpuTimer.isEnabled()) {
+			System.err.println("No timer queries, the resolution will stay at " + maxScale);
+		}
+
+		String logFile = System.getProperty("dreaming.resolutionLog");
+		if (logFile != null) {
+			try {
+				log = new BufferedWriter(new FileWriter(logFile));
+				log.write("frame,width,height,gpuMs,smoothedMs,targetMs,nextScale\n");
+			} catch (IOException e) {
+				System.err.println("Couldn't write the resolution log " + logFile + ": " + e.getMessage());
+				log = null;
+			}
+		}
+	}
+
+	//everything drawn from here to endScene goes into the framebuffer, at the current scale
+	public void beginScene() {
+		float scale = scaler.getScale();
+		sceneWidth = Math.min(framebuffer.getWidth(), Math.max(1, Math.round(DisplayManager.getWidth() * scale)));
+		sceneHeight = Math.min(framebuffer.getHeight(), Math.max(1, Math.round(DisplayManager.getHeight() * scale)));
+		framebuffer.bind(sceneWidth, sceneHeight);
+		gpuTimer.begin(SCENE);
+	}
+
+	//back to the window, and draws the scene over all of it
+	public void endScene() {
+		gpuTimer.end(SCENE);
+		framebuffer.unbind();
+		uvScale.set(sceneWidth / (float) framebuffer.getWidth(), sceneHeight / (float) framebuffer.getHeight());
+		GL11.glDisable(GL11.GL_DEPTH_TEST);
+		shader.start();
+		shader.loadRegion(uvScale, texelSize);
+		shader.loadSharpness(sharpness);
+		GL30.glBindVertexArray(quad.getVaoID());
+		GL20.glEnableVertexAttribArray(0);
+		GL13.glActiveTexture(GL13.GL_TEXTURE0);
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, framebuffer.getColourTexture());
+		GL11.glDrawArrays(GL11.GL_TRIANGLE_STRIP, 0, quad.getVertexCount());
+		GL20.glDisableVertexAttribArray(0);
+		GL30.glBindVertexArray(0);
+		shader.stop();
+		GL11.glEnable(GL11.GL_DEPTH_TEST);
+	}
+
+	//called once a frame after the scene was drawn, picks the scale for the frames to come
+	public void endFrame() {
+		gpuTimer.endFrame();
+		long resultFrame = gpuTimer.getLatestFrame();
+		long gpuNanos = -1;
+		if (resultFrame != lastResultFrame) { //nothing new if the results weren't ready
+			lastResultFrame = resultFrame;
+			gpuNanos = gpuTimer.getLatestNanos(SCENE);
+			scaler.update(gpuNanos);
+		}
+		if (log != null) {
+			try {
+				//the size this frame was drawn at, the GPU time that came in (from a few frames ago, empty if none did)
+				//and the scale the next frame is drawn at
+				log.write(String.format(Locale.ROOT, "%d,%d,%d,%s,%.3f,%.3f,%.2f%n", frame, sceneWidth, sceneHeight,
+						gpuNanos < 0 ? "" : String.format(Locale.ROOT, "%.3f", gpuNanos / 1e6),
+						scaler.getSmoothedNanos() / 1e6, scaler.getTargetNanos() / 1e6, scaler.getScale()));
+			} catch (IOException e) {
+				System.err.println("Couldn't write to the resolution log: " + e.getMessage());
+				log = null;
+			}
+		}
+		frame++;
+	}
+
+	//what the scene is drawn into, and how much of it the current frame covers
+	public Framebuffer getFramebuffer() {
+		return framebuffer;
+	}
+
+	public int getSceneWidth() {
+		return sceneWidth;
+	}
+
+	public int getSceneHeight() {
+		return sceneHeight;
+	}
+
+	public ResolutionScaler getScaler() {
+		return scaler;
+	}
+
+	public void cleanUp() {
+		if (log != null) {
+			try {
+				log.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		gpuTimer.cleanUp();
+		shader.cleanUp();
+		framebuffer.cleanUp();
+	}
+
+}
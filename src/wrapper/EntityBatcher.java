@@ -0,0 +1,80 @@
+package wrapper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import entities.Entity;
+import entities.EntityStore;
+import models.TexturedModel;
+
+/**
+ * @author Andrei
+ * Sorts the entities of a frame into batches by textured model, so every model is bound once and all of its
+ * entities drawn after each other. Doesn't touch OpenGL.
+ *
+ * The batches are kept from frame to frame and only emptied, so a frame that sees the same models as the last one
+ * doesn't allocate anything. A model that wasn't seen for a whole frame is dropped when the batches are cleared.
+ */
+public class EntityBatcher {
+
+	private final Map<TexturedModel, List<Entity>> batches = new HashMap<TexturedModel, List<Entity>>();
+	//the stores the entities live in, their dirty matrices are rebuilt once per frame
+	private final List<EntityStore> stores = new ArrayList<EntityStore>();
+	private int entityCount = 0;
+
+	public void add(Entity entity) {
+		EntityStore store = entity.getStore();
+		if (!stores.contains(store)) { //there is usually only one store, so this stays cheap
+			stores.add(store);
+		}
+		TexturedModel model = entity.getModel();
+		List<Entity> batch = batches.get(model);
+		if (batch == null) {
+			batch = new ArrayList<Entity>();
+			batches.put(model, batch);
+		}
+		batch.add(entity);
+		entityCount++;
+	}
+
+	//by model, models that had no entities this frame can have an empty list
+	public Map<TexturedModel, List<Entity>> getBatches() {
+		return batches;
+	}
+
+	public List<EntityStore> getStores() {
+		return stores;
+	}
+
+	public int getEntityCount() {
+		return entityCount;
+	}
+
+	//how many models have entities this frame
+	public int getBatchCount() {
+		int count = 0;
+		for (List<Entity> batch : batches.values()) {
+			count += batch.isEmpty() ? 0 : 1;
+		}
+		return count;
+	}
+
+	//gets ready for the next frame
+	public void clear() {
+		Iterator<List<Entity>> iterator = batches.values().iterator();
+		while (iterator.hasNext()) {
+			List<Entity> batch = iterator.next();
+			if (batch.isEmpty()) {
+				iterator.remove();
+			} else {
+				batch.clear();
+			}
+		}
+		stores.clear();
+		entityCount = 0;
+	}
+
+}
@@ -7,64 +7,174 @@ import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL13;
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
 import org.lwjgl.util.vector.Matrix4f;
 
+import entities.Camera;
 import entities.Entity;
+import entities.EntityStore;
+import entities.Light;
 import models.RawModel;
 import models.TexturedModel;
 import shaders.StaticShader;
-import tools.Maths;
+import shaders.StaticShaderCache;
+import tools.EngineEvents;
 
 public class EntityRenderer {
 
+	//every variant of the shader, and the one that is drawing
+	private StaticShaderCache shaders;
 	private StaticShader shader;
+	private Matrix4f projectionMatrix;
 	
-	public EntityRenderer(StaticShader shader, Matrix4f projectionMatrix) {
-		this.shader = shader;
-		shader.start();
-		shader.loadProjectionMatrix(projectionMatrix);
-		shader.stop();
+	//picks the lights for every entity
+	private LightAssigner lightAssigner;
+	private int[] lightIndices = new int[StaticShader.MAX_LIGHTS];
+	
+	//the sun's shadow map, if the variants were made with SHADOWS, and where the sun is in the frame's lights
+	private ShadowRenderer shadows;
+	private int sunLight = -1;
+	
+	//what the last render drew
+	private int drawCalls;
+	private long triangles;
+	private int vaoBinds;
+	private int shaderSwitches;
+	
+	//the VAO that is bound, models in the same VertexArena page share one so it is only bound once for all of them
+	private int boundVao;
+	
+	public EntityRenderer(StaticShaderCache shaders, Matrix4f projectionMatrix, LightAssigner lightAssigner) {
+		this.shaders = shaders;
+		this.projectionMatrix = projectionMatrix;
+		this.lightAssigner = lightAssigner;
 	}
 	
-	//render method. Takes in the hash map of textured models and entities
-	public void render(Map<TexturedModel, List<Entity>> entities) {
-		for(TexturedModel model:entities.keySet()) { //loop through all of the keys in the hash map
-			prepareTexturedModel(model);
-			List<Entity> batch = entities.get(model); //get all entities that use that textured model
-			for(Entity entity:batch) { //for each of these entities
-				prepareInstance(entity);
-				GL11.glDrawElements(GL11.GL_TRIANGLES, model.getRawModel().getVertexCount(), GL11.GL_UNSIGNED_INT, 0); //draws using indices
+	//render method. Takes in the hash map of textured models and entities, the lights of the frame and the camera
+	//the batches are drawn one shader variant after the other (see ModelTexture.getShaderFeatures), so every
+	//variant that is needed is started once and given the frame's uniforms once
+	public void render(Map<TexturedModel, List<Entity>> entities, List<Light> lights, Camera camera) {
+		EngineEvents.DrawPass event = new EngineEvents.DrawPass();
+		event.begin();
+		drawCalls = 0;
+		triangles = 0;
+		vaoBinds = 0;
+		shaderSwitches = 0;
+		boundVao = 0;
+		int batches = 0;
+		for(int features = 0; features < shaders.size(); features++) {
+			shader = null;
+			for(Map.Entry<TexturedModel, List<Entity>> entry:entities.entrySet()) { //loop through all of the batches in the hash map
+				List<Entity> batch = entry.getValue(); //get all entities that use that textured model
+				TexturedModel model = entry.getKey();
+				if(batch.isEmpty() || model.getTexture().getShaderFeatures() != features) { //not seen this frame, or not this variant
+					continue;
+				}
+				if(shader == null) {
+					startShader(shaders.get(features), lights, camera);
+				}
+				batches++;
+				prepareTexturedModel(model);
+				RawModel rawModel = model.getRawModel();
+				for(Entity entity:batch) { //for each of these entities
+					prepareInstance(entity);
+					//draws using indices, from where the model is in the buffers
+					GL32.glDrawElementsBaseVertex(GL11.GL_TRIANGLES, rawModel.getVertexCount(), GL11.GL_UNSIGNED_INT,
+							rawModel.getIndexOffset(), rawModel.getBaseVertex());
+				}
+				MasterRenderer.enableCulling();
+				drawCalls += batch.size();
+				triangles += batch.size() * (long) (model.getRawModel().getVertexCount() / 3);
 			}
-			unbindTexturedModel();
+			if(shader != null) {
+				shader.stop();
+			}
+		}
+		unbindVAO();
+		event.end();
+		if(event.shouldCommit()) {
+			event.pass = "entities";
+			event.batches = batches;
+			event.drawCalls = drawCalls;
+			event.triangles = triangles;
+			event.commit();
+		}
+	}
+	
+	//called every frame before render when there are shadows, sunLight is -1 if the sun isn't in the frame's lights
+	public void setShadows(ShadowRenderer shadows, int sunLight) {
+		this.shadows = shadows;
+		this.sunLight = sunLight;
+	}
+	
+	public int getDrawCalls() {
+		return drawCalls;
+	}
+	
+	public long getTriangles() {
+		return triangles;
+	}
+	
+	//how many times the last render had to switch VAOs
+	public int getVaoBinds() {
+		return vaoBinds;
+	}
+	
+	//how many shader variants the last render used
+	public int getShaderSwitches() {
+		return shaderSwitches;
+	}
+	
+	//starts a variant and gives it what is the same for the whole frame
+	//the uniforms are only sent when they changed since the last frame, see ShaderProgram
+	private void startShader(StaticShader variant, List<Light> lights, Camera camera) {
+		shader = variant;
+		shaderSwitches++;
+		shader.start();
+		shader.loadLights(lights);
+		shader.loadProjectionMatrix(projectionMatrix);
+		shader.loadViewMatrix(camera);
+		if(shadows != null) {
+			shader.loadShadows(shadows.getShadowMatrices(), shadows.getCascadeEnds(), sunLight);
 		}
 	}
 	
 	private void prepareTexturedModel(TexturedModel model) {
 		 RawModel rawModel = model.getRawModel();
-	     GL30.glBindVertexArray(rawModel.getVaoID());
-	     GL20.glEnableVertexAttribArray(0); // enable positions
-	     GL20.glEnableVertexAttribArray(1); // enable textures
-	     GL20.glEnableVertexAttribArray(2); // enable normals
+		 rawModel.touch();
+		 model.getTexture().touch();
+	     if (rawModel.getVaoID() != boundVao) {
+	    	 boundVao = rawModel.getVaoID();
+	    	 vaoBinds++;
+		     GL30.glBindVertexArray(boundVao);
+		     GL20.glEnableVertexAttribArray(0); // enable positions
+		     GL20.glEnableVertexAttribArray(1); // enable textures
+		     GL20.glEnableVertexAttribArray(2); // enable normals
+	     }
 	     ModelTexture texture = model.getTexture();
-	     shader.loadFakeLightningVariable(texture.isUseFakeLightning());
 	     shader.loadShineVariables(texture.getShineDamper(), texture.getReflectivity());
 	     GL13.glActiveTexture(GL13.GL_TEXTURE0); //activate texture bank 0, sampler2d in the fragment shader is in 0 by default
 	     GL11.glBindTexture(GL11.GL_TEXTURE_2D, model.getTexture().getID()); //bind our texture to it
 	}
 	
-	private void unbindTexturedModel() {
-		MasterRenderer.enableCulling();
-		GL20.glDisableVertexAttribArray(0);
-	    GL20.glDisableVertexAttribArray(1);
-	    GL20.glDisableVertexAttribArray(2);
+	//the attributes are enabled as part of the VAO, so they can stay enabled
+	private void unbindVAO() {
 	    GL30.glBindVertexArray(0);
+	    boundVao = 0;
 	}
 	
-	//prepares each entity. All it does is create the transformation matrix and loads it to the shader
+	//prepares each entity. The transformation matrix is cached in the entity store, so all we do is load it to the shader
 	private void prepareInstance(Entity entity) {
-        Matrix4f transformationMatrix = Maths.createTransformationMatrix(entity.getPosition(),
-                entity.getRotX(), entity.getRotY(), entity.getRotZ(), entity.getScale());
-        shader.loadTransformationMatrix(transformationMatrix);
+		EntityStore store = entity.getStore();
+		int index = entity.getIndex();
+		store.updateMatrix(index); //only does work if the entity changed after the store was updated
+		float[] matrices = store.getMatrices();
+		int offset = EntityStore.getMatrixOffset(index);
+        shader.loadTransformationMatrix(matrices, offset);
+        //the translation of the matrix is where the entity is drawn this frame
+        int lightCount = lightAssigner.assign(matrices[offset + 12], matrices[offset + 13], matrices[offset + 14],
+        		store.getBoundingRadius(index), lightIndices);
+        shader.loadLightIndices(lightIndices, lightCount);
 	}
 	
 }
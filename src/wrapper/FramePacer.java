@@ -0,0 +1,98 @@
+package wrapper;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Andrei
+ * Holds frames to a fixed rate by waiting until the next frame is due, like Display.sync but with a nanosecond
+ * clock and a schedule that doesn't drift (every frame is due one period after the last one was due, not one
+ * period after it actually started).
+ *
+ * Sleeping is cheap but the OS wakes us up late by a varying amount, spinning is exact but burns a core.
+ * So we sleep until we're a bit short of the deadline and spin the rest of the way. How short is learnt from
+ * how late the sleeps have been waking up: it jumps up when a sleep overshoots and slowly shrinks back.
+ * Nothing in here touches OpenGL.
+ */
+public class FramePacer {
+
+	//the spin margin never goes outside of these
+	private static final long MIN_SPIN_NANOS = 100000;
+	private static final long MAX_SPIN_NANOS = 4000000;
+	//how fast the margin shrinks again after a late wake up, per sleep
+	private static final float SPIN_DECAY = 0.98f;
+	//the margin is kept this much bigger than the worst recent overshoot
+	private static final float SPIN_HEADROOM = 1.25f;
+
+	private long periodNanos;
+	private long nextFrame = -1;
+	private long spinNanos = 1000000;
+
+	//what the last call to sync spent, for the stats
+	private long lastSleepNanos = 0;
+	private long lastSpinNanos = 0;
+
+	public FramePacer(int framesPerSecond) {
+		setTargetFps(framesPerSecond);
+	}
+
+	public void setTargetFps(int framesPerSecond) {
+		periodNanos = 1000000000L / Math.max(1, framesPerSecond);
+		reset();
+	}
+
+	public int getTargetFps() {
+		return (int) Math.round(1e9 / periodNanos);
+	}
+
+	public long getPeriodNanos() {
+		return periodNanos;
+	}
+
+	//starts the schedule over from the next call to sync, after a pause or a change of mode
+	public void reset() {
+		nextFrame = -1;
+	}
+
+	//waits until the next frame is due
+	public void sync() {
+		long now = System.nanoTime();
+		lastSleepNanos = 0;
+		lastSpinNanos = 0;
+		if (nextFrame < 0 || now - nextFrame > periodNanos) {
+			//first frame, or we've fallen more than a frame behind: don't try to catch up with a burst of frames
+			nextFrame = now;
+		}
+		long start = now;
+		while (nextFrame - now > spinNanos) {
+			long requested = nextFrame - now - spinNanos;
+			LockSupport.parkNanos(requested);
+			long woke = System.nanoTime();
+			long overshoot = (woke - now) - requested;
+			spinNanos = Math.max((long) (spinNanos * SPIN_DECAY), (long) (overshoot * SPIN_HEADROOM));
+			spinNanos = Math.max(MIN_SPIN_NANOS, Math.min(MAX_SPIN_NANOS, spinNanos));
+			now = woke;
+		}
+		lastSleepNanos = now - start;
+		while (nextFrame - now > 0) {
+			Thread.onSpinWait();
+			now = System.nanoTime();
+		}
+		lastSpinNanos = now - start - lastSleepNanos;
+		nextFrame += periodNanos;
+	}
+
+	//how long the last wait slept and spun for
+	public long getLastSleepNanos() {
+		return lastSleepNanos;
+	}
+
+	public long getLastSpinNanos() {
+		return lastSpinNanos;
+	}
+
+	//how close to the deadline we currently stop sleeping
+	public long getSpinNanos() {
+		return spinNanos;
+	}
+
+}
@@ -0,0 +1,101 @@
+package wrapper;
+
+import java.util.Arrays;
+
+/**
+ * @author Andrei
+ * Keeps the lengths of the last few hundred frames in a ring buffer, so we can see how smooth the frame rate is
+ * and not just its average. Percentiles are worked out when they are asked for (the buffer gets sorted once
+ * and reused until the next frame is recorded), recording a frame is just a store into the ring.
+ *
+ * A hitch is a frame that took more than HITCH_FACTOR times as long as the median frame in the buffer.
+ * Nothing in here touches OpenGL.
+ */
+public class FrameStats {
+
+	private static final float HITCH_FACTOR = 2;
+
+	private final long[] frames; //nanoseconds
+	private final long[] sorted;
+	private int count = 0;
+	private int next = 0;
+	private boolean sortedValid = false;
+	private long totalFrames = 0;
+
+	public FrameStats(int capacity) {
+		frames = new long[capacity];
+		sorted = new long[capacity];
+	}
+
+	public void record(long frameNanos) {
+		frames[next] = frameNanos;
+		next = (next + 1) % frames.length;
+		count = Math.min(count + 1, frames.length);
+		totalFrames++;
+		sortedValid = false;
+	}
+
+	public void clear() {
+		count = 0;
+		next = 0;
+		sortedValid = false;
+	}
+
+	//the frame time below which the given fraction of the frames in the buffer are, 0.5 for the median
+	//0 when nothing has been recorded yet
+	public long getPercentile(double fraction) {
+		if (count == 0) {
+			return 0;
+		}
+		sort();
+		int rank = (int) Math.ceil(fraction * count) - 1;
+		return sorted[Math.max(0, Math.min(count - 1, rank))];
+	}
+
+	//how many of the frames in the buffer were hitches
+	public int getHitches() {
+		if (count == 0) {
+			return 0;
+		}
+		long threshold = (long) (getPercentile(0.5) * HITCH_FACTOR);
+		//the sorted copy is in order, so count from the slow end until the frames are fast enough
+		int hitches = 0;
+		for (int i = count - 1; i >= 0 && sorted[i] > threshold; i--) {
+			hitches++;
+		}
+		return hitches;
+	}
+
+	public long getMean() {
+		if (count == 0) {
+			return 0;
+		}
+		long sum = 0;
+		for (int i = 0; i < count; i++) {
+			sum += frames[i];
+		}
+		return sum / count;
+	}
+
+	public long getMax() {
+		return getPercentile(1);
+	}
+
+	//how many frames there are in the buffer
+	public int size() {
+		return count;
+	}
+
+	public long getTotalFrames() {
+		return totalFrames;
+	}
+
+	private void sort() {
+		if (!sortedValid) {
+			System.arraycopy(frames, 0, sorted, 0, count);
+			Arrays.sort(sorted, 0, count);
+			sortedValid = true;
+		}
+	}
+
+}
@@ -0,0 +1,147 @@
+package wrapper;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL14;
+import org.lwjgl.opengl.GL30;
+
+/**
+ * @author Andrei
+ * Something to render into that isn't the screen: a colour texture and a depth buffer of a given size.
+ * While it is bound everything drawn ends up in the texture, which can be read back or drawn somewhere else.
+ *
+ * A multisampled one (for MSAA) has no texture, its samples have to be resolved into another framebuffer or the
+ * window with resolveTo first. One only used by full screen passes can leave out the depth buffer.
+ */
+public class Framebuffer {
+
+	private final int width;
+	private final int height;
+	private final int samples;
+	private final int frameBufferID;
+	private final int colourTexture;
+	private final int colourBuffer;
+	private final int depthBuffer;
+
+	public Framebuffer(int width, int height) {
+		this(width, height, 0, true);
+	}
+
+	//samples is 0 for an ordinary one with a texture
+	public Framebuffer(int width, int height, int samples, boolean depth) {
+		this.width = width;
+		this.height = height;
+		this.samples = samples;
+		frameBufferID = GL30.glGenFramebuffers();
+		GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, frameBufferID);
+
+		if (samples == 0) {
+			colourTexture = GL11.glGenTextures();
+			GL11.glBindTexture(GL11.GL_TEXTURE_2D, colourTexture);
+			GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA8, width, height, 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE,
+					(ByteBuffer) null);
+			GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR);
+			GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+			GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+			GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0, GL11.GL_TEXTURE_2D, colourTexture, 0);
+			colourBuffer = 0;
+		} else {
+			colourTexture = 0;
+			colourBuffer = createRenderbuffer(GL11.GL_RGBA8);
+			GL30.glFramebufferRenderbuffer(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0, GL30.GL_RENDERBUFFER, colourBuffer);
+		}
+
+		if (depth) {
+			depthBuffer = createRenderbuffer(GL14.GL_DEPTH_COMPONENT24);
+			GL30.glFramebufferRenderbuffer(GL30.GL_FRAMEBUFFER, GL30.GL_DEPTH_ATTACHMENT, GL30.GL_RENDERBUFFER, depthBuffer);
+		} else {
+			depthBuffer = 0;
+		}
+
+		int status = GL30.glCheckFramebufferStatus(GL30.GL_FRAMEBUFFER);
+		GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
+		if (status != GL30.GL_FRAMEBUFFER_COMPLETE) {
+			cleanUp();
+			throw new IllegalStateException("Framebuffer " + width + "x" + height + " with " + samples
+					+ " samples is incomplete: 0x" + Integer.toHexString(status));
+		}
+	}
+
+	//everything drawn after this goes into the framebuffer
+	public void bind() {
+		GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, frameBufferID);
+		GL11.glViewport(0, 0, width, height);
+	}
+
+	//the same, but only into the bottom left width x height pixels, so a smaller picture can be drawn
+	//without making a new framebuffer
+	public void bind(int width, int height) {
+		GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, frameBufferID);
+		GL11.glViewport(0, 0, Math.min(width, this.width), Math.min(height, this.height));
+	}
+
+	//back to drawing on the screen
+	public void unbind() {
+		GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
+		GL11.glViewport(0, 0, DisplayManager.getWidth(), DisplayManager.getHeight());
+	}
+
+	//copies the bottom left width x height pixels into the same place of another framebuffer, or of the window if
+	//target is null, averaging the samples if this one is multisampled
+	public void resolveTo(Framebuffer target, int width, int height) {
+		GL30.glBindFramebuffer(GL30.GL_READ_FRAMEBUFFER, frameBufferID);
+		GL30.glBindFramebuffer(GL30.GL_DRAW_FRAMEBUFFER, target == null ? 0 : target.frameBufferID);
+		GL30.glBlitFramebuffer(0, 0, width, height, 0, 0, width, height, GL11.GL_COLOR_BUFFER_BIT, GL11.GL_NEAREST);
+		GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
+	}
+
+	//the colour of every pixel as RGBA bytes, bottom row first, waits for the drawing to finish
+	public ByteBuffer readPixels() {
+		ByteBuffer pixels = BufferUtils.createByteBuffer(width * height * 4);
+		GL30.glBindFramebuffer(GL30.GL_READ_FRAMEBUFFER, frameBufferID);
+		GL11.glPixelStorei(GL11.GL_PACK_ALIGNMENT, 1);
+		GL11.glReadPixels(0, 0, width, height, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, pixels);
+		GL30.glBindFramebuffer(GL30.GL_READ_FRAMEBUFFER, 0);
+		return pixels;
+	}
+
+	//0 if it is multisampled
+	public int getColourTexture() {
+		return colourTexture;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getSamples() {
+		return samples;
+	}
+
+	public void cleanUp() {
+		GL30.glDeleteFramebuffers(frameBufferID);
+		GL11.glDeleteTextures(colourTexture);
+		GL30.glDeleteRenderbuffers(colourBuffer);
+		GL30.glDeleteRenderbuffers(depthBuffer);
+	}
+
+	//a renderbuffer of this size with the framebuffer's samples, bound
+	private int createRenderbuffer(int format) {
+		int buffer = GL30.glGenRenderbuffers();
+		GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, buffer);
+		if (samples == 0) {
+			GL30.glRenderbufferStorage(GL30.GL_RENDERBUFFER, format, width, height);
+		} else {
+			GL30.glRenderbufferStorageMultisample(GL30.GL_RENDERBUFFER, samples, format, width, height);
+		}
+		GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, 0);
+		return buffer;
+	}
+
+}
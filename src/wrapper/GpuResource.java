@@ -0,0 +1,137 @@
+package wrapper;
+
+/**
+ * @author Andrei
+ * Something that takes up memory on the GPU, like a mesh or a texture, kept track of by GpuResources.
+ *
+ * It starts with one reference, the one of whoever created it. Everything else that wants to keep it around calls
+ * retain, and release when it is done with it. When the last reference is released it is handed back to
+ * GpuResources, which deletes it a few frames later. Using it after that is a mistake.
+ *
+ * It can also be made evictable: when the GPU memory is over the budget the least recently used evictable
+ * resources are evicted, which calls their eviction callback and deletes them even though they are still
+ * referenced. The callback has to make sure nothing draws with them any more (and can load them again later).
+ */
+public abstract class GpuResource {
+
+	//what the memory is used for
+	public enum Category {
+		VERTEX, INDEX, TEXTURE
+	}
+
+	private final String name;
+	private final long[] bytes = new long[Category.values().length];
+	private GpuResources owner;
+	private int references = 1;
+	private long lastUsed;
+	private Runnable onEvict;
+	private boolean released;
+	private boolean evicted;
+
+	protected GpuResource(String name) {
+		this.name = name;
+	}
+
+	//takes another reference
+	public void retain() {
+		if (released) {
+			throw new IllegalStateException(this + " was already released");
+		}
+		references++;
+	}
+
+	//gives a reference back, the last one hands the resource back to be deleted
+	//once it was evicted there is nothing left to give back
+	public void release() {
+		if (evicted) {
+			return;
+		}
+		if (released) {
+			throw new IllegalStateException(this + " was released too many times");
+		}
+		if (--references == 0) {
+			released = true;
+			if (owner != null) {
+				owner.released(this);
+			} else {
+				delete();
+			}
+		}
+	}
+
+	//marks it as used in this frame, for the least recently used eviction
+	public void touch() {
+		if (owner != null) {
+			lastUsed = owner.getFrame();
+		}
+	}
+
+	//lets the resource be evicted when the memory is over budget, onEvict is called when it is
+	public void setEvictable(Runnable onEvict) {
+		this.onEvict = onEvict;
+	}
+
+	public boolean isEvictable() {
+		return onEvict != null;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getBytes(Category category) {
+		return bytes[category.ordinal()];
+	}
+
+	public long getTotalBytes() {
+		long total = 0;
+		for (long categoryBytes : bytes) {
+			total += categoryBytes;
+		}
+		return total;
+	}
+
+	public int getReferences() {
+		return references;
+	}
+
+	//the frame it was last touched in
+	public long getLastUsed() {
+		return lastUsed;
+	}
+
+	//true once nothing may use it any more, whether it was released or evicted
+	public boolean isReleased() {
+		return released;
+	}
+
+	public boolean isEvicted() {
+		return evicted;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " " + name;
+	}
+
+	//how much memory it takes, set by whoever creates it before it is added to GpuResources
+	protected void addBytes(Category category, long count) {
+		bytes[category.ordinal()] += count;
+	}
+
+	//frees the GPU memory, only called by GpuResources when it is safe to
+	protected abstract void delete();
+
+	void setOwner(GpuResources owner) {
+		this.owner = owner;
+		this.lastUsed = owner.getFrame();
+	}
+
+	//for GpuResources, calls the callback and marks it as gone without caring about the references
+	void evict() {
+		released = true;
+		evicted = true;
+		onEvict.run();
+	}
+
+}
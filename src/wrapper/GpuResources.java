@@ -0,0 +1,154 @@
+package wrapper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * @author Andrei
+ * Keeps track of everything on the GPU (see GpuResource): how much memory each kind of data takes, deleting what
+ * was released, and evicting what hasn't been used for a while when there is a budget and it is over it.
+ *
+ * Deleting is held back for DELETE_DELAY frames. OpenGL itself keeps an object alive for the commands already
+ * sent that use it, but not for what the CPU still has: something released in the middle of a frame can still
+ * be in that frame's batches, and the next few frames are already being put together by then.
+ *
+ * The budget is -Ddreaming.gpuBudgetMb, without one nothing is evicted. Only resources that weren't used in the
+ * last DELETE_DELAY frames are evicted, the least recently used first.
+ */
+public class GpuResources {
+
+	//how many frames a released resource stays around before it is deleted
+	public static final int DELETE_DELAY = 3;
+
+	private final List<GpuResource> resources = new ArrayList<GpuResource>();
+	private final ArrayDeque<GpuResource> pending = new ArrayDeque<GpuResource>();
+	private final ArrayDeque<Long> pendingFrames = new ArrayDeque<Long>();
+	private final long[] bytes = new long[GpuResource.Category.values().length];
+	private long pendingBytes = 0;
+	private long budget = Long.getLong("dreaming.gpuBudgetMb", 0) * 1024 * 1024;
+	private long frame = 0;
+	private long deleted = 0;
+	private long evicted = 0;
+
+	//starts keeping track of a resource that was just created, with the memory it says it takes
+	public <T extends GpuResource> T add(T resource) {
+		resource.setOwner(this);
+		resources.add(resource);
+		for (GpuResource.Category category : GpuResource.Category.values()) {
+			bytes[category.ordinal()] += resource.getBytes(category);
+		}
+		return resource;
+	}
+
+	//called once at the end of every frame, deletes what is safe to and evicts if over budget
+	public void endFrame() {
+		frame++;
+		if (budget > 0 && getTotalBytes() - pendingBytes > budget) {
+			evict(getTotalBytes() - pendingBytes - budget);
+		}
+		while (!pending.isEmpty() && pendingFrames.peek() <= frame) {
+			pendingFrames.poll();
+			GpuResource resource = pending.poll();
+			pendingBytes -= resource.getTotalBytes();
+			delete(resource);
+		}
+	}
+
+	//deletes everything straight away, used when closing
+	public void deleteAll() {
+		for (GpuResource resource : resources) {
+			resource.delete();
+		}
+		resources.clear();
+		pending.clear();
+		pendingFrames.clear();
+		pendingBytes = 0;
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = 0;
+		}
+	}
+
+	//the frame the next endFrame ends, counted from 0
+	public long getFrame() {
+		return frame;
+	}
+
+	//all the memory of one kind, including what is about to be deleted
+	public long getBytes(GpuResource.Category category) {
+		return bytes[category.ordinal()];
+	}
+
+	public long getTotalBytes() {
+		long total = 0;
+		for (long categoryBytes : bytes) {
+			total += categoryBytes;
+		}
+		return total;
+	}
+
+	//how many resources there are, including the ones waiting to be deleted
+	public int getCount() {
+		return resources.size();
+	}
+
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	public long getDeletedCount() {
+		return deleted;
+	}
+
+	public long getEvictedCount() {
+		return evicted;
+	}
+
+	//in bytes, 0 for no budget
+	public long getBudget() {
+		return budget;
+	}
+
+	public void setBudget(long budget) {
+		this.budget = budget;
+	}
+
+	//for GpuResource, when its last reference was released
+	void released(GpuResource resource) {
+		pending.add(resource);
+		pendingFrames.add(frame + DELETE_DELAY);
+		pendingBytes += resource.getTotalBytes();
+	}
+
+	//evicts at least the given number of bytes if there is enough to evict, least recently used first
+	private void evict(long needed) {
+		List<GpuResource> candidates = new ArrayList<GpuResource>();
+		for (GpuResource resource : resources) {
+			//one without memory of its own (a mesh in a VertexArena page) wouldn't get the memory down
+			if (resource.isEvictable() && !resource.isReleased() && resource.getTotalBytes() > 0
+					&& resource.getLastUsed() < frame - DELETE_DELAY) {
+				candidates.add(resource);
+			}
+		}
+		candidates.sort(Comparator.comparingLong(GpuResource::getLastUsed));
+		for (int i = 0; i < candidates.size() && needed > 0; i++) {
+			GpuResource resource = candidates.get(i);
+			resource.evict();
+			//it wasn't used for DELETE_DELAY frames, nothing in flight has it any more
+			needed -= resource.getTotalBytes();
+			delete(resource);
+			evicted++;
+		}
+	}
+
+	private void delete(GpuResource resource) {
+		resource.delete();
+		resources.remove(resource);
+		for (GpuResource.Category category : GpuResource.Category.values()) {
+			bytes[category.ordinal()] -= resource.getBytes(category);
+		}
+		deleted++;
+	}
+
+}
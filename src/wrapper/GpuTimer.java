@@ -0,0 +1,185 @@
+package wrapper;
+
+import java.util.Arrays;
+
+import org.lwjgl.opengl.ARBTimerQuery;
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL33;
+import org.lwjgl.opengl.GLContext;
+
+import tools.Profiler;
+
+/**
+ * @author Andrei
+ * Measures how long the GPU spends on parts of a frame, for the Profiler and for anything else that needs to know
+ * (like DynamicResolution, through getLatestNanos).
+ *
+ * Every begin and end puts a timestamp query into the command stream (GL_TIMESTAMP, core in OpenGL 3.3 and in
+ * ARB_timer_query before that), so scopes can be nested, which GL_TIME_ELAPSED queries can't be.
+ * The GPU runs behind the CPU, so asking for a result straight away would stall until the GPU caught up.
+ * Instead the queries of each frame go into one of FRAMES_IN_FLIGHT sets, and a set is only read once we come
+ * back around to it. If its results still aren't there by then they are dropped rather than waited for.
+ *
+ * Does nothing if the driver has no timer queries, or if the profiler is off and nothing else asked for it.
+ */
+public class GpuTimer {
+
+	//how many frames old a result is by the time it is read
+	public static final int FRAMES_IN_FLIGHT = 4;
+	private static final int MAX_SCOPES_PER_FRAME = 32;
+	//what is on the open stack for a scope that didn't fit into the frame, so its end has nothing to pop
+	private static final int DROPPED = -1;
+
+	private final boolean enabled;
+	private final boolean core;
+
+	//two timestamp queries per scope, [set][scope * 2 (+ 1 for the end)]
+	private final int[][] queries = new int[FRAMES_IN_FLIGHT][MAX_SCOPES_PER_FRAME * 2];
+	private final int[][] scopes = new int[FRAMES_IN_FLIGHT][MAX_SCOPES_PER_FRAME];
+	private final int[] counts = new int[FRAMES_IN_FLIGHT];
+	private final int[] lastIssued = new int[FRAMES_IN_FLIGHT];
+	private int set = 0;
+
+	//the scopes begun and not ended yet, as indices into the current set, DROPPED for the ones without queries
+	private int[] open = new int[MAX_SCOPES_PER_FRAME];
+	private int depth = 0;
+
+	//frames whose results weren't ready in time
+	private long droppedFrames = 0;
+
+	//the newest result of every scope, by profiler scope id, and the frame it was read in
+	private final long[] latest = new long[64];
+	private long latestFrame = -1;
+	private long frame = 0;
+
+	//only measures while profiling
+	public GpuTimer() {
+		this(false);
+	}
+
+	//always measures when always is true, even without the profiler
+	public GpuTimer(boolean always) {
+		ContextCapabilities capabilities = GLContext.getCapabilities();
+		this.core = capabilities.OpenGL33;
+		this.enabled = (always || Profiler.ENABLED) && (core || capabilities.GL_ARB_timer_query);
+		if (enabled) {
+			for (int[] frame : queries) {
+				for (int i = 0; i < frame.length; i++) {
+					frame[i] = GL15.glGenQueries();
+				}
+			}
+		}
+	}
+
+	public void begin(int scope) {
+		if (!enabled) {
+			return;
+		}
+		if (depth == open.length) {
+			open = Arrays.copyOf(open, depth * 2); //only nesting deeper than a frame has scopes gets here
+		}
+		if (counts[set] == MAX_SCOPES_PER_FRAME) {
+			open[depth++] = DROPPED;
+			return;
+		}
+		int index = counts[set]++;
+		scopes[set][index] = scope;
+		open[depth++] = index;
+		timestamp(queries[set][index * 2]);
+	}
+
+	public void end(int scope) {
+		if (!enabled || depth == 0) {
+			return;
+		}
+		int index = open[--depth];
+		if (index == DROPPED) {
+			return;
+		}
+		if (scopes[set][index] != scope) {
+			throw new IllegalStateException("GPU scope " + Profiler.getName(scope) + " ended but wasn't the last one begun");
+		}
+		timestamp(queries[set][index * 2 + 1]);
+	}
+
+	//moves on to the next set of queries, reading the results that were left in it
+	public void endFrame() {
+		if (!enabled) {
+			return;
+		}
+		while (depth > 0) { //scopes left open would leave queries without a result
+			int index = open[--depth];
+			if (index != DROPPED) {
+				timestamp(queries[set][index * 2 + 1]);
+			}
+		}
+		frame++;
+		set = (set + 1) % FRAMES_IN_FLIGHT;
+		int count = counts[set];
+		counts[set] = 0;
+		if (count == 0) {
+			return;
+		}
+		//queries finish in order, so if the last one issued is done all of them are
+		if (GL15.glGetQueryObjecti(lastIssued[set], GL15.GL_QUERY_RESULT_AVAILABLE) == 0) {
+			droppedFrames++;
+			return;
+		}
+		for (int i = 0; i < count; i++) {
+			latest[scopes[set][i]] = 0;
+		}
+		for (int i = 0; i < count; i++) {
+			long start = result(queries[set][i * 2]);
+			long end = result(queries[set][i * 2 + 1]);
+			latest[scopes[set][i]] += end - start;
+			Profiler.recordGpu(scopes[set][i], start, end);
+		}
+		latestFrame = frame - FRAMES_IN_FLIGHT;
+	}
+
+	//the GPU time of a scope in the newest frame that has been read back, in nanoseconds
+	//that frame is FRAMES_IN_FLIGHT frames old, see getLatestFrame
+	public long getLatestNanos(int scope) {
+		return latest[scope];
+	}
+
+	//which frame (counted by endFrame) getLatestNanos is about, -1 before the first results came in
+	//it doesn't change when a frame's results were dropped
+	public long getLatestFrame() {
+		return latestFrame;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public long getDroppedFrames() {
+		return droppedFrames;
+	}
+
+	public void cleanUp() {
+		if (enabled) {
+			for (int[] frame : queries) {
+				for (int query : frame) {
+					GL15.glDeleteQueries(query);
+				}
+			}
+		}
+	}
+
+	private void timestamp(int query) {
+		lastIssued[set] = query;
+		if (core) {
+			GL33.glQueryCounter(query, GL33.GL_TIMESTAMP);
+		} else {
+			ARBTimerQuery.glQueryCounter(query, ARBTimerQuery.GL_TIMESTAMP);
+		}
+	}
+
+	private long result(int query) {
+		return core ? GL33.glGetQueryObjecti64(query, GL15.GL_QUERY_RESULT)
+				: ARBTimerQuery.glGetQueryObjecti64(query, GL15.GL_QUERY_RESULT);
+	}
+
+}
@@ -0,0 +1,53 @@
+package wrapper;
+
+import org.lwjgl.opengl.GL11;
+
+/**
+ * @author Andrei
+ * The two atlases of a model's impostor (see ImpostorBaker): frames x frames pictures of the model, one from every
+ * direction of the upper half of the sphere around it. The first has the colour, with an alpha of 0 where the model
+ * isn't, the second the normal in the model's space and the depth inside the bounding sphere.
+ */
+public class Impostor extends GpuResource {
+
+	private final int albedo;
+	private final int normals;
+	private final int frames;
+	private final int frameSize;
+
+	public Impostor(String name, int albedo, int normals, int frames, int frameSize) {
+		super(name);
+		this.albedo = albedo;
+		this.normals = normals;
+		this.frames = frames;
+		this.frameSize = frameSize;
+		//two RGBA atlases, and the mipmaps add another third
+		long size = (long) frames * frameSize;
+		addBytes(Category.TEXTURE, 2 * 4 * size * size * 4 / 3);
+	}
+
+	public int getAlbedoID() {
+		return albedo;
+	}
+
+	public int getNormalID() {
+		return normals;
+	}
+
+	//on each side of the atlas
+	public int getFrames() {
+		return frames;
+	}
+
+	//the size of one frame in pixels
+	public int getFrameSize() {
+		return frameSize;
+	}
+
+	@Override
+	protected void delete() {
+		GL11.glDeleteTextures(albedo);
+		GL11.glDeleteTextures(normals);
+	}
+
+}
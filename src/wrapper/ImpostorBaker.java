@@ -0,0 +1,323 @@
+package wrapper;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL14;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import models.RawModel;
+import models.TexturedModel;
+import shaders.ImpostorBakeShader;
+import tools.ModelData;
+import tools.Octahedral;
+
+/**
+ * @author Andrei
+ * Bakes the impostor of a model when it is loaded: frames x frames pictures of it from every direction of the upper
+ * half of the sphere around it (see Octahedral for which), in two atlases, the colour and the normal with the depth.
+ * ImpostorRenderer draws those instead of the model once an entity is far enough away.
+ *
+ * Every frame is an orthographic picture that fits the model's bounding sphere, drawn into its own part of the
+ * atlases with both of them attached to one framebuffer. The atlases get a few mipmaps, not all of them, so the
+ * frames don't run into each other when they are small.
+ *
+ * The atlases are saved into -Ddreaming.impostorCache (cache/impostors by default, "off" turns it off), named after
+ * a hash of the mesh and texture the model was made from and the settings, so the next launch reads them instead of
+ * drawing them, and editing the files bakes them again.
+ * -Ddreaming.impostors=false turns impostors off, -Ddreaming.impostorFrames and -Ddreaming.impostorFrameSize set
+ * how many frames there are on a side and how big each one is.
+ */
+public class ImpostorBaker {
+
+	public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("dreaming.impostors", "true"));
+	private static final String CACHE = System.getProperty("dreaming.impostorCache", "cache/impostors");
+	private static final int FRAMES = Integer.getInteger("dreaming.impostorFrames", 8);
+	private static final int FRAME_SIZE = Integer.getInteger("dreaming.impostorFrameSize", 128);
+	//goes into the name of the cached atlases, a change to how they are baked has to change it
+	private static final int FORMAT = 1;
+	//a frame of 128 pixels is 16 at the last one, anything smaller would mix in the frames next to it
+	private static final int MIPMAPS = 3;
+
+	private final GpuResources resources;
+	private final ImpostorBakeShader shader = new ImpostorBakeShader();
+	private final Map<TexturedModel, Impostor> impostors = new HashMap<TexturedModel, Impostor>();
+
+	private final Matrix4f bakeMatrix = new Matrix4f();
+	private final Vector3f direction = new Vector3f(), right = new Vector3f(), up = new Vector3f();
+	private final IntBuffer viewport = BufferUtils.createIntBuffer(16);
+
+	//how many impostors were drawn and how many came out of the cache
+	private int baked = 0;
+	private int cached = 0;
+
+	public ImpostorBaker(Loader loader) {
+		this.resources = loader.getResources();
+	}
+
+	//the impostor of the model, baked or read from the cache the first time
+	//source names the model and its settings, the cache is looked up by it together with the contents of the mesh
+	//(null if it came from one of the files) and of the files it was made from
+	public Impostor bake(TexturedModel model, String source, ModelData mesh, File... files) {
+		Impostor impostor = impostors.get(model);
+		if (impostor != null) {
+			return impostor;
+		}
+		long start = System.nanoTime();
+		int size = FRAMES * FRAME_SIZE;
+		int albedo = createAtlas(size);
+		int normals = createAtlas(size);
+		File file = CACHE.equals("off") ? null : new File(CACHE, cacheKey(source, mesh, files) + ".impostor");
+		boolean fromCache = file != null && load(file, albedo, normals, size);
+		if (fromCache) {
+			cached++;
+		} else {
+			draw(model, albedo, normals, size);
+			baked++;
+			if (file != null) {
+				save(file, albedo, normals, size);
+			}
+		}
+		for (int texture : new int[] { albedo, normals }) {
+			GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture);
+			GL30.glGenerateMipmap(GL11.GL_TEXTURE_2D);
+		}
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+		impostor = resources.add(new Impostor("impostor " + source, albedo, normals, FRAMES, FRAME_SIZE));
+		impostors.put(model, impostor);
+		System.out.printf("Impostor %s: %s, ready after %.2f ms%n", source, fromCache ? "from the cache" : "baked",
+				(System.nanoTime() - start) / 1e6);
+		return impostor;
+	}
+
+	//the model's impostor, null if it wasn't baked
+	public Impostor get(TexturedModel model) {
+		return impostors.get(model);
+	}
+
+	//releases the impostors of every model that isn't in the collection
+	public void retainAll(Collection<TexturedModel> models) {
+		Iterator<Map.Entry<TexturedModel, Impostor>> entries = impostors.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry<TexturedModel, Impostor> entry = entries.next();
+			if (!models.contains(entry.getKey())) {
+				entry.getValue().release();
+				entries.remove();
+			}
+		}
+	}
+
+	public int getCount() {
+		return impostors.size();
+	}
+
+	public int getBaked() {
+		return baked;
+	}
+
+	public int getCached() {
+		return cached;
+	}
+
+	//the atlases themselves go with the rest of the Loader's resources
+	public void cleanUp() {
+		shader.cleanUp();
+	}
+
+	//draws every frame into the atlases, everything it binds is put back
+	private void draw(TexturedModel model, int albedo, int normals, int size) {
+		int framebuffer = GL11.glGetInteger(GL30.GL_DRAW_FRAMEBUFFER_BINDING);
+		GL11.glGetInteger(GL11.GL_VIEWPORT, viewport);
+		int bakeFramebuffer = GL30.glGenFramebuffers();
+		GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, bakeFramebuffer);
+		GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0, GL11.GL_TEXTURE_2D, albedo, 0);
+		GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT1, GL11.GL_TEXTURE_2D, normals, 0);
+		int depth = GL30.glGenRenderbuffers();
+		GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, depth);
+		GL30.glRenderbufferStorage(GL30.GL_RENDERBUFFER, GL14.GL_DEPTH_COMPONENT24, size, size);
+		GL30.glFramebufferRenderbuffer(GL30.GL_FRAMEBUFFER, GL30.GL_DEPTH_ATTACHMENT, GL30.GL_RENDERBUFFER, depth);
+		IntBuffer drawBuffers = BufferUtils.createIntBuffer(2);
+		drawBuffers.put(GL30.GL_COLOR_ATTACHMENT0).put(GL30.GL_COLOR_ATTACHMENT1).flip();
+		GL20.glDrawBuffers(drawBuffers);
+		int status = GL30.glCheckFramebufferStatus(GL30.GL_FRAMEBUFFER);
+		if (status != GL30.GL_FRAMEBUFFER_COMPLETE) {
+			GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, framebuffer);
+			throw new IllegalStateException("The impostor framebuffer is incomplete: 0x" + Integer.toHexString(status));
+		}
+
+		GL11.glViewport(0, 0, size, size);
+		GL11.glClearColor(0, 0, 0, 0); //nothing there, see the bake shader
+		GL11.glClear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
+		GL11.glEnable(GL11.GL_DEPTH_TEST);
+		if (model.getTexture().isTransparent()) {
+			MasterRenderer.disableCulling(); //the same as EntityRenderer, the backs of leaves show through
+		}
+		shader.start();
+		shader.loadFakeLighting(model.getTexture().isUseFakeLightning());
+		RawModel mesh = model.getRawModel();
+		mesh.touch();
+		GL30.glBindVertexArray(mesh.getVaoID());
+		GL20.glEnableVertexAttribArray(0);
+		GL20.glEnableVertexAttribArray(1);
+		GL20.glEnableVertexAttribArray(2);
+		GL13.glActiveTexture(GL13.GL_TEXTURE0);
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, model.getTexture().getID());
+		float radius = Math.max(mesh.getBoundingRadius(), 1e-3f);
+		for (int y = 0; y < FRAMES; y++) {
+			for (int x = 0; x < FRAMES; x++) {
+				GL11.glViewport(x * FRAME_SIZE, y * FRAME_SIZE, FRAME_SIZE, FRAME_SIZE);
+				Octahedral.frameDirection(x, y, FRAMES, direction);
+				Octahedral.basis(direction, right, up);
+				setBakeMatrix(radius);
+				shader.loadBakeMatrix(bakeMatrix);
+				GL32.glDrawElementsBaseVertex(GL11.GL_TRIANGLES, mesh.getVertexCount(), GL11.GL_UNSIGNED_INT,
+						mesh.getIndexOffset(), mesh.getBaseVertex());
+			}
+		}
+		shader.stop();
+		GL30.glBindVertexArray(0);
+		MasterRenderer.enableCulling();
+		GL11.glClearColor(0, 0, 0, 1);
+
+		GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, framebuffer);
+		GL30.glDeleteFramebuffers(bakeFramebuffer);
+		GL30.glDeleteRenderbuffers(depth);
+		GL11.glViewport(viewport.get(0), viewport.get(1), viewport.get(2), viewport.get(3));
+	}
+
+	//looks at the model from the direction, across is right and up, and the bounding sphere fills the frame
+	//the depth goes from 0 at the front of the sphere to 1 at the back
+	private void setBakeMatrix(float radius) {
+		bakeMatrix.setIdentity();
+		bakeMatrix.m00 = right.x / radius;
+		bakeMatrix.m10 = right.y / radius;
+		bakeMatrix.m20 = right.z / radius;
+		bakeMatrix.m01 = up.x / radius;
+		bakeMatrix.m11 = up.y / radius;
+		bakeMatrix.m21 = up.z / radius;
+		bakeMatrix.m02 = -direction.x / radius;
+		bakeMatrix.m12 = -direction.y / radius;
+		bakeMatrix.m22 = -direction.z / radius;
+	}
+
+	//an empty RGBA atlas with room for the mipmaps
+	private static int createAtlas(int size) {
+		int texture = GL11.glGenTextures();
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture);
+		GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA8, size, size, 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE,
+				(ByteBuffer) null);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL12.GL_TEXTURE_MAX_LEVEL, MIPMAPS);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR_MIPMAP_LINEAR);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+		return texture;
+	}
+
+	//the name of the cached atlases: whatever could make them come out different goes into it
+	private static String cacheKey(String source, ModelData mesh, File[] files) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update((source + "\0" + FORMAT + "\0" + FRAMES + "\0" + FRAME_SIZE).getBytes(StandardCharsets.UTF_8));
+			if (mesh != null) {
+				for (float[] values : new float[][] { mesh.getVertices(), mesh.getTextureCoords(), mesh.getNormals() }) {
+					ByteBuffer bytes = ByteBuffer.allocate(values.length * 4);
+					bytes.asFloatBuffer().put(values);
+					digest.update(bytes);
+				}
+				ByteBuffer indices = ByteBuffer.allocate(mesh.getIndices().length * 4);
+				indices.asIntBuffer().put(mesh.getIndices());
+				digest.update(indices);
+			}
+			for (File file : files) {
+				digest.update((byte) 0);
+				try {
+					digest.update(Files.readAllBytes(file.toPath()));
+				} catch (IOException e) { //baking will fail on it anyway, or it isn't needed
+					digest.update(file.getPath().getBytes(StandardCharsets.UTF_8));
+				}
+			}
+			StringBuilder key = new StringBuilder();
+			for (byte b : digest.digest()) {
+				key.append(String.format("%02x", b));
+			}
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); //every JVM has SHA-256
+		}
+	}
+
+	//fills the atlases from the file, false if there isn't one or it can't be read
+	private static boolean load(File file, int albedo, int normals, int size) {
+		if (!file.isFile()) {
+			return false;
+		}
+		try (DataInputStream in = new DataInputStream(new InflaterInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != FORMAT || in.readInt() != size) {
+				return false;
+			}
+			byte[] pixels = new byte[size * size * 4];
+			ByteBuffer buffer = BufferUtils.createByteBuffer(pixels.length);
+			for (int texture : new int[] { albedo, normals }) {
+				in.readFully(pixels);
+				buffer.clear();
+				buffer.put(pixels).flip();
+				GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture);
+				GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA8, size, size, 0, GL11.GL_RGBA,
+						GL11.GL_UNSIGNED_BYTE, buffer);
+			}
+			GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+			return true;
+		} catch (IOException e) { //a broken file, baking will write it again
+			System.err.println("Could not read the impostor cache " + file + ": " + e);
+			return false;
+		}
+	}
+
+	//reads the atlases back and writes them into the file, mostly empty pixels so they compress well
+	private static void save(File file, int albedo, int normals, int size) {
+		byte[] pixels = new byte[size * size * 4];
+		ByteBuffer buffer = BufferUtils.createByteBuffer(pixels.length);
+		file.getParentFile().mkdirs();
+		try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(FORMAT);
+			out.writeInt(size);
+			for (int texture : new int[] { albedo, normals }) {
+				buffer.clear();
+				GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture);
+				GL11.glGetTexImage(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, buffer);
+				buffer.get(pixels);
+				out.write(pixels);
+			}
+		} catch (IOException e) { //not being able to cache them only makes the next start slower
+			System.err.println("Could not write the impostor cache " + file + ": " + e);
+		}
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+	}
+
+}
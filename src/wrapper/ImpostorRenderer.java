@@ -0,0 +1,223 @@
+package wrapper;
+
+import java.nio.FloatBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL33;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Entity;
+import entities.EntityStore;
+import entities.Light;
+import models.RawModel;
+import models.TexturedModel;
+import shaders.ImpostorShader;
+
+/**
+ * @author Andrei
+ * Draws entities that are far away as impostors, a quad facing the camera with the model's baked pictures on it
+ * (see ImpostorBaker), one instanced draw call for all the entities of a model.
+ *
+ * Past -Ddreaming.impostorDistance (200 by default) an entity fades in as an impostor over the next fifth of that
+ * distance, with an ordered dither so nothing has to be sorted and blended. The model is still drawn until the
+ * impostor has fully faded in, after that only the impostor is. Entities whose model has no impostor are always
+ * drawn as models.
+ *
+ * The instances are written into a StreamingBuffer every frame: the middle of the entity, the radius of its bounding
+ * sphere, its turn around y and how far it has faded in. Only the turn around y is kept, the pictures are of the
+ * model standing up. Impostors are lit by the sun alone and don't get shadows.
+ */
+public class ImpostorRenderer {
+
+	public static final float DISTANCE = Float.parseFloat(System.getProperty("dreaming.impostorDistance", "200"));
+	private static final float TRANSITION = DISTANCE * 0.2f;
+	//x, y, z, radius, turn, fade
+	private static final int INSTANCE_FLOATS = 6;
+	//how many impostors can be drawn in a frame, the rest are dropped
+	private static final int MAX_INSTANCES = 1 << 16;
+
+	private final ImpostorBaker baker;
+	private final ImpostorShader shader = new ImpostorShader();
+	private final RawModel quad;
+	private final StreamingBuffer instanceBuffer;
+	private final FloatBuffer upload = BufferUtils.createFloatBuffer(MAX_INSTANCES * INSTANCE_FLOATS);
+
+	//the instances of the frame, by impostor, so every impostor is one draw call
+	private final Map<Impostor, Batch> batches = new LinkedHashMap<Impostor, Batch>();
+	private int frameInstances = 0;
+
+	private final Vector3f toSun = new Vector3f();
+	private final Vector3f noLight = new Vector3f();
+
+	//what the last render did
+	private int instances = 0;
+	private int drawCalls = 0;
+	private long dropped = 0;
+
+	public ImpostorRenderer(Loader loader, ImpostorBaker baker, Matrix4f projectionMatrix) {
+		this.baker = baker;
+		quad = loader.loadToVAO(new float[] { -1, -1, 1, -1, -1, 1, 1, 1 }, 2);
+		instanceBuffer = loader.createStreamingBuffer("impostor instances", GpuResource.Category.VERTEX,
+				MAX_INSTANCES * INSTANCE_FLOATS * 4);
+		//the instance attributes are pointed at the buffer for every draw, only the divisors are set here
+		GL30.glBindVertexArray(quad.getVaoID());
+		GL33.glVertexAttribDivisor(1, 1);
+		GL33.glVertexAttribDivisor(2, 1);
+		GL30.glBindVertexArray(0);
+		shader.start();
+		shader.loadProjectionMatrix(projectionMatrix);
+		shader.connectTextureUnits();
+		shader.stop();
+	}
+
+	//adds the entity as an impostor if it is far enough away, the camera is where it is seen from
+	//returns true if the model has to be drawn as well, it is until the impostor has faded in
+	public boolean process(Entity entity, Vector3f camera) {
+		TexturedModel model = entity.getModel();
+		Impostor impostor = model == null ? null : baker.get(model);
+		if (impostor == null) {
+			return true;
+		}
+		EntityStore store = entity.getStore();
+		int index = entity.getIndex();
+		float[] matrices = store.getMatrices(); //updated by processVisibleEntities
+		int offset = EntityStore.getMatrixOffset(index);
+		float x = matrices[offset + 12], y = matrices[offset + 13], z = matrices[offset + 14];
+		float dx = x - camera.x, dy = y - camera.y, dz = z - camera.z;
+		float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+		if (distance <= DISTANCE) {
+			return true;
+		}
+		if (frameInstances == MAX_INSTANCES) {
+			dropped++;
+			return true; //the model it is then
+		}
+		Batch batch = batches.get(impostor);
+		if (batch == null) {
+			batch = new Batch();
+			batches.put(impostor, batch);
+		}
+		//the turn around y is where the model's z axis went, see Entity.getRenderRotY
+		float yaw = (float) Math.atan2(matrices[offset + 8], matrices[offset + 10]);
+		batch.add(x, y, z, store.getBoundingRadius(index), yaw, Math.min((distance - DISTANCE) / TRANSITION, 1));
+		frameInstances++;
+		return distance < DISTANCE + TRANSITION;
+	}
+
+	//draws the impostors added since the last render, lit by the sun (or only the ambient light without one)
+	public void render(Matrix4f viewMatrix, Vector3f camera, Light sun) {
+		instances = 0;
+		drawCalls = 0;
+		if (frameInstances > 0) {
+			shader.start();
+			shader.loadViewMatrix(viewMatrix);
+			shader.loadCameraPosition(camera);
+			if (sun != null && sun.getPosition().lengthSquared() > 0) {
+				sun.getPosition().normalise(toSun); //the same as ShadowRenderer, it shines towards the middle
+				shader.loadSun(toSun, sun.getColour());
+			} else {
+				shader.loadSun(noLight, noLight);
+			}
+			GL30.glBindVertexArray(quad.getVaoID());
+			GL20.glEnableVertexAttribArray(0);
+			GL20.glEnableVertexAttribArray(1);
+			GL20.glEnableVertexAttribArray(2);
+			//all of the frame's instances in one go, every batch after the one before
+			upload.clear();
+			for (Batch batch : batches.values()) {
+				upload.put(batch.data, 0, batch.count * INSTANCE_FLOATS);
+			}
+			upload.flip();
+			long offset = instanceBuffer.write(upload);
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, instanceBuffer.getID());
+			for (Map.Entry<Impostor, Batch> entry : batches.entrySet()) {
+				Impostor impostor = entry.getKey();
+				Batch batch = entry.getValue();
+				if (batch.count == 0) {
+					continue;
+				}
+				impostor.touch();
+				shader.loadFrames(impostor.getFrames());
+				GL13.glActiveTexture(GL13.GL_TEXTURE0 + ImpostorShader.ALBEDO_UNIT);
+				GL11.glBindTexture(GL11.GL_TEXTURE_2D, impostor.getAlbedoID());
+				GL13.glActiveTexture(GL13.GL_TEXTURE0 + ImpostorShader.NORMAL_UNIT);
+				GL11.glBindTexture(GL11.GL_TEXTURE_2D, impostor.getNormalID());
+				GL20.glVertexAttribPointer(1, 4, GL11.GL_FLOAT, false, INSTANCE_FLOATS * 4, offset);
+				GL20.glVertexAttribPointer(2, 2, GL11.GL_FLOAT, false, INSTANCE_FLOATS * 4, offset + 16);
+				GL31.glDrawArraysInstanced(GL11.GL_TRIANGLE_STRIP, 0, quad.getVertexCount(), batch.count);
+				offset += batch.count * INSTANCE_FLOATS * 4;
+				instances += batch.count;
+				drawCalls++;
+			}
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+			GL30.glBindVertexArray(0);
+			GL13.glActiveTexture(GL13.GL_TEXTURE0);
+			shader.stop();
+		}
+		instanceBuffer.endFrame();
+		//the impostors nothing was far enough away for this frame are let go of, they could have been released
+		Iterator<Batch> iterator = batches.values().iterator();
+		while (iterator.hasNext()) {
+			Batch batch = iterator.next();
+			if (batch.count == 0) {
+				iterator.remove();
+			}
+			batch.count = 0;
+		}
+		frameInstances = 0;
+	}
+
+	//how many impostors the last render drew, and in how many draw calls
+	public int getInstances() {
+		return instances;
+	}
+
+	public int getDrawCalls() {
+		return drawCalls;
+	}
+
+	//how many entities were drawn as models because there was no room left for their impostor
+	public long getDropped() {
+		return dropped;
+	}
+
+	//the quad and the buffer go with the rest of the Loader's resources
+	public void cleanUp() {
+		shader.cleanUp();
+	}
+
+	//the instances of one impostor
+	private static class Batch {
+
+		private float[] data = new float[INSTANCE_FLOATS * 64];
+		private int count = 0;
+
+		private void add(float x, float y, float z, float radius, float yaw, float fade) {
+			int offset = count * INSTANCE_FLOATS;
+			if (offset + INSTANCE_FLOATS > data.length) {
+				float[] bigger = new float[data.length * 2];
+				System.arraycopy(data, 0, bigger, 0, data.length);
+				data = bigger;
+			}
+			data[offset] = x;
+			data[offset + 1] = y;
+			data[offset + 2] = z;
+			data[offset + 3] = radius;
+			data[offset + 4] = yaw;
+			data[offset + 5] = fade;
+			count++;
+		}
+
+	}
+
+}
@@ -0,0 +1,257 @@
+package wrapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Light;
+import entities.SpatialHashGrid;
+import tools.Frustum;
+import tools.IntList;
+
+/**
+ * @author Andrei
+ * Decides which lights affect which entity, so any number of lights can be in the scene.
+ *
+ * Every positional light gets a radius from its attenuation (the distance at which it adds less than
+ * MIN_CONTRIBUTION to a surface) and is kept in a spatial index with that radius. Once per frame the lights
+ * that reach into the view are put into a frame table, which is what gets uploaded to the shader. Then for
+ * every entity the lights in the table whose radius touches it are ranked by how bright they are at the entity,
+ * and the best few are handed out as indices into the frame table. The table is small (it has to fit into the
+ * shader's uniforms), so it is kept as flat arrays and checked in full, which is cheaper than asking the index.
+ *
+ * Lights without any attenuation (like the sun) reach everything, so they are in every entity's list.
+ * Nothing in here touches OpenGL.
+ */
+public class LightAssigner {
+
+	//below this a light doesn't noticeably change the colour of a surface
+	private static final float MIN_CONTRIBUTION = 1 / 64f;
+	private static final float DEFAULT_CELL_SIZE = 512;
+
+	private final int tableSize;
+	private final int lightsPerEntity;
+
+	//lights by their position in the scene's list
+	private final SpatialHashGrid index;
+	private int indexedLights = 0;
+	private float[] radius = new float[64];
+
+	//what the shader gets this frame
+	private final List<Light> table = new ArrayList<Light>();
+	private final IntList globalSlots = new IntList();
+	private List<Light> lights;
+
+	//the positional lights of the frame table, as flat arrays
+	private int positionalCount = 0;
+	private final float[] tableX, tableY, tableZ, tableRadius, tableBrightest;
+	private final float[] tableConstant, tableLinear, tableQuadratic;
+	private final int[] tablePositionalSlot;
+
+	private final IntList candidates = new IntList();
+	private final float[] bestScores;
+
+	//how long the last frame took, from beginFrame to the last call to assign
+	private long frameNanos = 0;
+	private int assignedEntities = 0;
+	private int testedLights = 0;
+
+	public LightAssigner(int tableSize, int lightsPerEntity) {
+		this(tableSize, lightsPerEntity, DEFAULT_CELL_SIZE);
+	}
+
+	public LightAssigner(int tableSize, int lightsPerEntity, float cellSize) {
+		this.tableSize = tableSize;
+		this.lightsPerEntity = lightsPerEntity;
+		this.index = new SpatialHashGrid(cellSize);
+		this.bestScores = new float[lightsPerEntity];
+		tableX = new float[tableSize];
+		tableY = new float[tableSize];
+		tableZ = new float[tableSize];
+		tableRadius = new float[tableSize];
+		tableBrightest = new float[tableSize];
+		tableConstant = new float[tableSize];
+		tableLinear = new float[tableSize];
+		tableQuadratic = new float[tableSize];
+		tablePositionalSlot = new int[tableSize];
+	}
+
+	//the distance at which the light adds less than MIN_CONTRIBUTION, infinite for lights without attenuation
+	public static float getInfluenceRadius(Light light) {
+		Vector3f attenuation = light.getAttenuation();
+		Vector3f colour = light.getColour();
+		float brightest = Math.max(colour.x, Math.max(colour.y, colour.z));
+		//solve attenuation.x + attenuation.y * d + attenuation.z * d^2 = brightest / MIN_CONTRIBUTION
+		float c = attenuation.x - brightest / MIN_CONTRIBUTION;
+		if (c >= 0) {
+			return 0; //too dim to ever matter
+		}
+		if (attenuation.z > 0) {
+			float b = attenuation.y;
+			return (float) ((-b + Math.sqrt(b * b - 4 * attenuation.z * c)) / (2 * attenuation.z));
+		}
+		if (attenuation.y > 0) {
+			return -c / attenuation.y;
+		}
+		return Float.POSITIVE_INFINITY;
+	}
+
+	//updates the light index and builds the frame table from the lights that can reach into the frustum
+	//returns the frame table, its order is what the indices from assign refer to
+	public List<Light> beginFrame(List<Light> lights, Frustum frustum, Vector3f camera) {
+		long start = System.nanoTime();
+		this.lights = lights;
+		assignedEntities = 0;
+		testedLights = 0;
+		table.clear();
+		globalSlots.clear();
+		positionalCount = 0;
+		if (radius.length < lights.size()) {
+			radius = Arrays.copyOf(radius, Math.max(lights.size(), radius.length * 2));
+		}
+
+		for (int i = 0; i < lights.size(); i++) {
+			Light light = lights.get(i);
+			radius[i] = getInfluenceRadius(light);
+			if (Float.isInfinite(radius[i])) {
+				index.remove(i);
+				if (table.size() < tableSize && globalSlots.size() < lightsPerEntity) {
+					globalSlots.add(table.size());
+					table.add(light);
+				}
+			} else if (radius[i] > 0) {
+				Vector3f position = light.getPosition();
+				index.update(i, position.x, position.y, position.z, radius[i]);
+			} else {
+				index.remove(i);
+			}
+		}
+		for (int i = lights.size(); i < indexedLights; i++) { //lights that were taken out of the list
+			index.remove(i);
+		}
+		indexedLights = lights.size();
+
+		//the lights that touch the view, if there are too many the ones brightest at the camera win
+		candidates.clear();
+		index.queryFrustum(frustum, candidates);
+		int room = tableSize - table.size();
+		if (candidates.size() > room) {
+			sortByBrightness(candidates, camera.x, camera.y, camera.z);
+		}
+		for (int i = 0; i < candidates.size() && table.size() < tableSize; i++) {
+			int light = candidates.get(i);
+			Light added = lights.get(light);
+			Vector3f position = added.getPosition();
+			Vector3f attenuation = added.getAttenuation();
+			Vector3f colour = added.getColour();
+			int p = positionalCount++;
+			tableX[p] = position.x;
+			tableY[p] = position.y;
+			tableZ[p] = position.z;
+			tableRadius[p] = radius[light];
+			tableBrightest[p] = Math.max(colour.x, Math.max(colour.y, colour.z));
+			tableConstant[p] = attenuation.x;
+			tableLinear[p] = attenuation.y;
+			tableQuadratic[p] = attenuation.z;
+			tablePositionalSlot[p] = table.size();
+			table.add(added);
+		}
+		frameNanos = System.nanoTime() - start;
+		return table;
+	}
+
+	//finds the lights that matter the most for a bounding sphere and puts their frame table slots into dest
+	//returns how many were found, at most lightsPerEntity
+	public int assign(float x, float y, float z, float boundingRadius, int[] dest) {
+		long start = System.nanoTime();
+		int count = 0;
+		for (int i = 0; i < globalSlots.size() && count < lightsPerEntity; i++) {
+			dest[count] = globalSlots.get(i);
+			bestScores[count++] = Float.POSITIVE_INFINITY;
+		}
+		int first = count;
+		for (int p = 0; p < positionalCount; p++) {
+			float dx = tableX[p] - x, dy = tableY[p] - y, dz = tableZ[p] - z;
+			float reach = tableRadius[p] + boundingRadius;
+			float distanceSquared = dx * dx + dy * dy + dz * dz;
+			if (distanceSquared > reach * reach) {
+				continue;
+			}
+			testedLights++;
+			//how bright the light is at the closest point of the bounding sphere
+			float distance = Math.max((float) Math.sqrt(distanceSquared) - boundingRadius, 0);
+			float score = tableBrightest[p]
+					/ (tableConstant[p] + tableLinear[p] * distance + tableQuadratic[p] * distance * distance);
+			if (count == lightsPerEntity && (first == count || score <= bestScores[count - 1])) {
+				continue;
+			}
+			//insertion sort, the list is only a handful long
+			int at = count < lightsPerEntity ? count++ : count - 1;
+			while (at > first && bestScores[at - 1] < score) {
+				bestScores[at] = bestScores[at - 1];
+				dest[at] = dest[at - 1];
+				at--;
+			}
+			bestScores[at] = score;
+			dest[at] = tablePositionalSlot[p];
+		}
+		assignedEntities++;
+		frameNanos += System.nanoTime() - start;
+		return count;
+	}
+
+	//the slots of the lights that reach everything, for things too big to assign lights to on their own
+	public IntList getGlobalSlots() {
+		return globalSlots;
+	}
+
+	public List<Light> getTable() {
+		return table;
+	}
+
+	public int getLightsPerEntity() {
+		return lightsPerEntity;
+	}
+
+	//CPU time spent on the current frame so far, in nanoseconds
+	public long getFrameNanos() {
+		return frameNanos;
+	}
+
+	public int getAssignedEntities() {
+		return assignedEntities;
+	}
+
+	//how many light and entity pairs were in reach of each other this frame
+	public int getTestedLights() {
+		return testedLights;
+	}
+
+	private static float getBrightness(Light light, float x, float y, float z, float boundingRadius) {
+		Vector3f position = light.getPosition();
+		float dx = position.x - x, dy = position.y - y, dz = position.z - z;
+		float distance = Math.max((float) Math.sqrt(dx * dx + dy * dy + dz * dz) - boundingRadius, 0);
+		Vector3f attenuation = light.getAttenuation();
+		Vector3f colour = light.getColour();
+		float brightest = Math.max(colour.x, Math.max(colour.y, colour.z));
+		return brightest / (attenuation.x + attenuation.y * distance + attenuation.z * distance * distance);
+	}
+
+	//sorts light ids by their brightness at a point, brightest first
+	private void sortByBrightness(IntList ids, float x, float y, float z) {
+		int count = ids.size();
+		long[] keyed = new long[count];
+		for (int i = 0; i < count; i++) {
+			//brightness is positive, so its bits sort the same way as the float does
+			float brightness = getBrightness(lights.get(ids.get(i)), x, y, z, 0);
+			keyed[i] = ((long) Float.floatToIntBits(brightness) << 32) | ids.get(i);
+		}
+		Arrays.sort(keyed);
+		for (int i = 0; i < count; i++) {
+			ids.set(i, (int) keyed[count - 1 - i]);
+		}
+	}
+
+}
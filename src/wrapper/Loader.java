@@ -17,36 +17,88 @@ import org.newdawn.slick.opengl.Texture;
 import org.newdawn.slick.opengl.TextureLoader;
 
 import models.RawModel;
+import tools.EngineEvents;
 
 /**
  * @author Andrei 
- * Handles the loading of geometry data into VAOs. It also keeps track of all
- * the created VAOs and VBOs so that they can all be deleted when the application
- * closes.
+ * Handles the loading of geometry data into VAOs. Everything it creates is added to its GpuResources,
+ * which knows how much memory it all takes, deletes a mesh or texture once it is released and deletes
+ * whatever is left when the application closes.
  */
 
 public class Loader {
 	
 	//used for memory management 
-	private List<Integer> vaos = new ArrayList<Integer>();
-	private List<Integer> vbos = new ArrayList<Integer>();
-	private List<Integer> textures = new ArrayList<Integer>();
+	private final GpuResources resources = new GpuResources();
+	
+	//the models with positions, texture coordinates and normals all go into its shared buffers
+	//-Ddreaming.arena=false gives every model its own VAO again
+	private final VertexArena arena = Boolean.parseBoolean(System.getProperty("dreaming.arena", "true"))
+			? new VertexArena(resources) : null;
+	
+	//the buffers for data that changes every frame
+	private final List<StreamingBuffer> streamingBuffers = new ArrayList<StreamingBuffer>();
 	
 	//this method takes information about the model's vertices, loads them into the VAO
 	//and returns data about the VAO as a RawModel object
 	public RawModel loadToVAO(float[] positions,float[] textureCoords, float[] normals, int[] indices) {
+		EngineEvents.Upload event = new EngineEvents.Upload();
+		event.begin();
+		if (arena != null) { //a range of the arena's buffers instead of a VAO of its own
+			ArenaAllocation mesh = arena.allocate("mesh " + resources.getCount(), positions, textureCoords, normals, indices);
+			resources.add(mesh);
+			commitUpload(event, "arena", mesh.getName(), mesh.getUsedBytes());
+			RawModel model = new RawModel(mesh, mesh.getVaoID(), indices.length, calculateBoundingRadius(positions),
+					mesh.getFirstIndex(), mesh.getBaseVertex());
+			mesh.setModel(model);
+			return model;
+		}
+		int vaoID = createVAO();
+		int indexBuffer = bindIndicesBuffer(indices); //binds the indices buffer the the vao, this is done automatically since there is only one indices buffer per vao
+		int positionBuffer = storeDataInAttributeList(0, 3, positions); //stores the positions into attribute 0
+		int textureBuffer = storeDataInAttributeList(1, 2, textureCoords); //stores the texture coordinates into attribute 1
+		int normalBuffer = storeDataInAttributeList(2, 3, normals); //stores the normals into attribute 2
+		unbindVAO();
+		MeshResource mesh = new MeshResource("vao " + vaoID, vaoID, indexBuffer, positionBuffer, textureBuffer, normalBuffer);
+		mesh.addBytes(GpuResource.Category.VERTEX, 4L * (positions.length + textureCoords.length + normals.length));
+		mesh.addBytes(GpuResource.Category.INDEX, 4L * indices.length);
+		resources.add(mesh);
+		commitUpload(event, "VAO", mesh.getName(), mesh.getTotalBytes());
+		return new RawModel(mesh, indices.length, calculateBoundingRadius(positions)); //the number of vertices is the length of the indices buffer
+	}
+	
+	//for flat things like the overlays, which only have positions with the given number of components
+	//the vertices are drawn with glDrawArrays, so the vertex count is the number of positions
+	public RawModel loadToVAO(float[] positions, int dimensions) {
+		EngineEvents.Upload event = new EngineEvents.Upload();
+		event.begin();
 		int vaoID = createVAO();
-		bindIndicesBuffer(indices); //binds the indices buffer the the vao, this is done automatically since there is only one indices buffer per vao
-		storeDataInAttributeList(0, 3, positions); //stores the positions into attribute 0
-		storeDataInAttributeList(1, 2, textureCoords); //stores the texture coordinates into attribute 1
-		storeDataInAttributeList(2, 3, normals); //stores the normals into attribute 2
+		int positionBuffer = storeDataInAttributeList(0, dimensions, positions);
 		unbindVAO();
-		return new RawModel(vaoID, indices.length); //the number of vertices is the length of the indices buffer
+		MeshResource mesh = new MeshResource("vao " + vaoID, vaoID, positionBuffer);
+		mesh.addBytes(GpuResource.Category.VERTEX, 4L * positions.length);
+		resources.add(mesh);
+		commitUpload(event, "VAO", mesh.getName(), mesh.getTotalBytes());
+		return new RawModel(mesh, positions.length / dimensions, 0);
+	}
+	
+	//a buffer for data that is written again every frame, with room for the given number of bytes per frame
+	//its endFrame has to be called once the frame's draws with it were issued
+	public StreamingBuffer createStreamingBuffer(String name, GpuResource.Category category, int bytesPerFrame) {
+		StreamingBuffer buffer = resources.add(new StreamingBuffer(name, category, bytesPerFrame));
+		streamingBuffers.add(buffer);
+		return buffer;
+	}
+	
+	public List<StreamingBuffer> getStreamingBuffers() {
+		return streamingBuffers;
 	}
 	
 	//loads up a texture into memory so that it can be used
 	//uses Slick-Util texture loader: http://slick.ninjacave.com/slick-util/
-	public int loadTexture(String fileName) {
+	public TextureResource loadTexture(String fileName) {
+		EngineEvents.Upload event = new EngineEvents.Upload();
+		event.begin();
 		Texture texture = null;
 		try {
 			texture = TextureLoader.getTexture("PNG", new FileInputStream("res/"+fileName+".png")); //file path of the texture
@@ -59,41 +111,90 @@ public class Loader {
 			e.printStackTrace();
 		}
 		
-		int textureID = texture.getTextureID(); //gets the ID of the texture
-		textures.add(textureID); //adds it to the texture list
-		return textureID;
+		TextureResource resource = new TextureResource(fileName, texture.getTextureID(), hasTransparentPixels(texture));
+		//RGBA, and the mipmaps add another third
+		resource.addBytes(GpuResource.Category.TEXTURE, 4L * texture.getTextureWidth() * texture.getTextureHeight() * 4 / 3);
+		resources.add(resource);
+		commitUpload(event, "texture", fileName, resource.getTotalBytes());
+		return resource;
+	}
+	
+	//what everything loaded takes up on the GPU, its endFrame has to be called every frame
+	public GpuResources getResources() {
+		return resources;
 	}
 	
-	//once we close the scene this method deletes all the VBOS and VAOS
+	//the shared buffers the models are in, null if every model has its own VAO
+	//its endFrame has to be called every frame as well
+	public VertexArena getArena() {
+		return arena;
+	}
+	
+	//once we close the scene this method deletes all the VBOS, VAOS and textures
 	public void cleanUp() {
-		for (int vao : vaos) {
-			GL30.glDeleteVertexArrays(vao);
-		}
-		for (int vbo : vbos) {
-			GL15.glDeleteBuffers(vbo);
-		}
-		for (int texture : textures) {
-			GL11.glDeleteTextures(texture);
+		resources.deleteAll();
+		if (arena != null) {
+			arena.cleanUp();
 		}
 	}
 	
 	//creates a new empty VAO
 	private int createVAO() {
 		int vaoID = GL30.glGenVertexArrays(); //creates an empty VAO and returns the ID
-		vaos.add(vaoID); // add it to the VAO list
 		GL30.glBindVertexArray(vaoID); //binds the VAO
 		return vaoID;
 	}
 	
 	//stores data into the attribute list of a VAO
-	private void storeDataInAttributeList(int attributeNumber, int coordinateSize, float[] data) {
+	private int storeDataInAttributeList(int attributeNumber, int coordinateSize, float[] data) {
+		EngineEvents.Upload event = new EngineEvents.Upload();
+		event.begin();
 		int vboID = GL15.glGenBuffers(); //data needs to be stored as a VBO, so we generate a buffer and store the ID
-		vbos.add(vboID); // add it to the VBO list
 		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID); //we bind the buffer
 		FloatBuffer buffer = storeDataInFloatBuffer(data); //array of floats needs to be converted into a float buffer
 		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW); //used for storing data into the VBO
 		GL20.glVertexAttribPointer(attributeNumber, coordinateSize, GL11.GL_FLOAT, false, 0, 0); // put the VBO into the VAO
 		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0); // unbind the buffer
+		commitUpload(event, "VBO", "attribute " + attributeNumber, 4L * data.length);
+		return vboID;
+	}
+	
+	//fills in and sends the flight recorder event for an upload, if it is being recorded
+	private void commitUpload(EngineEvents.Upload event, String kind, String name, long bytes) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.kind = kind;
+			event.name = name;
+			event.bytes = bytes;
+			event.commit();
+		}
+	}
+	
+	//whether the alpha test in the shader would throw away any of the texture's pixels
+	//reads the texture back once when it is loaded, only the part the image covers, the rest is padding
+	private boolean hasTransparentPixels(Texture texture) {
+		if (!texture.hasAlpha()) {
+			return false;
+		}
+		byte[] rgba = texture.getTextureData();
+		for (int y = 0; y < texture.getImageHeight(); y++) {
+			for (int x = 0; x < texture.getImageWidth(); x++) {
+				if ((rgba[(y * texture.getTextureWidth() + x) * 4 + 3] & 0xff) < 128) { //the shader discards below 0.5
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	//the distance from the origin to the furthest vertex
+	private float calculateBoundingRadius(float[] positions) {
+		float furthest = 0;
+		for (int i = 0; i + 2 < positions.length; i += 3) {
+			float x = positions[i], y = positions[i + 1], z = positions[i + 2];
+			furthest = Math.max(furthest, x * x + y * y + z * z);
+		}
+		return (float) Math.sqrt(furthest);
 	}
 	
 	private void unbindVAO() {
@@ -101,12 +202,15 @@ public class Loader {
 	}
 	
 	//loads and up binds the indices buffer to the vao
-	private void bindIndicesBuffer(int[] indices) {
+	private int bindIndicesBuffer(int[] indices) {
+		EngineEvents.Upload event = new EngineEvents.Upload();
+		event.begin();
 		int vboId = GL15.glGenBuffers(); //creates an empty vbo and returns the id
-		vbos.add(vboId);
 		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, vboId); //binds the vbo, this time its an element array buffer
 		IntBuffer buffer = storeDataInIntBuffer(indices); //converts the array of indices into an int buffer
 		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW); //stores the int buffer into the vbo
+		commitUpload(event, "IBO", "indices", 4L * indices.length);
+		return vboId;
 	}
 	
 	//Indices need to be stored into an int buffer
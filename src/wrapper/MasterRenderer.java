@@ -1,21 +1,28 @@
 package wrapper;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
-import org.lwjgl.opengl.Display;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
 
 import entities.Camera;
 import entities.Entity;
+import entities.EntityStore;
+import entities.SpatialHashGrid;
 import entities.Light;
 import entities.Terrain;
-import models.TexturedModel;
+import shaders.ShaderProgram;
 import shaders.StaticShader;
+import shaders.StaticShaderCache;
 import shaders.TerrainShader;
+import tools.EngineEvents;
+import tools.Frustum;
+import tools.IntList;
+import tools.Maths;
+import tools.Profiler;
+import tools.TransformKernel;
 
 /**
  * @author Andrei
@@ -28,23 +35,69 @@ public class MasterRenderer {
 	private static final float NEAR_PLANE = 0.1f;
 	private static final float FAR_PLANE = 1000;
 	
+	//profiler scopes, the draws are timed on the GPU as well
+	private static final int UPDATE_MATRICES = Profiler.register("update matrices");
+	private static final int CULL = Profiler.register("cull");
+	private static final int PROCESS_ENTITIES = Profiler.register("processEntity");
+	private static final int LIGHTS = Profiler.register("light assignment");
+	private static final int ENTITY_DRAW = Profiler.register("entity draw");
+	private static final int TERRAIN_DRAW = Profiler.register("terrain draw");
+	private static final int IMPOSTOR_DRAW = Profiler.register("impostor draw");
+	
 	private  Matrix4f projectionMatrix;
+	private Matrix4f viewMatrix = new Matrix4f();
 	
-	private StaticShader shader = new StaticShader();
+	private StaticShaderCache shaders = new StaticShaderCache(ShadowRenderer.ENABLED); //a variant for every kind of material
 	private EntityRenderer renderer;
 	
 	private TerrainRenderer terrainRenderer;
-	private TerrainShader terrainShader = new TerrainShader();
+	private TerrainShader terrainShader = new TerrainShader(ShadowRenderer.ENABLED);
+	
+	//the sun's shadows, null when they are off, and the light that is the sun
+	private ShadowRenderer shadowRenderer;
+	private Light sun;
+	
+	//the entities far away drawn as impostors, null until setImpostors is called
+	private ImpostorRenderer impostorRenderer;
 	
-	// we will be using a Hash Map to render different entities using the same textured model
-	private Map<TexturedModel, List<Entity>> entities = new HashMap<TexturedModel, List<Entity>>();
+	//the entities of the frame, by textured model, so that entities using the same model are drawn together
+	private EntityBatcher batcher = new EntityBatcher();
 	private List<Terrain> terrains = new ArrayList<Terrain>();
+	//every store the entities of the frame came from, all of their entities cast shadows and not just the visible ones
+	private List<EntityStore> stores = new ArrayList<EntityStore>();
+	
+	//used for culling the entities against the cameras view
+	private Frustum frustum = new Frustum();
+	private IntList visible = new IntList();
+	private float[] radii = new float[0];
+	
+	//decides which lights light up which entity, any number of lights can be in the scene
+	private LightAssigner lightAssigner = new LightAssigner(StaticShader.FRAME_LIGHTS, StaticShader.MAX_LIGHTS);
+	private int[] terrainLights = new int[StaticShader.MAX_LIGHTS];
+	private List<Light> selectedLights = new ArrayList<Light>();
 	
-    public MasterRenderer(){
+	private GpuTimer gpuTimer = new GpuTimer();
+	
+    public MasterRenderer(Loader loader){
     	enableCulling();
         createProjectionMatrix();
-        renderer = new EntityRenderer(shader,projectionMatrix);
+        renderer = new EntityRenderer(shaders,projectionMatrix,lightAssigner);
         terrainRenderer = new TerrainRenderer(terrainShader,projectionMatrix);
+        if (ShadowRenderer.ENABLED) {
+        	shadowRenderer = new ShadowRenderer(loader, FOV, NEAR_PLANE,
+        			(float) DisplayManager.getWidth() / (float) DisplayManager.getHeight(), gpuTimer);
+        }
+        ShaderProgram.linkAll(); //every variant was handed over side by side, now they are waited for together
+    }
+    
+    //draws the entities with a baked impostor past ImpostorRenderer.DISTANCE as impostors from now on
+    public void setImpostors(Loader loader, ImpostorBaker baker) {
+    	impostorRenderer = new ImpostorRenderer(loader, baker, projectionMatrix);
+    }
+    
+    //the light that casts shadows, usually the first one of the scene, null for none
+    public void setSun(Light sun) {
+    	this.sun = sun;
     }
     
     //enables culling the back faces
@@ -60,41 +113,187 @@ public class MasterRenderer {
     //renders all the entities and terrains
 	public void render(List<Light> lights, Camera camera) {
         prepare();
-        shader.start();
-        shader.loadLights(lights);
-        shader.loadViewMatrix(camera);
-        renderer.render(entities); //renders all the entities in the hash map
-        shader.stop();
+        Profiler.begin(UPDATE_MATRICES);
+        for (EntityStore store : batcher.getStores()) {
+        	store.updateMatrices();
+        	if (!stores.contains(store)) {
+        		stores.add(store);
+        	}
+        }
+        Profiler.end(UPDATE_MATRICES);
+        frustum.update(projectionMatrix, Maths.createViewMatrix(camera, viewMatrix));
+        List<Light> frameLights = lightAssigner.beginFrame(lights, frustum, camera.getPosition());
+        List<Light> shaderLights = selectTerrainLights(frameLights, camera);
+        if (shadowRenderer != null) {
+        	if (sun != null) {
+        		shadowRenderer.render(stores, terrains, sun, viewMatrix); //puts the scene's framebuffer back
+        	}
+        	shadowRenderer.bindShadowMap();
+        	renderer.setShadows(shadowRenderer, sun == null ? -1 : frameLights.indexOf(sun));
+        }
+        Profiler.begin(ENTITY_DRAW);
+        gpuTimer.begin(ENTITY_DRAW);
+        renderer.render(batcher.getBatches(), frameLights, camera); //renders all the entities in the hash map
+        gpuTimer.end(ENTITY_DRAW);
+        Profiler.end(ENTITY_DRAW);
+        Profiler.begin(TERRAIN_DRAW);
+        gpuTimer.begin(TERRAIN_DRAW);
         terrainShader.start();
-        terrainShader.loadLights(lights);
+        terrainShader.loadLights(shaderLights);
+        terrainShader.loadProjectionMatrix(projectionMatrix); //only goes to OpenGL when it changed, see ShaderProgram
         terrainShader.loadViewMatrix(camera);
+        if (shadowRenderer != null) {
+        	terrainShader.loadShadows(shadowRenderer.getShadowMatrices(), shadowRenderer.getCascadeEnds(),
+        			sun == null ? -1 : shaderLights.indexOf(sun));
+        }
         terrainRenderer.render(terrains);
         terrainShader.stop();
+        gpuTimer.end(TERRAIN_DRAW);
+        Profiler.end(TERRAIN_DRAW);
+        if (impostorRenderer != null) {
+        	Profiler.begin(IMPOSTOR_DRAW);
+        	gpuTimer.begin(IMPOSTOR_DRAW);
+        	impostorRenderer.render(viewMatrix, camera.getPosition(), sun);
+        	gpuTimer.end(IMPOSTOR_DRAW);
+        	Profiler.end(IMPOSTOR_DRAW);
+        }
+        Profiler.add(LIGHTS, lightAssigner.getFrameNanos()); //the table, and picking lights during the entity draw
+        gpuTimer.endFrame();
         terrains.clear();
-        entities.clear();
+        stores.clear();
+        batcher.clear();
 	}
 	
+    //adds all the entities of the store that are inside the view of the camera, using the stores spatial index
+    //stores without an index have every entity tested against the frustum, several at a time by the transform kernel
+    public void processVisibleEntities(EntityStore store, Camera camera) {
+    	Profiler.begin(UPDATE_MATRICES);
+    	store.updateMatrices(); //this also moves the entities that changed inside the index
+    	Profiler.end(UPDATE_MATRICES);
+    	if (!stores.contains(store)) {
+    		stores.add(store);
+    	}
+    	Profiler.begin(CULL);
+    	EngineEvents.Cull cull = new EngineEvents.Cull();
+    	cull.begin();
+    	frustum.update(projectionMatrix, Maths.createViewMatrix(camera, viewMatrix));
+    	visible.clear();
+    	SpatialHashGrid index = store.getSpatialIndex();
+    	if(index == null) {
+    		if(radii.length < store.size()) {
+    			radii = new float[store.size()];
+    		}
+    		for(int i = 0; i < store.size(); i++) {
+    			radii[i] = store.getBoundingRadius(i);
+    		}
+    		TransformKernel.getInstance().cullSpheres(frustum.getPlanes(), store.getPositionsX(), store.getPositionsY(),
+    				store.getPositionsZ(), radii, 0, store.size(), visible);
+    	}else {
+    		index.queryFrustum(frustum, visible);
+    	}
+    	cull.end();
+    	if(cull.shouldCommit()) {
+    		cull.entities = store.size();
+    		cull.visible = visible.size();
+    		cull.indexed = index != null;
+    		cull.commit();
+    	}
+    	Profiler.end(CULL);
+    	Profiler.begin(PROCESS_ENTITIES);
+    	EngineEvents.Batch batch = new EngineEvents.Batch();
+    	batch.begin();
+    	Vector3f cameraPosition = camera.getPosition();
+    	for(int i = 0; i < visible.size(); i++) {
+    		int id = visible.get(i);
+    		if(id < store.size()) {
+    			Entity entity = store.getEntity(id);
+    			//far away entities go to the impostors, the model is only drawn as well while they fade in
+    			if(impostorRenderer == null || impostorRenderer.process(entity, cameraPosition)) {
+    				processEntity(entity);
+    			}
+    		}
+    	}
+    	batch.end();
+    	if(batch.shouldCommit()) {
+    		batch.entities = visible.size();
+    		batch.batches = batcher.getBatchCount();
+    		batch.commit();
+    	}
+    	Profiler.end(PROCESS_ENTITIES);
+    }
+	
     public void processTerrain(Terrain terrain){
         terrains.add(terrain);
     }
 	
     //takes in the entity thats going to be processed and puts it into the hash map
 	public void processEntity(Entity entity) {
-		TexturedModel entityModel = entity.getModel(); // find out which textured model the entity is using
-		List<Entity> batch = entities.get(entityModel); //get the list that corresponds to that entity from the hash map
-		if(batch!=null) { //if it already exists
-			batch.add(entity); // we can add it
-		}else {
-			List<Entity> newBatch = new ArrayList<Entity>(); //create a new batch
-			newBatch.add(entity); //add the entity
-			entities.put(entityModel, newBatch); //add the batch to the hash map
-		}
-		
+		batcher.add(entity);
 	}
 	
 	public void cleanUp() {
-		shader.cleanUp();
+		shaders.cleanUp();
 		terrainShader.cleanUp();
+		if (shadowRenderer != null) {
+			shadowRenderer.cleanUp();
+		}
+		if (impostorRenderer != null) {
+			impostorRenderer.cleanUp();
+		}
+		gpuTimer.cleanUp();
+	}
+	
+	//the terrain is too big to pick lights for on its own, so it gets the frame lights that are brightest at the camera
+	private List<Light> selectTerrainLights(List<Light> frameLights, Camera camera) {
+		selectedLights.clear();
+		Vector3f position = camera.getPosition();
+		int count = lightAssigner.assign(position.x, position.y, position.z, 0, terrainLights);
+		for(int i = 0; i < count; i++) {
+			selectedLights.add(frameLights.get(terrainLights[i]));
+		}
+		return selectedLights;
+	}
+	
+	//how many draw calls and triangles the last render issued, entities and terrain together
+	public int getDrawCalls() {
+		return renderer.getDrawCalls() + terrainRenderer.getDrawCalls();
+	}
+	
+	public long getTriangles() {
+		return renderer.getTriangles() + terrainRenderer.getTriangles();
+	}
+	
+	//how many times the last render switched VAOs, with the VertexArena it is about one per page
+	public int getVaoBinds() {
+		return renderer.getVaoBinds() + terrainRenderer.getVaoBinds();
+	}
+	
+	//how many draw calls the last render spent on the shadow map, and in how many cascades it had to draw the static
+	//casters again, both 0 without shadows
+	public int getShadowDrawCalls() {
+		return shadowRenderer == null ? 0 : shadowRenderer.getDrawCalls();
+	}
+	
+	public int getShadowRefreshes() {
+		return shadowRenderer == null ? 0 : shadowRenderer.getRefreshes();
+	}
+	
+	//how many impostors the last render drew and in how many draw calls, both 0 without impostors
+	public int getImpostorInstances() {
+		return impostorRenderer == null ? 0 : impostorRenderer.getInstances();
+	}
+	
+	public int getImpostorDrawCalls() {
+		return impostorRenderer == null ? 0 : impostorRenderer.getDrawCalls();
+	}
+	
+	//how many entities the last processVisibleEntities found inside the view
+	public int getVisibleCount() {
+		return visible.size();
+	}
+	
+	public LightAssigner getLightAssigner() {
+		return lightAssigner;
 	}
 	
 	//called once every frame, prepares OpenGL for rendering the scene
@@ -107,7 +306,7 @@ public class MasterRenderer {
 	//creates a perspective projection matrix
 	//code for this method is taken from this tutorial: https://www.youtube.com/watch?v=50Y9u7K0PZo
 	private void createProjectionMatrix() {
-        float aspectRatio = (float) Display.getWidth() / (float) Display.getHeight();
+        float aspectRatio = (float) DisplayManager.getWidth() / (float) DisplayManager.getHeight();
         float y_scale = (float) ((1f / Math.tan(Math.toRadians(FOV / 2f))) * aspectRatio);
         float x_scale = y_scale / aspectRatio;
         float frustum_length = FAR_PLANE - NEAR_PLANE;
@@ -0,0 +1,33 @@
+package wrapper;
+
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+
+/**
+ * @author Andrei
+ * A VAO and the buffers it reads from
+ */
+public class MeshResource extends GpuResource {
+
+	private final int vao;
+	private final int[] buffers;
+
+	public MeshResource(String name, int vao, int... buffers) {
+		super(name);
+		this.vao = vao;
+		this.buffers = buffers;
+	}
+
+	public int getVaoID() {
+		return vao;
+	}
+
+	@Override
+	protected void delete() {
+		GL30.glDeleteVertexArrays(vao);
+		for (int buffer : buffers) {
+			GL15.glDeleteBuffers(buffer);
+		}
+	}
+
+}
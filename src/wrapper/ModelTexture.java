@@ -1,5 +1,7 @@
 package wrapper;
 
+import shaders.StaticShader;
+
 /**
  * @author Andrei
  * Class that represents a texture that we can use to texture models
@@ -7,6 +9,8 @@ package wrapper;
 public class ModelTexture {
 	
 	private int textureID;
+	//null for a texture that wasn't loaded by the Loader
+	private TextureResource resource;
 	
 	private float shineDamper = 1;
 	private float reflectivity = 0;
@@ -14,10 +18,54 @@ public class ModelTexture {
 	//allows textures to be rendered using fake lighting (all normals point up)
 	private boolean useFakeLightning = false;
 	
+	//whether it has pixels that have to be thrown away, without that the shader doesn't test for them
+	//true unless the Loader looked at the pixels, it is always right to test
+	private boolean transparent = true;
+	
 	public ModelTexture(int id) {
 		this.textureID = id;
 	}
 	
+	public ModelTexture(TextureResource resource) {
+		this(resource.getID());
+		this.resource = resource;
+		this.transparent = resource.isTransparent();
+	}
+	
+	//the StaticShader features this texture needs, picks the variant it is drawn with
+	public int getShaderFeatures() {
+		int features = 0;
+		if (useFakeLightning) {
+			features |= StaticShader.FAKE_LIGHTING;
+		}
+		if (transparent) {
+			features |= StaticShader.ALPHA_TEST;
+		}
+		if (reflectivity > 0) {
+			features |= StaticShader.SPECULAR;
+		}
+		return features;
+	}
+	
+	public boolean isTransparent() {
+		return transparent;
+	}
+	
+	public void setTransparent(boolean transparent) {
+		this.transparent = transparent;
+	}
+	
+	public TextureResource getResource() {
+		return resource;
+	}
+	
+	//tells GpuResources it was drawn this frame
+	public void touch() {
+		if (resource != null) {
+			resource.touch();
+		}
+	}
+	
 	public boolean isUseFakeLightning() {
 		return useFakeLightning;
 	}
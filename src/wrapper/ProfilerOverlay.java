@@ -0,0 +1,170 @@
+package wrapper;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.util.vector.Vector4f;
+
+import models.RawModel;
+import shaders.OverlayShader;
+import shaders.ShaderProgram;
+import tools.Profiler;
+
+/**
+ * @author Andrei
+ * Shows the profiler's numbers in the top left corner of the screen.
+ * There is no font rendering in the engine, so the text is drawn with AWT into an image a few times a second,
+ * copied into a texture and drawn as one rectangle. Drawing it every frame is just that one rectangle.
+ */
+public class ProfilerOverlay {
+
+	private static final int WIDTH = 560;
+	private static final int HEIGHT = 400;
+	private static final int LINE_HEIGHT = 15;
+	private static final long REFRESH_NANOS = 250000000L;
+
+	//a rectangle from 0 to 1, as a triangle strip
+	private static final float[] QUAD = { 0, 1, 0, 0, 1, 1, 1, 0 };
+
+	private final OverlayShader shader = new OverlayShader();
+	private final RawModel quad;
+	private final int texture;
+	private final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+	private final int[] argb = new int[WIDTH * HEIGHT];
+	private final ByteBuffer pixels = BufferUtils.createByteBuffer(WIDTH * HEIGHT * 4);
+	private final Font font = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+	private final Vector4f placement = new Vector4f();
+	private final GpuResources resources;
+	private final List<StreamingBuffer> streamingBuffers;
+
+	private boolean visible = Profiler.ENABLED;
+	private long lastRefresh = 0;
+
+	public ProfilerOverlay(Loader loader) {
+		resources = loader.getResources();
+		streamingBuffers = loader.getStreamingBuffers();
+		quad = loader.loadToVAO(QUAD, 2);
+		texture = GL11.glGenTextures();
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
+		GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA8, WIDTH, HEIGHT, 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE,
+				(ByteBuffer) null);
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+	}
+
+	public void setVisible(boolean visible) {
+		this.visible = visible;
+	}
+
+	public boolean isVisible() {
+		return visible;
+	}
+
+	public void toggle() {
+		visible = !visible;
+	}
+
+	//draws the overlay on top of whatever has been drawn so far
+	public void render() {
+		if (!visible || !Profiler.ENABLED) {
+			return;
+		}
+		long now = System.nanoTime();
+		if (now - lastRefresh > REFRESH_NANOS) {
+			lastRefresh = now;
+			refresh();
+		}
+		//pixel for pixel in the top left corner
+		float width = WIDTH * 2f / DisplayManager.getWidth(), height = HEIGHT * 2f / DisplayManager.getHeight();
+		placement.set(-1, 1 - height, width, height);
+		GL11.glDisable(GL11.GL_DEPTH_TEST);
+		GL11.glEnable(GL11.GL_BLEND);
+		GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
+		shader.start();
+		shader.loadPlacement(placement);
+		GL30.glBindVertexArray(quad.getVaoID());
+		GL20.glEnableVertexAttribArray(0);
+		GL13.glActiveTexture(GL13.GL_TEXTURE0);
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture);
+		GL11.glDrawArrays(GL11.GL_TRIANGLE_STRIP, 0, quad.getVertexCount());
+		GL20.glDisableVertexAttribArray(0);
+		GL30.glBindVertexArray(0);
+		shader.stop();
+		GL11.glDisable(GL11.GL_BLEND);
+		GL11.glEnable(GL11.GL_DEPTH_TEST);
+	}
+
+	public void cleanUp() {
+		shader.cleanUp();
+		GL11.glDeleteTextures(texture);
+	}
+
+	//draws the text into the image and copies it into the texture
+	private void refresh() {
+		Graphics2D g = image.createGraphics();
+		g.setComposite(AlphaComposite.Src);
+		g.setColor(new Color(0, 0, 0, 160));
+		g.fillRect(0, 0, WIDTH, HEIGHT);
+		g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		g.setFont(font);
+		g.setColor(Color.WHITE);
+		int y = LINE_HEIGHT;
+		FrameStats stats = DisplayManager.getFrameStats();
+		g.drawString(String.format("frame %6.2f ms  p95 %6.2f  p99 %6.2f  %d hitches  %s", stats.getPercentile(0.5) / 1e6,
+				stats.getPercentile(0.95) / 1e6, stats.getPercentile(0.99) / 1e6, stats.getHitches(),
+				DisplayManager.getPacing().name().toLowerCase()), 6, y);
+		y += LINE_HEIGHT;
+		g.drawString(String.format("gpu memory %6.1f MB  vertex %.1f  index %.1f  texture %.1f  %d resources",
+				resources.getTotalBytes() / 1048576.0, resources.getBytes(GpuResource.Category.VERTEX) / 1048576.0,
+				resources.getBytes(GpuResource.Category.INDEX) / 1048576.0,
+				resources.getBytes(GpuResource.Category.TEXTURE) / 1048576.0, resources.getCount()), 6, y);
+		y += LINE_HEIGHT;
+		long streamed = 0, waitNanos = 0;
+		int waits = 0;
+		for (StreamingBuffer buffer : streamingBuffers) {
+			if (!buffer.isReleased()) {
+				streamed += buffer.getBytesLastFrame();
+				waits += buffer.getWaitsLastFrame();
+				waitNanos += buffer.getWaitNanosLastFrame();
+			}
+		}
+		g.drawString(String.format("streamed %7.1f KB/frame  %d fence waits %6.3f ms  uniforms %d sent %d skipped",
+				streamed / 1024.0, waits, waitNanos / 1e6, ShaderProgram.getFrameUploads(),
+				ShaderProgram.getFrameSkipped()), 6, y);
+		y += LINE_HEIGHT;
+		g.drawString(String.format("%-24s %8s %8s %8s %7s", "scope", "cpu ms", "max", "gpu ms", "calls"), 6, y);
+		g.setColor(new Color(255, 230, 120));
+		for (int scope = 0; scope < Profiler.getScopeCount() && y + LINE_HEIGHT < HEIGHT; scope++) {
+			y += LINE_HEIGHT;
+			long gpu = Profiler.getAverage(scope, true);
+			g.drawString(String.format("%-24s %8.3f %8.3f %8s %7.1f", Profiler.getName(scope),
+					Profiler.getAverage(scope, false) / 1e6, Profiler.getMax(scope, false) / 1e6,
+					gpu == 0 ? "-" : String.format("%.3f", gpu / 1e6), Profiler.getAverageCalls(scope)), 6, y);
+		}
+		g.dispose();
+
+		//AWT gives ARGB ints, the texture wants RGBA bytes
+		image.getRGB(0, 0, WIDTH, HEIGHT, argb, 0, WIDTH);
+		pixels.clear();
+		for (int pixel : argb) {
+			pixels.put((byte) (pixel >> 16)).put((byte) (pixel >> 8)).put((byte) pixel).put((byte) (pixel >>> 24));
+		}
+		pixels.flip();
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture);
+		GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, 0, 0, WIDTH, HEIGHT, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, pixels);
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+	}
+
+}
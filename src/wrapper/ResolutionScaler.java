@@ -0,0 +1,145 @@
+package wrapper;
+
+/**
+ * @author Andrei
+ * Decides what fraction of the window's resolution the scene is rendered at, from how long the GPU took to draw
+ * it, so that the GPU time stays under a target. Doesn't touch OpenGL, DynamicResolution feeds it the timer
+ * query results.
+ *
+ * The GPU time is smoothed first (the middle one of the last three, so one slow frame is thrown away, and then
+ * a moving average), so a hitch doesn't change anything. Going down happens after a few
+ * frames over the target, going back up only after a lot of frames comfortably under it (the hysteresis),
+ * otherwise the scale would keep jumping between two steps. The scale moves in fixed steps and stays between
+ * a minimum and a maximum. The GPU time is scaled by the area, so the new scale is worked out from the square root
+ * of how far off the target we are.
+ */
+public class ResolutionScaler {
+
+	//the scale only takes these steps, so a slightly different time doesn't change the resolution
+	public static final float STEP = 0.05f;
+	//how much of every new time goes into the smoothed one
+	private static final float SMOOTHING = 0.2f;
+	//frames over the target before going down, and under RAISE_BELOW of it before going up
+	private static final int DROP_AFTER = 3;
+	private static final int RAISE_AFTER = 30;
+	private static final float RAISE_BELOW = 0.85f;
+	//going up at most this many steps at a time, a wrong guess upwards costs dropped frames
+	private static final int MAX_RAISE_STEPS = 2;
+
+	private final float minScale;
+	private final float maxScale;
+	private final long targetNanos;
+	//the timer results are a few frames old, so after a change the ones from before it are ignored for a while
+	private final int settleFrames;
+
+	private float scale;
+	private final long[] recent = new long[3];
+	private int recentCount = 0;
+	private float smoothedNanos = -1;
+	private int overFrames = 0;
+	private int underFrames = 0;
+	private int settling = 0;
+	private long changes = 0;
+
+	public ResolutionScaler(float minScale, float maxScale, long targetNanos, int settleFrames) {
+		if (minScale <= 0 || minScale > maxScale) {
+			throw new IllegalArgumentException("Expected 0 < minScale <= maxScale, got " + minScale + " and " + maxScale);
+		}
+		this.minScale = minScale;
+		this.maxScale = maxScale;
+		this.targetNanos = targetNanos;
+		this.settleFrames = settleFrames;
+		this.scale = maxScale;
+	}
+
+	//takes how long the GPU took for a frame and returns the scale to render the next one at
+	public float update(long gpuNanos) {
+		if (settling > 0) {
+			settling--;
+			return scale;
+		}
+		recent[recentCount++ % recent.length] = gpuNanos;
+		long middle = recentCount < recent.length ? gpuNanos : median(recent[0], recent[1], recent[2]);
+		smoothedNanos = smoothedNanos < 0 ? middle : smoothedNanos + (middle - smoothedNanos) * SMOOTHING;
+		if (smoothedNanos > targetNanos) {
+			overFrames++;
+			underFrames = 0;
+		} else if (smoothedNanos < targetNanos * RAISE_BELOW) {
+			underFrames++;
+			overFrames = 0;
+		} else { //in the band between the two, where it should stay
+			overFrames = 0;
+			underFrames = 0;
+		}
+
+		float wanted = scale;
+		if (overFrames >= DROP_AFTER && scale > minScale) {
+			wanted = quantize(scale * (float) Math.sqrt(bandMiddle() / smoothedNanos));
+			wanted = Math.min(wanted, scale - STEP); //always at least one step, or it could get stuck just over
+		} else if (underFrames >= RAISE_AFTER && scale < maxScale) {
+			wanted = quantize(scale * (float) Math.sqrt(bandMiddle() / smoothedNanos));
+			wanted = Math.max(Math.min(wanted, scale + STEP * MAX_RAISE_STEPS), scale + STEP);
+			if (smoothedNanos * (wanted / scale) * (wanted / scale) > targetNanos) {
+				wanted = scale; //even one step would go over, it would only come straight back down
+				underFrames = 0;
+			}
+		}
+		wanted = Math.max(minScale, Math.min(maxScale, wanted));
+		if (wanted != scale) {
+			//what the smoothed time would have been at the new scale, the cost goes with the number of pixels
+			float area = (wanted / scale) * (wanted / scale);
+			smoothedNanos *= area;
+			for (int i = 0; i < recent.length; i++) {
+				recent[i] = (long) (recent[i] * area);
+			}
+			scale = wanted;
+			overFrames = 0;
+			underFrames = 0;
+			settling = settleFrames;
+			changes++;
+		}
+		return scale;
+	}
+
+	//the fraction of the window's width and height to render at
+	public float getScale() {
+		return scale;
+	}
+
+	//the smoothed GPU time, -1 before the first one
+	public float getSmoothedNanos() {
+		return smoothedNanos;
+	}
+
+	public long getTargetNanos() {
+		return targetNanos;
+	}
+
+	//how many times the scale changed
+	public long getChanges() {
+		return changes;
+	}
+
+	public float getMinScale() {
+		return minScale;
+	}
+
+	public float getMaxScale() {
+		return maxScale;
+	}
+
+	//aiming for the middle of the band leaves room both ways
+	private float bandMiddle() {
+		return targetNanos * (1 + RAISE_BELOW) / 2;
+	}
+
+	private static long median(long a, long b, long c) {
+		return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+	}
+
+	//rounded down to a step
+	private static float quantize(float scale) {
+		return (float) Math.floor(scale / STEP + 0.001f) * STEP;
+	}
+
+}
@@ -0,0 +1,452 @@
+package wrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Entity;
+import entities.EntityStore;
+import entities.Light;
+import entities.Player;
+import entities.SceneGraph;
+import entities.Terrain;
+import models.RawModel;
+import models.TexturedModel;
+import tools.IntList;
+import tools.ModelData;
+import tools.OBJFileLoader;
+import tools.SceneFile;
+import tools.SceneFile.ModelDef;
+import tools.SceneFile.TerrainDef;
+
+/**
+ * @author Andrei
+ * Turns a scene file into terrains, lights and entities, and keeps them in sync with the file.
+ *
+ * The placements are added to the entity store in bulk, one call per run of placements that use the same model.
+ * When the file changes on disk the scene is read again and compared record by record with what was loaded:
+ * changed placements and lights are updated in place, new ones are added and missing ones removed, so the
+ * render loop never has to stop. The player is only placed on the first load, after that it belongs to the controls.
+ * Meshes and textures the new scene doesn't use any more are released, so GpuResources deletes them.
+ * A reload either happens completely or not at all: the new models and terrains are loaded on the side first, and
+ * if any of them can't be (a missing OBJ file) what was loaded is released and the old scene stays as it was.
+ * With an ImpostorBaker every model gets its impostor baked when it is created, and released with it.
+ * With a SceneGraph the lights that have a parent in the file hang under a node bound to their entity, so they
+ * follow it when it moves, without one they are only put where the entity was when the scene was loaded.
+ */
+public class SceneLoader {
+
+	private final Loader loader;
+	private final EntityStore store;
+	private final Path path;
+
+	//what was loaded, by record
+	private SceneFile scene;
+	private final List<Terrain> terrains = new ArrayList<Terrain>();
+	private final List<Light> lights = new ArrayList<Light>();
+	private final List<Entity> placements = new ArrayList<Entity>();
+	private final List<TexturedModel> models = new ArrayList<TexturedModel>(); //same order as the scene's models
+	private Player player;
+
+	//so that reloading doesn't upload the same meshes and textures again, these hold the only reference to them
+	private final Map<String, RawModel> meshes = new HashMap<String, RawModel>();
+	private final Map<String, TextureResource> textures = new HashMap<String, TextureResource>();
+
+	private WatchService watcher;
+	private ImpostorBaker impostors;
+	private SceneGraph sceneGraph;
+	private final IntList lightNodes = new IntList(); //the nodes bound to the parents of the lights
+
+	//scratch space for one placement
+	private final float[] transform = new float[SceneFile.TRANSFORM_SIZE];
+
+	public SceneLoader(Loader loader, EntityStore store, Path path) {
+		this.loader = loader;
+		this.store = store;
+		this.path = path.toAbsolutePath();
+	}
+
+	//bakes the impostors of the models with it, has to be set before load
+	public void setImpostors(ImpostorBaker impostors) {
+		this.impostors = impostors;
+	}
+
+	//puts the lights that have a parent into the graph, can be set after load since the graph usually
+	//comes with the simulation, which needs the player from the scene
+	public void setSceneGraph(SceneGraph sceneGraph) {
+		removeLightNodes();
+		this.sceneGraph = sceneGraph;
+		if (scene != null) {
+			applyLights(scene);
+		}
+	}
+
+	//reads the file and creates everything in it
+	public void load() throws IOException {
+		long start = System.nanoTime();
+		apply(SceneFile.read(path));
+		System.out.printf("Loaded %s: %d entities, %d lights in %.1f ms%n", path.getFileName(), placements.size(),
+				lights.size(), (System.nanoTime() - start) / 1e6);
+	}
+
+	//starts watching the file, after this poll() picks up changes
+	public void watch() throws IOException {
+		watcher = FileSystems.getDefault().newWatchService();
+		path.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+	}
+
+	//called once per frame, reloads the scene if the file has changed since the last call
+	//a file that can't be read is reported and the scene is left as it was, so a half saved file doesn't break anything
+	public boolean poll() {
+		if (watcher == null) {
+			return false;
+		}
+		WatchKey key = watcher.poll();
+		if (key == null) {
+			return false;
+		}
+		boolean changed = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (path.getFileName().equals(event.context())) {
+				changed = true;
+			}
+		}
+		key.reset();
+		if (!changed) {
+			return false;
+		}
+		try {
+			long start = System.nanoTime();
+			apply(SceneFile.read(path));
+			System.out.printf("Reloaded %s in %.1f ms%n", path.getFileName(), (System.nanoTime() - start) / 1e6);
+			return true;
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Couldn't reload " + path.getFileName() + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	public List<Terrain> getTerrains() {
+		return terrains;
+	}
+
+	//the list is kept up to date when the scene is reloaded
+	public List<Light> getLights() {
+		return lights;
+	}
+
+	//the entity for a placement, in the order they appear in the file
+	public Entity getEntity(int placement) {
+		return placements.get(placement);
+	}
+
+	public int getEntityCount() {
+		return placements.size();
+	}
+
+	//the entities placed with the model of that name in the file, in their order
+	public List<Entity> getEntities(String model) {
+		List<Entity> entities = new ArrayList<Entity>();
+		int index = scene == null ? -1 : scene.getModelIndex(model);
+		for (int i = 0; i < placements.size(); i++) {
+			if (scene.getPlacementModels()[i] == index) {
+				entities.add(placements.get(i));
+			}
+		}
+		return entities;
+	}
+
+	//null if the scene has no player
+	public Player getPlayer() {
+		return player;
+	}
+
+	public void close() throws IOException {
+		if (watcher != null) {
+			watcher.close();
+			watcher = null;
+		}
+	}
+
+	//brings what is loaded in line with the new scene, the first time this just creates everything
+	//throws if a model or terrain can't be loaded, nothing is changed then
+	private void apply(SceneFile next) {
+		List<TexturedModel> nextModels = new ArrayList<TexturedModel>();
+		List<Terrain> nextTerrains = new ArrayList<Terrain>();
+		try {
+			loadModels(next, nextModels);
+			loadTerrains(next, nextTerrains);
+		} catch (RuntimeException e) {
+			//the old scene still has everything it used, so whatever isn't used by it was loaded just now
+			for (Terrain terrain : nextTerrains) {
+				if (!terrains.contains(terrain)) {
+					terrain.getModel().getResource().release();
+				}
+			}
+			releaseUnused();
+			throw e;
+		}
+
+		//nothing can go wrong from here on
+		for (Terrain terrain : terrains) {
+			if (!nextTerrains.contains(terrain)) {
+				terrain.getModel().getResource().release(); //every terrain has its own mesh
+			}
+		}
+		models.clear();
+		models.addAll(nextModels);
+		terrains.clear();
+		terrains.addAll(nextTerrains);
+		applyPlacements(next);
+		applyLights(next); //after the placements, since lights can be parented to them
+		if (player == null && next.getPlayerModel() >= 0) {
+			resolve(next.getPlayer(), 0, next.isPlayerOnTerrain());
+			player = new Player(store, models.get(next.getPlayerModel()), new Vector3f(transform[0], transform[1],
+					transform[2]), transform[3], transform[4], transform[5], transform[6]);
+		}
+		scene = next;
+		releaseUnused();
+	}
+
+	//releases the meshes, textures and impostors nothing in the scene uses any more
+	private void releaseUnused() {
+		Set<RawModel> usedMeshes = new HashSet<RawModel>();
+		Set<Integer> usedTextures = new HashSet<Integer>();
+		for (TexturedModel model : models) {
+			usedMeshes.add(model.getRawModel());
+			usedTextures.add(model.getTexture().getID());
+		}
+		if (player != null) {
+			usedMeshes.add(player.getModel().getRawModel());
+			usedTextures.add(player.getModel().getTexture().getID());
+		}
+		for (Terrain terrain : terrains) {
+			usedTextures.add(terrain.getTexture().getID());
+		}
+		if (impostors != null) {
+			Set<TexturedModel> usedModels = new HashSet<TexturedModel>(models);
+			if (player != null) {
+				usedModels.add(player.getModel());
+			}
+			impostors.retainAll(usedModels);
+		}
+		Iterator<RawModel> mesh = meshes.values().iterator();
+		while (mesh.hasNext()) {
+			RawModel next = mesh.next();
+			if (!usedMeshes.contains(next)) {
+				next.getResource().release();
+				mesh.remove();
+			}
+		}
+		Iterator<TextureResource> texture = textures.values().iterator();
+		while (texture.hasNext()) {
+			TextureResource next = texture.next();
+			if (!usedTextures.contains(next.getID())) {
+				next.release();
+				texture.remove();
+			}
+		}
+	}
+
+	//the models of the new scene, in its order
+	private void loadModels(SceneFile next, List<TexturedModel> nextModels) {
+		for (ModelDef def : next.getModels()) {
+			//reuse the model if it was in the old scene unchanged, so entities keep batching together
+			int old = scene == null ? -1 : scene.getModelIndex(def.getName());
+			if (old >= 0 && scene.getModels().get(old).equals(def)) {
+				nextModels.add(models.get(old));
+			} else {
+				nextModels.add(createModel(def));
+			}
+		}
+	}
+
+	//the terrains of the new scene, the ones that didn't change are kept
+	private void loadTerrains(SceneFile next, List<Terrain> nextTerrains) {
+		for (int i = 0; i < next.getTerrains().size(); i++) {
+			TerrainDef def = next.getTerrains().get(i);
+			if (i < terrains.size() && scene.getTerrains().get(i).equals(def)) {
+				nextTerrains.add(terrains.get(i));
+			} else {
+				nextTerrains.add(new Terrain(def.getGridX(), def.getGridZ(), loader,
+						new ModelTexture(getTexture(def.getTexture())), def.getHeightMap()));
+			}
+		}
+	}
+
+	private void applyLights(SceneFile next) {
+		removeLightNodes();
+		float[] data = next.getLights();
+		for (int i = 0; i < next.getLightCount(); i++) {
+			int l = i * SceneFile.LIGHT_SIZE;
+			float y = data[l + 1];
+			if (next.isLightOnTerrain(i)) {
+				y += getHeight(data[l], data[l + 2]);
+			}
+			if (i < lights.size()) {
+				Light light = lights.get(i);
+				light.getPosition().set(data[l], y, data[l + 2]);
+				light.getColour().set(data[l + 3], data[l + 4], data[l + 5]);
+				light.getAttenuation().set(data[l + 6], data[l + 7], data[l + 8]);
+			} else {
+				lights.add(new Light(new Vector3f(data[l], y, data[l + 2]), new Vector3f(data[l + 3], data[l + 4],
+						data[l + 5]), new Vector3f(data[l + 6], data[l + 7], data[l + 8])));
+			}
+		}
+		while (lights.size() > next.getLightCount()) {
+			lights.remove(lights.size() - 1);
+		}
+		for (int i = 0; i < next.getLightCount(); i++) {
+			if (next.getLightParent(i) >= 0) {
+				parentLight(lights.get(i), placements.get(next.getLightParent(i)));
+			}
+		}
+		if (sceneGraph != null && !lightNodes.isEmpty()) {
+			sceneGraph.update(); //so the lights are in the right place before the next step
+		}
+	}
+
+	//the light is at its offset from the entity, which the scene file gives in world units
+	private void parentLight(Light light, Entity entity) {
+		Vector3f offset = light.getPosition();
+		if (sceneGraph == null) {
+			Vector3f.add(offset, entity.getPosition(), offset); //stays where the entity is now
+			return;
+		}
+		float scale = entity.getScale();
+		int entityNode = sceneGraph.createNode(-1);
+		sceneGraph.bind(entityNode, entity);
+		int lightNode = sceneGraph.createNode(entityNode, offset.x / scale, offset.y / scale, offset.z / scale, 0, 0,
+				0, 1);
+		sceneGraph.attach(lightNode, light);
+		lightNodes.add(entityNode);
+	}
+
+	//takes the lights out of the graph again, removing a node removes the light's node under it as well
+	private void removeLightNodes() {
+		if (sceneGraph != null) {
+			for (int i = 0; i < lightNodes.size(); i++) {
+				sceneGraph.removeNode(lightNodes.get(i));
+			}
+		}
+		lightNodes.clear();
+	}
+
+	private void applyPlacements(SceneFile next) {
+		int[] modelIndices = next.getPlacementModels();
+		float[] data = next.getPlacements();
+		int count = next.getPlacementCount();
+		int common = Math.min(count, placements.size());
+
+		//placements that were already there only get touched if their record changed
+		for (int i = 0; i < common; i++) {
+			Entity entity = placements.get(i);
+			TexturedModel model = models.get(modelIndices[i]);
+			if (entity.getModel() != model) {
+				entity.setModel(model);
+				store.modelChanged(entity.getIndex()); //the bounding radius might have changed
+			}
+			//compared after resolving, so placements on a terrain that changed get moved as well
+			resolve(data, i * SceneFile.TRANSFORM_SIZE, next.isPlacementOnTerrain(i));
+			if (!isAt(entity.getIndex())) {
+				store.setTransform(entity.getIndex(), transform[0], transform[1], transform[2], transform[3],
+						transform[4], transform[5], transform[6]);
+				//moved by editing the scene file, not by the game, so it stays a static shadow caster
+				store.setDynamic(entity.getIndex(), false);
+			}
+		}
+		for (int i = placements.size() - 1; i >= count; i--) {
+			placements.remove(i).remove();
+		}
+
+		//new placements go into the store in runs that share a model
+		float[] resolved = data;
+		if (count > common) {
+			resolved = new float[(count - common) * SceneFile.TRANSFORM_SIZE];
+			for (int i = common; i < count; i++) {
+				resolve(data, i * SceneFile.TRANSFORM_SIZE, next.isPlacementOnTerrain(i));
+				System.arraycopy(transform, 0, resolved, (i - common) * SceneFile.TRANSFORM_SIZE,
+						SceneFile.TRANSFORM_SIZE);
+			}
+		}
+		int runStart = common;
+		for (int i = common + 1; i <= count; i++) {
+			if (i == count || modelIndices[i] != modelIndices[runStart]) {
+				int first = store.addAll(models.get(modelIndices[runStart]), resolved,
+						(runStart - common) * SceneFile.TRANSFORM_SIZE, i - runStart);
+				for (int j = 0; j < i - runStart; j++) {
+					placements.add(store.getEntity(first + j));
+				}
+				runStart = i;
+			}
+		}
+	}
+
+	//whether the entity already has the transform in the scratch array
+	private boolean isAt(int index) {
+		return store.getPositionX(index) == transform[0] && store.getPositionY(index) == transform[1]
+				&& store.getPositionZ(index) == transform[2] && store.getRotationX(index) == transform[3]
+				&& store.getRotationY(index) == transform[4] && store.getRotationZ(index) == transform[5]
+				&& store.getScale(index) == transform[6];
+	}
+
+	//copies a transform into the scratch array, putting it on the terrain if it is relative to it
+	private void resolve(float[] data, int offset, boolean onTerrain) {
+		System.arraycopy(data, offset, transform, 0, SceneFile.TRANSFORM_SIZE);
+		if (onTerrain) {
+			transform[1] += getHeight(transform[0], transform[2]);
+		}
+	}
+
+	private float getHeight(float x, float z) {
+		for (Terrain terrain : terrains) {
+			if (terrain.contains(x, z)) {
+				return terrain.getHeightOfTerrain(x, z);
+			}
+		}
+		return 0;
+	}
+
+	private TexturedModel createModel(ModelDef def) {
+		RawModel mesh = meshes.get(def.getObj());
+		if (mesh == null) {
+			ModelData data = OBJFileLoader.loadOBJ(def.getObj());
+			mesh = loader.loadToVAO(data.getVertices(), data.getTextureCoords(), data.getNormals(), data.getIndices());
+			meshes.put(def.getObj(), mesh);
+		}
+		TexturedModel model = new TexturedModel(mesh, new ModelTexture(getTexture(def.getTexture())));
+		model.getTexture().setShineDamper(def.getShineDamper());
+		model.getTexture().setReflectivity(def.getReflectivity());
+		model.getTexture().setUseFakeLightning(def.isFakeLighting());
+		if (impostors != null) {
+			//the contents of the files go into the name of the cached impostor, so editing them bakes it again
+			impostors.bake(model, def.getObj() + " " + def.getTexture() + " " + def.isFakeLighting(), null,
+					new File("res/" + def.getObj() + ".obj"), new File("res/" + def.getTexture() + ".png"));
+		}
+		return model;
+	}
+
+	private TextureResource getTexture(String name) {
+		TextureResource texture = textures.get(name);
+		if (texture == null) {
+			texture = loader.loadTexture(name);
+			textures.put(name, texture);
+		}
+		return texture;
+	}
+
+}
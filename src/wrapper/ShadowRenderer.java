@@ -0,0 +1,370 @@
+package wrapper;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL14;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Entity;
+import entities.EntityStore;
+import entities.Light;
+import entities.Terrain;
+import models.RawModel;
+import models.TexturedModel;
+import shaders.ShadowShader;
+import shaders.StaticShader;
+import tools.Maths;
+import tools.Profiler;
+import tools.ShadowCascades;
+
+/**
+ * @author Andrei
+ * Draws the shadow map of the sun, a depth texture array with a layer for every cascade (see ShadowCascades for
+ * where they go). The entity and terrain shaders look the sun up in it when they are made with SHADOWS.
+ *
+ * Most of what casts shadows never moves: the terrain, the lamps, the dragon on its pedestal. Those are drawn into
+ * their own texture array, and only again when a cascade had to move or something static changed (the store's
+ * static version, see EntityStore). Every frame the static layers are copied into the layers the shaders read and
+ * the entities that move (the player) are drawn on top. When nothing dynamic is in a cascade, and nothing was the
+ * frame before, its layer is still right and isn't touched at all.
+ *
+ * The static and dynamic passes are profiler scopes, the static one is begun once per cascade that was drawn again
+ * so its calls are the refreshes, and "shadow draws" counts the draw calls of both.
+ *
+ * On by default, -Ddreaming.shadows=false turns it off, -Ddreaming.shadowSize sets the size of a layer in pixels.
+ */
+public class ShadowRenderer {
+
+	public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("dreaming.shadows", "true"));
+	private static final int SIZE = Integer.getInteger("dreaming.shadowSize", 2048);
+	//how far from the camera there are shadows, and how far above the cascades casters are looked for
+	private static final float DISTANCE = 250;
+	private static final float CASTER_REACH = 500;
+	//how much bigger than its slice of the view a cascade is, the camera can move a quarter of the slice before
+	//the static casters have to be drawn again
+	private static final float MARGIN = 0.25f;
+	//pushes the casters' depth away from the sun, so surfaces don't shadow themselves
+	private static final float OFFSET_FACTOR = 2, OFFSET_UNITS = 4;
+
+	private static final int STATIC_PASS = Profiler.register("shadow static");
+	private static final int DYNAMIC_PASS = Profiler.register("shadow dynamic");
+	private static final int DRAWS = Profiler.register("shadow draws");
+
+	private final ShadowCascades cascades;
+	private final ShadowShader shader = new ShadowShader(false);
+	private final ShadowShader alphaShader = new ShadowShader(true);
+	private final GpuTimer gpuTimer;
+
+	//the static casters, and what the shaders read: the static casters with the dynamic ones on top
+	private final TextureResource staticMaps;
+	private final TextureResource maps;
+	private final int[] staticFramebuffers;
+	private final int[] framebuffers;
+	//whether the layer the shaders read has dynamic casters in it, and has to be copied again before the next ones
+	private final boolean[] overlaid;
+
+	private final Vector3f sunDirection = new Vector3f();
+	private final List<Entity> casters = new ArrayList<Entity>();
+	private final List<Entity> movers = new ArrayList<Entity>();
+	private final IntBuffer viewport = BufferUtils.createIntBuffer(16);
+	private int boundVao;
+	private int boundTexture;
+	private ShadowShader current;
+
+	//what the last render did
+	private int drawCalls;
+	private int refreshes;
+	private int dynamicCasters;
+
+	public ShadowRenderer(Loader loader, float fov, float nearPlane, float aspectRatio, GpuTimer gpuTimer) {
+		this.gpuTimer = gpuTimer;
+		int count = StaticShader.SHADOW_CASCADES;
+		cascades = new ShadowCascades(count, nearPlane, DISTANCE, fov, aspectRatio, SIZE, MARGIN, CASTER_REACH);
+		staticMaps = createMaps(loader, "static shadow maps", count);
+		maps = createMaps(loader, "shadow maps", count);
+		staticFramebuffers = createFramebuffers(staticMaps.getID(), count);
+		framebuffers = createFramebuffers(maps.getID(), count);
+		overlaid = new boolean[count];
+		//the shaders compare the depth they give it with the stored one, and filter four results at once
+		GL11.glBindTexture(GL30.GL_TEXTURE_2D_ARRAY, maps.getID());
+		GL11.glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL14.GL_TEXTURE_COMPARE_MODE, GL30.GL_COMPARE_REF_TO_TEXTURE);
+		GL11.glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL14.GL_TEXTURE_COMPARE_FUNC, GL11.GL_LEQUAL);
+		GL11.glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR);
+		GL11.glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+		GL11.glBindTexture(GL30.GL_TEXTURE_2D_ARRAY, 0);
+	}
+
+	//brings the shadow map up to date for the camera's view matrix, the casters are the entities of the stores
+	//and the terrains, the sun shines from its position towards the middle of the world
+	//everything it binds is put back, so it can be called with the scene's framebuffer bound
+	public void render(List<EntityStore> stores, List<Terrain> terrains, Light sun, Matrix4f view) {
+		drawCalls = 0;
+		refreshes = 0;
+		dynamicCasters = 0;
+		Vector3f position = sun.getPosition();
+		if (position.lengthSquared() == 0) {
+			return; //no direction to shine in
+		}
+		sunDirection.set(-position.x, -position.y, -position.z);
+		cascades.update(view, sunDirection, getStaticVersion(stores, terrains));
+
+		int framebuffer = GL11.glGetInteger(GL30.GL_DRAW_FRAMEBUFFER_BINDING);
+		GL11.glGetInteger(GL11.GL_VIEWPORT, viewport);
+		GL11.glViewport(0, 0, SIZE, SIZE);
+		GL11.glEnable(GL11.GL_DEPTH_TEST);
+		MasterRenderer.disableCulling(); //the sun sees the backs of things as often as the fronts
+		GL11.glEnable(GL11.GL_POLYGON_OFFSET_FILL);
+		GL11.glPolygonOffset(OFFSET_FACTOR, OFFSET_UNITS);
+		boundVao = 0;
+		boundTexture = 0;
+		current = null;
+
+		//the static casters, only into the cascades that moved
+		for (int c = 0; c < cascades.getCount(); c++) {
+			if (!cascades.needsRefresh(c)) {
+				continue;
+			}
+			Profiler.begin(STATIC_PASS);
+			gpuTimer.begin(STATIC_PASS);
+			GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, staticFramebuffers[c]);
+			GL11.glClear(GL11.GL_DEPTH_BUFFER_BIT);
+			drawTerrains(terrains, c);
+			casters.clear();
+			for (EntityStore store : stores) {
+				for (int i = 0; i < store.size(); i++) {
+					if (!store.isDynamic(i) && cascades.intersectsSphere(c, store.getPositionX(i), store.getPositionY(i),
+							store.getPositionZ(i), store.getBoundingRadius(i))) {
+						casters.add(store.getEntity(i));
+					}
+				}
+			}
+			drawEntities(casters, c);
+			overlaid[c] = true; //the layer the shaders read is out of date now as well
+			refreshes++;
+			gpuTimer.end(STATIC_PASS);
+			Profiler.end(STATIC_PASS);
+		}
+
+		//the moving casters, on top of a copy of the static ones
+		Profiler.begin(DYNAMIC_PASS);
+		gpuTimer.begin(DYNAMIC_PASS);
+		movers.clear();
+		for (EntityStore store : stores) {
+			for (int i = 0; i < store.size(); i++) {
+				if (store.isDynamic(i)) {
+					movers.add(store.getEntity(i));
+				}
+			}
+		}
+		for (int c = 0; c < cascades.getCount(); c++) {
+			casters.clear();
+			for (Entity mover : movers) {
+				EntityStore store = mover.getStore();
+				int index = mover.getIndex();
+				store.updateMatrix(index); //drawn where it is this frame, in between two simulation steps
+				float[] matrices = store.getMatrices();
+				int offset = EntityStore.getMatrixOffset(index);
+				if (cascades.intersectsSphere(c, matrices[offset + 12], matrices[offset + 13], matrices[offset + 14],
+						store.getBoundingRadius(index))) {
+					casters.add(mover);
+				}
+			}
+			if (casters.isEmpty() && !overlaid[c]) {
+				continue; //the layer still has exactly the static casters
+			}
+			GL30.glBindFramebuffer(GL30.GL_READ_FRAMEBUFFER, staticFramebuffers[c]);
+			GL30.glBindFramebuffer(GL30.GL_DRAW_FRAMEBUFFER, framebuffers[c]);
+			GL30.glBlitFramebuffer(0, 0, SIZE, SIZE, 0, 0, SIZE, SIZE, GL11.GL_DEPTH_BUFFER_BIT, GL11.GL_NEAREST);
+			drawEntities(casters, c);
+			overlaid[c] = !casters.isEmpty();
+			dynamicCasters += casters.size();
+		}
+		gpuTimer.end(DYNAMIC_PASS);
+		Profiler.end(DYNAMIC_PASS);
+		Profiler.count(DRAWS, drawCalls);
+
+		if (current != null) {
+			current.stop();
+		}
+		GL30.glBindVertexArray(0);
+		GL11.glDisable(GL11.GL_POLYGON_OFFSET_FILL);
+		MasterRenderer.enableCulling();
+		GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, framebuffer);
+		GL11.glViewport(viewport.get(0), viewport.get(1), viewport.get(2), viewport.get(3));
+	}
+
+	//binds the shadow map for the entity and terrain shaders, to StaticShader.SHADOW_UNIT
+	public void bindShadowMap() {
+		GL13.glActiveTexture(GL13.GL_TEXTURE0 + StaticShader.SHADOW_UNIT);
+		GL11.glBindTexture(GL30.GL_TEXTURE_2D_ARRAY, maps.getID());
+		GL13.glActiveTexture(GL13.GL_TEXTURE0);
+	}
+
+	//for the shaders, see StaticShader.loadShadows
+	public float[] getShadowMatrices() {
+		return cascades.getShadowMatrices();
+	}
+
+	public float[] getCascadeEnds() {
+		return cascades.getEnds();
+	}
+
+	public ShadowCascades getCascades() {
+		return cascades;
+	}
+
+	//the draw calls of the last render, static and dynamic together
+	public int getDrawCalls() {
+		return drawCalls;
+	}
+
+	//how many cascades the last render drew the static casters into again
+	public int getRefreshes() {
+		return refreshes;
+	}
+
+	//how many moving casters the last render drew, counting one for every cascade it is in
+	public int getDynamicCasters() {
+		return dynamicCasters;
+	}
+
+	//both texture arrays
+	public long getBytes() {
+		return staticMaps.getTotalBytes() + maps.getTotalBytes();
+	}
+
+	public void cleanUp() {
+		shader.cleanUp();
+		alphaShader.cleanUp();
+		for (int i = 0; i < framebuffers.length; i++) {
+			GL30.glDeleteFramebuffers(staticFramebuffers[i]);
+			GL30.glDeleteFramebuffers(framebuffers[i]);
+		}
+		staticMaps.release();
+		maps.release();
+	}
+
+	//changes whenever any of the static casters do, the terrains are compared by who they are
+	private static long getStaticVersion(List<EntityStore> stores, List<Terrain> terrains) {
+		long version = 17;
+		for (EntityStore store : stores) {
+			version = version * 31 + System.identityHashCode(store);
+			version = version * 31 + store.getStaticVersion();
+		}
+		for (Terrain terrain : terrains) {
+			version = version * 31 + System.identityHashCode(terrain);
+		}
+		return version;
+	}
+
+	private void drawTerrains(List<Terrain> terrains, int cascade) {
+		use(shader, cascade);
+		for (Terrain terrain : terrains) {
+			RawModel model = terrain.getModel();
+			bindVao(model);
+			shader.loadTransformationMatrix(Maths.createTransformationMatrix(
+					new Vector3f(terrain.getX(), 0, terrain.getZ()), 0, 0, 0, 1));
+			draw(model);
+		}
+	}
+
+	//the ones without transparent pixels first, then the alpha tested ones with their textures
+	private void drawEntities(List<Entity> entities, int cascade) {
+		for (int pass = 0; pass < 2; pass++) {
+			boolean alphaTested = pass == 1;
+			for (Entity entity : entities) {
+				TexturedModel model = entity.getModel();
+				if (model == null || model.getTexture().isTransparent() != alphaTested) {
+					continue;
+				}
+				use(alphaTested ? alphaShader : shader, cascade);
+				bindVao(model.getRawModel());
+				if (alphaTested && model.getTexture().getID() != boundTexture) {
+					boundTexture = model.getTexture().getID();
+					GL11.glBindTexture(GL11.GL_TEXTURE_2D, boundTexture);
+				}
+				EntityStore store = entity.getStore();
+				int index = entity.getIndex();
+				store.updateMatrix(index);
+				current.loadTransformationMatrix(store.getMatrices(), EntityStore.getMatrixOffset(index));
+				draw(model.getRawModel());
+			}
+		}
+	}
+
+	//starts the shader if it isn't already and gives it the cascade, which only goes to OpenGL when it changed
+	private void use(ShadowShader next, int cascade) {
+		if (current != next) {
+			if (current != null) {
+				current.stop();
+			}
+			current = next;
+			current.start();
+		}
+		current.loadLightMatrix(cascades.getMatrix(cascade));
+	}
+
+	private void bindVao(RawModel model) {
+		model.touch();
+		if (model.getVaoID() != boundVao) {
+			boundVao = model.getVaoID();
+			GL30.glBindVertexArray(boundVao);
+			GL20.glEnableVertexAttribArray(0); //the same as the other renderers, in case this is the first to bind it
+			GL20.glEnableVertexAttribArray(1);
+		}
+	}
+
+	private void draw(RawModel model) {
+		GL32.glDrawElementsBaseVertex(GL11.GL_TRIANGLES, model.getVertexCount(), GL11.GL_UNSIGNED_INT,
+				model.getIndexOffset(), model.getBaseVertex());
+		drawCalls++;
+	}
+
+	//counted with the rest of the GPU memory, but never evictable since every frame samples them
+	private static TextureResource createMaps(Loader loader, String name, int layers) {
+		int texture = GL11.glGenTextures();
+		GL11.glBindTexture(GL30.GL_TEXTURE_2D_ARRAY, texture);
+		GL12.glTexImage3D(GL30.GL_TEXTURE_2D_ARRAY, 0, GL14.GL_DEPTH_COMPONENT24, SIZE, SIZE, layers, 0,
+				GL11.GL_DEPTH_COMPONENT, GL11.GL_FLOAT, (ByteBuffer) null);
+		GL11.glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
+		GL11.glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
+		GL11.glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL11.GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
+		GL11.glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL11.GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
+		GL11.glBindTexture(GL30.GL_TEXTURE_2D_ARRAY, 0);
+		TextureResource resource = new TextureResource(name, texture, false);
+		resource.addBytes(GpuResource.Category.TEXTURE, 4L * SIZE * SIZE * layers);
+		return loader.getResources().add(resource);
+	}
+
+	//a depth only framebuffer for every layer
+	private static int[] createFramebuffers(int texture, int layers) {
+		int[] framebuffers = new int[layers];
+		for (int i = 0; i < layers; i++) {
+			framebuffers[i] = GL30.glGenFramebuffers();
+			GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, framebuffers[i]);
+			GL30.glFramebufferTextureLayer(GL30.GL_FRAMEBUFFER, GL30.GL_DEPTH_ATTACHMENT, texture, 0, i);
+			GL11.glDrawBuffer(GL11.GL_NONE);
+			GL11.glReadBuffer(GL11.GL_NONE);
+			int status = GL30.glCheckFramebufferStatus(GL30.GL_FRAMEBUFFER);
+			if (status != GL30.GL_FRAMEBUFFER_COMPLETE) {
+				GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
+				throw new IllegalStateException("Shadow map layer " + i + " is incomplete: 0x"
+						+ Integer.toHexString(status));
+			}
+		}
+		GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
+		return framebuffers;
+	}
+
+}
@@ -0,0 +1,185 @@
+package wrapper;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.opengl.GLSync;
+
+/**
+ * @author Andrei
+ * A buffer for data that changes every frame, like instance transforms, particles or debug lines. Loader puts
+ * everything in with glBufferData and GL_STATIC_DRAW, doing that every frame makes the driver either wait for
+ * the GPU to finish with the old data or allocate a new buffer behind our back.
+ *
+ * Instead the buffer is split into REGIONS regions and every frame writes into the next one. The GPU is at most a
+ * couple of frames behind, so by the time a region comes round again it is done with it. A fence placed after
+ * each frame's draws makes sure of that, and only if the GPU really is that far behind does endFrame wait for it.
+ * Because of the fence the writes can map the buffer unsynchronized, the driver doesn't have to check anything.
+ *
+ * A frame can write several times as long as it all fits into one region, map gives back where each write went.
+ * The mapping goes through GL_COPY_WRITE_BUFFER so it doesn't change what is bound to the VAO.
+ */
+public class StreamingBuffer extends GpuResource {
+
+	//one region the CPU writes into, one the GPU reads from and one in between
+	public static final int REGIONS = 3;
+	//every write starts at a multiple of this, enough for any vertex attribute
+	private static final int ALIGNMENT = 16;
+	private static final long WAIT_NANOS = 1000000;
+
+	private final int buffer;
+	private final int regionBytes;
+	private final GLSync[] fences = new GLSync[REGIONS];
+	private int region = 0;
+	private int cursor = 0;
+	private long offset = 0;
+	private boolean mapped = false;
+	private ByteBuffer mapping;
+
+	//what was streamed and waited for
+	private long bytesThisFrame = 0;
+	private long bytesLastFrame = 0;
+	private long streamedBytes = 0;
+	private int waitsLastFrame = 0;
+	private long waitNanosLastFrame = 0;
+	private long fenceWaits = 0;
+
+	public StreamingBuffer(String name, Category category, int regionBytes) {
+		super(name);
+		this.regionBytes = regionBytes;
+		buffer = GL15.glGenBuffers();
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, buffer);
+		GL15.glBufferData(GL31.GL_COPY_WRITE_BUFFER, (long) regionBytes * REGIONS, GL15.GL_STREAM_DRAW);
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+		addBytes(category, (long) regionBytes * REGIONS);
+	}
+
+	//maps the next bytes of this frame's region for writing, getOffset is where they are in the buffer
+	//the old contents are undefined, and the buffer has to be unmapped before drawing with it
+	public ByteBuffer map(int bytes) {
+		if (mapped) {
+			throw new IllegalStateException(getName() + " is already mapped");
+		}
+		int start = (cursor + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+		if (start + bytes > regionBytes) {
+			throw new IllegalStateException(getName() + " can't fit " + bytes + " more bytes into a region of "
+					+ regionBytes + ", " + start + " are used this frame");
+		}
+		offset = (long) region * regionBytes + start;
+		cursor = start + bytes;
+		bytesThisFrame += bytes;
+		streamedBytes += bytes;
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, buffer);
+		mapping = GL30.glMapBufferRange(GL31.GL_COPY_WRITE_BUFFER, offset, bytes, GL30.GL_MAP_WRITE_BIT
+				| GL30.GL_MAP_UNSYNCHRONIZED_BIT | GL30.GL_MAP_INVALIDATE_RANGE_BIT, mapping);
+		mapped = true;
+		return mapping.order(ByteOrder.nativeOrder());
+	}
+
+	public void unmap() {
+		if (!mapped) {
+			throw new IllegalStateException(getName() + " isn't mapped");
+		}
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, buffer);
+		if (!GL15.glUnmapBuffer(GL31.GL_COPY_WRITE_BUFFER)) {
+			//the driver lost the data (the display mode changed or similar), it will be written again next frame
+			System.err.println(getName() + ": the mapped data was lost");
+		}
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+		mapped = false;
+	}
+
+	//writes the floats from their position to their limit, returns the offset they were written at
+	public long write(FloatBuffer data) {
+		map(data.remaining() * 4).asFloatBuffer().put(data);
+		unmap();
+		return offset;
+	}
+
+	//called once the frame's draws that use the buffer were issued
+	//fences this region and moves to the next one, waiting for the GPU to be done with it if it isn't yet
+	public void endFrame() {
+		if (mapped) {
+			unmap();
+		}
+		fences[region] = GL32.glFenceSync(GL32.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+		region = (region + 1) % REGIONS;
+		cursor = 0;
+		bytesLastFrame = bytesThisFrame;
+		bytesThisFrame = 0;
+		waitsLastFrame = 0;
+		waitNanosLastFrame = 0;
+		GLSync fence = fences[region];
+		if (fence == null) {
+			return;
+		}
+		int result = GL32.glClientWaitSync(fence, 0, 0);
+		if (result == GL32.GL_TIMEOUT_EXPIRED) { //the GPU is REGIONS frames behind, nothing to do but wait
+			long start = System.nanoTime();
+			waitsLastFrame++;
+			fenceWaits++;
+			do {
+				result = GL32.glClientWaitSync(fence, GL32.GL_SYNC_FLUSH_COMMANDS_BIT, WAIT_NANOS);
+			} while (result == GL32.GL_TIMEOUT_EXPIRED);
+			waitNanosLastFrame = System.nanoTime() - start;
+		}
+		if (result == GL32.GL_WAIT_FAILED) {
+			System.err.println(getName() + ": waiting for the fence failed");
+		}
+		GL32.glDeleteSync(fence);
+		fences[region] = null;
+	}
+
+	public int getID() {
+		return buffer;
+	}
+
+	//where the last mapped range starts in the buffer, in bytes
+	public long getOffset() {
+		return offset;
+	}
+
+	public int getRegionBytes() {
+		return regionBytes;
+	}
+
+	//how much the last finished frame wrote
+	public long getBytesLastFrame() {
+		return bytesLastFrame;
+	}
+
+	//everything written since it was created
+	public long getStreamedBytes() {
+		return streamedBytes;
+	}
+
+	//how many times the last endFrame had to wait for the GPU, and for how long
+	public int getWaitsLastFrame() {
+		return waitsLastFrame;
+	}
+
+	public long getWaitNanosLastFrame() {
+		return waitNanosLastFrame;
+	}
+
+	public long getFenceWaits() {
+		return fenceWaits;
+	}
+
+	@Override
+	protected void delete() {
+		for (int i = 0; i < REGIONS; i++) {
+			if (fences[i] != null) {
+				GL32.glDeleteSync(fences[i]);
+				fences[i] = null;
+			}
+		}
+		GL15.glDeleteBuffers(buffer);
+	}
+
+}
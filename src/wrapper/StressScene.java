@@ -0,0 +1,102 @@
+package wrapper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Entity;
+import entities.EntityStore;
+import entities.Light;
+import entities.Player;
+import entities.Terrain;
+import models.RawModel;
+import models.TexturedModel;
+import tools.MeshGenerator;
+import tools.ModelData;
+import tools.OBJFileLoader;
+
+/**
+ * @author Andrei
+ * A made up scene with as many entities and lights as asked for, scattered over the default terrain.
+ * The same counts and seed always give the same scene. The entities are bunnies if res/bunny.obj is there,
+ * otherwise a generated blob with about as many triangles, so the scene doesn't depend on any model files.
+ */
+public class StressScene {
+
+	//the default terrain tile, and where the default scene puts the player
+	private static final float MIN = -800, MAX = 0;
+	private static final Vector3f PLAYER_START = new Vector3f(-400, 0, -750);
+
+	private final List<Terrain> terrains = new ArrayList<Terrain>();
+	private final List<Light> lights = new ArrayList<Light>();
+	private final List<Entity> entities = new ArrayList<Entity>();
+	private final Player player;
+	private ModelData playerMesh;
+
+	public StressScene(Loader loader, EntityStore store, int entityCount, int lightCount, long seed) {
+		Random random = new Random(seed);
+		ModelTexture floor = new ModelTexture(loader.loadTexture("floor"));
+		Terrain terrain = new Terrain(-1, -1, loader, floor, "heightmap");
+		terrains.add(terrain);
+
+		ModelTexture white = new ModelTexture(loader.loadTexture("white"));
+		white.setShineDamper(10);
+		white.setReflectivity(1);
+		TexturedModel model = new TexturedModel(loadBunny(loader), white);
+
+		player = new Player(store, model, new Vector3f(PLAYER_START), 0, 0, 0, 1);
+		for (int i = 0; i < entityCount; i++) {
+			float x = MIN + random.nextFloat() * (MAX - MIN);
+			float z = MIN + random.nextFloat() * (MAX - MIN);
+			entities.add(new Entity(store, model, new Vector3f(x, terrain.getHeightOfTerrain(x, z), z), 0,
+					random.nextFloat() * 360, 0, 0.5f + random.nextFloat()));
+		}
+
+		//the first light is the sun, like in the default scene, the others are coloured point lights
+		lights.add(new Light(new Vector3f(0, 10000, -7000), new Vector3f(0.4f, 0.4f, 0.4f)));
+		for (int i = 1; i < lightCount; i++) {
+			float x = MIN + random.nextFloat() * (MAX - MIN);
+			float z = MIN + random.nextFloat() * (MAX - MIN);
+			Vector3f colour = new Vector3f(random.nextFloat() * 2, random.nextFloat() * 2, random.nextFloat() * 2);
+			lights.add(new Light(new Vector3f(x, terrain.getHeightOfTerrain(x, z) + 20, z), colour,
+					new Vector3f(1, 0.01f, 0.002f)));
+		}
+	}
+
+	public List<Terrain> getTerrains() {
+		return terrains;
+	}
+
+	public List<Light> getLights() {
+		return lights;
+	}
+
+	//the generated entities, not counting the player
+	public List<Entity> getEntities() {
+		return entities;
+	}
+
+	public Player getPlayer() {
+		return player;
+	}
+
+	//what the player's model (and every entity's) was made from, for the impostor cache
+	public ModelData getPlayerMesh() {
+		return playerMesh;
+	}
+
+	private RawModel loadBunny(Loader loader) {
+		ModelData data;
+		if (new File("res/bunny.obj").exists()) {
+			data = OBJFileLoader.loadOBJ("bunny");
+		} else {
+			data = MeshGenerator.createBlob(48, 48, 2.5f, 0.15f); //4608 triangles
+		}
+		playerMesh = data;
+		return loader.loadToVAO(data.getVertices(), data.getTextureCoords(), data.getNormals(), data.getIndices());
+	}
+
+}
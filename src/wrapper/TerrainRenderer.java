@@ -8,11 +8,13 @@ import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL13;
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
 import org.lwjgl.util.vector.Matrix4f;
 import org.lwjgl.util.vector.Vector3f;
 
 import entities.Terrain;
 import shaders.TerrainShader;
+import tools.EngineEvents;
 import tools.Maths;
 
 /**
@@ -23,6 +25,14 @@ import tools.Maths;
 public class TerrainRenderer {
  
     private TerrainShader shader;
+    
+    //what the last render drew
+    private int drawCalls;
+    private long triangles;
+    private int vaoBinds;
+    
+    //the VAO that is bound, terrains in the same VertexArena page share it
+    private int boundVao;
  
     public TerrainRenderer(TerrainShader shader, Matrix4f projectionMatrix) {
         this.shader = shader;
@@ -33,32 +43,64 @@ public class TerrainRenderer {
     
     //the difference is that here we take a list of terrains
     public void render(List<Terrain> terrains) {
+        EngineEvents.DrawPass event = new EngineEvents.DrawPass();
+        event.begin();
+        triangles = 0;
+        vaoBinds = 0;
+        boundVao = 0;
         for (Terrain terrain : terrains) {
             prepareTerrain(terrain);
             loadModelMatrix(terrain);
-            GL11.glDrawElements(GL11.GL_TRIANGLES, terrain.getModel().getVertexCount(),
-                    GL11.GL_UNSIGNED_INT, 0);
-            unbindTexturedModel();
+            RawModel model = terrain.getModel();
+            GL32.glDrawElementsBaseVertex(GL11.GL_TRIANGLES, model.getVertexCount(),
+                    GL11.GL_UNSIGNED_INT, model.getIndexOffset(), model.getBaseVertex());
+            triangles += model.getVertexCount() / 3;
+        }
+        unbindVAO();
+        drawCalls = terrains.size();
+        event.end();
+        if (event.shouldCommit()) {
+            event.pass = "terrain";
+            event.batches = terrains.size();
+            event.drawCalls = terrains.size();
+            event.triangles = triangles;
+            event.commit();
         }
     }
  
+    public int getDrawCalls() {
+        return drawCalls;
+    }
+    
+    public long getTriangles() {
+        return triangles;
+    }
+    
+    public int getVaoBinds() {
+        return vaoBinds;
+    }
+ 
     private void prepareTerrain(Terrain terrain) {
         RawModel rawModel = terrain.getModel();
-        GL30.glBindVertexArray(rawModel.getVaoID());
-        GL20.glEnableVertexAttribArray(0);
-        GL20.glEnableVertexAttribArray(1);
-        GL20.glEnableVertexAttribArray(2);
+        rawModel.touch();
+        terrain.getTexture().touch();
+        if (rawModel.getVaoID() != boundVao) {
+            boundVao = rawModel.getVaoID();
+            vaoBinds++;
+            GL30.glBindVertexArray(boundVao);
+            GL20.glEnableVertexAttribArray(0);
+            GL20.glEnableVertexAttribArray(1);
+            GL20.glEnableVertexAttribArray(2);
+        }
         ModelTexture texture = terrain.getTexture();
         shader.loadShineVariables(texture.getShineDamper(), texture.getReflectivity());
         GL13.glActiveTexture(GL13.GL_TEXTURE0);
         GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture.getID());
     }
  
-    private void unbindTexturedModel() {
-        GL20.glDisableVertexAttribArray(0);
-        GL20.glDisableVertexAttribArray(1);
-        GL20.glDisableVertexAttribArray(2);
+    private void unbindVAO() {
         GL30.glBindVertexArray(0);
+        boundVao = 0;
     }
     
     //and here we don't set any rotations for the terrain
@@ -0,0 +1,34 @@
+package wrapper;
+
+import org.lwjgl.opengl.GL11;
+
+/**
+ * @author Andrei
+ * A texture and its mipmaps
+ */
+public class TextureResource extends GpuResource {
+
+	private final int texture;
+	//whether any pixel is transparent enough to be thrown away, the shader only tests for it if one is
+	private final boolean transparent;
+
+	public TextureResource(String name, int texture, boolean transparent) {
+		super(name);
+		this.texture = texture;
+		this.transparent = transparent;
+	}
+
+	public int getID() {
+		return texture;
+	}
+
+	public boolean isTransparent() {
+		return transparent;
+	}
+
+	@Override
+	protected void delete() {
+		GL11.glDeleteTextures(texture);
+	}
+
+}
@@ -0,0 +1,286 @@
+package wrapper;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+
+/**
+ * @author Andrei
+ * Keeps the meshes in a few big buffers instead of a VAO and four buffers each. All the meshes have the same
+ * vertex format (position, texture coordinates and normal, interleaved), so they can share one VAO: a mesh is
+ * just a range of vertices and a range of indices in it, drawn with glDrawElementsBaseVertex. Drawing a lot of
+ * different models then doesn't have to switch VAOs between them.
+ *
+ * The buffers are split into pages, when a page is full another one is made, big enough for the mesh if it is a
+ * really big one. The ranges are handed out by an ArenaAllocator for the vertices and one for the indices of
+ * every page.
+ *
+ * The pages are what takes the GPU memory, so they are what GpuResources counts, with their whole capacity. A mesh
+ * only takes a range of one, releasing it gives the range back to the page, and a page that has no meshes left is
+ * released as well (unless it is the last one).
+ *
+ * When meshes are released the free space ends up in pieces. Once it is more fragmented than
+ * -Ddreaming.arenaCompactAt (0.5 by default, 0 turns it off) the page is compacted: everything is copied to the
+ * front of new buffers on the GPU and the models are told where they are now.
+ */
+public class VertexArena {
+
+	//position, texture coordinates and normal
+	public static final int FLOATS_PER_VERTEX = 8;
+	public static final int VERTEX_BYTES = FLOATS_PER_VERTEX * 4;
+
+	private static final int DEFAULT_VERTICES = 1 << 18;
+	private static final int DEFAULT_INDICES = 1 << 20;
+	//a page with less free space than this isn't worth compacting
+	private static final int MIN_COMPACT_VERTICES = 1024;
+
+	private final GpuResources resources;
+	private final int pageVertices;
+	private final int pageIndices;
+	private final float compactAt = Float.parseFloat(System.getProperty("dreaming.arenaCompactAt", "0.5"));
+	private final List<Page> pages = new ArrayList<Page>();
+	private int compactions = 0;
+
+	public VertexArena(GpuResources resources) {
+		this(resources, DEFAULT_VERTICES, DEFAULT_INDICES);
+	}
+
+	public VertexArena(GpuResources resources, int pageVertices, int pageIndices) {
+		this.resources = resources;
+		this.pageVertices = pageVertices;
+		this.pageIndices = pageIndices;
+	}
+
+	//uploads a mesh into the first page with room for it, the arrays are the same as for Loader.loadToVAO
+	public ArenaAllocation allocate(String name, float[] positions, float[] textureCoords, float[] normals, int[] indices) {
+		int vertexCount = positions.length / 3;
+		Page page = null;
+		int vertexStart = -1, indexStart = -1;
+		for (Page candidate : pages) {
+			vertexStart = candidate.vertices.allocate(vertexCount);
+			if (vertexStart < 0) {
+				continue;
+			}
+			indexStart = candidate.indices.allocate(indices.length);
+			if (indexStart < 0) {
+				candidate.vertices.free(vertexStart);
+				continue;
+			}
+			page = candidate;
+			break;
+		}
+		if (page == null) { //no room anywhere, a new page that is big enough
+			page = resources.add(new Page("arena page " + pages.size(), Math.max(pageVertices, vertexCount),
+					Math.max(pageIndices, indices.length)));
+			pages.add(page);
+			vertexStart = page.vertices.allocate(vertexCount);
+			indexStart = page.indices.allocate(indices.length);
+		}
+		upload(page, vertexStart, indexStart, positions, textureCoords, normals, indices);
+		ArenaAllocation allocation = new ArenaAllocation(name, this, page.vao, vertexStart, vertexCount,
+				indexStart, indices.length);
+		page.allocations.add(allocation);
+		return allocation;
+	}
+
+	//called once at the end of every frame, compacts the pages that got too fragmented
+	public void endFrame() {
+		if (compactAt <= 0) {
+			return;
+		}
+		for (Page page : pages) {
+			if (page.vertices.getFree() >= MIN_COMPACT_VERTICES && (page.vertices.getFragmentation() > compactAt
+					|| page.indices.getFragmentation() > compactAt)) {
+				compact(page);
+			}
+		}
+	}
+
+	//compacts every page, whether it needs it or not
+	public void compact() {
+		for (Page page : pages) {
+			compact(page);
+		}
+	}
+
+	//how full and how fragmented every page is, the ranges in use against the memory the pages take
+	public String getReport() {
+		StringBuilder report = new StringBuilder();
+		long used = 0;
+		for (Page page : pages) {
+			used += (long) page.vertices.getUsed() * VERTEX_BYTES + 4L * page.indices.getUsed();
+		}
+		report.append(String.format("vertex arena: %d pages, %.1f MB allocated, %.1f MB used by meshes, %d compactions%n",
+				pages.size(), getBytes() / 1e6, used / 1e6, compactions));
+		for (int i = 0; i < pages.size(); i++) {
+			Page page = pages.get(i);
+			report.append(String.format("  page %d: %d meshes, vertices %s, indices %s%n", i,
+					page.allocations.size(), describe(page.vertices), describe(page.indices)));
+		}
+		return report.toString();
+	}
+
+	//the GPU memory of all the pages, used or not
+	public long getBytes() {
+		long bytes = 0;
+		for (Page page : pages) {
+			bytes += page.getTotalBytes();
+		}
+		return bytes;
+	}
+
+	public int getPageCount() {
+		return pages.size();
+	}
+
+	public int getCompactions() {
+		return compactions;
+	}
+
+	//forgets the pages, GpuResources deletes them with everything else when closing
+	public void cleanUp() {
+		pages.clear();
+	}
+
+	//for ArenaAllocation, once GpuResources deletes it
+	void free(ArenaAllocation allocation) {
+		for (Page page : pages) {
+			if (page.allocations.remove(allocation)) {
+				page.vertices.free(allocation.getBaseVertex());
+				page.indices.free(allocation.getFirstIndex());
+				//an empty page gives its memory back, after GpuResources.DELETE_DELAY frames like any other buffer
+				if (page.allocations.isEmpty() && pages.size() > 1 && !page.deleted) {
+					pages.remove(page);
+					page.release();
+				}
+				return;
+			}
+		}
+	}
+
+	private void upload(Page page, int vertexStart, int indexStart, float[] positions, float[] textureCoords,
+			float[] normals, int[] indices) {
+		int vertexCount = positions.length / 3;
+		FloatBuffer vertices = BufferUtils.createFloatBuffer(vertexCount * FLOATS_PER_VERTEX);
+		for (int i = 0; i < vertexCount; i++) { //interleaves the three arrays
+			vertices.put(positions, i * 3, 3);
+			vertices.put(textureCoords, i * 2, 2);
+			vertices.put(normals, i * 3, 3);
+		}
+		vertices.flip();
+		IntBuffer indexData = BufferUtils.createIntBuffer(indices.length);
+		indexData.put(indices);
+		indexData.flip();
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, page.vbo);
+		GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, (long) vertexStart * VERTEX_BYTES, vertices);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		GL30.glBindVertexArray(page.vao); //the index buffer is bound to the VAO, binding it without one would change nothing
+		GL15.glBufferSubData(GL15.GL_ELEMENT_ARRAY_BUFFER, (long) indexStart * 4, indexData);
+		GL30.glBindVertexArray(0);
+	}
+
+	//copies everything to the front of new buffers and points the VAO and the models at them
+	private void compact(Page page) {
+		final Map<Integer, Integer> vertexMoves = new HashMap<Integer, Integer>();
+		final Map<Integer, Integer> indexMoves = new HashMap<Integer, Integer>();
+		int vbo = GL15.glGenBuffers();
+		int ibo = GL15.glGenBuffers();
+		GL15.glBindBuffer(GL31.GL_COPY_READ_BUFFER, page.vbo);
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, vbo);
+		GL15.glBufferData(GL31.GL_COPY_WRITE_BUFFER, (long) page.vertices.getCapacity() * VERTEX_BYTES, GL15.GL_STATIC_DRAW);
+		page.vertices.compact((from, to, size) -> {
+			GL31.glCopyBufferSubData(GL31.GL_COPY_READ_BUFFER, GL31.GL_COPY_WRITE_BUFFER,
+					(long) from * VERTEX_BYTES, (long) to * VERTEX_BYTES, (long) size * VERTEX_BYTES);
+			vertexMoves.put(from, to);
+		});
+		GL15.glBindBuffer(GL31.GL_COPY_READ_BUFFER, page.ibo);
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, ibo);
+		GL15.glBufferData(GL31.GL_COPY_WRITE_BUFFER, (long) page.indices.getCapacity() * 4, GL15.GL_STATIC_DRAW);
+		page.indices.compact((from, to, size) -> {
+			GL31.glCopyBufferSubData(GL31.GL_COPY_READ_BUFFER, GL31.GL_COPY_WRITE_BUFFER,
+					(long) from * 4, (long) to * 4, (long) size * 4);
+			indexMoves.put(from, to);
+		});
+		GL15.glBindBuffer(GL31.GL_COPY_READ_BUFFER, 0);
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+		//the same VAO, so nothing that kept its ID has to change
+		GL15.glDeleteBuffers(page.vbo);
+		GL15.glDeleteBuffers(page.ibo);
+		page.vbo = vbo;
+		page.ibo = ibo;
+		page.bindBuffers();
+		for (ArenaAllocation allocation : page.allocations) {
+			allocation.moveTo(vertexMoves.get(allocation.getBaseVertex()), indexMoves.get(allocation.getFirstIndex()));
+		}
+		compactions++;
+	}
+
+	private static String describe(ArenaAllocator allocator) {
+		return String.format("%d/%d used, %d free blocks, largest %d, fragmentation %.2f", allocator.getUsed(),
+				allocator.getCapacity(), allocator.getFreeBlockCount(), allocator.getLargestFree(),
+				allocator.getFragmentation());
+	}
+
+	//one VAO with a vertex and an index buffer
+	private static class Page extends GpuResource {
+
+		private final int vao;
+		private int vbo;
+		private int ibo;
+		private final ArenaAllocator vertices;
+		private final ArenaAllocator indices;
+		private final List<ArenaAllocation> allocations = new ArrayList<ArenaAllocation>();
+		private boolean deleted = false; //when closing GpuResources can delete it before the meshes in it
+
+		private Page(String name, int vertexCapacity, int indexCapacity) {
+			super(name);
+			addBytes(Category.VERTEX, (long) vertexCapacity * VERTEX_BYTES);
+			addBytes(Category.INDEX, 4L * indexCapacity);
+			vertices = new ArenaAllocator(vertexCapacity);
+			indices = new ArenaAllocator(indexCapacity);
+			vao = GL30.glGenVertexArrays();
+			vbo = GL15.glGenBuffers();
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
+			GL15.glBufferData(GL15.GL_ARRAY_BUFFER, (long) vertexCapacity * VERTEX_BYTES, GL15.GL_STATIC_DRAW);
+			ibo = GL15.glGenBuffers();
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, ibo); //not the element array yet, there is no VAO bound
+			GL15.glBufferData(GL15.GL_ARRAY_BUFFER, (long) indexCapacity * 4, GL15.GL_STATIC_DRAW);
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+			bindBuffers();
+		}
+
+		//points the VAO at the buffers, the attributes stay enabled as part of it
+		private void bindBuffers() {
+			GL30.glBindVertexArray(vao);
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
+			GL20.glVertexAttribPointer(0, 3, GL11.GL_FLOAT, false, VERTEX_BYTES, 0);
+			GL20.glVertexAttribPointer(1, 2, GL11.GL_FLOAT, false, VERTEX_BYTES, 3 * 4);
+			GL20.glVertexAttribPointer(2, 3, GL11.GL_FLOAT, false, VERTEX_BYTES, 5 * 4);
+			GL20.glEnableVertexAttribArray(0);
+			GL20.glEnableVertexAttribArray(1);
+			GL20.glEnableVertexAttribArray(2);
+			GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, ibo);
+			GL30.glBindVertexArray(0);
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		}
+
+		@Override
+		protected void delete() {
+			deleted = true;
+			GL30.glDeleteVertexArrays(vao);
+			GL15.glDeleteBuffers(vbo);
+			GL15.glDeleteBuffers(ibo);
+		}
+	}
+
+}